@@ -0,0 +1,386 @@
+#include "dsp.h"
+#include "simd.h"
+
+#include <cmath>
+
+#if defined(__arm__) && (defined(__linux__) || defined(__ANDROID__))
+#include <sys/auxv.h>
+#include <asm/hwcap.h>
+#endif
+
+namespace dsp {
+
+namespace {
+
+const size_t ALIGNMENT = 16;
+const double PI = 3.14159265358979323846;
+
+size_t alignUp(size_t value) {
+    return (value + ALIGNMENT - 1) & ~(ALIGNMENT - 1);
+}
+
+// Carves aligned arrays from a memory block
+struct Arena {
+    uintptr_t next;
+
+    template <class T>
+    T *take(size_t count) {
+        T *result = reinterpret_cast<T *>(next);
+        next = alignUp(next + count * sizeof(T));
+        return result;
+    }
+};
+
+// Padding of work buffers, so vector loops may read a few values past the end
+const int PADDING = 4;
+
+// Places the kernel state and its arrays in a memory block, returns the end of the block
+uintptr_t layout(uintptr_t base, MelKernel *k, int nFft, int nMels, int weightCount) {
+    Arena arena{alignUp(base)};
+    arena.take<MelKernel>(1);
+    int half = nFft / 2;
+    k->bitReverse = arena.take<int32_t>(half);
+    k->window = arena.take<float>(nFft);
+    k->twiddleRe = arena.take<float>(half);
+    k->twiddleIm = arena.take<float>(half);
+    k->splitRe = arena.take<float>(half);
+    k->splitIm = arena.take<float>(half);
+    k->firstBins = arena.take<int32_t>(nMels);
+    k->bandLengths = arena.take<int32_t>(nMels);
+    k->bandOffsets = arena.take<int32_t>(nMels);
+    k->weights = arena.take<float>(weightCount + PADDING);
+    k->re = arena.take<float>(half + PADDING);
+    k->im = arena.take<float>(half + PADDING);
+    k->spectrumRe = arena.take<float>(half + 1 + PADDING);
+    k->spectrumIm = arena.take<float>(half + 1 + PADDING);
+    k->power = arena.take<float>(half + 1 + PADDING);
+    return arena.next;
+}
+
+// Complex FFT of half size, input is already in bit reversed order
+template <class S>
+void complexTransform(MelKernel *k) {
+    typedef typename S::V V;
+    float *re = k->re;
+    float *im = k->im;
+    int size = k->half;
+
+    for (int half = 1; half < size; half *= 2) {
+        const float *wRe = k->twiddleRe + half - 1;
+        const float *wIm = k->twiddleIm + half - 1;
+        for (int start = 0; start < size; start += half * 2) {
+            int kk = 0;
+            if (half >= 4) {
+                for (; kk < half; kk += 4) {
+                    int even = start + kk;
+                    int odd = even + half;
+                    V wr = S::load(wRe + kk);
+                    V wi = S::load(wIm + kk);
+                    V oddRe = S::load(re + odd);
+                    V oddIm = S::load(im + odd);
+                    V tr = S::sub(S::mul(oddRe, wr), S::mul(oddIm, wi));
+                    V ti = S::add(S::mul(oddRe, wi), S::mul(oddIm, wr));
+                    V evenRe = S::load(re + even);
+                    V evenIm = S::load(im + even);
+                    S::store(re + odd, S::sub(evenRe, tr));
+                    S::store(im + odd, S::sub(evenIm, ti));
+                    S::store(re + even, S::add(evenRe, tr));
+                    S::store(im + even, S::add(evenIm, ti));
+                }
+            }
+            for (; kk < half; kk++) {
+                int even = start + kk;
+                int odd = even + half;
+                float tr = re[odd] * wRe[kk] - im[odd] * wIm[kk];
+                float ti = re[odd] * wIm[kk] + im[odd] * wRe[kk];
+                re[odd] = re[even] - tr;
+                im[odd] = im[even] - ti;
+                re[even] += tr;
+                im[even] += ti;
+            }
+        }
+    }
+}
+
+// Split spectrum of the packed signal to spectra of even and odd samples, combine them and compute power
+template <class S>
+void splitSpectrum(MelKernel *k) {
+    typedef typename S::V V;
+    const float *zRe = k->re;
+    const float *zIm = k->im;
+    float *outRe = k->spectrumRe;
+    float *outIm = k->spectrumIm;
+    float *power = k->power;
+    int half = k->half;
+
+    outRe[0] = zRe[0] + zIm[0];
+    outIm[0] = 0;
+    outRe[half] = zRe[0] - zIm[0];
+    outIm[half] = 0;
+    power[0] = outRe[0] * outRe[0];
+    power[half] = outRe[half] * outRe[half];
+
+    V halfValue = S::set1(0.5f);
+    int bin = 1;
+    // Mirrored bins half - bin - 3 .. half - bin are loaded as one vector and reversed
+    for (; bin + 3 <= half - 1 && half - bin - 3 >= 1; bin += 4) {
+        V zr = S::load(zRe + bin);
+        V zi = S::load(zIm + bin);
+        V cr = S::reverse(S::load(zRe + half - bin - 3));
+        V negativeCi = S::reverse(S::load(zIm + half - bin - 3));
+
+        V evenRe = S::mul(S::add(zr, cr), halfValue);
+        V evenIm = S::mul(S::sub(zi, negativeCi), halfValue);
+        V oddRe = S::mul(S::add(zi, negativeCi), halfValue);
+        V oddIm = S::mul(S::sub(cr, zr), halfValue);
+
+        V wr = S::load(k->splitRe + bin);
+        V wi = S::load(k->splitIm + bin);
+        V re = S::add(evenRe, S::sub(S::mul(oddRe, wr), S::mul(oddIm, wi)));
+        V im = S::add(evenIm, S::add(S::mul(oddRe, wi), S::mul(oddIm, wr)));
+        S::store(outRe + bin, re);
+        S::store(outIm + bin, im);
+        S::store(power + bin, S::add(S::mul(re, re), S::mul(im, im)));
+    }
+    for (; bin < half; bin++) {
+        float zr = zRe[bin];
+        float zi = zIm[bin];
+        float cr = zRe[half - bin];
+        float ci = -zIm[half - bin];
+
+        float evenRe = (zr + cr) * 0.5f;
+        float evenIm = (zi + ci) * 0.5f;
+        float oddRe = (zi - ci) * 0.5f;
+        float oddIm = (cr - zr) * 0.5f;
+
+        float wr = k->splitRe[bin];
+        float wi = k->splitIm[bin];
+        float re = evenRe + oddRe * wr - oddIm * wi;
+        float im = evenIm + oddRe * wi + oddIm * wr;
+        outRe[bin] = re;
+        outIm[bin] = im;
+        power[bin] = re * re + im * im;
+    }
+}
+
+template <class S>
+float dot(const float *a, const float *b, int count) {
+    typedef typename S::V V;
+    V sum = S::set1(0);
+    int i = 0;
+    for (; i + 4 <= count; i += 4) {
+        sum = S::add(sum, S::mul(S::load(a + i), S::load(b + i)));
+    }
+    float result = S::horizontalSum(sum);
+    for (; i < count; i++) {
+        result += a[i] * b[i];
+    }
+    return result;
+}
+
+template <class S>
+void melFrame(MelKernel *k, const double *frame, float *mel,
+              const int32_t *excludedBins, int excludedCount, double *excludedSpectrum) {
+    // Window and pack even samples to real and odd samples to imaginary parts in bit reversed order
+    for (int i = 0; i < k->half; i++) {
+        int j = k->bitReverse[i];
+        k->re[j] = (float) frame[2 * i] * k->window[2 * i];
+        k->im[j] = (float) frame[2 * i + 1] * k->window[2 * i + 1];
+    }
+    complexTransform<S>(k);
+    splitSpectrum<S>(k);
+
+    for (int i = 0; i < excludedCount; i++) {
+        int bin = excludedBins[i];
+        excludedSpectrum[2 * i] = k->spectrumRe[bin];
+        excludedSpectrum[2 * i + 1] = k->spectrumIm[bin];
+        k->power[bin] = 0;
+    }
+
+    for (int band = 0; band < k->nMels; band++) {
+        mel[band] = dot<S>(k->weights + k->bandOffsets[band], k->power + k->firstBins[band], k->bandLengths[band]);
+    }
+}
+
+template <class S>
+float maxValue(const float *values, int count) {
+    // Same start as the Java loop, the smallest positive float
+    const float start = 1.4e-45f;
+    typename S::V maxVector = S::set1(start);
+    int i = 0;
+    for (; i + 4 <= count; i += 4) {
+        maxVector = S::max(maxVector, S::load(values + i));
+    }
+    float result = S::horizontalMax(maxVector);
+    for (; i < count; i++) {
+        if (values[i] > result) result = values[i];
+    }
+    return result;
+}
+
+// Natural logarithm of positive normal floats, Cephes logf polynomial
+template <class S>
+typename S::V naturalLog(typename S::V x) {
+    typedef typename S::V V;
+    typedef typename S::I I;
+    I bits = S::asInt(x);
+    V exponent = S::toFloat(S::subi(S::shiftRight23(bits), S::set1i(126)));
+    // Mantissa in [0.5, 1)
+    V mantissa = S::asFloat(S::ori(S::andi(bits, S::set1i(0x007fffff)), S::set1i(0x3f000000)));
+
+    // Keep the argument of the polynomial in [sqrt(0.5) - 1, sqrt(2) - 1]
+    V one = S::set1(1.0f);
+    V sqrtHalf = S::set1(0.707106781186547524f);
+    V zero = S::set1(0.0f);
+    exponent = S::sub(exponent, S::selectLess(mantissa, sqrtHalf, one, zero));
+    V value = S::add(S::sub(mantissa, one), S::selectLess(mantissa, sqrtHalf, mantissa, zero));
+
+    V z = S::mul(value, value);
+    V y = S::set1(7.0376836292e-2f);
+    y = S::add(S::mul(y, value), S::set1(-1.1514610310e-1f));
+    y = S::add(S::mul(y, value), S::set1(1.1676998740e-1f));
+    y = S::add(S::mul(y, value), S::set1(-1.2420140846e-1f));
+    y = S::add(S::mul(y, value), S::set1(1.4249322787e-1f));
+    y = S::add(S::mul(y, value), S::set1(-1.6668057665e-1f));
+    y = S::add(S::mul(y, value), S::set1(2.0000714765e-1f));
+    y = S::add(S::mul(y, value), S::set1(-2.4999993993e-1f));
+    y = S::add(S::mul(y, value), S::set1(3.3333331174e-1f));
+    y = S::mul(S::mul(y, value), z);
+
+    y = S::add(y, S::mul(exponent, S::set1(-2.12194440e-4f)));
+    y = S::sub(y, S::mul(z, S::set1(0.5f)));
+    value = S::add(value, y);
+    return S::add(value, S::mul(exponent, S::set1(0.693359375f)));
+}
+
+template <class S>
+void normalizedDb(float *values, int count, float refDb, float amin, float topDb, float mean, float std) {
+    typedef typename S::V V;
+    const float dbPerNeper = (float) (10 / std::log(10.0));
+    V dbScale = S::set1(dbPerNeper);
+    V aminVector = S::set1(amin);
+    V ref = S::set1(refDb);
+    V floor = S::set1(-topDb);
+    V meanVector = S::set1(mean);
+    V stdInverse = S::set1(1 / std);
+    int i = 0;
+    for (; i + 4 <= count; i += 4) {
+        V power = S::max(S::load(values + i), aminVector);
+        V db = S::sub(S::mul(naturalLog<S>(power), dbScale), ref);
+        db = S::max(db, floor);
+        S::store(values + i, S::mul(S::sub(db, meanVector), stdInverse));
+    }
+    for (; i < count; i++) {
+        float power = values[i] > amin ? values[i] : amin;
+        float db = (float) (10 * std::log10(power)) - refDb;
+        db = db > -topDb ? db : -topDb;
+        values[i] = (db - mean) / std;
+    }
+}
+
+template <class S>
+Kernels kernels() {
+    Kernels result = {S::name(), melFrame<S>, maxValue<S>, normalizedDb<S>};
+    return result;
+}
+
+bool cpuSupportsSimd() {
+#if FARTDETECTOR_SIMD_SSE2 && (defined(__GNUC__) || defined(__clang__))
+    __builtin_cpu_init();
+    return __builtin_cpu_supports("sse2");
+#elif FARTDETECTOR_SIMD_NEON && defined(__arm__) && (defined(__linux__) || defined(__ANDROID__))
+    return (getauxval(AT_HWCAP) & HWCAP_NEON) != 0;
+#elif FARTDETECTOR_SIMD_SSE2 || FARTDETECTOR_SIMD_NEON
+    // Part of the base instruction set of x86-64 and AArch64
+    return true;
+#else
+    return false;
+#endif
+}
+
+}
+
+size_t melKernelSize(int nFft, int nMels, int weightCount) {
+    MelKernel sizing;
+    // Reserve the worst case alignment of the block start
+    return layout(0, &sizing, nFft, nMels, weightCount) + ALIGNMENT;
+}
+
+MelKernel *melKernelAt(void *memory) {
+    return reinterpret_cast<MelKernel *>(alignUp(reinterpret_cast<uintptr_t>(memory)));
+}
+
+MelKernel *melKernelInit(void *memory, int nFft, const float *window, int nMels,
+                         const float *weights, const int32_t *firstBins, const int32_t *bandLengths) {
+    int weightCount = 0;
+    for (int band = 0; band < nMels; band++) {
+        weightCount += bandLengths[band];
+    }
+    MelKernel *k = melKernelAt(memory);
+    layout(reinterpret_cast<uintptr_t>(memory), k, nFft, nMels, weightCount);
+
+    int half = nFft / 2;
+    k->nFft = nFft;
+    k->half = half;
+    k->nMels = nMels;
+
+    int bits = 0;
+    while ((1 << bits) < half) {
+        bits++;
+    }
+    for (int i = 0; i < half; i++) {
+        int reversed = 0;
+        for (int bit = 0; bit < bits; bit++) {
+            reversed |= ((i >> bit) & 1) << (bits - 1 - bit);
+        }
+        k->bitReverse[i] = reversed;
+    }
+
+    for (int i = 0; i < nFft; i++) {
+        k->window[i] = window[i];
+    }
+    for (int stageHalf = 1; stageHalf < half; stageHalf *= 2) {
+        for (int i = 0; i < stageHalf; i++) {
+            double angle = PI * i / stageHalf;
+            k->twiddleRe[stageHalf - 1 + i] = (float) std::cos(angle);
+            k->twiddleIm[stageHalf - 1 + i] = (float) -std::sin(angle);
+        }
+    }
+    for (int i = 0; i < half; i++) {
+        double angle = 2 * PI * i / nFft;
+        k->splitRe[i] = (float) std::cos(angle);
+        k->splitIm[i] = (float) -std::sin(angle);
+    }
+
+    int offset = 0;
+    for (int band = 0; band < nMels; band++) {
+        k->firstBins[band] = firstBins[band];
+        k->bandLengths[band] = bandLengths[band];
+        k->bandOffsets[band] = offset;
+        for (int i = 0; i < bandLengths[band]; i++) {
+            k->weights[offset + i] = weights[offset + i];
+        }
+        offset += bandLengths[band];
+    }
+    for (int i = 0; i < PADDING; i++) {
+        k->weights[offset + i] = 0;
+    }
+    return k;
+}
+
+const Kernels &selectKernels(bool allowSimd) {
+    static const Kernels scalar = kernels<simd::Scalar>();
+#if FARTDETECTOR_SIMD_SSE2
+    static const Kernels vector = kernels<simd::Sse2>();
+#elif FARTDETECTOR_SIMD_NEON
+    static const Kernels vector = kernels<simd::Neon>();
+#endif
+#if FARTDETECTOR_SIMD_SSE2 || FARTDETECTOR_SIMD_NEON
+    if (allowSimd && cpuSupportsSimd()) {
+        return vector;
+    }
+#endif
+    return scalar;
+}
+
+}
@@ -0,0 +1,74 @@
+#ifndef FARTDETECTOR_DSP_H
+#define FARTDETECTOR_DSP_H
+
+#include <cstddef>
+#include <cstdint>
+
+namespace dsp {
+
+// Tables and work buffers of one mel spectrogram, placed in a memory block owned by Java
+// (a direct ByteBuffer), so the state is freed by the garbage collector with its owner.
+// Arrays point inside the same block.
+struct MelKernel {
+    int32_t nFft;
+    int32_t half;
+    int32_t nMels;
+
+    // Bit reversal of the half size complex FFT
+    int32_t *bitReverse;
+    float *window;
+    // Twiddles of the complex FFT, stage with butterflies of half size h starts at index h - 1
+    float *twiddleRe;
+    float *twiddleIm;
+    // Twiddles combining spectra of even and odd samples of the real signal
+    float *splitRe;
+    float *splitIm;
+
+    // Non-zero weights of each mel band, starting from the bin firstBins[band]
+    int32_t *firstBins;
+    int32_t *bandLengths;
+    int32_t *bandOffsets;
+    float *weights;
+
+    // Work buffers
+    float *re;
+    float *im;
+    float *spectrumRe;
+    float *spectrumIm;
+    float *power;
+};
+
+// Number of bytes for the kernel state, including alignment
+size_t melKernelSize(int nFft, int nMels, int weightCount);
+
+// Build tables in the memory block of melKernelSize bytes
+// window: nFft values, weights: concatenated band weights, bandLengths: number of weights of each band
+MelKernel *melKernelInit(void *memory, int nFft, const float *window, int nMels,
+                         const float *weights, const int32_t *firstBins, const int32_t *bandLengths);
+
+// Kernel state of a memory block initialized by melKernelInit
+MelKernel *melKernelAt(void *memory);
+
+// Implementation for one instruction set
+struct Kernels {
+    const char *name;
+
+    // Window, real FFT and power spectrum of a frame of nFft samples, projected on mel bands.
+    // Complex spectrum of excluded bins is written to excludedSpectrum as re, im pairs
+    // and their power isn't added to mel bands
+    void (*melFrame)(MelKernel *kernel, const double *frame, float *mel,
+                     const int32_t *excludedBins, int excludedCount, double *excludedSpectrum);
+
+    // Maximum of values, Java Float.MIN_VALUE for an empty array
+    float (*maxValue)(const float *values, int count);
+
+    // In place (10 * log10(max(value, amin)) - refDb), clamped at -topDb, then (db - mean) / std
+    void (*normalizedDb)(float *values, int count, float refDb, float amin, float topDb, float mean, float std);
+};
+
+// Best implementation the CPU supports, or the plain C++ one if allowSimd is false
+const Kernels &selectKernels(bool allowSimd);
+
+}
+
+#endif
@@ -1,8 +1,96 @@
 #include <jni.h>
-#include <string>
+
+#include <cmath>
+
+#include "dsp.h"
+
+// JNI bindings of com.example.fartdetector.NativeDsp
+
+namespace {
+
+const dsp::Kernels *kernels = &dsp::selectKernels(true);
+
+}
+
+extern "C"
+JNIEXPORT jstring JNICALL
+Java_com_example_fartdetector_NativeDsp_nativeSelect(JNIEnv *env, jclass, jboolean allowSimd) {
+    kernels = &dsp::selectKernels(allowSimd == JNI_TRUE);
+    return env->NewStringUTF(kernels->name);
+}
+
+extern "C"
+JNIEXPORT jint JNICALL
+Java_com_example_fartdetector_NativeDsp_nativeStateSize(JNIEnv *, jclass, jint nFft, jint nMels, jint weightCount) {
+    return (jint) dsp::melKernelSize(nFft, nMels, weightCount);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_fartdetector_NativeDsp_nativeInit(JNIEnv *env, jclass, jobject state, jint nFft,
+                                                   jfloatArray window, jfloatArray weights,
+                                                   jintArray firstBins, jintArray bandLengths) {
+    jint nMels = env->GetArrayLength(firstBins);
+    jfloat *windowValues = env->GetFloatArrayElements(window, nullptr);
+    jfloat *weightValues = env->GetFloatArrayElements(weights, nullptr);
+    jint *firstBinValues = env->GetIntArrayElements(firstBins, nullptr);
+    jint *lengthValues = env->GetIntArrayElements(bandLengths, nullptr);
+
+    dsp::melKernelInit(env->GetDirectBufferAddress(state), nFft, windowValues, nMels,
+                       weightValues, firstBinValues, lengthValues);
+
+    env->ReleaseIntArrayElements(bandLengths, lengthValues, JNI_ABORT);
+    env->ReleaseIntArrayElements(firstBins, firstBinValues, JNI_ABORT);
+    env->ReleaseFloatArrayElements(weights, weightValues, JNI_ABORT);
+    env->ReleaseFloatArrayElements(window, windowValues, JNI_ABORT);
+}
 
 extern "C"
 JNIEXPORT void JNICALL
-Java_com_example_fartdetector_MainActivity_test(JNIEnv *env, jobject thiz) {
-    // TODO: implement test()
-}
\ No newline at end of file
+Java_com_example_fartdetector_NativeDsp_nativeMelFrame(JNIEnv *env, jclass, jobject state, jdoubleArray frame,
+                                                       jfloatArray mel, jintArray excludedBins,
+                                                       jdoubleArray excludedSpectrum) {
+    dsp::MelKernel *kernel = dsp::melKernelAt(env->GetDirectBufferAddress(state));
+    jint excludedCount = env->GetArrayLength(excludedBins);
+
+    // No JNI calls until the arrays are released
+    auto *frameValues = (jdouble *) env->GetPrimitiveArrayCritical(frame, nullptr);
+    auto *melValues = (jfloat *) env->GetPrimitiveArrayCritical(mel, nullptr);
+    jint *binValues = nullptr;
+    jdouble *spectrumValues = nullptr;
+    if (excludedCount > 0) {
+        binValues = (jint *) env->GetPrimitiveArrayCritical(excludedBins, nullptr);
+        spectrumValues = (jdouble *) env->GetPrimitiveArrayCritical(excludedSpectrum, nullptr);
+    }
+
+    kernels->melFrame(kernel, frameValues, melValues, binValues, excludedCount, spectrumValues);
+
+    if (excludedCount > 0) {
+        env->ReleasePrimitiveArrayCritical(excludedSpectrum, spectrumValues, 0);
+        env->ReleasePrimitiveArrayCritical(excludedBins, binValues, JNI_ABORT);
+    }
+    env->ReleasePrimitiveArrayCritical(mel, melValues, 0);
+    env->ReleasePrimitiveArrayCritical(frame, frameValues, JNI_ABORT);
+}
+
+extern "C"
+JNIEXPORT void JNICALL
+Java_com_example_fartdetector_NativeDsp_nativePowerToNormalizedDb(JNIEnv *env, jclass, jobjectArray spectrogram,
+                                                                  jobject destination, jfloat amin, jfloat topDb,
+                                                                  jfloat mean, jfloat std) {
+    auto *values = (jfloat *) env->GetDirectBufferAddress(destination);
+    jint rows = env->GetArrayLength(spectrogram);
+    jint width = 0;
+    // Rows are copied to the destination, which is then converted in place
+    for (jint i = 0; i < rows; i++) {
+        auto row = (jfloatArray) env->GetObjectArrayElement(spectrogram, i);
+        width = env->GetArrayLength(row);
+        env->GetFloatArrayRegion(row, 0, width, values + i * width);
+        env->DeleteLocalRef(row);
+    }
+
+    jint count = rows * width;
+    float maxValue = kernels->maxValue(values, count);
+    float refDb = (float) (10 * std::log10(maxValue > amin ? maxValue : amin));
+    kernels->normalizedDb(values, count, refDb, amin, topDb, mean, std);
+}
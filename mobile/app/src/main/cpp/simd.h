@@ -0,0 +1,156 @@
+#ifndef FARTDETECTOR_SIMD_H
+#define FARTDETECTOR_SIMD_H
+
+// Vectors of 4 floats with the operations the DSP kernels need.
+// Kernels are templates over the vector type, so the same code is compiled
+// for plain C++ and for the instruction set available on the target.
+
+#include <cstdint>
+#include <cstring>
+
+#if defined(__SSE2__)
+#include <emmintrin.h>
+#define FARTDETECTOR_SIMD_SSE2 1
+#elif defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define FARTDETECTOR_SIMD_NEON 1
+#endif
+
+namespace simd {
+
+// Portable implementation, also the reference for the vector ones
+struct Scalar {
+    struct V {
+        float v[4];
+    };
+    struct I {
+        int32_t v[4];
+    };
+
+    static const char *name() { return "scalar"; }
+
+    static V load(const float *p) {
+        V r;
+        std::memcpy(r.v, p, sizeof(r.v));
+        return r;
+    }
+    static void store(float *p, V a) { std::memcpy(p, a.v, sizeof(a.v)); }
+    static V set1(float x) { return V{{x, x, x, x}}; }
+#define SCALAR_OP(NAME, EXPR) \
+    static V NAME(V a, V b) { V r; for (int i = 0; i < 4; i++) r.v[i] = (EXPR); return r; }
+    SCALAR_OP(add, a.v[i] + b.v[i])
+    SCALAR_OP(sub, a.v[i] - b.v[i])
+    SCALAR_OP(mul, a.v[i] * b.v[i])
+    SCALAR_OP(max, a.v[i] > b.v[i] ? a.v[i] : b.v[i])
+#undef SCALAR_OP
+    // Elements in reverse order
+    static V reverse(V a) { return V{{a.v[3], a.v[2], a.v[1], a.v[0]}}; }
+    static float horizontalSum(V a) { return (a.v[0] + a.v[1]) + (a.v[2] + a.v[3]); }
+    static float horizontalMax(V a) {
+        float m0 = a.v[0] > a.v[1] ? a.v[0] : a.v[1];
+        float m1 = a.v[2] > a.v[3] ? a.v[2] : a.v[3];
+        return m0 > m1 ? m0 : m1;
+    }
+
+    // Integer operations for bit manipulation of floats
+    static I asInt(V a) { I r; std::memcpy(r.v, a.v, sizeof(r.v)); return r; }
+    static V asFloat(I a) { V r; std::memcpy(r.v, a.v, sizeof(r.v)); return r; }
+    static I set1i(int32_t x) { return I{{x, x, x, x}}; }
+    static I andi(I a, I b) { I r; for (int i = 0; i < 4; i++) r.v[i] = a.v[i] & b.v[i]; return r; }
+    static I ori(I a, I b) { I r; for (int i = 0; i < 4; i++) r.v[i] = a.v[i] | b.v[i]; return r; }
+    static I subi(I a, I b) { I r; for (int i = 0; i < 4; i++) r.v[i] = a.v[i] - b.v[i]; return r; }
+    static I shiftRight23(I a) {
+        I r;
+        for (int i = 0; i < 4; i++) r.v[i] = (int32_t) ((uint32_t) a.v[i] >> 23);
+        return r;
+    }
+    static V toFloat(I a) { V r; for (int i = 0; i < 4; i++) r.v[i] = (float) a.v[i]; return r; }
+    // a < b ? x : y
+    static V selectLess(V a, V b, V x, V y) {
+        V r;
+        for (int i = 0; i < 4; i++) r.v[i] = a.v[i] < b.v[i] ? x.v[i] : y.v[i];
+        return r;
+    }
+};
+
+#if FARTDETECTOR_SIMD_SSE2
+struct Sse2 {
+    typedef __m128 V;
+    typedef __m128i I;
+
+    static const char *name() { return "sse2"; }
+
+    static V load(const float *p) { return _mm_loadu_ps(p); }
+    static void store(float *p, V a) { _mm_storeu_ps(p, a); }
+    static V set1(float x) { return _mm_set1_ps(x); }
+    static V add(V a, V b) { return _mm_add_ps(a, b); }
+    static V sub(V a, V b) { return _mm_sub_ps(a, b); }
+    static V mul(V a, V b) { return _mm_mul_ps(a, b); }
+    static V max(V a, V b) { return _mm_max_ps(a, b); }
+    static V reverse(V a) { return _mm_shuffle_ps(a, a, _MM_SHUFFLE(0, 1, 2, 3)); }
+    static float horizontalSum(V a) {
+        V pairs = _mm_add_ps(a, _mm_movehl_ps(a, a));
+        return _mm_cvtss_f32(_mm_add_ss(pairs, _mm_shuffle_ps(pairs, pairs, 1)));
+    }
+    static float horizontalMax(V a) {
+        V pairs = _mm_max_ps(a, _mm_movehl_ps(a, a));
+        return _mm_cvtss_f32(_mm_max_ss(pairs, _mm_shuffle_ps(pairs, pairs, 1)));
+    }
+
+    static I asInt(V a) { return _mm_castps_si128(a); }
+    static V asFloat(I a) { return _mm_castsi128_ps(a); }
+    static I set1i(int32_t x) { return _mm_set1_epi32(x); }
+    static I andi(I a, I b) { return _mm_and_si128(a, b); }
+    static I ori(I a, I b) { return _mm_or_si128(a, b); }
+    static I subi(I a, I b) { return _mm_sub_epi32(a, b); }
+    static I shiftRight23(I a) { return _mm_srli_epi32(a, 23); }
+    static V toFloat(I a) { return _mm_cvtepi32_ps(a); }
+    static V selectLess(V a, V b, V x, V y) {
+        V mask = _mm_cmplt_ps(a, b);
+        return _mm_or_ps(_mm_and_ps(mask, x), _mm_andnot_ps(mask, y));
+    }
+};
+#endif
+
+#if FARTDETECTOR_SIMD_NEON
+struct Neon {
+    typedef float32x4_t V;
+    typedef int32x4_t I;
+
+    static const char *name() { return "neon"; }
+
+    static V load(const float *p) { return vld1q_f32(p); }
+    static void store(float *p, V a) { vst1q_f32(p, a); }
+    static V set1(float x) { return vdupq_n_f32(x); }
+    static V add(V a, V b) { return vaddq_f32(a, b); }
+    static V sub(V a, V b) { return vsubq_f32(a, b); }
+    static V mul(V a, V b) { return vmulq_f32(a, b); }
+    static V max(V a, V b) { return vmaxq_f32(a, b); }
+    static V reverse(V a) {
+        V swapped = vrev64q_f32(a);
+        return vcombine_f32(vget_high_f32(swapped), vget_low_f32(swapped));
+    }
+    static float horizontalSum(V a) {
+        float32x2_t pairs = vadd_f32(vget_low_f32(a), vget_high_f32(a));
+        return vget_lane_f32(vpadd_f32(pairs, pairs), 0);
+    }
+    static float horizontalMax(V a) {
+        float32x2_t pairs = vmax_f32(vget_low_f32(a), vget_high_f32(a));
+        return vget_lane_f32(vpmax_f32(pairs, pairs), 0);
+    }
+
+    static I asInt(V a) { return vreinterpretq_s32_f32(a); }
+    static V asFloat(I a) { return vreinterpretq_f32_s32(a); }
+    static I set1i(int32_t x) { return vdupq_n_s32(x); }
+    static I andi(I a, I b) { return vandq_s32(a, b); }
+    static I ori(I a, I b) { return vorrq_s32(a, b); }
+    static I subi(I a, I b) { return vsubq_s32(a, b); }
+    static I shiftRight23(I a) { return vreinterpretq_s32_u32(vshrq_n_u32(vreinterpretq_u32_s32(a), 23)); }
+    static V toFloat(I a) { return vcvtq_f32_s32(a); }
+    static V selectLess(V a, V b, V x, V y) { return vbslq_f32(vcltq_f32(a, b), x, y); }
+};
+#endif
+
+}
+
+#endif
@@ -4,46 +4,118 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.os.ParcelUuid;
-import android.util.Log;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Set;
 
-public class HCConnector {
+/***
+ * RFCOMM link to the HC-06 module of the spray.
+ * Connected and written by CommandChannel on its writer thread.
+ */
+public class HCConnector implements CommandTransport {
 
-    private BluetoothAdapter bluetoothAdapter;
-    private OutputStream outputStream = null;
+    private static final String DEVICE_NAME = "HC-06";
 
-    public HCConnector() throws Exception {
+    private final BluetoothAdapter bluetoothAdapter;
+    // Guarded by this, close may be called by another thread while connect blocks
+    private BluetoothSocket socket = null;
+    private volatile OutputStream outputStream = null;
+    // Number of close calls, a connection attempt started before the last one is aborted
+    private long closes = 0;
+
+    public HCConnector() {
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    }
 
-        if (!bluetoothAdapter.isEnabled()) {
-            throw new Exception("Bluetooth is disabled");
+    @Override
+    public void connect() throws IOException {
+        long generation;
+        synchronized (this) {
+            closeSocket();
+            generation = closes;
+        }
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            throw new IOException("Bluetooth is disabled");
         }
 
+        try {
+            connectDevice(generation);
+        } catch (SecurityException e) {
+            // BLUETOOTH_CONNECT is a runtime permission since Android 12
+            throw new IOException("Bluetooth permission is not granted", e);
+        }
+    }
+
+    private void connectDevice(long generation) throws IOException {
         Set<BluetoothDevice> pairedDevices = bluetoothAdapter.getBondedDevices();
 
-        if (pairedDevices.size() <= 0) {
-            throw new Exception("No bluetooth devices found");
+        if (pairedDevices == null || pairedDevices.size() <= 0) {
+            throw new IOException("No bluetooth devices found");
         }
 
         for (BluetoothDevice device : pairedDevices) {
             String deviceName = device.getName();
-            if (deviceName.equals("HC-06")) {
+            if (DEVICE_NAME.equals(deviceName)) {
                 ParcelUuid[] uuids = device.getUuids();
-                BluetoothSocket socket = device.createRfcommSocketToServiceRecord(uuids[0].getUuid());
-                socket.connect();
-                outputStream = socket.getOutputStream();
+                if (uuids == null || uuids.length == 0) {
+                    throw new IOException(DEVICE_NAME + " services are unknown");
+                }
+                BluetoothSocket deviceSocket = device.createRfcommSocketToServiceRecord(uuids[0].getUuid());
+                // Published before connect, so close can abort it; unless close came first
+                synchronized (this) {
+                    if (closes != generation) {
+                        closeQuietly(deviceSocket);
+                        throw new IOException("Connector is closed");
+                    }
+                    socket = deviceSocket;
+                }
+                deviceSocket.connect();
+                synchronized (this) {
+                    if (socket != deviceSocket) {
+                        closeQuietly(deviceSocket);
+                        throw new IOException("Connector is closed");
+                    }
+                    outputStream = deviceSocket.getOutputStream();
+                }
+                return;
             }
         }
 
-        if (outputStream == null) {
-            throw new Exception("HC-06 device is not found");
+        throw new IOException(DEVICE_NAME + " device is not found");
+    }
+
+    @Override
+    public void write(byte[] data) throws IOException {
+        // Read once, close may clear it on another thread
+        OutputStream output = outputStream;
+        if (output == null) {
+            throw new IOException("Not connected");
+        }
+        output.write(data);
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() {
+        closes++;
+        closeSocket();
+    }
+
+    private synchronized void closeSocket() {
+        BluetoothSocket current = socket;
+        socket = null;
+        outputStream = null;
+        if (current != null) {
+            closeQuietly(current);
         }
     }
 
-    public void sendValue(String value) throws IOException {
-        outputStream.write(value.getBytes());
+    private static void closeQuietly(BluetoothSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Socket is already broken
+        }
     }
 }
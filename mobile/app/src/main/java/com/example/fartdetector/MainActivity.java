@@ -1,10 +1,10 @@
 package com.example.fartdetector;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.pm.PackageManager;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
+import android.media.AudioManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
@@ -14,61 +14,71 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 
 import com.example.fartdetector.databinding.ActivityMainBinding;
-import com.example.fartdetector.ml.FartDetector;
-import com.jlibrosa.audio.JLibrosa;
-
-import org.tensorflow.lite.DataType;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 
 public class MainActivity extends AppCompatActivity {
 
     // Sound settings
     private static final int REQUEST_RECORD_AUDIO_PERMISSION = 200;
-    private static final int RECORDER_SAMPLERATE = 16000;
-    private static final int BYTES_PER_ELEMENT = 2;
-    private static final int SECONDS_TO_PROCESS = 2;
-    private static final int RECORDER_CHANNELS = AudioFormat.CHANNEL_IN_MONO;
-    private static final int RECORDER_AUDIO_ENCODING = AudioFormat.ENCODING_PCM_16BIT;
-
-    // Spectrogram settings
-    private static final int N_FFT = 1024;
-    private static final int N_MELS = 128;
-    private static final int HOP_LENGTH = 128;
+    // Rate of the audio the detector gets, capture runs at the native rate and is resampled to it
+    private static final int RECORDER_SAMPLERATE = DetectionPipeline.SAMPLE_RATE;
 
     // Sound thread variable
-    private AudioRecord recorder = null;
+    private AudioSource audioSource = null;
     private Thread recordingThread = null;
-    private boolean isRecording = false;
-    private int bufferSize = 0;
+    private volatile boolean isRecording = false;
     private RingAudioBuffer buffer;
 
     // Spectrogram visualization
-    private Timer redrawTimer;
-    private JLibrosa librosa = new JLibrosa();
+    private DetectionScheduler detectionScheduler;
+    // Skips detection ticks while the room is quiet
+    private ActivityGate activityGate;
+
+    // Latency of every stage, dumped when recording stops
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private static final int METRICS_PORT = 8089;
+    private MetricsHttpServer metricsServer;
+    // Audio, scores and spray triggers of the last minutes in debug builds, replayed with FlightRecording
+    private FlightRecorder flightRecorder;
+    private static final String FLIGHT_DIRECTORY = "flight";
+    // System.nanoTime when the newest audio chunk and the audio of the last detection were read
+    private volatile long lastAudioTime = 0;
+    private volatile long windowAudioTime = 0;
+    // Stream position of the window of the last detection
+    private volatile long windowTotalSamples = 0;
     private static final int REDRAW_INTERVAL = 200; // ms
-
-    // Requesting permission to RECORD_AUDIO
+    // Failed audio reads are retried after a growing pause, recording stops after too many in a row
+    private static final int READ_RETRY_MIN_DELAY = 10; // ms
+    private static final int READ_RETRY_MAX_DELAY = 320; // ms
+    private static final int MAX_READ_ERRORS = 20;
+    // Time stopRecording waits for the audio thread, it only pushes to the ring buffer while no other one does
+    private static final int RECORDING_STOP_TIMEOUT = 500; // ms
+
+    // Requesting permission to RECORD_AUDIO, and to BLUETOOTH_CONNECT for the spray since Android 12.
+    // RECORD_AUDIO goes first, the result is checked by its index
     private boolean permissionToRecordAccepted = false;
-    private final String[] permissions = {
-            Manifest.permission.RECORD_AUDIO
-    };
+    private final String[] permissions = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+            ? new String[]{Manifest.permission.RECORD_AUDIO, Manifest.permission.BLUETOOTH_CONNECT}
+            : new String[]{Manifest.permission.RECORD_AUDIO};
 
     // Fart detector
-    private static final int MODEL_INPUT_W = 251;
-    private static final int MODEL_INPUT_H = 128;
     private static final float DETECTION_THRESHOLD = 0.8f;
-    FartDetector tfliteModel;
-    TensorBuffer inputFeature0;
+    private DetectorLoader detectorLoader;
+    // Created by the scheduler thread when the detector is ready
+    private DetectionPipeline pipeline;
+    // Scores windows while the scheduler thread computes features of the next one
+    private volatile InferenceStage inferenceStage;
 
-    // Bluetooth
-    private HCConnector bluetoothSpray;
+    // Bluetooth commands are written and reconnected on their own thread
+    private CommandChannel sprayChannel;
 
     private ActivityMainBinding binding;
 
@@ -81,77 +91,168 @@ public class MainActivity extends AppCompatActivity {
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
-        try {
-            bluetoothSpray = new HCConnector();
-        } catch (Exception e) {
-            Toast toast = Toast.makeText(getApplicationContext(), e.getMessage(), Toast.LENGTH_SHORT);
-            toast.show();
-        }
-
-        buffer = new RingAudioBuffer(RECORDER_SAMPLERATE * SECONDS_TO_PROCESS);
+        // Connecting to the spray blocks, so it is done by the channel thread
+        sprayChannel = new CommandChannel(new HCConnector());
+        sprayChannel.setMetrics(metrics);
+        sprayChannel.setListener(new CommandChannel.Listener() {
+            @Override
+            public void onConnected() {
+                Log.i("Spray", "Connected");
+            }
 
-        try {
-            tfliteModel = FartDetector.newInstance(getApplicationContext());
-            inputFeature0 = TensorBuffer.createFixedSize(
-                    new int[]{1, MODEL_INPUT_H, MODEL_INPUT_W, 1},
-                    DataType.FLOAT32
-            );
-        } catch (IOException e) {
-            Log.e("TFLite model", "Can't load tflite model");
-            e.printStackTrace();
-        }
+            @Override
+            public void onDisconnected(IOException error) {
+                Toast.makeText(getApplicationContext(), error.getMessage(), Toast.LENGTH_SHORT).show();
+            }
+        }, ContextCompat.getMainExecutor(this));
+        sprayChannel.start();
 
-        // Setup time to redraw spectrogram
-        redrawTimer = new Timer();
-        redrawTimer.scheduleAtFixedRate(new TimerTask() {
-            private int showTitleTimer = 0;
+        buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+        Log.i("DSP", "Feature kernels: " + NativeDsp.getImplementation());
 
+        // Model is loaded and warmed up in background, detection starts when it is ready
+        detectorLoader = new DetectorLoader(new Detector.Factory() {
             @Override
-            public void run() {
-                // Get and redraw spectrogram
-                float[][] spectrogram = spectrogramUpdate();
-                float[] flattenedSpectrogam = flattenSpectrogram(spectrogram);
+            public Detector create() throws Exception {
+                // Quantized model is used when it is bundled, it is faster on low-end devices
+                if (QuantizedTFLiteDetector.isBundled(getApplicationContext())) {
+                    return new QuantizedTFLiteDetector(getApplicationContext());
+                }
+                return new TFLiteDetector(getApplicationContext());
+            }
+        }, new DetectorLoader.Listener() {
+            @Override
+            public void onReady(Detector detector) {
+                Log.i("TFLite model", "Model loaded in " + detectorLoader.getLoadMillis()
+                        + " ms, warmed up in " + detectorLoader.getWarmUpMillis() + " ms");
+            }
 
-                inputFeature0.loadArray(flattenedSpectrogam);
+            @Override
+            public void onFailed(Exception error) {
+                Log.e("TFLite model", "Can't load tflite model", error);
+                Toast.makeText(getApplicationContext(), "Can't load model", Toast.LENGTH_LONG).show();
+            }
+        }, ContextCompat.getMainExecutor(this));
+        detectorLoader.start();
 
-                // Runs model inference and gets result.
-                FartDetector.Outputs outputs = tfliteModel.process(inputFeature0);
-                TensorBuffer fartPrediction = outputs.getOutputFeature0AsTensorBuffer();
+        // Detection runs when new audio arrives, not more often than REDRAW_INTERVAL
+        detectionScheduler = new DetectionScheduler(new DetectionScheduler.Detection() {
+            private int showTitleTimer = 0;
 
-                float score = fartPrediction.getFloatValue(0);
-                // Send signal to the spray
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        ((ProgressBar)findViewById(R.id.fartometr)).setProgress((int) (score * 100));
-                        if (score> DETECTION_THRESHOLD) {
-                            if (showTitleTimer == 0) {
-                                findViewById(R.id.fartAlarm).setVisibility(View.VISIBLE);
-                                try {
-                                    bluetoothSpray.sendValue("1");
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
+            @Override
+            public float compute() {
+                if (pipeline == null) {
+                    Detector detector = detectorLoader.getDetector();
+                    if (detector == null) {
+                        // Model is still loading
+                        return 0;
+                    }
+                    pipeline = new DetectionPipeline(detector);
+                    pipeline.setMetrics(metrics);
+                    // Full window after start or a gap is split between the cores
+                    pipeline.setParallel(ForkJoinPool.commonPool());
+                    inferenceStage = new InferenceStage(detector, new InferenceStage.Listener() {
+                        @Override
+                        public void onScore(long totalSamples, float score) {
+                            windowTotalSamples = totalSamples;
+                            if (flightRecorder != null) {
+                                flightRecorder.recordScore(totalSamples, score);
                             }
-                            showTitleTimer = 5;
+                            detectionScheduler.publish(score);
                         }
+                    });
+                    inferenceStage.setMetrics(metrics);
+                    inferenceStage.start();
+                    pipeline.setInferenceStage(inferenceStage);
+                }
+
+                // Build features of the latest audio, the score is published by the inference stage.
+                // Audio time of the newest window, at most one tick newer than the scored one
+                windowAudioTime = lastAudioTime;
+                float score = pipeline.process(buffer);
+                // Cached score means the window and its spectrogram didn't change
+                if (!pipeline.isCacheHit()) {
+                    spectrogramUpdate();
+                }
+                return score;
+            }
 
-                        if (showTitleTimer > 0) {
-                            showTitleTimer -= 1;
-                        }
-                        if (showTitleTimer == 0) {
-                            findViewById(R.id.fartAlarm).setVisibility(View.INVISIBLE);
+            @Override
+            public void publish(float score) {
+                findViewById(R.id.spectrogramView).invalidate();
+
+                // Send signal to the spray
+                ((ProgressBar)findViewById(R.id.fartometr)).setProgress((int) (score * 100));
+                if (score> DETECTION_THRESHOLD) {
+                    if (showTitleTimer == 0) {
+                        findViewById(R.id.fartAlarm).setVisibility(View.VISIBLE);
+                        sprayChannel.send("1", windowAudioTime);
+                        if (flightRecorder != null) {
+                            flightRecorder.recordTrigger(windowTotalSamples, score);
                         }
                     }
-                });
+                    showTitleTimer = 5;
+                }
+
+                if (showTitleTimer > 0) {
+                    showTitleTimer -= 1;
+                }
+                if (showTitleTimer == 0) {
+                    findViewById(R.id.fartAlarm).setVisibility(View.INVISIBLE);
+                }
+            }
+        }, ContextCompat.getMainExecutor(this), REDRAW_INTERVAL);
+        activityGate = new ActivityGate(RECORDER_SAMPLERATE);
+        detectionScheduler.setGate(activityGate);
+        detectionScheduler.setMetrics(metrics);
+
+        // Metrics for adb forward tcp:8089 tcp:8089 and the flight recorder in debug builds
+        if (BuildConfig.DEBUG) {
+            try {
+                metricsServer = new MetricsHttpServer(metrics, METRICS_PORT);
+            } catch (IOException e) {
+                Log.w("Metrics", "Can't start metrics server", e);
             }
-        }, REDRAW_INTERVAL, REDRAW_INTERVAL);
+            try {
+                flightRecorder = new FlightRecorder(new File(getFilesDir(), FLIGHT_DIRECTORY), RECORDER_SAMPLERATE);
+            } catch (IOException e) {
+                Log.w("FlightRecorder", "Can't start flight recorder", e);
+            }
+        }
+    }
 
-        // Get minimal buffer size
-        bufferSize = AudioRecord.getMinBufferSize(
-                RECORDER_SAMPLERATE,
-                RECORDER_CHANNELS,
-                RECORDER_AUDIO_ENCODING);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        detectionScheduler.stop();
+        if (inferenceStage != null) {
+            inferenceStage.stop();
+        }
+        sprayChannel.close();
+        if (flightRecorder != null) {
+            flightRecorder.close();
+        }
+        if (metricsServer != null) {
+            try {
+                metricsServer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Write metrics to logcat and to metrics.txt in the application files directory
+     */
+    private void dumpMetrics() {
+        for (String line : metrics.dump().split("\n")) {
+            Log.i("Metrics", line);
+        }
+        try {
+            metrics.dump(new File(getFilesDir(), "metrics.txt"));
+        } catch (IOException e) {
+            Log.w("Metrics", "Can't write metrics file", e);
+        }
     }
 
     /**
@@ -190,7 +291,9 @@ public class MainActivity extends AppCompatActivity {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         switch (requestCode) {
             case REQUEST_RECORD_AUDIO_PERMISSION:
-                permissionToRecordAccepted = grantResults[0] == PackageManager.PERMISSION_GRANTED;
+                // Without BLUETOOTH_CONNECT the spray channel reports the failure and keeps retrying
+                permissionToRecordAccepted = grantResults.length > 0
+                        && grantResults[0] == PackageManager.PERMISSION_GRANTED;
                 break;
         }
         if (!permissionToRecordAccepted) finish();
@@ -212,93 +315,168 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        // Create audio recorder
-        recorder = new AudioRecord.Builder()
-                .setAudioSource(MediaRecorder.AudioSource.UNPROCESSED)
-                .setAudioFormat(new AudioFormat.Builder()
-                        .setEncoding(RECORDER_AUDIO_ENCODING)
-                        .setSampleRate(RECORDER_SAMPLERATE)
-                        .setChannelMask(RECORDER_CHANNELS)
-                        .build())
-                .setBufferSizeInBytes(bufferSize)
-                .build();
-
-        recorder.startRecording();
+        // Ring buffer has a single producer, the audio thread of the previous recording must be gone
+        if (recordingThread != null && recordingThread.isAlive()) {
+            Toast.makeText(getApplicationContext(), "Audio recorder is still stopping", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        recordingThread = null;
+
+        // Create audio recorder at the native rate, the platform doesn't have to resample
+        int nativeRate = nativeSampleRate();
+        audioSource = nativeRate > RECORDER_SAMPLERATE
+                ? new ResamplingAudioSource(new MicrophoneAudioSource(nativeRate), RECORDER_SAMPLERATE)
+                : new MicrophoneAudioSource(RECORDER_SAMPLERATE);
+        try {
+            audioSource.start();
+        } catch (IOException e) {
+            audioSource.close();
+            audioSource = null;
+        }
+        if (audioSource == null && nativeRate > RECORDER_SAMPLERATE) {
+            Log.w("Audio", "Can't record at " + nativeRate + " Hz, falling back to " + RECORDER_SAMPLERATE + " Hz");
+            audioSource = new MicrophoneAudioSource(RECORDER_SAMPLERATE);
+            try {
+                audioSource.start();
+            } catch (IOException e) {
+                audioSource = null;
+            }
+        }
+        if (audioSource == null) {
+            Toast.makeText(getApplicationContext(), "Can't initialize audio recorder", Toast.LENGTH_LONG).show();
+            return;
+        }
         isRecording = true;
+        activityGate.reset();
+        detectionScheduler.start();
 
         // Start thread with processing recorded files
+        final AudioSource source = audioSource;
         recordingThread = new Thread(new Runnable() {
             public void run() {
-                processAudioData();
+                processAudioData(source);
             }
         }, "AudioRecorder Thread");
 
         recordingThread.start();
     }
 
+    /***
+     * @return Sample rate of the audio hardware, or the detector rate if it is unknown
+     */
+    private int nativeSampleRate() {
+        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        String rate = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+        try {
+            return rate != null ? Integer.parseInt(rate) : RECORDER_SAMPLERATE;
+        } catch (NumberFormatException e) {
+            return RECORDER_SAMPLERATE;
+        }
+    }
+
     /**
      * Stops the recording activity
      */
     private void stopRecording() {
-        if (null != recorder) {
+        if (null != audioSource) {
             isRecording = false;
-            recorder.stop();
-            recorder.release();
-            recorder = null;
-            recordingThread = null;
+            detectionScheduler.stop();
+            dumpMetrics();
+            // Closed source makes a blocked read return, the interrupt ends a retry pause
+            audioSource.close();
+            audioSource = null;
+            recordingThread.interrupt();
+            try {
+                recordingThread.join(RECORDING_STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!recordingThread.isAlive()) {
+                recordingThread = null;
+            }
         }
     }
 
     /***
      * Function to run in audio thread.
      * This function get next chunk of data from audio device and push it to the ring buffer
+     * @param source Started audio source
      */
-    private void processAudioData() {
-        // Chunk of data from microphone
-        short dataShort[] = new short[bufferSize / BYTES_PER_ELEMENT];
-
+    private void processAudioData(final AudioSource source) {
+        int readErrors = 0;
         while (isRecording) {
-            // Get next chunk of data from microphone
-            recorder.read(dataShort, 0, bufferSize / BYTES_PER_ELEMENT);
-            buffer.push(dataShort, Short.MAX_VALUE);
+            // Get next chunk of data from microphone, raw samples are pushed without conversion
+            long time = System.nanoTime();
+            ShortBuffer chunk;
+            try {
+                chunk = source.read();
+            } catch (final IOException e) {
+                metrics.increment(PipelineMetrics.Counter.AUDIO_READ_ERRORS);
+                readErrors++;
+                if (readErrors >= MAX_READ_ERRORS) {
+                    Log.e("Audio", "Recording stopped after " + readErrors + " read errors", e);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            onAudioFailed(source, e);
+                        }
+                    });
+                    break;
+                }
+                // Device doesn't recover instantly, don't spin on it
+                try {
+                    Thread.sleep(Math.min(READ_RETRY_MIN_DELAY << (readErrors - 1), READ_RETRY_MAX_DELAY));
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                continue;
+            }
+            readErrors = 0;
+            time = metrics.record(PipelineMetrics.Stage.AUDIO_READ, time);
+            if (chunk == null) {
+                break;
+            }
+            if (!chunk.hasRemaining()) {
+                continue;
+            }
+            lastAudioTime = time;
+            if (flightRecorder != null) {
+                flightRecorder.recordAudio(chunk, buffer.getWriteSequence());
+            }
+            buffer.push(chunk, Short.MAX_VALUE);
+            time = metrics.record(PipelineMetrics.Stage.PUSH, time);
+            activityGate.onAudio(chunk, Short.MAX_VALUE);
+            metrics.record(PipelineMetrics.Stage.GATE, time);
+            detectionScheduler.onAudioAvailable();
         }
     }
 
     /***
-     * This one is called by timer. Build spectrogram and draw it on the screen
-     * @return Two dimensional array with spectrogram
+     * Stop recording after the audio thread gave up on the source, UI thread
+     * @param source Audio source which failed
+     * @param error Last read error
      */
-    public float[][] spectrogramUpdate() {
-        // Update spectrogram
-        float[][] spectrogram = librosa.generateMelSpectroGram(
-                buffer.getDataNormalized(),
-                RECORDER_SAMPLERATE, N_FFT, N_MELS, HOP_LENGTH);
-        LibrosaUtils.powerToDb(spectrogram);
-
-        float[][] normalizedSpec = LibrosaUtils.normalizeSpectrogramMeanStd(spectrogram);
-
-        ((SpectrogramView)findViewById(R.id.spectrogramView)).setSpectrogram(spectrogram);
-        findViewById(R.id.spectrogramView).postInvalidate();
-        return normalizedSpec;
+    private void onAudioFailed(AudioSource source, IOException error) {
+        // Recording may have been stopped or restarted meanwhile
+        if (source != audioSource) {
+            return;
+        }
+        enableButton(R.id.btnStart, true);
+        enableButton(R.id.btnStop, false);
+        stopRecording();
+        Toast.makeText(getApplicationContext(), "Audio recording failed: " + error.getMessage(),
+                Toast.LENGTH_LONG).show();
     }
 
-    /**
-     * Flatten a spectrogram for tflite processing
-     * @param spectrogram Two dimensions array with spectrogram values
-     * @return One dimension array with flattened spectrogram
+    /***
+     * This one is called by detection scheduler. Draw features of the last processed window on the screen
      */
-    public float[] flattenSpectrogram(float[][] spectrogram) {
-        float[] flattenedSpectrogam = new float[MODEL_INPUT_H * MODEL_INPUT_W];
-        if (spectrogram.length != MODEL_INPUT_H && spectrogram[0].length != MODEL_INPUT_W) {
-            throw new IllegalArgumentException("Incorrect spectrogram size");
-        }
-
-        for (int i = 0; i < MODEL_INPUT_H; ++i) {
-            for (int j = 0; j < MODEL_INPUT_W; ++j) {
-                flattenedSpectrogam[i * MODEL_INPUT_W + j] = spectrogram[i][j];
-            }
-        }
-
-        return flattenedSpectrogam;
+    public void spectrogramUpdate() {
+        // Features have a fixed range, so columns drawn by previous updates are reused.
+        // View is invalidated when the result is published
+        long firstColumn = Math.floorDiv(pipeline.getWindowStart(), DetectionPipeline.HOP_LENGTH);
+        ((SpectrogramView)findViewById(R.id.spectrogramView)).setSpectrogram(
+                pipeline.getFeatures(), DetectionPipeline.N_MELS, DetectionPipeline.FRAMES, firstColumn,
+                pipeline.getReferencePower(), LibrosaUtils.NORMALIZED_DB_MIN, LibrosaUtils.NORMALIZED_DB_MAX);
     }
 }
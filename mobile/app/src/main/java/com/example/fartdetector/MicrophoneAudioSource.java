@@ -0,0 +1,87 @@
+package com.example.fartdetector;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/***
+ * Microphone audio source. AudioRecord writes chunks straight into a preallocated direct buffer,
+ * so reading doesn't copy or convert samples in Java.
+ * Record audio permission must be granted before start.
+ */
+public class MicrophoneAudioSource implements AudioSource {
+
+    private static final int CHANNELS = AudioFormat.CHANNEL_IN_MONO;
+    private static final int ENCODING = AudioFormat.ENCODING_PCM_16BIT;
+    private static final int BYTES_PER_ELEMENT = 2;
+
+    private final int sampleRate;
+    private final int bufferSize;
+    private final ByteBuffer byteBuffer;
+    private final ShortBuffer chunk;
+    private volatile AudioRecord recorder = null;
+
+    public MicrophoneAudioSource(int sampleRate) {
+        this.sampleRate = sampleRate;
+        // Get minimal buffer size
+        bufferSize = AudioRecord.getMinBufferSize(sampleRate, CHANNELS, ENCODING);
+        byteBuffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        chunk = byteBuffer.asShortBuffer();
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public synchronized void start() throws IOException {
+        recorder = new AudioRecord.Builder()
+                .setAudioSource(MediaRecorder.AudioSource.UNPROCESSED)
+                .setAudioFormat(new AudioFormat.Builder()
+                        .setEncoding(ENCODING)
+                        .setSampleRate(sampleRate)
+                        .setChannelMask(CHANNELS)
+                        .build())
+                .setBufferSizeInBytes(bufferSize)
+                .build();
+        if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
+            recorder.release();
+            recorder = null;
+            throw new IOException("Can't initialize audio recorder");
+        }
+        recorder.startRecording();
+    }
+
+    @Override
+    public ShortBuffer read() throws IOException {
+        AudioRecord current = recorder;
+        if (current == null) {
+            return null;
+        }
+        byteBuffer.clear();
+        int read = current.read(byteBuffer, bufferSize);
+        if (read < 0) {
+            throw new IOException("Audio recorder error " + read);
+        }
+        chunk.limit(read / BYTES_PER_ELEMENT);
+        chunk.position(0);
+        return chunk;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (recorder != null) {
+            recorder.stop();
+            recorder.release();
+            recorder = null;
+        }
+    }
+}
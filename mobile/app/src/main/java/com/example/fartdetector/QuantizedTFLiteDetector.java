@@ -0,0 +1,106 @@
+package com.example.fartdetector;
+
+import android.content.Context;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.support.common.FileUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/***
+ * Detector backed by an int8 or uint8 quantized TFLite model from assets, exported by resave_to_tflite.ipynb.
+ * Input quantization is read from the model, features are written to the input as bytes.
+ */
+public class QuantizedTFLiteDetector implements QuantizedDetector {
+
+    public static final String MODEL_ASSET = "fart_detector_int8.tflite";
+
+    private final Interpreter interpreter;
+    private final ByteBuffer quantizedInput;
+    private final Quantization inputQuantization;
+    // Dequantized features, filled by DetectionPipeline.getFeatures
+    private final FloatBuffer input;
+    private final ByteBuffer output;
+    private final Quantization outputQuantization;
+
+    /***
+     * @return True if the quantized model is bundled with the application
+     */
+    public static boolean isBundled(Context context) {
+        try {
+            String[] assets = context.getAssets().list("");
+            return assets != null && Arrays.asList(assets).contains(MODEL_ASSET);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public QuantizedTFLiteDetector(Context context) throws IOException {
+        interpreter = new Interpreter(FileUtil.loadMappedFile(context, MODEL_ASSET), new Interpreter.Options());
+
+        Tensor inputTensor = interpreter.getInputTensor(0);
+        inputQuantization = quantization(inputTensor);
+        if (inputQuantization == null) {
+            throw new IOException("Model input isn't quantized: " + inputTensor.dataType());
+        }
+        if (inputTensor.numElements() != DetectionPipeline.N_MELS * DetectionPipeline.FRAMES) {
+            throw new IOException("Model input shape doesn't match spectrogram: "
+                    + Arrays.toString(inputTensor.shape()));
+        }
+        quantizedInput = ByteBuffer.allocateDirect(inputTensor.numBytes()).order(ByteOrder.nativeOrder());
+        input = FloatBuffer.allocate(inputTensor.numElements());
+
+        // Output may stay float or be quantized too
+        Tensor outputTensor = interpreter.getOutputTensor(0);
+        outputQuantization = quantization(outputTensor);
+        output = ByteBuffer.allocateDirect(outputTensor.numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    /***
+     * @return Quantization of an 8-bit tensor, null for a float one
+     */
+    private static Quantization quantization(Tensor tensor) {
+        DataType type = tensor.dataType();
+        if (type != DataType.INT8 && type != DataType.UINT8) {
+            return null;
+        }
+        Tensor.QuantizationParams params = tensor.quantizationParams();
+        return new Quantization(params.getScale(), params.getZeroPoint(), type == DataType.INT8);
+    }
+
+    @Override
+    public ByteBuffer getQuantizedInput() {
+        return quantizedInput;
+    }
+
+    @Override
+    public Quantization getInputQuantization() {
+        return inputQuantization;
+    }
+
+    @Override
+    public FloatBuffer getInput() {
+        return input;
+    }
+
+    @Override
+    public float detect() {
+        quantizedInput.rewind();
+        output.rewind();
+        interpreter.run(quantizedInput, output);
+        if (outputQuantization != null) {
+            return outputQuantization.dequantize(output.get(0));
+        }
+        return output.getFloat(0);
+    }
+
+    public void close() {
+        interpreter.close();
+    }
+}
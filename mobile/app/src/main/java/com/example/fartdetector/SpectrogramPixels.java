@@ -0,0 +1,151 @@
+package com.example.fartdetector;
+
+import java.nio.FloatBuffer;
+
+/***
+ * ARGB pixels of a spectrogram image, generated without Android classes.
+ * Row i of the image is row i of the spectrogram, values are mapped to colors by a lookup table.
+ * The pixel array is reused by every update.
+ * A sliding spectrogram keeps the interior columns drawn by the previous window. They are only valid while
+ * the features of a frame don't change between windows: features are decibels relative to the window maximum,
+ * so when the reference changes every column changes and the whole image is drawn again.
+ */
+public class SpectrogramPixels {
+
+    private static final int COLORS = 256;
+    // Frames at both edges of a window use reflect padding and change when the window moves
+    private static final int EDGE_COLUMNS = 4;
+    private static final long NOT_SCROLLED = Long.MIN_VALUE;
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final int[] colormap;
+    // Absolute index of the first column of the image, NOT_SCROLLED after full renders
+    private long firstColumn = NOT_SCROLLED;
+    private int renderedColumns = 0;
+    // Reference the features of the last scrolled window are relative to
+    private float reference = Float.NaN;
+
+    /***
+     * @param width Number of spectrogram columns
+     * @param height Number of spectrogram rows
+     */
+    public SpectrogramPixels(int width, int height) {
+        this.width = width;
+        this.height = height;
+        pixels = new int[width * height];
+        colormap = new int[COLORS];
+        for (int i = 0; i < COLORS; i++) {
+            // Same as Color.rgb(0, 0, i)
+            colormap[i] = 0xFF000000 | i;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /***
+     * @return Pixels row by row, for Bitmap.setPixels with stride equal to width
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /***
+     * @return Number of columns written by the last update
+     */
+    public int getRenderedColumns() {
+        return renderedColumns;
+    }
+
+    /***
+     * Draw the whole spectrogram, scaled from its minimum to its maximum
+     * @param spectrogram Two dimensions array with spectrogram values
+     */
+    public void render(float[][] spectrogram) {
+        float[] minMax = LibrosaUtils.getMinMaxValues(spectrogram);
+        float scale = (COLORS - 1) / (minMax[1] - minMax[0]);
+        for (int i = 0; i < height; i++) {
+            float[] row = spectrogram[i];
+            int offset = i * width;
+            for (int j = 0; j < width; j++) {
+                pixels[offset + j] = color((row[j] - minMax[0]) * scale);
+            }
+        }
+        firstColumn = NOT_SCROLLED;
+        renderedColumns = width;
+    }
+
+    /***
+     * Draw the whole flattened spectrogram, scaled from its minimum to its maximum
+     * @param spectrogram Spectrogram values row by row
+     */
+    public void render(FloatBuffer spectrogram) {
+        float min_value = Float.MAX_VALUE;
+        float max_value = -Float.MAX_VALUE;
+        for (int i = 0; i < height * width; i++) {
+            float value = spectrogram.get(i);
+            if (value > max_value) max_value = value;
+            if (value < min_value) min_value = value;
+        }
+        renderColumns(spectrogram, 0, width, min_value, (COLORS - 1) / (max_value - min_value));
+        firstColumn = NOT_SCROLLED;
+        renderedColumns = width;
+    }
+
+    /***
+     * Draw a sliding spectrogram with a fixed value range. Interior columns which were already drawn
+     * are moved left, only new columns and both edges of the window are computed. The whole window
+     * is drawn when it jumps or when its reference changed, for example after a new loudest sound
+     * @param spectrogram Spectrogram values row by row
+     * @param firstColumn Absolute index of the first column, grows when the window moves
+     * @param reference Value the features are relative to, like DetectionPipeline.getReferencePower
+     * @param minValue Value drawn black
+     * @param maxValue Value drawn with the brightest color
+     */
+    public void scroll(FloatBuffer spectrogram, long firstColumn, float reference, float minValue, float maxValue) {
+        float scale = (COLORS - 1) / (maxValue - minValue);
+        long shift = firstColumn - this.firstColumn;
+        // Silent frames are clamped at the floor, so the reference itself is compared, not the drawn values
+        if (this.firstColumn == NOT_SCROLLED || shift < 0 || shift >= width - 2 * EDGE_COLUMNS
+                || reference != this.reference) {
+            renderColumns(spectrogram, 0, width, minValue, scale);
+            renderedColumns = width;
+        } else {
+            // Interior columns of the previous window which are interior columns of this one
+            int end = width - (int) shift - EDGE_COLUMNS;
+            for (int i = 0; i < height; i++) {
+                int offset = i * width;
+                System.arraycopy(pixels, offset + EDGE_COLUMNS + (int) shift, pixels, offset + EDGE_COLUMNS,
+                        end - EDGE_COLUMNS);
+            }
+            renderColumns(spectrogram, 0, EDGE_COLUMNS, minValue, scale);
+            renderColumns(spectrogram, end, width, minValue, scale);
+            renderedColumns = EDGE_COLUMNS + width - end;
+        }
+        this.firstColumn = firstColumn;
+        this.reference = reference;
+    }
+
+    private void renderColumns(FloatBuffer spectrogram, int fromColumn, int toColumn, float minValue, float scale) {
+        for (int i = 0; i < height; i++) {
+            int offset = i * width;
+            for (int j = fromColumn; j < toColumn; j++) {
+                pixels[offset + j] = color((spectrogram.get(offset + j) - minValue) * scale);
+            }
+        }
+    }
+
+    private int color(float level) {
+        int index = (int) level;
+        if (index < 0) index = 0;
+        if (index > COLORS - 1) index = COLORS - 1;
+        return colormap[index];
+    }
+}
@@ -3,15 +3,22 @@ package com.example.fartdetector;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.util.AttributeSet;
-import android.util.Log;
-import android.util.Pair;
 import android.view.View;
 
+import java.nio.FloatBuffer;
+
+/***
+ * Shows a spectrogram. Pixels are generated by SpectrogramPixels on the caller thread,
+ * copied to a reused bitmap on the UI thread and scaled to the view at draw time.
+ */
 public class SpectrogramView extends View {
+    private SpectrogramPixels pixels = null;
+    private boolean pixelsChanged = false;
     private Bitmap spectrogramBitmap = null;
+    private final Matrix matrix = new Matrix();
     private Paint paint;
 
     public SpectrogramView(Context context, AttributeSet attrs) {
@@ -21,39 +28,89 @@ public class SpectrogramView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
-        if (spectrogramBitmap != null) {
-            Bitmap resizedBitmap = Bitmap.createScaledBitmap(
-                    spectrogramBitmap,
-                    this.getWidth(),
-                    this.getHeight(),
-                    false);
-            canvas.drawBitmap(resizedBitmap, 0, 0, paint);
+        Bitmap bitmap = updateBitmap();
+        if (bitmap != null) {
+            matrix.setScale(
+                    (float) getWidth() / bitmap.getWidth(),
+                    (float) getHeight() / bitmap.getHeight());
+            canvas.drawBitmap(bitmap, matrix, paint);
         }
     }
 
-    public void setBitmap(Bitmap newSpectrogram) {
-        spectrogramBitmap = newSpectrogram;
+    public void setSpectrogram(float[][] newSpectrogram) {
+        SpectrogramPixels target = getPixels(newSpectrogram[0].length, newSpectrogram.length);
+        synchronized (target) {
+            target.render(newSpectrogram);
+            pixelsChanged = true;
+        }
     }
 
-    public void setSpectrogram(float[][] newSpectrogram) {
-        spectrogramBitmap = specshow(newSpectrogram);
+    /***
+     * Show flattened spectrogram, for example model input features
+     * @param newSpectrogram Spectrogram values row by row
+     * @param height Number of rows
+     * @param width Number of columns
+     */
+    public void setSpectrogram(FloatBuffer newSpectrogram, int height, int width) {
+        SpectrogramPixels target = getPixels(width, height);
+        synchronized (target) {
+            target.render(newSpectrogram);
+            pixelsChanged = true;
+        }
     }
 
-    private Bitmap specshow(float[][] spectrogram) {
+    /***
+     * Show a sliding spectrogram, only columns which appeared since the previous call are drawn
+     * @param newSpectrogram Spectrogram values row by row
+     * @param height Number of rows
+     * @param width Number of columns
+     * @param firstColumn Absolute index of the first column
+     * @param reference Value the features are relative to, the whole window is drawn when it changes
+     * @param minValue Value drawn black
+     * @param maxValue Value drawn with the brightest color
+     */
+    public void setSpectrogram(FloatBuffer newSpectrogram, int height, int width, long firstColumn,
+                               float reference, float minValue, float maxValue) {
+        SpectrogramPixels target = getPixels(width, height);
+        synchronized (target) {
+            target.scroll(newSpectrogram, firstColumn, reference, minValue, maxValue);
+            pixelsChanged = true;
+        }
+    }
 
-        float[][] normalizedSpec = LibrosaUtils.normalizeSpectrogramMinMax(spectrogram);
+    private synchronized SpectrogramPixels getPixels(int width, int height) {
+        if (pixels == null || pixels.getWidth() != width || pixels.getHeight() != height) {
+            pixels = new SpectrogramPixels(width, height);
+        }
+        return pixels;
+    }
 
-        Bitmap spectrogramBitmap = Bitmap.createBitmap(
-                normalizedSpec[0].length,
-                normalizedSpec.length, Bitmap.Config.ARGB_8888);
+    /***
+     * Copy changed pixels to the bitmap, runs on the UI thread
+     */
+    private Bitmap updateBitmap() {
+        SpectrogramPixels source;
+        synchronized (this) {
+            source = pixels;
+        }
+        if (source == null) {
+            return spectrogramBitmap;
+        }
 
-        for (int i = 0; i < normalizedSpec.length; i++) {
-            for (int j = 0; j < normalizedSpec[i].length; j++) {
-                int value = (int) (normalizedSpec[i][j] * 255);
-                spectrogramBitmap.setPixel(j, i, Color.rgb(0, 0, value));
+        synchronized (source) {
+            if (spectrogramBitmap == null
+                    || spectrogramBitmap.getWidth() != source.getWidth()
+                    || spectrogramBitmap.getHeight() != source.getHeight()) {
+                spectrogramBitmap = Bitmap.createBitmap(
+                        source.getWidth(), source.getHeight(), Bitmap.Config.ARGB_8888);
+                pixelsChanged = true;
+            }
+            if (pixelsChanged) {
+                spectrogramBitmap.setPixels(source.getPixels(), 0, source.getWidth(),
+                        0, 0, source.getWidth(), source.getHeight());
+                pixelsChanged = false;
             }
         }
         return spectrogramBitmap;
     }
 }
-
@@ -0,0 +1,47 @@
+package com.example.fartdetector;
+
+import android.content.Context;
+
+import com.example.fartdetector.ml.FartDetector;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+
+/***
+ * Detector backed by the bundled TFLite model
+ */
+public class TFLiteDetector implements Detector {
+
+    private final FartDetector model;
+    private final TensorBuffer inputFeature0;
+    // Direct buffer of inputFeature0, features are written here without copies
+    private final FloatBuffer input;
+
+    public TFLiteDetector(Context context) throws IOException {
+        model = FartDetector.newInstance(context);
+        inputFeature0 = TensorBuffer.createFixedSize(
+                new int[]{1, DetectionPipeline.N_MELS, DetectionPipeline.FRAMES, 1},
+                DataType.FLOAT32
+        );
+        input = inputFeature0.getBuffer().asFloatBuffer();
+    }
+
+    @Override
+    public FloatBuffer getInput() {
+        return input;
+    }
+
+    @Override
+    public float detect() {
+        FartDetector.Outputs outputs = model.process(inputFeature0);
+        TensorBuffer fartPrediction = outputs.getOutputFeature0AsTensorBuffer();
+        return fartPrediction.getFloatValue(0);
+    }
+
+    public void close() {
+        model.close();
+    }
+}
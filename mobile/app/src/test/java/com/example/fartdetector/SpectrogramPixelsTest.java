@@ -0,0 +1,143 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+public class SpectrogramPixelsTest extends TestCase {
+
+    private static final int WIDTH = 20;
+    private static final int HEIGHT = 3;
+    private static final float REFERENCE = 2.5f;
+
+    /***
+     * Window of a sliding spectrogram, value of a column depends only on its absolute index
+     */
+    private static FloatBuffer slidingWindow(long firstColumn) {
+        FloatBuffer spectrogram = FloatBuffer.allocate(WIDTH * HEIGHT);
+        for (int i = 0; i < HEIGHT; i++) {
+            for (int j = 0; j < WIDTH; j++) {
+                long column = firstColumn + j;
+                spectrogram.put(i * WIDTH + j, ((column * 7 + i * 3) % 10) / 10f);
+            }
+        }
+        return spectrogram;
+    }
+
+    public void testFullRenderScalesMinMax() {
+        float[][] spectrogram = {{-2, 0, 2}, {1, 1, 1}};
+        SpectrogramPixels pixels = new SpectrogramPixels(3, 2);
+        pixels.render(spectrogram);
+
+        int[] result = pixels.getPixels();
+        assertEquals(0xFF000000, result[0]);
+        assertEquals(0xFF000000 | 127, result[1]);
+        assertEquals(0xFF000000 | 255, result[2]);
+        assertEquals(0xFF000000 | 191, result[3]);
+    }
+
+    public void testFlattenedRenderMatchesArrayRender() {
+        FloatBuffer flattened = slidingWindow(0);
+        float[][] spectrogram = new float[HEIGHT][WIDTH];
+        for (int i = 0; i < HEIGHT; i++) {
+            for (int j = 0; j < WIDTH; j++) {
+                spectrogram[i][j] = flattened.get(i * WIDTH + j);
+            }
+        }
+
+        SpectrogramPixels fromArray = new SpectrogramPixels(WIDTH, HEIGHT);
+        fromArray.render(spectrogram);
+        SpectrogramPixels fromBuffer = new SpectrogramPixels(WIDTH, HEIGHT);
+        fromBuffer.render(flattened);
+        assertTrue(Arrays.equals(fromArray.getPixels(), fromBuffer.getPixels()));
+    }
+
+    public void testScrollRendersOnlyNewColumns() {
+        SpectrogramPixels scrolled = new SpectrogramPixels(WIDTH, HEIGHT);
+        scrolled.scroll(slidingWindow(100), 100, REFERENCE, 0, 1);
+        assertEquals(WIDTH, scrolled.getRenderedColumns());
+
+        scrolled.scroll(slidingWindow(103), 103, REFERENCE, 0, 1);
+        // 3 new columns and both edges
+        assertEquals(3 + 4 + 4, scrolled.getRenderedColumns());
+
+        SpectrogramPixels full = new SpectrogramPixels(WIDTH, HEIGHT);
+        full.scroll(slidingWindow(103), 103, REFERENCE, 0, 1);
+        assertTrue(Arrays.equals(full.getPixels(), scrolled.getPixels()));
+    }
+
+    public void testScrollRedrawsWindowEdges() {
+        SpectrogramPixels scrolled = new SpectrogramPixels(WIDTH, HEIGHT);
+        scrolled.scroll(slidingWindow(100), 100, REFERENCE, 0, 1);
+        // Reflect padded frames at both edges differ from the same frames in other windows
+        FloatBuffer window = slidingWindow(102);
+        for (int i = 0; i < HEIGHT; i++) {
+            window.put(i * WIDTH, 0.95f);
+            window.put(i * WIDTH + WIDTH - 1, 0.05f);
+        }
+        scrolled.scroll(window, 102, REFERENCE, 0, 1);
+        assertEquals(2 + 4 + 4, scrolled.getRenderedColumns());
+
+        SpectrogramPixels full = new SpectrogramPixels(WIDTH, HEIGHT);
+        full.scroll(window, 102, REFERENCE, 0, 1);
+        assertTrue(Arrays.equals(full.getPixels(), scrolled.getPixels()));
+    }
+
+    public void testScrollRedrawsWhenReferenceChanges() {
+        SpectrogramPixels scrolled = new SpectrogramPixels(WIDTH, HEIGHT);
+        scrolled.scroll(slidingWindow(100), 100, REFERENCE, 0, 1);
+        // Louder sound in the new frames moves the decibel reference, every frame changes
+        FloatBuffer window = slidingWindow(101);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            window.put(i, window.get(i) - 0.3f);
+        }
+        scrolled.scroll(window, 101, 2 * REFERENCE, 0, 1);
+        assertEquals(WIDTH, scrolled.getRenderedColumns());
+
+        SpectrogramPixels full = new SpectrogramPixels(WIDTH, HEIGHT);
+        full.scroll(window, 101, 2 * REFERENCE, 0, 1);
+        assertTrue(Arrays.equals(full.getPixels(), scrolled.getPixels()));
+    }
+
+    public void testScrollRedrawsWhenReferenceChangesAfterSilence() {
+        // Silence is clamped at the floor, its values don't change with the reference
+        FloatBuffer previous = FloatBuffer.allocate(WIDTH * HEIGHT);
+        FloatBuffer window = FloatBuffer.allocate(WIDTH * HEIGHT);
+        for (int i = 0; i < HEIGHT; i++) {
+            // A quiet frame gets quieter when a louder sound arrives
+            previous.put(i * WIDTH + 8, 0.4f);
+            window.put(i * WIDTH + 7, 0.2f);
+            for (int j = WIDTH - 4; j < WIDTH; j++) {
+                window.put(i * WIDTH + j, 1);
+            }
+        }
+        SpectrogramPixels scrolled = new SpectrogramPixels(WIDTH, HEIGHT);
+        scrolled.scroll(previous, 100, REFERENCE, 0, 1);
+        scrolled.scroll(window, 101, 2 * REFERENCE, 0, 1);
+        assertEquals(WIDTH, scrolled.getRenderedColumns());
+
+        SpectrogramPixels full = new SpectrogramPixels(WIDTH, HEIGHT);
+        full.scroll(window, 101, 2 * REFERENCE, 0, 1);
+        assertTrue(Arrays.equals(full.getPixels(), scrolled.getPixels()));
+    }
+
+    public void testScrollRedrawsAfterJumps() {
+        SpectrogramPixels pixels = new SpectrogramPixels(WIDTH, HEIGHT);
+        pixels.scroll(slidingWindow(0), 0, REFERENCE, 0, 1);
+        pixels.scroll(slidingWindow(50), 50, REFERENCE, 0, 1);
+        assertEquals(WIDTH, pixels.getRenderedColumns());
+        pixels.scroll(slidingWindow(10), 10, REFERENCE, 0, 1);
+        assertEquals(WIDTH, pixels.getRenderedColumns());
+    }
+
+    public void testScrollClampsOutOfRangeValues() {
+        FloatBuffer spectrogram = FloatBuffer.allocate(WIDTH * HEIGHT);
+        spectrogram.put(0, -5);
+        spectrogram.put(1, 5);
+        SpectrogramPixels pixels = new SpectrogramPixels(WIDTH, HEIGHT);
+        pixels.scroll(spectrogram, 0, REFERENCE, -1, 1);
+        assertEquals(0xFF000000, pixels.getPixels()[0]);
+        assertEquals(0xFF000000 | 255, pixels.getPixels()[1]);
+    }
+}
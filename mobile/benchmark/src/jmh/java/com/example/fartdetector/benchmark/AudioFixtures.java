@@ -0,0 +1,59 @@
+package com.example.fartdetector.benchmark;
+
+import java.util.Random;
+
+/***
+ * Shapes of the detection pipeline and synthetic audio for benchmarks
+ */
+final class AudioFixtures {
+
+    static final int SAMPLE_RATE = 16000;
+    static final int WINDOW_LENGTH = 2 * SAMPLE_RATE;
+    static final int N_FFT = 1024;
+    static final int N_MELS = 128;
+    static final int HOP_LENGTH = 128;
+    static final int FRAMES = 1 + WINDOW_LENGTH / HOP_LENGTH;
+
+    // AudioRecord.getMinBufferSize for 16 kHz mono PCM 16 bit on typical devices, in samples
+    static final int CHUNK_SIZE = 640;
+    // Audio chunks arriving during one 200 ms detection tick
+    static final int CHUNKS_PER_TICK = 5;
+
+    private AudioFixtures() {
+    }
+
+    /***
+     * Tones with noise at a moderate level
+     * @param length Number of samples
+     * @return Audio in 16 bit PCM
+     */
+    static short[] generateAudio(int length) {
+        Random random = new Random(0);
+        short[] audio = new short[length];
+        for (int i = 0; i < length; i++) {
+            double value = 3000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE)
+                    + 1500 * Math.sin(2 * Math.PI * 2700 * i / SAMPLE_RATE)
+                    + 800 * random.nextGaussian();
+            audio[i] = (short) value;
+        }
+        return audio;
+    }
+
+    /***
+     * Cycles through a long synthetic recording in microphone sized chunks
+     */
+    static final class ChunkSource {
+        private final short[] audio = generateAudio(10 * SAMPLE_RATE);
+        private final short[] chunk = new short[CHUNK_SIZE];
+        private int position = 0;
+
+        short[] next() {
+            if (position + CHUNK_SIZE > audio.length) {
+                position = 0;
+            }
+            System.arraycopy(audio, position, chunk, 0, CHUNK_SIZE);
+            position += CHUNK_SIZE;
+            return chunk;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.fartdetector.benchmark;
+
+import com.example.fartdetector.LibrosaUtils;
+import com.example.fartdetector.MelSpectrogram;
+import com.example.fartdetector.RingAudioBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/***
+ * Post-processing of the mel spectrogram into model input
+ */
+@State(Scope.Thread)
+public class FeatureBenchmark {
+
+    private float[][] melSpectrogram;
+    private float[][] work;
+    private float[] features;
+    private FloatBuffer modelInput;
+
+    @Setup
+    public void setup() {
+        RingAudioBuffer buffer = new RingAudioBuffer(AudioFixtures.WINDOW_LENGTH);
+        buffer.push(AudioFixtures.generateAudio(AudioFixtures.WINDOW_LENGTH), Short.MAX_VALUE);
+        melSpectrogram = new MelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH)
+                .compute(buffer.getDataNormalized());
+        work = new float[AudioFixtures.N_MELS][AudioFixtures.FRAMES];
+        features = new float[AudioFixtures.N_MELS * AudioFixtures.FRAMES];
+        modelInput = ByteBuffer.allocateDirect(4 * features.length)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    /***
+     * powerToDb, normalizeSpectrogramMeanStd and flattenSpectrogram one after another.
+     * powerToDb works in place, so the input is copied first
+     */
+    @Benchmark
+    public float[] reference() {
+        for (int i = 0; i < melSpectrogram.length; i++) {
+            System.arraycopy(melSpectrogram[i], 0, work[i], 0, melSpectrogram[i].length);
+        }
+        LibrosaUtils.powerToDb(work);
+        return LibrosaUtils.flattenSpectrogram(LibrosaUtils.normalizeSpectrogramMeanStd(work));
+    }
+
+    @Benchmark
+    public float[] flatten() {
+        return LibrosaUtils.flattenSpectrogram(melSpectrogram);
+    }
+
+    @Benchmark
+    public float[] fusedToArray() {
+        LibrosaUtils.powerToNormalizedDb(melSpectrogram, features);
+        return features;
+    }
+
+    @Benchmark
+    public FloatBuffer fusedToDirectBuffer() {
+        LibrosaUtils.powerToNormalizedDb(melSpectrogram, modelInput);
+        return modelInput;
+    }
+}
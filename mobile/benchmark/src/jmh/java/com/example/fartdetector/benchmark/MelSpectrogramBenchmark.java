@@ -0,0 +1,91 @@
+package com.example.fartdetector.benchmark;
+
+import com.example.fartdetector.MelSpectrogram;
+import com.example.fartdetector.RingAudioBuffer;
+import com.example.fartdetector.StreamingMelSpectrogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ForkJoinPool;
+
+@State(Scope.Thread)
+public class MelSpectrogramBenchmark {
+
+    private MelSpectrogram melSpectrogram;
+    private MelSpectrogram parallelMelSpectrogram;
+    private StreamingMelSpectrogram streamingMelSpectrogram;
+    private StreamingMelSpectrogram parallelStreamingMelSpectrogram;
+    private long restartSamples = 0;
+    private RingAudioBuffer buffer;
+    private AudioFixtures.ChunkSource chunks;
+    private float[] snapshot;
+    private float[][] spectrogram;
+
+    @Setup
+    public void setup() {
+        melSpectrogram = new MelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH);
+        streamingMelSpectrogram = new StreamingMelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH,
+                AudioFixtures.WINDOW_LENGTH);
+        // Common pool has one thread less than cores, the calling thread waits
+        parallelMelSpectrogram = new MelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH);
+        parallelMelSpectrogram.setParallel(ForkJoinPool.commonPool());
+        parallelStreamingMelSpectrogram = new StreamingMelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH,
+                AudioFixtures.WINDOW_LENGTH);
+        parallelStreamingMelSpectrogram.setParallel(ForkJoinPool.commonPool());
+        buffer = new RingAudioBuffer(AudioFixtures.WINDOW_LENGTH);
+        chunks = new AudioFixtures.ChunkSource();
+        snapshot = new float[AudioFixtures.WINDOW_LENGTH];
+        spectrogram = new float[AudioFixtures.N_MELS][AudioFixtures.FRAMES];
+
+        for (int i = 0; i < AudioFixtures.WINDOW_LENGTH / AudioFixtures.CHUNK_SIZE; i++) {
+            buffer.push(chunks.next(), Short.MAX_VALUE);
+        }
+        buffer.getDataNormalized(snapshot);
+    }
+
+    /***
+     * Whole 2 second window, as after a gap in audio
+     */
+    @Benchmark
+    public float[][] fullWindow() {
+        melSpectrogram.compute(snapshot, spectrogram);
+        return spectrogram;
+    }
+
+    /***
+     * Whole window split between the threads of the common pool, compare with fullWindow
+     */
+    @Benchmark
+    public float[][] fullWindowParallel() {
+        parallelMelSpectrogram.compute(snapshot, spectrogram);
+        return spectrogram;
+    }
+
+    /***
+     * Streaming spectrogram after a gap, every call starts a new stream, on the common pool
+     */
+    @Benchmark
+    public float[][] streamingRestartParallel() {
+        restartSamples += 2 * AudioFixtures.WINDOW_LENGTH;
+        return parallelStreamingMelSpectrogram.update(snapshot, restartSamples);
+    }
+
+    /***
+     * One 200 ms tick of the streaming spectrogram, including pushes of the new audio
+     */
+    @Benchmark
+    public float[][] streamingTick() {
+        for (int i = 0; i < AudioFixtures.CHUNKS_PER_TICK; i++) {
+            buffer.push(chunks.next(), Short.MAX_VALUE);
+        }
+        long pushedSamples = buffer.getData(snapshot);
+        return streamingMelSpectrogram.update(snapshot, pushedSamples);
+    }
+}
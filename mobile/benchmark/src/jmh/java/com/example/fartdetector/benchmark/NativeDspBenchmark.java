@@ -0,0 +1,98 @@
+package com.example.fartdetector.benchmark;
+
+import com.example.fartdetector.LibrosaUtils;
+import com.example.fartdetector.MelSpectrogram;
+import com.example.fartdetector.NativeDsp;
+import com.example.fartdetector.RingAudioBuffer;
+import com.example.fartdetector.StreamingMelSpectrogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/***
+ * Java and native kernels side by side. The native library must be built for the host:
+ * ./gradlew :benchmark:jmh -PnativeDsp, otherwise the native runs fail in setup
+ */
+@State(Scope.Thread)
+public class NativeDspBenchmark {
+
+    @Param({"java", "native"})
+    public String implementation;
+
+    private MelSpectrogram melSpectrogram;
+    private StreamingMelSpectrogram streamingMelSpectrogram;
+    private RingAudioBuffer buffer;
+    private AudioFixtures.ChunkSource chunks;
+    private float[] snapshot;
+    private float[][] spectrogram;
+    private FloatBuffer modelInput;
+    private boolean nativeDsp;
+
+    @Setup
+    public void setup() {
+        nativeDsp = implementation.equals("native");
+        if (nativeDsp && !NativeDsp.isAvailable()) {
+            throw new IllegalStateException("Native library isn't loaded, run with -PnativeDsp");
+        }
+        melSpectrogram = new MelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH,
+                nativeDsp);
+        streamingMelSpectrogram = new StreamingMelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH,
+                AudioFixtures.WINDOW_LENGTH, nativeDsp);
+        buffer = new RingAudioBuffer(AudioFixtures.WINDOW_LENGTH);
+        chunks = new AudioFixtures.ChunkSource();
+        snapshot = new float[AudioFixtures.WINDOW_LENGTH];
+        spectrogram = new float[AudioFixtures.N_MELS][AudioFixtures.FRAMES];
+        modelInput = ByteBuffer.allocateDirect(4 * AudioFixtures.N_MELS * AudioFixtures.FRAMES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+
+        for (int i = 0; i < AudioFixtures.WINDOW_LENGTH / AudioFixtures.CHUNK_SIZE; i++) {
+            buffer.push(chunks.next(), Short.MAX_VALUE);
+        }
+        buffer.getDataNormalized(snapshot);
+        melSpectrogram.compute(snapshot, spectrogram);
+    }
+
+    /***
+     * Whole 2 second window, 251 frames
+     */
+    @Benchmark
+    public float[][] fullWindow() {
+        melSpectrogram.compute(snapshot, spectrogram);
+        return spectrogram;
+    }
+
+    /***
+     * One 200 ms tick of the streaming spectrogram, including pushes of the new audio
+     */
+    @Benchmark
+    public float[][] streamingTick() {
+        for (int i = 0; i < AudioFixtures.CHUNKS_PER_TICK; i++) {
+            buffer.push(chunks.next(), Short.MAX_VALUE);
+        }
+        long pushedSamples = buffer.getData(snapshot);
+        return streamingMelSpectrogram.update(snapshot, pushedSamples);
+    }
+
+    /***
+     * Decibels and normalization of a window into the model input
+     */
+    @Benchmark
+    public FloatBuffer features() {
+        if (nativeDsp) {
+            NativeDsp.powerToNormalizedDb(spectrogram, modelInput);
+        } else {
+            LibrosaUtils.powerToNormalizedDb(spectrogram, modelInput);
+        }
+        return modelInput;
+    }
+}
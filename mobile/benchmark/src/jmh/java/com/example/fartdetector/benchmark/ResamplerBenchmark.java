@@ -0,0 +1,54 @@
+package com.example.fartdetector.benchmark;
+
+import com.example.fartdetector.PolyphaseResampler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+/***
+ * Cost of downsampling one second of native-rate capture to 16 kHz, in chunks of 10 ms
+ */
+@State(Scope.Thread)
+public class ResamplerBenchmark {
+
+    @Param({"48000", "44100"})
+    public int inputRate;
+
+    private PolyphaseResampler resampler;
+    private ShortBuffer input;
+    private ShortBuffer output;
+    private int chunkLength;
+
+    @Setup
+    public void setup() {
+        resampler = new PolyphaseResampler(inputRate, AudioFixtures.SAMPLE_RATE);
+        Random random = new Random(0);
+        // Direct buffers like the ones AudioRecord fills
+        input = ByteBuffer.allocateDirect(2 * inputRate).order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int i = 0; i < inputRate; i++) {
+            double value = 3000 * Math.sin(2 * Math.PI * 440 * i / inputRate) + 800 * random.nextGaussian();
+            input.put(i, (short) value);
+        }
+        output = ByteBuffer.allocateDirect(2 * inputRate).order(ByteOrder.nativeOrder()).asShortBuffer();
+        chunkLength = inputRate / 100;
+    }
+
+    @Benchmark
+    public int resampleSecond() {
+        output.clear();
+        int written = 0;
+        for (int start = 0; start < inputRate; start += chunkLength) {
+            input.limit(Math.min(inputRate, start + chunkLength)).position(start);
+            written += resampler.process(input, output);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.fartdetector.benchmark;
+
+import com.example.fartdetector.RingAudioBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Thread)
+public class RingAudioBufferBenchmark {
+
+    private RingAudioBuffer buffer;
+    private AudioFixtures.ChunkSource chunks;
+    private float[] snapshot;
+
+    @Setup
+    public void setup() {
+        buffer = new RingAudioBuffer(AudioFixtures.WINDOW_LENGTH);
+        chunks = new AudioFixtures.ChunkSource();
+        snapshot = new float[AudioFixtures.WINDOW_LENGTH];
+        for (int i = 0; i < AudioFixtures.WINDOW_LENGTH / AudioFixtures.CHUNK_SIZE; i++) {
+            buffer.push(chunks.next(), Short.MAX_VALUE);
+        }
+    }
+
+    /***
+     * Cost on the audio thread per microphone chunk
+     */
+    @Benchmark
+    public void push() {
+        buffer.push(chunks.next(), Short.MAX_VALUE);
+    }
+
+    @Benchmark
+    public long snapshot() {
+        return buffer.getData(snapshot);
+    }
+
+    @Benchmark
+    public long snapshotNormalized() {
+        return buffer.getDataNormalized(snapshot);
+    }
+
+    @Benchmark
+    public float[] snapshotNormalizedAllocating() {
+        return buffer.getDataNormalized();
+    }
+}
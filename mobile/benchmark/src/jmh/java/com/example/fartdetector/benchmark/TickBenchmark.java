@@ -0,0 +1,53 @@
+package com.example.fartdetector.benchmark;
+
+import com.example.fartdetector.LibrosaUtils;
+import com.example.fartdetector.RingAudioBuffer;
+import com.example.fartdetector.StreamingMelSpectrogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/***
+ * Whole detection tick of MainActivity up to the model input: audio pushes for 200 ms,
+ * snapshot, streaming mel spectrogram and features. Model inference needs TFLite runtime
+ * and is not included
+ */
+@State(Scope.Thread)
+public class TickBenchmark {
+
+    private RingAudioBuffer buffer;
+    private AudioFixtures.ChunkSource chunks;
+    private StreamingMelSpectrogram melSpectrogram;
+    private float[] snapshot;
+    private FloatBuffer modelInput;
+
+    @Setup
+    public void setup() {
+        buffer = new RingAudioBuffer(AudioFixtures.WINDOW_LENGTH);
+        chunks = new AudioFixtures.ChunkSource();
+        melSpectrogram = new StreamingMelSpectrogram(
+                AudioFixtures.SAMPLE_RATE, AudioFixtures.N_FFT, AudioFixtures.N_MELS, AudioFixtures.HOP_LENGTH,
+                AudioFixtures.WINDOW_LENGTH);
+        snapshot = new float[AudioFixtures.WINDOW_LENGTH];
+        modelInput = ByteBuffer.allocateDirect(4 * AudioFixtures.N_MELS * AudioFixtures.FRAMES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+    }
+
+    @Benchmark
+    public FloatBuffer tick() {
+        for (int i = 0; i < AudioFixtures.CHUNKS_PER_TICK; i++) {
+            buffer.push(chunks.next(), Short.MAX_VALUE);
+        }
+        long pushedSamples = buffer.getData(snapshot);
+        float[][] spectrogram = melSpectrogram.update(snapshot, pushedSamples);
+        LibrosaUtils.powerToNormalizedDb(spectrogram, modelInput);
+        return modelInput;
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.fartdetector;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/***
+ * Cheap acoustic activity detector in front of the model.
+ * Every audio chunk is measured by its RMS level and by the spectral flux of its last FLUX_FFT_SIZE samples
+ * against the previous chunk. The gate opens when the level or the relative flux exceeds its threshold
+ * and stays open for the hangover time after the last active chunk, so an event is scored
+ * during the whole time it stays in the analyzed window.
+ * Measurement runs on the audio thread, isOpen may be called from any thread.
+ */
+public class ActivityGate implements DetectionScheduler.Gate {
+
+    public static final float DEFAULT_RMS_THRESHOLD_DB = -50f;
+    public static final float DEFAULT_FLUX_THRESHOLD = 1.0f;
+    public static final long DEFAULT_HANGOVER_MS = 2000;
+
+    private static final int FLUX_FFT_SIZE = 256;
+    // Level of white noise whose magnitudes are added to the previous spectrum,
+    // so flux of very quiet sounds stays small
+    private static final double NOISE_FLOOR_DB = -70;
+
+    private final float rmsThresholdDb;
+    private final float fluxThreshold;
+    private final long hangoverSamples;
+
+    private final FFT fft;
+    private final double[] window;
+    private final double[] frame;
+    private final double[] re;
+    private final double[] im;
+    private final double[] magnitudes;
+    private final double[] previousMagnitudes;
+    private final double floorMagnitude;
+    // Latest samples, for chunks shorter than the FFT
+    private final float[] history;
+    private int historyIndex = 0;
+    private boolean hasPrevious = false;
+
+    private long hangoverLeft = 0;
+    private volatile boolean open = false;
+    private volatile float lastRmsDb = -Float.MAX_VALUE;
+    private volatile float lastFlux = 0;
+
+    public ActivityGate(int sampleRate) {
+        this(sampleRate, DEFAULT_RMS_THRESHOLD_DB, DEFAULT_FLUX_THRESHOLD, DEFAULT_HANGOVER_MS);
+    }
+
+    /***
+     * @param sampleRate Sample rate of the audio
+     * @param rmsThresholdDb Chunk level in dBFS which opens the gate
+     * @param fluxThreshold Relative growth of the spectrum magnitudes which opens the gate,
+     *                      1 means the sum of magnitude increases equals the previous sum of magnitudes
+     * @param hangoverMs Time the gate stays open after the last active chunk
+     */
+    public ActivityGate(int sampleRate, float rmsThresholdDb, float fluxThreshold, long hangoverMs) {
+        this.rmsThresholdDb = rmsThresholdDb;
+        this.fluxThreshold = fluxThreshold;
+        this.hangoverSamples = hangoverMs * sampleRate / 1000;
+
+        fft = new FFT(FLUX_FFT_SIZE);
+        window = new double[FLUX_FFT_SIZE];
+        double windowSum = 0;
+        for (int i = 0; i < FLUX_FFT_SIZE; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / FLUX_FFT_SIZE);
+            windowSum += window[i];
+        }
+        // Magnitudes are scaled, so a full scale sine has magnitude 1 in its bin
+        double windowSqSum = 0;
+        for (int i = 0; i < FLUX_FFT_SIZE; i++) {
+            window[i] *= 2 / windowSum;
+            windowSqSum += window[i] * window[i];
+        }
+        frame = new double[FLUX_FFT_SIZE];
+        re = new double[FLUX_FFT_SIZE / 2 + 1];
+        im = new double[FLUX_FFT_SIZE / 2 + 1];
+        magnitudes = new double[FLUX_FFT_SIZE / 2 + 1];
+        previousMagnitudes = new double[FLUX_FFT_SIZE / 2 + 1];
+        // Expected magnitude of a bin for white noise of this level
+        floorMagnitude = Math.pow(10, NOISE_FLOOR_DB / 20) * Math.sqrt(windowSqSum);
+        history = new float[FLUX_FFT_SIZE];
+    }
+
+    /***
+     * Measure a chunk of audio, called on the audio thread for every chunk pushed to the ring buffer
+     * @param chunk Audio samples
+     * @param length Number of samples to use
+     * @param max_value Maximum possible value of the signal, to normalize signal
+     * @return True if the gate is open after this chunk
+     */
+    public boolean onAudio(short[] chunk, int length, short max_value) {
+        if (length <= 0) {
+            return open;
+        }
+
+        double sqSum = 0;
+        for (int i = 0; i < length; i++) {
+            sqSum += addToHistory((float) chunk[i] / max_value);
+        }
+        return update(sqSum, length);
+    }
+
+    /***
+     * Measure a chunk of audio from position to limit of the buffer, position isn't changed
+     * @param chunk Audio samples, for example a chunk read from an AudioSource
+     * @param max_value Maximum possible value of the signal, to normalize signal
+     * @return True if the gate is open after this chunk
+     */
+    public boolean onAudio(ShortBuffer chunk, short max_value) {
+        int length = chunk.remaining();
+        if (length <= 0) {
+            return open;
+        }
+
+        int start = chunk.position();
+        double sqSum = 0;
+        for (int i = 0; i < length; i++) {
+            sqSum += addToHistory((float) chunk.get(start + i) / max_value);
+        }
+        return update(sqSum, length);
+    }
+
+    /***
+     * @return Squared value
+     */
+    private float addToHistory(float value) {
+        history[historyIndex] = value;
+        historyIndex = (historyIndex + 1) % FLUX_FFT_SIZE;
+        return value * value;
+    }
+
+    private boolean update(double sqSum, int length) {
+        float rmsDb = (float) (10 * Math.log10(sqSum / length + 1e-20));
+        float flux = spectralFlux();
+
+        boolean active = rmsDb >= rmsThresholdDb || flux >= fluxThreshold;
+        if (active) {
+            hangoverLeft = hangoverSamples;
+        } else {
+            hangoverLeft = Math.max(0, hangoverLeft - length);
+        }
+        lastRmsDb = rmsDb;
+        lastFlux = flux;
+        open = active || hangoverLeft > 0;
+        return open;
+    }
+
+    /***
+     * Relative growth of the magnitude spectrum of the latest samples since the previous chunk
+     */
+    private float spectralFlux() {
+        for (int i = 0; i < FLUX_FFT_SIZE; i++) {
+            frame[i] = history[(historyIndex + i) % FLUX_FFT_SIZE] * window[i];
+        }
+        fft.realTransform(frame, re, im);
+
+        double increase = 0;
+        double previousSum = 0;
+        for (int bin = 0; bin < magnitudes.length; bin++) {
+            magnitudes[bin] = Math.sqrt(re[bin] * re[bin] + im[bin] * im[bin]);
+            increase += Math.max(0, magnitudes[bin] - previousMagnitudes[bin]);
+            previousSum += previousMagnitudes[bin] + floorMagnitude;
+            previousMagnitudes[bin] = magnitudes[bin];
+        }
+
+        if (!hasPrevious) {
+            // Nothing to compare the first chunk with
+            hasPrevious = true;
+            return 0;
+        }
+        return (float) (increase / previousSum);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /***
+     * @return Level of the last chunk in dBFS
+     */
+    public float getLastRmsDb() {
+        return lastRmsDb;
+    }
+
+    /***
+     * @return Relative spectral flux of the last chunk
+     */
+    public float getLastFlux() {
+        return lastFlux;
+    }
+
+    /***
+     * Close the gate and forget the previous spectrum, for example when recording restarts
+     */
+    public void reset() {
+        Arrays.fill(history, 0);
+        historyIndex = 0;
+        hangoverLeft = 0;
+        hasPrevious = false;
+        open = false;
+    }
+}
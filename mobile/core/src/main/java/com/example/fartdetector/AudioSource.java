@@ -0,0 +1,33 @@
+package com.example.fartdetector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+/***
+ * Source of mono 16-bit audio chunks: microphone, file or generator.
+ * Chunks are read into a buffer preallocated by the source, so the capture thread doesn't allocate
+ * or convert samples; consumers scale them when they need floats.
+ */
+public interface AudioSource extends Closeable {
+
+    int getSampleRate();
+
+    /***
+     * Start producing audio
+     */
+    void start() throws IOException;
+
+    /***
+     * Read the next chunk, blocks until it is available.
+     * @return Samples from position to limit of a buffer owned by the source, valid until the next read.
+     * Empty if nothing was read, null at the end of the stream
+     */
+    ShortBuffer read() throws IOException;
+
+    /***
+     * Stop producing audio and release resources. May be called from another thread to unblock read
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,314 @@
+package com.example.fartdetector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Asynchronous command channel to the spray.
+ * Commands are put to a bounded queue and written by a dedicated thread, so a stalled link never blocks
+ * the caller. The link is connected on the writer thread and reconnected after failures with exponential backoff.
+ * A command equal to the previous accepted one within the coalescing window is dropped, so a detection
+ * repeated by several ticks triggers the spray once. Commands which waited longer than the maximum age,
+ * for example while the link was down, are dropped too.
+ */
+public class CommandChannel implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final long DEFAULT_COALESCE_MS = 1000;
+    public static final long DEFAULT_MAX_AGE_MS = 2000;
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 500;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 30000;
+    // Time close waits for the writer thread, a connection attempt may not be abortable
+    public static final long CLOSE_TIMEOUT_MS = 1000;
+
+    /***
+     * Link state changes, called on the listener executor
+     */
+    public interface Listener {
+        void onConnected();
+
+        /***
+         * Called once when a connection attempt fails or the open link breaks, not for every retry
+         */
+        void onDisconnected(IOException error);
+    }
+
+    private static class Command {
+        final String value;
+        final byte[] data;
+        final long queuedTime;
+        final long originTime;
+
+        Command(String value, long queuedTime, long originTime) {
+            this.value = value;
+            this.data = value.getBytes(StandardCharsets.US_ASCII);
+            this.queuedTime = queuedTime;
+            this.originTime = originTime;
+        }
+    }
+
+    private final CommandTransport transport;
+    private final BlockingQueue<Command> queue;
+    private final long coalesceNanos;
+    private final long maxAgeNanos;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+
+    private volatile PipelineMetrics metrics = new PipelineMetrics();
+    private Listener listener = null;
+    private Executor listenerExecutor = null;
+
+    // Last accepted command, guarded by this
+    private String lastValue = null;
+    private long lastTime = 0;
+
+    private volatile boolean running = false;
+    private volatile boolean connected = false;
+    private Thread thread = null;
+
+    public CommandChannel(CommandTransport transport) {
+        this(transport, DEFAULT_CAPACITY, DEFAULT_COALESCE_MS, DEFAULT_MAX_AGE_MS,
+                DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAX_BACKOFF_MS);
+    }
+
+    /***
+     * @param transport Link to the spray
+     * @param capacity Maximum number of queued commands, new commands are dropped when the queue is full
+     * @param coalesceMs Time after an accepted command when the same command is dropped
+     * @param maxAgeMs Time after which a queued command is dropped instead of being written
+     * @param initialBackoffMs Delay before the first reconnection attempt
+     * @param maxBackoffMs Maximum delay between reconnection attempts, the delay doubles after every failure
+     */
+    public CommandChannel(CommandTransport transport, int capacity, long coalesceMs, long maxAgeMs,
+                          long initialBackoffMs, long maxBackoffMs) {
+        this.transport = transport;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(coalesceMs);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /***
+     * Record send latency and failures, should be set before start
+     * SPRAY_SEND is the time from send to the end of the write, SOUND_TO_SPRAY starts at the command origin time
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /***
+     * Set link state listener, should be set before start
+     * @param listener Listener
+     * @param executor Executor for the listener, for example main thread executor
+     */
+    public void setListener(Listener listener, Executor executor) {
+        this.listener = listener;
+        this.listenerExecutor = executor;
+    }
+
+    /***
+     * Start the writer thread, it connects the link
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "Spray writer");
+        // May outlive close while a connection attempt doesn't return
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /***
+     * Queue a command, never blocks
+     * @param value Command
+     * @return True if the command was queued, false if it was coalesced or the queue is full
+     */
+    public boolean send(String value) {
+        long now = System.nanoTime();
+        return send(value, now);
+    }
+
+    /***
+     * Queue a command, never blocks
+     * @param value Command
+     * @param originTime System.nanoTime of the event which caused the command, for latency measurement
+     * @return True if the command was queued, false if it was coalesced or the queue is full
+     */
+    public boolean send(String value, long originTime) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (value.equals(lastValue) && now - lastTime < coalesceNanos) {
+                metrics.increment(PipelineMetrics.Counter.SPRAY_COALESCED);
+                return false;
+            }
+            if (!queue.offer(new Command(value, now, originTime))) {
+                metrics.increment(PipelineMetrics.Counter.SPRAY_DROPPED);
+                return false;
+            }
+            lastValue = value;
+            lastTime = now;
+        }
+        return true;
+    }
+
+    /***
+     * @return True if the link is open
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    private void writeLoop() {
+        long backoffMs = initialBackoffMs;
+        boolean failureReported = false;
+        // Command which failed to be written, retried after reconnection
+        Command pending = null;
+
+        while (running) {
+            try {
+                if (!connected) {
+                    try {
+                        connectTransport();
+                    } catch (IOException e) {
+                        if (!running) {
+                            break;
+                        }
+                        metrics.increment(PipelineMetrics.Counter.SPRAY_FAILURES);
+                        if (!failureReported) {
+                            failureReported = true;
+                            notifyDisconnected(e);
+                        }
+                        Thread.sleep(backoffMs);
+                        backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+                        metrics.increment(PipelineMetrics.Counter.SPRAY_RECONNECTS);
+                        continue;
+                    }
+                    if (!running) {
+                        // Closed while connecting
+                        break;
+                    }
+                    connected = true;
+                    backoffMs = initialBackoffMs;
+                    failureReported = false;
+                    notifyConnected();
+                }
+
+                Command command = pending != null ? pending : queue.take();
+                pending = null;
+                if (System.nanoTime() - command.queuedTime > maxAgeNanos) {
+                    metrics.increment(PipelineMetrics.Counter.SPRAY_DROPPED);
+                    continue;
+                }
+                try {
+                    writeTransport(command.data);
+                } catch (IOException e) {
+                    if (!running) {
+                        break;
+                    }
+                    metrics.increment(PipelineMetrics.Counter.SPRAY_FAILURES);
+                    connected = false;
+                    transport.close();
+                    pending = command;
+                    failureReported = true;
+                    notifyDisconnected(e);
+                    continue;
+                }
+                metrics.record(PipelineMetrics.Stage.SPRAY_SEND, command.queuedTime);
+                metrics.record(PipelineMetrics.Stage.SOUND_TO_SPRAY, command.originTime);
+                metrics.increment(PipelineMetrics.Counter.SPRAY_SENT);
+            } catch (InterruptedException e) {
+                // Channel is closed
+                break;
+            }
+        }
+        connected = false;
+        // The link may have been connected after close
+        transport.close();
+    }
+
+    /***
+     * Unchecked exceptions of a transport, like SecurityException of a missing Bluetooth permission,
+     * are link failures too: they go through backoff instead of killing the writer thread
+     */
+    private void connectTransport() throws IOException {
+        try {
+            transport.connect();
+        } catch (RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void writeTransport(byte[] data) throws IOException {
+        try {
+            transport.write(data);
+        } catch (RuntimeException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void notifyConnected() {
+        if (listener == null) {
+            return;
+        }
+        listenerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onConnected();
+            }
+        });
+    }
+
+    private void notifyDisconnected(final IOException error) {
+        if (listener == null) {
+            return;
+        }
+        listenerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onDisconnected(error);
+            }
+        });
+    }
+
+    /***
+     * Stop the writer thread and close the link, queued commands are dropped.
+     * Waits at most CLOSE_TIMEOUT_MS for the writer thread, so it can be called on the main thread;
+     * a writer blocked in a connection attempt exits when the attempt returns
+     */
+    @Override
+    public void close() {
+        Thread writer;
+        synchronized (this) {
+            running = false;
+            writer = thread;
+        }
+        transport.close();
+        if (writer == null) {
+            return;
+        }
+        writer.interrupt();
+        try {
+            writer.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.fartdetector;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/***
+ * Link to the spray controller used by CommandChannel.
+ * All methods except close are called on the channel writer thread only.
+ */
+public interface CommandTransport extends Closeable {
+
+    /***
+     * Open the link, may block for a long time. Called again after a failure
+     */
+    void connect() throws IOException;
+
+    /***
+     * Write a command to the open link
+     * @param data Encoded command
+     */
+    void write(byte[] data) throws IOException;
+
+    /***
+     * Close the link. May be called from any thread and should interrupt a blocked connect or write
+     */
+    @Override
+    void close();
+}
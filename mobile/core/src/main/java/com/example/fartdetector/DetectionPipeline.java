@@ -0,0 +1,313 @@
+package com.example.fartdetector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/***
+ * Audio window -> mel spectrogram -> normalized features -> detector score.
+ * Consecutive windows of the same stream reuse spectrogram frames, so the pipeline keeps state
+ * and must be used from one thread at a time.
+ * Features and score of the last window are kept: while less than a spectrogram hop of new audio arrives,
+ * the analyzed window doesn't change and the cached score is returned without copying the audio.
+ * A QuantizedDetector gets 8-bit features from a fixed-point FeatureQuantizer instead of float ones.
+ * With an InferenceStage features are handed to the inference thread instead of being scored in place,
+ * so the next window is computed while the model scores the previous one.
+ */
+public class DetectionPipeline {
+
+    // Spectrogram settings the model was trained with
+    public static final int SAMPLE_RATE = 16000;
+    public static final int N_FFT = 1024;
+    public static final int N_MELS = 128;
+    public static final int HOP_LENGTH = 128;
+    public static final int WINDOW_LENGTH = 2 * SAMPLE_RATE;
+    public static final int FRAMES = 1 + WINDOW_LENGTH / HOP_LENGTH;
+
+    private final Detector detector;
+    private final StreamingMelSpectrogram melSpectrogram;
+    private final short[] window;
+    private final ShortBuffer windowBuffer;
+    // Features are computed by the native library, which needs a direct input buffer
+    private final boolean nativeFeatures;
+    // Null for float models
+    private final FeatureQuantizer quantizer;
+    // Float features don't match the quantized ones until getFeatures dequantizes them
+    private boolean featuresDequantized = true;
+    // Power spectrogram of the last window and its maximum, NaN until getReferencePower computes it
+    private float[][] lastSpectrogram = null;
+    private float referencePower = Float.NaN;
+    private PipelineMetrics metrics = null;
+    // Pipelined inference, and its slot with the features of the last window or -1
+    private InferenceStage inferenceStage = null;
+    private int featureSlot = -1;
+    private long lastPushedSamples = -1;
+    private long lastTotalSamples = -1;
+    private boolean hasResult = false;
+    private float lastScore = 0;
+    private boolean lastCacheHit = false;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
+
+    /***
+     * @param detector Model to score features, its input must hold N_MELS x FRAMES values
+     */
+    public DetectionPipeline(Detector detector) {
+        if (detector.getInput().capacity() != N_MELS * FRAMES) {
+            throw new IllegalArgumentException("Detector input size doesn't match spectrogram size");
+        }
+        this.detector = detector;
+        melSpectrogram = new StreamingMelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+        window = new short[WINDOW_LENGTH];
+        windowBuffer = ShortBuffer.wrap(window);
+        FloatBuffer input = detector.getInput();
+        nativeFeatures = NativeDsp.isAvailable() && input.isDirect() && input.order() == ByteOrder.nativeOrder();
+        if (detector instanceof QuantizedDetector) {
+            QuantizedDetector quantizedDetector = (QuantizedDetector) detector;
+            if (quantizedDetector.getQuantizedInput().capacity() != N_MELS * FRAMES) {
+                throw new IllegalArgumentException("Detector quantized input size doesn't match spectrogram size");
+            }
+            quantizer = new FeatureQuantizer(quantizedDetector.getInputQuantization());
+        } else {
+            quantizer = null;
+        }
+    }
+
+    /***
+     * Compute the whole window on several threads when it can't reuse frames, after a reset or a gap in the audio
+     * @param pool Shared pool, or null to compute on the calling thread
+     */
+    public void setParallel(ForkJoinPool pool) {
+        melSpectrogram.setParallel(pool);
+    }
+
+    /***
+     * Score windows on the inference thread of a stage. process methods then return NaN
+     * and scores are passed to the listener of the stage
+     * @param stage Started stage of the detector of this pipeline, or null to score windows in place
+     */
+    public void setInferenceStage(InferenceStage stage) {
+        if (stage != null && stage.getDetector() != detector) {
+            throw new IllegalArgumentException("Stage doesn't run the detector of the pipeline");
+        }
+        inferenceStage = stage;
+        featureSlot = -1;
+        hasResult = false;
+    }
+
+    /***
+     * Record latency of mel spectrogram, features and inference stages
+     * @param metrics Metrics, or null to disable recording
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /***
+     * Score the latest audio of the ring buffer. Raw samples are copied, only new ones
+     * are scaled by Short.MAX_VALUE when they are added to the spectrogram history
+     * @param buffer Buffer with WINDOW_LENGTH samples
+     * @return Detector score, NaN with an inference stage
+     */
+    public float process(RingAudioBuffer buffer) {
+        lastTotalSamples = buffer.getWriteSequence();
+        if (isCached(lastTotalSamples)) {
+            return lastScore;
+        }
+        long pushedSamples = buffer.getData(window);
+        lastTotalSamples = pushedSamples;
+        if (metrics != null && lastPushedSamples >= 0 && pushedSamples - lastPushedSamples > WINDOW_LENGTH) {
+            metrics.increment(PipelineMetrics.Counter.BUFFER_OVERRUNS);
+        }
+        lastPushedSamples = pushedSamples;
+        long startTime = startTime();
+        return score(melSpectrogram.update(windowBuffer, pushedSamples), startTime);
+    }
+
+    /***
+     * Score an audio window
+     * @param samples WINDOW_LENGTH samples, oldest first
+     * @param totalSamples Number of samples in the stream up to the last one in samples
+     * @return Detector score, NaN with an inference stage
+     */
+    public float processWindow(float[] samples, long totalSamples) {
+        lastTotalSamples = totalSamples;
+        if (isCached(totalSamples)) {
+            return lastScore;
+        }
+        long startTime = startTime();
+        return score(melSpectrogram.update(samples, totalSamples), startTime);
+    }
+
+    /***
+     * Score a 16-bit audio window, for example a view of MappedAudioFile. Only samples which
+     * are new since the previous window of the stream are read
+     * @param samples WINDOW_LENGTH samples from position of the buffer, oldest first
+     * @param totalSamples Number of samples in the stream up to the last one in samples
+     * @return Detector score, NaN with an inference stage
+     */
+    public float processWindow(ShortBuffer samples, long totalSamples) {
+        lastTotalSamples = totalSamples;
+        if (isCached(totalSamples)) {
+            return lastScore;
+        }
+        long startTime = startTime();
+        return score(melSpectrogram.update(samples, totalSamples), startTime);
+    }
+
+    /***
+     * Check the cached result and count the hit or miss
+     * @param totalSamples Number of samples in the stream up to the latest one
+     * @return True if the last score is the score of the latest audio
+     */
+    private boolean isCached(long totalSamples) {
+        lastCacheHit = hasResult && melSpectrogram.isCurrent(totalSamples);
+        if (lastCacheHit) {
+            cacheHits++;
+        } else {
+            cacheMisses++;
+        }
+        if (metrics != null) {
+            metrics.increment(lastCacheHit
+                    ? PipelineMetrics.Counter.FEATURE_CACHE_HITS : PipelineMetrics.Counter.FEATURE_CACHE_MISSES);
+        }
+        return lastCacheHit;
+    }
+
+    private long startTime() {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    private float score(float[][] spectrogram, long startTime) {
+        PipelineMetrics currentMetrics = metrics;
+        InferenceStage stage = inferenceStage;
+        lastSpectrogram = spectrogram;
+        referencePower = Float.NaN;
+        if (stage != null) {
+            long time = currentMetrics != null ? currentMetrics.record(PipelineMetrics.Stage.MEL, startTime) : 0;
+            featureSlot = stage.acquire();
+            computeFeatures(spectrogram);
+            if (currentMetrics != null) {
+                currentMetrics.record(PipelineMetrics.Stage.FEATURES, time);
+            }
+            stage.submit(lastTotalSamples);
+            // Score of the window comes to the listener of the stage
+            lastScore = Float.NaN;
+        } else if (currentMetrics == null) {
+            computeFeatures(spectrogram);
+            lastScore = detector.detect();
+        } else {
+            long time = currentMetrics.record(PipelineMetrics.Stage.MEL, startTime);
+            computeFeatures(spectrogram);
+            time = currentMetrics.record(PipelineMetrics.Stage.FEATURES, time);
+            lastScore = detector.detect();
+            currentMetrics.record(PipelineMetrics.Stage.INFERENCE, time);
+        }
+        hasResult = true;
+        return lastScore;
+    }
+
+    private void computeFeatures(float[][] spectrogram) {
+        if (quantizer != null) {
+            quantizer.quantize(spectrogram, quantizedFeatures());
+            featuresDequantized = false;
+        } else if (nativeFeatures) {
+            NativeDsp.powerToNormalizedDb(spectrogram, floatFeatures());
+        } else {
+            LibrosaUtils.powerToNormalizedDb(spectrogram, floatFeatures());
+        }
+    }
+
+    /***
+     * Float features of the last window: detector input, or a slot of the inference stage
+     */
+    private FloatBuffer floatFeatures() {
+        return featureSlot >= 0 ? inferenceStage.getInput(featureSlot) : detector.getInput();
+    }
+
+    private ByteBuffer quantizedFeatures() {
+        return featureSlot >= 0
+                ? inferenceStage.getQuantizedInput(featureSlot) : ((QuantizedDetector) detector).getQuantizedInput();
+    }
+
+    /***
+     * @return True if the last processed window was the same as the previous one and its score was reused
+     */
+    public boolean isCacheHit() {
+        return lastCacheHit;
+    }
+
+    /***
+     * @return Number of windows answered from the cache
+     */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /***
+     * @return Number of windows computed
+     */
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /***
+     * @return Features of the last processed window, N_MELS rows of FRAMES values.
+     * Quantized features are dequantized on the first call after a window is computed.
+     * With an inference stage features stay valid until the next window is computed
+     */
+    public FloatBuffer getFeatures() {
+        if (!featuresDequantized) {
+            // Quantized detectors don't read the float input, it only holds features to draw
+            quantizer.dequantize(quantizedFeatures(), detector.getInput());
+            featuresDequantized = true;
+        }
+        return quantizer != null ? detector.getInput() : floatFeatures();
+    }
+
+    /***
+     * @return Maximum power of the last processed window, the reference of its decibel features, NaN before
+     * the first window. Features of two windows are comparable only while their references are equal.
+     * Computed on the first call after a window is computed
+     */
+    public float getReferencePower() {
+        if (Float.isNaN(referencePower) && lastSpectrogram != null) {
+            referencePower = LibrosaUtils.getMinMaxValues(lastSpectrogram)[1];
+        }
+        return referencePower;
+    }
+
+    /***
+     * @return True if features are quantized for an 8-bit model input
+     */
+    public boolean isQuantized() {
+        return quantizer != null;
+    }
+
+    /***
+     * @return Number of stream samples up to the end of the last processed window, -1 before the first one.
+     * Scoring the same window of the stream again gives the same score, FlightRecording.replay relies on it
+     */
+    public long getLastTotalSamples() {
+        return lastTotalSamples;
+    }
+
+    /***
+     * @return Absolute index of the first sample of the last processed window
+     */
+    public long getWindowStart() {
+        return melSpectrogram.getWindowStart();
+    }
+
+    /***
+     * Start a new stream, the next window doesn't reuse frames of previous ones
+     */
+    public void reset() {
+        melSpectrogram.reset();
+        lastPushedSamples = -1;
+        lastTotalSamples = -1;
+        hasResult = false;
+    }
+}
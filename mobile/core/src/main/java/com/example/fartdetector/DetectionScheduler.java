@@ -0,0 +1,297 @@
+package com.example.fartdetector;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/***
+ * Runs detection on a dedicated thread when new audio arrives.
+ * Notifications are coalesced: a tick always processes the latest audio, and ticks are never
+ * queued to catch up when computation takes longer than the interval.
+ * Results are handed to a publish executor, for example the UI thread, with at most one pending publication.
+ * A pipelined detection returns NaN from compute and passes its scores to publish(float) later.
+ */
+public class DetectionScheduler {
+
+    /***
+     * Source of monotonic time, replaced by a fake clock in tests
+     */
+    public interface Clock {
+        long uptimeMillis();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+    };
+
+    /***
+     * Detection work split into computation and publication of the result
+     */
+    public interface Detection {
+        /***
+         * Compute score for the latest audio, called on the scheduler thread
+         * @return Detection score, or NaN if the score is published later with DetectionScheduler.publish
+         */
+        float compute();
+
+        /***
+         * Show the latest score, called on the publish executor
+         * @param score Detection score
+         */
+        void publish(float score);
+    }
+
+    /***
+     * Decides whether a tick is worth computing, for example if there is any sound
+     */
+    public interface Gate {
+        /***
+         * @return False to skip the tick, called on the scheduler thread
+         */
+        boolean isOpen();
+    }
+
+    private final Detection detection;
+    private final Executor publishExecutor;
+    private final long minIntervalMs;
+    private final Clock clock;
+    private volatile Gate gate = null;
+    private volatile PipelineMetrics metrics = null;
+    private volatile long publishRequestTime = 0;
+    private volatile boolean gateClosed = false;
+
+    private final AtomicBoolean audioPending = new AtomicBoolean(false);
+    private final AtomicBoolean publishPending = new AtomicBoolean(false);
+    private volatile float latestScore = 0;
+    private long lastTickTime = Long.MIN_VALUE;
+
+    private volatile boolean running = false;
+    private volatile Thread worker = null;
+
+    // Statistics
+    private volatile long notifications = 0;
+    private volatile long ticks = 0;
+    private volatile long skippedPublications = 0;
+    private volatile long skippedTicks = 0;
+
+    private final Runnable publishTask = new Runnable() {
+        @Override
+        public void run() {
+            PipelineMetrics currentMetrics = metrics;
+            if (currentMetrics != null) {
+                currentMetrics.record(PipelineMetrics.Stage.UI_POST, publishRequestTime);
+            }
+            publishPending.set(false);
+            detection.publish(latestScore);
+        }
+    };
+
+    /***
+     * @param detection Work to run on every tick
+     * @param publishExecutor Executor to publish results, for example main thread executor
+     * @param minIntervalMs Minimal time between starts of two ticks
+     * @param clock Time source
+     */
+    public DetectionScheduler(Detection detection, Executor publishExecutor, long minIntervalMs, Clock clock) {
+        this.detection = detection;
+        this.publishExecutor = publishExecutor;
+        this.minIntervalMs = minIntervalMs;
+        this.clock = clock;
+    }
+
+    public DetectionScheduler(Detection detection, Executor publishExecutor, long minIntervalMs) {
+        this(detection, publishExecutor, minIntervalMs, SYSTEM_CLOCK);
+    }
+
+    /***
+     * Skip ticks while the gate is closed. When the gate closes, score 0 is published once
+     * @param gate Gate, or null to compute every tick
+     */
+    public void setGate(Gate gate) {
+        this.gate = gate;
+    }
+
+    /***
+     * Record tick duration, publication delay and tick counters
+     * @param metrics Metrics, or null to disable recording
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /***
+     * Start the scheduler thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Detection Thread");
+        worker = thread;
+        thread.start();
+    }
+
+    /***
+     * Stop the scheduler thread and wait for the current tick to finish
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Thread thread = worker;
+        worker = null;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        audioPending.set(false);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /***
+     * Signal that new audio is available. Never blocks, safe to call from the audio thread
+     */
+    public void onAudioAvailable() {
+        notifications++;
+        if (!audioPending.getAndSet(true)) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /***
+     * Run a tick if audio is pending and the interval since the previous tick has passed
+     * @return Milliseconds to wait before the next check, 0 if a tick was run, -1 if there is no pending audio
+     */
+    long runPending() {
+        if (!audioPending.get()) {
+            return -1;
+        }
+        long now = clock.uptimeMillis();
+        if (lastTickTime != Long.MIN_VALUE && now - lastTickTime < minIntervalMs) {
+            return minIntervalMs - (now - lastTickTime);
+        }
+
+        audioPending.set(false);
+        lastTickTime = now;
+        Gate currentGate = gate;
+        PipelineMetrics currentMetrics = metrics;
+        if (currentGate != null && !currentGate.isOpen()) {
+            skippedTicks++;
+            if (currentMetrics != null) {
+                currentMetrics.increment(PipelineMetrics.Counter.GATE_SKIPPED_TICKS);
+            }
+            if (gateClosed) {
+                return 0;
+            }
+            // Don't leave the last score of an event on the screen
+            gateClosed = true;
+            latestScore = 0;
+        } else {
+            gateClosed = false;
+            long startTime = System.nanoTime();
+            float score = detection.compute();
+            ticks++;
+            if (currentMetrics != null) {
+                long duration = currentMetrics.record(PipelineMetrics.Stage.TICK, startTime) - startTime;
+                currentMetrics.increment(PipelineMetrics.Counter.TICKS);
+                if (duration > TimeUnit.MILLISECONDS.toNanos(minIntervalMs)) {
+                    currentMetrics.increment(PipelineMetrics.Counter.OVERRUN_TICKS);
+                }
+            }
+            if (Float.isNaN(score)) {
+                return 0;
+            }
+            latestScore = score;
+        }
+        requestPublication(currentMetrics);
+        return 0;
+    }
+
+    /***
+     * Publish a score computed outside of a tick, for example by an InferenceStage. Safe to call from any thread,
+     * scores are coalesced like the ones of ticks
+     * @param score Detection score
+     */
+    public void publish(float score) {
+        if (gateClosed) {
+            // Late result of a window before the gate closed
+            return;
+        }
+        latestScore = score;
+        requestPublication(metrics);
+    }
+
+    private void requestPublication(PipelineMetrics currentMetrics) {
+        if (publishPending.compareAndSet(false, true)) {
+            publishRequestTime = System.nanoTime();
+            publishExecutor.execute(publishTask);
+        } else {
+            // Previous result is not shown yet, it will show the latest score instead
+            skippedPublications++;
+            if (currentMetrics != null) {
+                currentMetrics.increment(PipelineMetrics.Counter.SKIPPED_PUBLICATIONS);
+            }
+        }
+    }
+
+    private void loop() {
+        while (running) {
+            long waitMs = runPending();
+            if (waitMs < 0) {
+                LockSupport.park(this);
+            } else if (waitMs > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitMs));
+            }
+        }
+    }
+
+    /***
+     * @return Number of onAudioAvailable calls
+     */
+    public long getNotifications() {
+        return notifications;
+    }
+
+    /***
+     * @return Number of computed ticks
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /***
+     * @return Number of ticks skipped because the gate was closed
+     */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /***
+     * @return Number of results replaced by a newer one before being published
+     */
+    public long getSkippedPublications() {
+        return skippedPublications;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.fartdetector;
+
+import java.nio.FloatBuffer;
+
+/***
+ * Model which scores spectrogram features of an audio window.
+ * Implementations are not required to be thread safe, use one detector per thread.
+ */
+public interface Detector {
+
+    /***
+     * Creates detectors, for example one per worker thread or on a loader thread
+     */
+    interface Factory {
+        Detector create() throws Exception;
+    }
+
+    /***
+     * @return Buffer for model input, DetectionPipeline writes N_MELS x FRAMES features here row by row
+     * before every detect call
+     */
+    FloatBuffer getInput();
+
+    /***
+     * Run the model on the current input
+     * @return Probability of a fart in the window
+     */
+    float detect();
+}
@@ -0,0 +1,160 @@
+package com.example.fartdetector;
+
+import java.lang.reflect.Constructor;
+import java.nio.FloatBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Creates a detector on a background thread and warms it up with one inference on a dummy input,
+ * so neither the UI thread nor the first detection tick pays for model loading and
+ * interpreter initialization.
+ */
+public class DetectorLoader {
+
+    /***
+     * Loading result, called on the listener executor
+     */
+    public interface Listener {
+        void onReady(Detector detector);
+
+        void onFailed(Exception error);
+    }
+
+    private final Detector.Factory factory;
+    private final Listener listener;
+    private final Executor listenerExecutor;
+
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile Detector detector = null;
+    private volatile Exception error = null;
+    private volatile long loadMillis = 0;
+    private volatile long warmUpMillis = 0;
+    private Thread thread = null;
+
+    /***
+     * Create detectors by class name, with constructor (String modelPath) if a model is given
+     * or with a constructor without arguments otherwise, for desktop tools which get the class on the command line
+     */
+    public static Detector.Factory reflectionFactory(String className, final String modelPath)
+            throws ReflectiveOperationException {
+        Class<? extends Detector> detectorClass = Class.forName(className).asSubclass(Detector.class);
+        final Constructor<? extends Detector> constructor = modelPath != null
+                ? detectorClass.getConstructor(String.class)
+                : detectorClass.getConstructor();
+        return new Detector.Factory() {
+            @Override
+            public Detector create() throws Exception {
+                return modelPath != null ? constructor.newInstance(modelPath) : constructor.newInstance();
+            }
+        };
+    }
+
+    /***
+     * @param factory Creates the detector, called on the loader thread
+     * @param listener Receives the result, may be null
+     * @param listenerExecutor Executor for the listener, for example main thread executor
+     */
+    public DetectorLoader(Detector.Factory factory, Listener listener, Executor listenerExecutor) {
+        this.factory = factory;
+        this.listener = listener;
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /***
+     * Start loading, does nothing if loading was already started
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        }, "Detector loader");
+        thread.start();
+    }
+
+    private void load() {
+        try {
+            long startTime = System.nanoTime();
+            Detector loaded = factory.create();
+            long loadedTime = System.nanoTime();
+
+            // Dummy input of the model shape, the result is ignored
+            FloatBuffer input = loaded.getInput();
+            for (int i = 0; i < input.capacity(); i++) {
+                input.put(i, 0);
+            }
+            loaded.detect();
+
+            loadMillis = TimeUnit.NANOSECONDS.toMillis(loadedTime - startTime);
+            warmUpMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loadedTime);
+            detector = loaded;
+        } catch (Exception e) {
+            error = e;
+        }
+        finished.countDown();
+
+        if (listener != null) {
+            listenerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (detector != null) {
+                        listener.onReady(detector);
+                    } else {
+                        listener.onFailed(error);
+                    }
+                }
+            });
+        }
+    }
+
+    /***
+     * @return True when the detector is loaded and warmed up
+     */
+    public boolean isReady() {
+        return detector != null;
+    }
+
+    /***
+     * @return Warmed up detector, or null if it isn't ready yet or loading failed
+     */
+    public Detector getDetector() {
+        return detector;
+    }
+
+    /***
+     * @return Loading error, or null
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /***
+     * Wait until loading finishes
+     * @param timeoutMs Maximum time to wait
+     * @return Detector, or null if it isn't ready in time or loading failed
+     */
+    public Detector await(long timeoutMs) throws InterruptedException {
+        finished.await(timeoutMs, TimeUnit.MILLISECONDS);
+        return detector;
+    }
+
+    /***
+     * @return Time spent to create the detector
+     */
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    /***
+     * @return Time of the warm-up inference, usually much longer than the following ones
+     */
+    public long getWarmUpMillis() {
+        return warmUpMillis;
+    }
+}
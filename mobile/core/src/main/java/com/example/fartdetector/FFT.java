@@ -0,0 +1,144 @@
+package com.example.fartdetector;
+
+/***
+ * Iterative radix-2 FFT with precomputed bit reversal and twiddle tables.
+ * Real signals are transformed with a complex FFT of half size, so no work is wasted on zero imaginary parts.
+ * All work buffers are allocated once, transforms don't allocate memory, so an instance is not thread safe.
+ */
+public class FFT {
+
+    private final int size;
+    private final int[] bitReverse;
+    private final double[] cosTable;
+    private final double[] sinTable;
+
+    // Half size complex FFT and work buffers for real input
+    private final FFT halfFFT;
+    private final double[] halfRe;
+    private final double[] halfIm;
+
+    /***
+     * Create FFT of fixed size
+     * @param size Number of points, must be a power of two
+     */
+    public FFT(int size) {
+        this(size, true);
+    }
+
+    private FFT(int size, boolean realInput) {
+        if (size < 2 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of two");
+        }
+        this.size = size;
+
+        int bits = Integer.numberOfTrailingZeros(size);
+        bitReverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+
+        cosTable = new double[size / 2];
+        sinTable = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            cosTable[i] = Math.cos(2 * Math.PI * i / size);
+            sinTable[i] = Math.sin(2 * Math.PI * i / size);
+        }
+
+        if (realInput && size >= 4) {
+            halfFFT = new FFT(size / 2, false);
+            halfRe = new double[size / 2];
+            halfIm = new double[size / 2];
+        } else {
+            halfFFT = null;
+            halfRe = null;
+            halfIm = null;
+        }
+    }
+
+    /***
+     * @return Number of points
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /***
+     * Forward transform of a real signal. Only non-negative frequencies are returned,
+     * the rest of the spectrum is their complex conjugate.
+     * @param signal Real signal, array of FFT size
+     * @param re Output array for real parts of size / 2 + 1 bins
+     * @param im Output array for imaginary parts of size / 2 + 1 bins
+     */
+    public void realTransform(double[] signal, double[] re, double[] im) {
+        if (halfFFT == null) {
+            throw new IllegalArgumentException("Real FFT size must be at least 4");
+        }
+        int half = size / 2;
+
+        // Pack even samples to real and odd samples to imaginary parts
+        for (int i = 0; i < half; i++) {
+            halfRe[i] = signal[2 * i];
+            halfIm[i] = signal[2 * i + 1];
+        }
+        halfFFT.transform(halfRe, halfIm);
+
+        // Split spectrum of packed signal to spectra of even and odd samples and combine them
+        re[0] = halfRe[0] + halfIm[0];
+        im[0] = 0;
+        re[half] = halfRe[0] - halfIm[0];
+        im[half] = 0;
+        for (int k = 1; k < half; k++) {
+            double zr = halfRe[k];
+            double zi = halfIm[k];
+            double cr = halfRe[half - k];
+            double ci = -halfIm[half - k];
+
+            double evenRe = (zr + cr) / 2;
+            double evenIm = (zi + ci) / 2;
+            double oddRe = (zi - ci) / 2;
+            double oddIm = (cr - zr) / 2;
+
+            double wr = cosTable[k];
+            double wi = -sinTable[k];
+            re[k] = evenRe + oddRe * wr - oddIm * wi;
+            im[k] = evenIm + oddRe * wi + oddIm * wr;
+        }
+    }
+
+    /***
+     * Forward transform of a complex signal, result replaces the input
+     * @param re Real parts, array of FFT size
+     * @param im Imaginary parts, array of FFT size
+     */
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                double tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+
+        for (int half = 1; half < size; half *= 2) {
+            int tableStep = size / (half * 2);
+            for (int start = 0; start < size; start += half * 2) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cosTable[k * tableStep];
+                    double wi = -sinTable[k * tableStep];
+                    int even = start + k;
+                    int odd = even + half;
+                    double tr = re[odd] * wr - im[odd] * wi;
+                    double ti = re[odd] * wi + im[odd] * wr;
+                    re[odd] = re[even] - tr;
+                    im[odd] = im[even] - ti;
+                    re[even] += tr;
+                    im[even] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.fartdetector;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/***
+ * Fixed-point version of LibrosaUtils.powerToNormalizedDb for models with an 8-bit quantized input.
+ * Decibels, normalization and quantization are one affine function of log2 of the power:
+ * q = round((10 * log10(2) * (log2(p) - log2(max)) - mean) / (std * scale)) + zeroPoint.
+ * log2 is taken from the float exponent and a table of the mantissa in Q16, the affine function
+ * is applied in Q32, so the only float operation per value is reading its bits.
+ * Doesn't allocate memory, an instance may be shared between threads.
+ */
+public class FeatureQuantizer {
+
+    // log2 in Q16 fixed point
+    private static final int LOG2_BITS = 16;
+    // Table of log2 of the mantissa with linear interpolation between 2^TABLE_BITS points
+    private static final int TABLE_BITS = 8;
+    private static final int INTERPOLATION_BITS = 23 - TABLE_BITS;
+    private static final int[] LOG2_TABLE = new int[(1 << TABLE_BITS) + 1];
+
+    static {
+        for (int i = 0; i < LOG2_TABLE.length; i++) {
+            double log2 = Math.log(1 + (double) i / (1 << TABLE_BITS)) / Math.log(2);
+            LOG2_TABLE[i] = (int) Math.round(log2 * (1 << LOG2_BITS));
+        }
+    }
+
+    private static final double DB_PER_LOG2 = 10 * Math.log10(2);
+    private static final float AMIN = (float) LibrosaUtils.AMIN;
+    private static final int AMIN_LOG2 = log2Fixed(AMIN);
+
+    private final Quantization quantization;
+    // Quantization steps per Q16 unit of log2, in Q32
+    private final long multiplier;
+    // Quantized value of log2(p) = log2(max), plus 0.5 for rounding, in Q32
+    private final long offset;
+    // -top_db relative to the maximum, in Q16 log2
+    private final int floorLog2;
+
+    /***
+     * @param quantization Quantization of the model input
+     */
+    public FeatureQuantizer(Quantization quantization) {
+        this.quantization = quantization;
+        double stepsPerDb = 1.0 / (LibrosaUtils.SPECTROGRAM_STD * quantization.getScale());
+        multiplier = Math.round(DB_PER_LOG2 / (1 << LOG2_BITS) * stepsPerDb * (1L << 32));
+        offset = Math.round((quantization.getZeroPoint() + 0.5 - LibrosaUtils.SPECTROGRAM_MEAN * stepsPerDb)
+                * (1L << 32));
+        floorLog2 = (int) -Math.round(LibrosaUtils.TOP_DB / DB_PER_LOG2 * (1 << LOG2_BITS));
+    }
+
+    public Quantization getQuantization() {
+        return quantization;
+    }
+
+    /***
+     * Quantized normalized decibels of a power spectrogram, flattened row by row
+     * @param spectrogram Two dimensions array with power spectrogram values
+     * @param destination Buffer for the result, starting from index 0, its position isn't changed
+     */
+    public void quantize(float[][] spectrogram, ByteBuffer destination) {
+        int width = spectrogram[0].length;
+        if (destination.capacity() != spectrogram.length * width) {
+            throw new IllegalArgumentException("Incorrect destination size");
+        }
+
+        // Same reference as LibrosaUtils.referenceDb
+        float max_value = Float.MIN_VALUE;
+        for (float[] row : spectrogram) {
+            for (float value : row) {
+                if (value > max_value) max_value = value;
+            }
+        }
+        int ref_log2 = log2OrAmin(max_value);
+
+        int min = quantization.getMin();
+        int max = quantization.getMax();
+        for (int i = 0; i < spectrogram.length; i++) {
+            float[] row = spectrogram[i];
+            int index = i * width;
+            for (int j = 0; j < width; j++) {
+                int relative = Math.max(log2OrAmin(row[j]) - ref_log2, floorLog2);
+                long quantized = (relative * multiplier + offset) >> 32;
+                destination.put(index + j, (byte) Math.max(min, Math.min(max, quantized)));
+            }
+        }
+    }
+
+    /***
+     * Real values of quantized features, for example to draw them
+     * @param source Quantized features from index 0
+     * @param destination Buffer of the same size for real values
+     */
+    public void dequantize(ByteBuffer source, FloatBuffer destination) {
+        if (destination.capacity() != source.capacity()) {
+            throw new IllegalArgumentException("Incorrect destination size");
+        }
+        for (int i = 0; i < source.capacity(); i++) {
+            destination.put(i, quantization.dequantize(source.get(i)));
+        }
+    }
+
+    private static int log2OrAmin(float value) {
+        return value > AMIN ? log2Fixed(value) : AMIN_LOG2;
+    }
+
+    /***
+     * @param value Positive normal float
+     * @return log2 of the value in Q16
+     */
+    static int log2Fixed(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int exponent = (bits >>> 23) - 127;
+        int mantissa = bits & 0x7fffff;
+        int index = mantissa >>> INTERPOLATION_BITS;
+        int fraction = mantissa & ((1 << INTERPOLATION_BITS) - 1);
+        int low = LOG2_TABLE[index];
+        int high = LOG2_TABLE[index + 1];
+        return (exponent << LOG2_BITS) + low + (((high - low) * fraction) >> INTERPOLATION_BITS);
+    }
+}
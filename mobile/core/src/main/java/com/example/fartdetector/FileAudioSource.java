@@ -0,0 +1,75 @@
+package com.example.fartdetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ShortBuffer;
+
+/***
+ * Audio source which plays a mono 16-bit WAV file in chunks.
+ * Chunks are views of the memory mapped file, so samples are never copied.
+ * Optionally delivers chunks at the rate of a live microphone.
+ */
+public class FileAudioSource implements AudioSource {
+
+    private final MappedAudioFile file;
+    private final int chunkLength;
+    private final boolean realTime;
+    private final RealTimePacer pacer;
+    private long position = 0;
+
+    /***
+     * @param path WAV file
+     * @param chunkLength Number of samples in every chunk, the last one may be shorter
+     * @param realTime True to wait for the duration of every chunk, like a microphone does
+     */
+    public FileAudioSource(File path, int chunkLength, boolean realTime) throws IOException {
+        if (chunkLength <= 0 || chunkLength > MappedAudioFile.MAX_WINDOW_LENGTH) {
+            throw new IllegalArgumentException("Chunk length must be from 1 to " + MappedAudioFile.MAX_WINDOW_LENGTH);
+        }
+        this.file = MappedAudioFile.openWav(path);
+        this.chunkLength = chunkLength;
+        this.realTime = realTime;
+        this.pacer = new RealTimePacer(file.getSampleRate());
+    }
+
+    @Override
+    public int getSampleRate() {
+        return file.getSampleRate();
+    }
+
+    @Override
+    public void start() {
+        position = 0;
+        pacer.start();
+    }
+
+    @Override
+    public ShortBuffer read() throws IOException {
+        long left = file.getSampleCount() - position;
+        if (left <= 0) {
+            return null;
+        }
+        int length = (int) Math.min(chunkLength, left);
+        ShortBuffer chunk = file.getSamples(position, length);
+        position += length;
+        if (realTime) {
+            try {
+                pacer.await(position);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for audio");
+            }
+        }
+        return chunk;
+    }
+
+    @Override
+    public void close() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing to release
+        }
+    }
+}
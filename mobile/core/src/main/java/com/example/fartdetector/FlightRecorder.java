@@ -0,0 +1,283 @@
+package com.example.fartdetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/***
+ * Black box of the detector: raw audio, scores of detection ticks and spray triggers,
+ * appended to memory-mapped segment files of fixed-size records in a directory.
+ * The directory keeps maxSegments files with records, the oldest ones are deleted when new ones are created,
+ * so the recording covers the last few minutes before a false trigger.
+ * Writers claim a record slot with an atomic counter and fill it in the mapped memory, so recording never blocks
+ * and doesn't allocate memory; it may be called from the audio and detection threads at the same time.
+ * The next segment is created and mapped ahead by a background thread. If it isn't ready when the current
+ * segment is full, records are dropped and counted. Data reaches the file even if the process is killed.
+ * Read and replay recordings with FlightRecording.
+ */
+public class FlightRecorder implements Closeable {
+
+    // Record layout, little-endian
+    static final int RECORD_SIZE = 2048;
+    static final int TYPE_OFFSET = 0;
+    static final int COUNT_OFFSET = 4;
+    static final int TIME_OFFSET = 8;
+    static final int POSITION_OFFSET = 16;
+    static final int SCORE_OFFSET = 24;
+    static final int PAYLOAD_OFFSET = 32;
+    public static final int MAX_SAMPLES_PER_RECORD = (RECORD_SIZE - PAYLOAD_OFFSET) / 2;
+
+    // Record types, zero marks a free slot
+    static final int TYPE_SESSION = 1;
+    static final int TYPE_AUDIO = 2;
+    static final int TYPE_SCORE = 3;
+    static final int TYPE_TRIGGER = 4;
+
+    static final String SEGMENT_PREFIX = "flight-";
+    static final String SEGMENT_SUFFIX = ".rec";
+
+    public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    private static final long ROLL_CHECK_NANOS = 100_000_000L;
+
+    /***
+     * Mapped segment file and its next free slot
+     */
+    private static final class Segment {
+        final long number;
+        final MappedByteBuffer buffer;
+        final AtomicInteger nextSlot = new AtomicInteger();
+
+        Segment(long number, MappedByteBuffer buffer) {
+            this.number = number;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int recordsPerSegment;
+    private final int maxSegments;
+
+    private final AtomicReference<Segment> current = new AtomicReference<>();
+    // Mapped by the roller thread before the current segment is full
+    private final AtomicReference<Segment> prepared = new AtomicReference<>();
+    private volatile IOException rollError = null;
+    private volatile boolean closed = false;
+    private final Thread roller;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    public FlightRecorder(File directory, int sampleRate) throws IOException {
+        this(directory, sampleRate, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /***
+     * Start a new session after the segments already in the directory
+     * @param directory Directory for segment files, created if needed
+     * @param sampleRate Sample rate of the recorded audio
+     * @param segmentBytes Size of a segment file, rounded down to whole records
+     * @param maxSegments Number of segment files kept, at least 2. One more empty segment is mapped ahead
+     */
+    public FlightRecorder(File directory, int sampleRate, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes < RECORD_SIZE || maxSegments < 2) {
+            throw new IllegalArgumentException("At least two segments of one record are needed");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory " + directory);
+        }
+        this.directory = directory;
+        this.recordsPerSegment = segmentBytes / RECORD_SIZE;
+        this.maxSegments = maxSegments;
+
+        long[] existing = FlightRecording.listSegments(directory);
+        long first = existing.length > 0 ? existing[existing.length - 1] + 1 : 0;
+        current.set(createSegment(first));
+        deleteOldSegments(maxSegments);
+
+        roller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                roll();
+            }
+        }, "Flight recorder");
+        roller.setDaemon(true);
+        roller.start();
+
+        write(TYPE_SESSION, sampleRate, 0, null, 0, 0);
+    }
+
+    /***
+     * Record a chunk of audio from position to limit of the buffer, position isn't changed.
+     * Called on the audio thread for every chunk pushed to the ring buffer
+     * @param chunk Raw samples
+     * @param streamPosition Number of samples pushed to the stream before this chunk, RingAudioBuffer.getWriteSequence
+     */
+    public void recordAudio(ShortBuffer chunk, long streamPosition) {
+        int start = chunk.position();
+        int length = chunk.remaining();
+        for (int offset = 0; offset < length; offset += MAX_SAMPLES_PER_RECORD) {
+            int count = Math.min(MAX_SAMPLES_PER_RECORD, length - offset);
+            write(TYPE_AUDIO, streamPosition + offset, 0, chunk, start + offset, count);
+        }
+    }
+
+    /***
+     * Record the score of a detection tick
+     * @param totalSamples Number of stream samples the window ended at, DetectionPipeline.getLastTotalSamples
+     * @param score Detector score
+     */
+    public void recordScore(long totalSamples, float score) {
+        write(TYPE_SCORE, totalSamples, score, null, 0, 0);
+    }
+
+    /***
+     * Record a spray command
+     * @param totalSamples Number of stream samples the window ended at
+     * @param score Score which triggered the spray
+     */
+    public void recordTrigger(long totalSamples, float score) {
+        write(TYPE_TRIGGER, totalSamples, score, null, 0, 0);
+    }
+
+    /***
+     * Claim a free record slot, switching to the prepared segment when the current one is full, and fill it.
+     * The record is written to the segment whose counter gave the slot: another writer may switch
+     * the current segment right after the last slot is claimed. Type is written last,
+     * so a record interrupted by a crash stays a free slot
+     * @param samples Audio samples of the payload, or null for a record without payload
+     */
+    private void write(int type, long position, float score, ShortBuffer samples, int start, int count) {
+        if (closed) {
+            return;
+        }
+        Segment segment;
+        int slot;
+        while (true) {
+            segment = current.get();
+            slot = segment.nextSlot.getAndIncrement();
+            if (slot < recordsPerSegment) {
+                records.incrementAndGet();
+                break;
+            }
+            Segment next = prepared.get();
+            if (next != null && current.compareAndSet(segment, next)) {
+                prepared.compareAndSet(next, null);
+                LockSupport.unpark(roller);
+            } else if (next == null && current.get() == segment) {
+                droppedRecords.incrementAndGet();
+                return;
+            }
+        }
+
+        MappedByteBuffer buffer = segment.buffer;
+        int base = slot * RECORD_SIZE;
+        for (int i = 0; i < count; i++) {
+            buffer.putShort(base + PAYLOAD_OFFSET + 2 * i, samples.get(start + i));
+        }
+        buffer.putInt(base + COUNT_OFFSET, count);
+        buffer.putLong(base + TIME_OFFSET, System.nanoTime());
+        buffer.putLong(base + POSITION_OFFSET, position);
+        buffer.putFloat(base + SCORE_OFFSET, score);
+        buffer.putInt(base + TYPE_OFFSET, type);
+    }
+
+    /***
+     * Roller thread: keeps the next segment mapped and old segments deleted
+     */
+    private void roll() {
+        while (!closed) {
+            if (prepared.get() == null) {
+                try {
+                    prepared.set(createSegment(current.get().number + 1));
+                    // Prepared segment doesn't hold records yet
+                    deleteOldSegments(maxSegments + 1);
+                } catch (IOException e) {
+                    rollError = e;
+                }
+            }
+            LockSupport.parkNanos(ROLL_CHECK_NANOS);
+        }
+    }
+
+    private Segment createSegment(long number) throws IOException {
+        File file = new File(directory, FlightRecording.segmentName(number));
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength((long) recordsPerSegment * RECORD_SIZE);
+            MappedByteBuffer buffer = randomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * RECORD_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new Segment(number, buffer);
+        }
+    }
+
+    private void deleteOldSegments(int keep) {
+        long[] segments = FlightRecording.listSegments(directory);
+        for (int i = 0; i < segments.length - keep; i++) {
+            File file = new File(directory, FlightRecording.segmentName(segments[i]));
+            if (!file.delete()) {
+                rollError = new IOException("Can't delete " + file);
+            }
+        }
+    }
+
+    /***
+     * @return Number of records written
+     */
+    public long getRecords() {
+        return records.get();
+    }
+
+    /***
+     * @return Number of records dropped because the next segment wasn't ready
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    /***
+     * @return Last error of creating or deleting segments, null if there were none
+     */
+    public IOException getRollError() {
+        return rollError;
+    }
+
+    /***
+     * Stop recording and flush mapped segments to storage. Records written at the same time may be lost
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(roller);
+        try {
+            roller.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.get().buffer.force();
+        Segment next = prepared.getAndSet(null);
+        if (next != null) {
+            // Never used, it would only hold an empty session
+            new File(directory, FlightRecording.segmentName(next.number)).delete();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FlightRecorder " + directory + ", " + Arrays.toString(FlightRecording.listSegments(directory));
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.fartdetector;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+
+/***
+ * Reader of segment files written by FlightRecorder, and replay of the recorded audio through a pipeline.
+ * A pipeline scores the same window of a stream the same way, so the replayed scores must match the recorded ones
+ * when the recording is replayed with the same model and feature kernels.
+ */
+public class FlightRecording {
+
+    /***
+     * Receives records in the order they were written. Times are System.nanoTime of the recording device
+     */
+    public static abstract class Visitor {
+        /***
+         * Recorder was started, stream positions start from zero again
+         */
+        public void onSession(long time, int sampleRate) {
+        }
+
+        /***
+         * @param position Index of the first sample in the stream
+         * @param samples Raw samples, valid only during the call
+         */
+        public void onAudio(long time, long position, ShortBuffer samples) {
+        }
+
+        public void onScore(long time, long totalSamples, float score) {
+        }
+
+        public void onTrigger(long time, long totalSamples, float score) {
+        }
+    }
+
+    /***
+     * Outcome of a replay
+     */
+    public static class ReplayResult {
+        int sessions = 0;
+        int scores = 0;
+        int mismatches = 0;
+        int skippedScores = 0;
+        int triggers = 0;
+        int gaps = 0;
+        float maxDifference = 0;
+
+        /***
+         * @return Number of recorded scores which were replayed
+         */
+        public int getScores() {
+            return scores;
+        }
+
+        /***
+         * @return Number of replayed scores not equal to the recorded ones
+         */
+        public int getMismatches() {
+            return mismatches;
+        }
+
+        /***
+         * @return Maximum absolute difference between replayed and recorded scores
+         */
+        public float getMaxDifference() {
+            return maxDifference;
+        }
+
+        /***
+         * @return Number of scores which weren't replayed, because their audio isn't in the recording
+         */
+        public int getSkippedScores() {
+            return skippedScores;
+        }
+
+        /***
+         * @return Number of places where audio is missing, because records were dropped
+         */
+        public int getGaps() {
+            return gaps;
+        }
+
+        public int getTriggers() {
+            return triggers;
+        }
+
+        public int getSessions() {
+            return sessions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d sessions, %d scores, %d mismatches (max difference %.6f), %d skipped, %d gaps, %d triggers",
+                    sessions, scores, mismatches, maxDifference, skippedScores, gaps, triggers);
+        }
+    }
+
+    private FlightRecording() {
+    }
+
+    static String segmentName(long number) {
+        return String.format(Locale.US, "%s%010d%s", FlightRecorder.SEGMENT_PREFIX, number,
+                FlightRecorder.SEGMENT_SUFFIX);
+    }
+
+    /***
+     * @return Numbers of segment files in the directory, oldest first
+     */
+    static long[] listSegments(File directory) {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FlightRecorder.SEGMENT_PREFIX) && name.endsWith(FlightRecorder.SEGMENT_SUFFIX);
+            }
+        });
+        if (names == null) {
+            return new long[0];
+        }
+        long[] numbers = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            try {
+                numbers[count] = Long.parseLong(name.substring(FlightRecorder.SEGMENT_PREFIX.length(),
+                        name.length() - FlightRecorder.SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                // Not a segment
+            }
+        }
+        numbers = Arrays.copyOf(numbers, count);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    /***
+     * Read all records of the directory, oldest segment first. Free slots are skipped
+     * @param directory Directory of a FlightRecorder
+     * @param visitor Receiver of records
+     */
+    public static void read(File directory, Visitor visitor) throws IOException {
+        short[] samples = new short[FlightRecorder.MAX_SAMPLES_PER_RECORD];
+        ShortBuffer samplesBuffer = ShortBuffer.wrap(samples);
+        for (long number : listSegments(directory)) {
+            MappedByteBuffer buffer;
+            try (RandomAccessFile file = new RandomAccessFile(new File(directory, segmentName(number)), "r")) {
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            int records = buffer.capacity() / FlightRecorder.RECORD_SIZE;
+            for (int slot = 0; slot < records; slot++) {
+                int base = slot * FlightRecorder.RECORD_SIZE;
+                int type = buffer.getInt(base + FlightRecorder.TYPE_OFFSET);
+                int count = buffer.getInt(base + FlightRecorder.COUNT_OFFSET);
+                long time = buffer.getLong(base + FlightRecorder.TIME_OFFSET);
+                long position = buffer.getLong(base + FlightRecorder.POSITION_OFFSET);
+                float score = buffer.getFloat(base + FlightRecorder.SCORE_OFFSET);
+                switch (type) {
+                    case FlightRecorder.TYPE_SESSION:
+                        visitor.onSession(time, (int) position);
+                        break;
+                    case FlightRecorder.TYPE_AUDIO:
+                        if (count < 0 || count > samples.length) {
+                            throw new IOException("Corrupted audio record in segment " + number + ", slot " + slot);
+                        }
+                        int payload = base + FlightRecorder.PAYLOAD_OFFSET;
+                        for (int i = 0; i < count; i++) {
+                            samples[i] = buffer.getShort(payload + 2 * i);
+                        }
+                        samplesBuffer.clear().limit(count);
+                        visitor.onAudio(time, position, samplesBuffer);
+                        break;
+                    case FlightRecorder.TYPE_SCORE:
+                        visitor.onScore(time, position, score);
+                        break;
+                    case FlightRecorder.TYPE_TRIGGER:
+                        visitor.onTrigger(time, position, score);
+                        break;
+                    default:
+                        // Free slot, or a record interrupted by a crash
+                        break;
+                }
+            }
+        }
+    }
+
+    /***
+     * Score the recorded audio at the stream positions of the recorded scores and compare the scores.
+     * Every session starts a new stream of the pipeline. After a gap in the audio the pipeline starts
+     * a new stream too, scores of windows with missing samples are skipped
+     * @param directory Directory of a FlightRecorder
+     * @param pipeline Pipeline with the detector to replay, it is reset
+     * @return Comparison of replayed and recorded scores
+     */
+    public static ReplayResult replay(File directory, final DetectionPipeline pipeline) throws IOException {
+        final ReplayResult result = new ReplayResult();
+        final int window = DetectionPipeline.WINDOW_LENGTH;
+        // Scores are recorded after audio of their window, more audio may be recorded in between
+        final short[] history = new short[4 * window];
+        final short[] windowSamples = new short[window];
+        final ShortBuffer windowBuffer = ShortBuffer.wrap(windowSamples);
+        final ArrayDeque<long[]> pending = new ArrayDeque<>();
+        pipeline.reset();
+
+        read(directory, new Visitor() {
+            // Stream position after the last recorded sample
+            long end = 0;
+            // First sample of the stream since the session start or the last gap
+            long start = 0;
+            boolean started = false;
+
+            @Override
+            public void onSession(long time, int sampleRate) {
+                if (sampleRate != DetectionPipeline.SAMPLE_RATE) {
+                    throw new IllegalArgumentException("Unsupported sample rate " + sampleRate);
+                }
+                result.skippedScores += pending.size();
+                pending.clear();
+                pipeline.reset();
+                end = 0;
+                start = 0;
+                started = true;
+                result.sessions++;
+            }
+
+            @Override
+            public void onAudio(long time, long position, ShortBuffer samples) {
+                if (!started || position != end) {
+                    // Recording starts in the middle of a session, or records were dropped
+                    if (started) {
+                        result.gaps++;
+                    }
+                    pipeline.reset();
+                    start = position;
+                    started = true;
+                }
+                int count = samples.remaining();
+                for (int i = 0; i < count; i++) {
+                    history[(int) ((position + i) % history.length)] = samples.get(samples.position() + i);
+                }
+                end = position + count;
+                while (!pending.isEmpty() && pending.peekFirst()[0] <= end) {
+                    long[] score = pending.pollFirst();
+                    replayScore(score[0], Float.intBitsToFloat((int) score[1]));
+                }
+            }
+
+            @Override
+            public void onScore(long time, long totalSamples, float score) {
+                if (totalSamples > end) {
+                    pending.addLast(new long[]{totalSamples, Float.floatToRawIntBits(score)});
+                } else {
+                    replayScore(totalSamples, score);
+                }
+            }
+
+            @Override
+            public void onTrigger(long time, long totalSamples, float score) {
+                result.triggers++;
+            }
+
+            private void replayScore(long totalSamples, float score) {
+                // Samples before the stream start are zeros, like in an empty ring buffer
+                if (start > 0 && totalSamples - window < start || end - totalSamples > history.length - window) {
+                    result.skippedScores++;
+                    return;
+                }
+                for (int i = 0; i < window; i++) {
+                    long position = totalSamples - window + i;
+                    windowSamples[i] = position < 0 ? 0 : history[(int) (position % history.length)];
+                }
+                windowBuffer.clear();
+                float replayed = pipeline.processWindow(windowBuffer, totalSamples);
+                float difference = Math.abs(replayed - score);
+                if (replayed != score) {
+                    result.mismatches++;
+                }
+                result.maxDifference = Math.max(result.maxDifference, difference);
+                result.scores++;
+            }
+        });
+        result.skippedScores += pending.size();
+        return result;
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.fartdetector;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/***
+ * Second stage of a pipelined detection: runs the detector on its own thread, so features of the next window
+ * are computed by DetectionPipeline while the model scores the current one.
+ * Features are handed over in two preallocated input slots of the detector input size: the producer writes one
+ * while the inference thread reads the other, and the chosen slot is copied to the detector input before inference.
+ * When inference falls behind, features which were not taken yet are overwritten by newer ones, latest wins,
+ * so the producer never waits and the detector always scores the latest window.
+ * One producer thread and the inference thread, nothing is allocated per window.
+ */
+public class InferenceStage {
+
+    /***
+     * Receives scores, called on the inference thread
+     */
+    public interface Listener {
+        /***
+         * @param totalSamples Number of stream samples up to the end of the scored window
+         * @param score Detector score
+         */
+        void onScore(long totalSamples, float score);
+    }
+
+    private static final int SLOTS = 2;
+
+    private final Detector detector;
+    private final Listener listener;
+    // Float or quantized slots, like the detector input
+    private final FloatBuffer[] inputs;
+    private final ByteBuffer[] quantizedInputs;
+    // Views with their own position for the copy on the inference thread
+    private final FloatBuffer[] inputViews;
+    private final ByteBuffer[] quantizedInputViews;
+    private final FloatBuffer detectorInput;
+    private final ByteBuffer detectorQuantizedInput;
+    private final long[] slotTotalSamples = new long[SLOTS];
+    private final long[] slotSubmitTimes = new long[SLOTS];
+
+    // Slot with features which the inference thread didn't take yet, or -1
+    private final AtomicInteger ready = new AtomicInteger(-1);
+    // Producer side: slot being written, slot submitted since the last acquire or -1,
+    // and the slot the inference thread may be reading
+    private int writeSlot = -1;
+    private int submittedSlot = -1;
+    private int busySlot = SLOTS - 1;
+
+    private volatile PipelineMetrics metrics = null;
+    private volatile boolean running = false;
+    private volatile Thread worker = null;
+
+    // Statistics
+    private volatile long submitted = 0;
+    private volatile long inferences = 0;
+    private volatile long dropped = 0;
+
+    /***
+     * @param detector Detector, used only by the inference thread while the stage is running
+     * @param listener Receives every score
+     */
+    public InferenceStage(Detector detector, Listener listener) {
+        this.detector = detector;
+        this.listener = listener;
+        FloatBuffer input = detector.getInput();
+        if (detector instanceof QuantizedDetector) {
+            ByteBuffer quantizedInput = ((QuantizedDetector) detector).getQuantizedInput();
+            inputs = null;
+            inputViews = null;
+            quantizedInputs = new ByteBuffer[SLOTS];
+            quantizedInputViews = new ByteBuffer[SLOTS];
+            for (int i = 0; i < SLOTS; i++) {
+                quantizedInputs[i] = ByteBuffer.allocateDirect(quantizedInput.capacity()).order(quantizedInput.order());
+                quantizedInputViews[i] = quantizedInputs[i].duplicate();
+            }
+            detectorInput = null;
+            detectorQuantizedInput = quantizedInput.duplicate();
+        } else {
+            quantizedInputs = null;
+            quantizedInputViews = null;
+            inputs = new FloatBuffer[SLOTS];
+            inputViews = new FloatBuffer[SLOTS];
+            for (int i = 0; i < SLOTS; i++) {
+                // Same kind of buffer as the detector input, native features need a direct one
+                inputs[i] = input.isDirect()
+                        ? ByteBuffer.allocateDirect(4 * input.capacity()).order(input.order()).asFloatBuffer()
+                        : FloatBuffer.allocate(input.capacity());
+                inputViews[i] = inputs[i].duplicate();
+            }
+            detectorInput = input.duplicate();
+            detectorQuantizedInput = null;
+        }
+    }
+
+    public Detector getDetector() {
+        return detector;
+    }
+
+    /***
+     * Record inference latency
+     * @param metrics Metrics, or null to disable recording
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /***
+     * Start the inference thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Inference Thread");
+        worker = thread;
+        thread.start();
+    }
+
+    /***
+     * Stop the inference thread and wait for the current inference to finish.
+     * Features which were not taken yet are dropped
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        Thread thread = worker;
+        worker = null;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (ready.getAndSet(-1) >= 0) {
+            dropped++;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /***
+     * Take a slot for the features of the next window, producer thread. Features which were submitted
+     * but not taken by the inference thread are dropped and their slot is reused
+     * @return Slot index for getInput or getQuantizedInput
+     */
+    public int acquire() {
+        int stale = ready.getAndSet(-1);
+        if (stale >= 0) {
+            dropped++;
+            PipelineMetrics currentMetrics = metrics;
+            if (currentMetrics != null) {
+                currentMetrics.increment(PipelineMetrics.Counter.DROPPED_WINDOWS);
+            }
+        } else if (submittedSlot >= 0) {
+            // Inference thread took the submitted slot, so it is done with the other one
+            busySlot = submittedSlot;
+        }
+        submittedSlot = -1;
+        writeSlot = (busySlot + 1) % SLOTS;
+        return writeSlot;
+    }
+
+    /***
+     * @return Float features of a slot, N_MELS x FRAMES values row by row; null for quantized detectors
+     */
+    public FloatBuffer getInput(int slot) {
+        return inputs != null ? inputs[slot] : null;
+    }
+
+    /***
+     * @return Quantized features of a slot; null for float detectors
+     */
+    public ByteBuffer getQuantizedInput(int slot) {
+        return quantizedInputs != null ? quantizedInputs[slot] : null;
+    }
+
+    /***
+     * Hand the acquired slot to the inference thread, producer thread. The slot may still be read
+     * by the producer until the next acquire
+     * @param totalSamples Number of stream samples up to the end of the window
+     */
+    public void submit(long totalSamples) {
+        if (writeSlot < 0) {
+            throw new IllegalStateException("No acquired slot");
+        }
+        slotTotalSamples[writeSlot] = totalSamples;
+        slotSubmitTimes[writeSlot] = System.nanoTime();
+        submittedSlot = writeSlot;
+        writeSlot = -1;
+        submitted++;
+        ready.set(submittedSlot);
+        LockSupport.unpark(worker);
+    }
+
+    /***
+     * Take ready features and score them, on the inference thread
+     * @return False if there were no ready features
+     */
+    boolean runPending() {
+        int slot = ready.getAndSet(-1);
+        if (slot < 0) {
+            return false;
+        }
+        PipelineMetrics currentMetrics = metrics;
+        long startTime = currentMetrics != null
+                ? currentMetrics.record(PipelineMetrics.Stage.HANDOFF, slotSubmitTimes[slot]) : 0;
+        if (inputs != null) {
+            FloatBuffer source = inputViews[slot];
+            source.clear();
+            detectorInput.clear();
+            detectorInput.put(source);
+        } else {
+            ByteBuffer source = quantizedInputViews[slot];
+            source.clear();
+            detectorQuantizedInput.clear();
+            detectorQuantizedInput.put(source);
+        }
+        float score = detector.detect();
+        inferences++;
+        if (currentMetrics != null) {
+            currentMetrics.record(PipelineMetrics.Stage.INFERENCE, startTime);
+        }
+        listener.onScore(slotTotalSamples[slot], score);
+        return true;
+    }
+
+    private void loop() {
+        while (running) {
+            if (!runPending()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /***
+     * @return Number of submitted windows
+     */
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    /***
+     * @return Number of scored windows
+     */
+    public long getInferences() {
+        return inferences;
+    }
+
+    /***
+     * @return Number of windows replaced by a newer one before inference
+     */
+    public long getDropped() {
+        return dropped;
+    }
+}
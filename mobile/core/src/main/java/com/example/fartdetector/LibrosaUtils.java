@@ -0,0 +1,188 @@
+package com.example.fartdetector;
+
+import static java.lang.Math.log10;
+import static java.lang.Math.max;
+
+import java.nio.FloatBuffer;
+
+public class LibrosaUtils {
+
+    // Global statistics of the training dataset spectrograms
+    public static final float SPECTROGRAM_MEAN = -38.598f;
+    public static final float SPECTROGRAM_STD = 12.22f;
+
+    static final float TOP_DB = 80.0f;
+    static final double AMIN = 1e-10f;
+
+    // Range of powerToNormalizedDb values: decibels relative to the maximum are in [-TOP_DB, 0]
+    public static final float NORMALIZED_DB_MIN = (-TOP_DB - SPECTROGRAM_MEAN) / SPECTROGRAM_STD;
+    public static final float NORMALIZED_DB_MAX = -SPECTROGRAM_MEAN / SPECTROGRAM_STD;
+
+    /***
+     * Find minimum and maximum values on a spectrogram
+     * @param spectrogram Two dimensions array with spectrogram values
+     * @return Array with minimum and maximum values
+     */
+    public static float[] getMinMaxValues(float[][] spectrogram){
+        float max_value = Float.MIN_VALUE;
+        float min_value = Float.MAX_VALUE;
+        for (int i = 0; i < spectrogram.length; i++) {
+            for (int j = 0; j < spectrogram[i].length; j++) {
+                float value = spectrogram[i][j];
+                if (value > max_value) max_value = value;
+                if (value < min_value) min_value = value;
+            }
+        }
+
+        return new float[]{min_value, max_value};
+    }
+
+    /***
+     * Normalize spectrogram values from 0 to 1 by min and max
+     * @param spectrogram Two dimensions array with spectrogram values
+     * @return Normalized spectrogram
+     */
+    public static float[][] normalizeSpectrogramMinMax(float[][] spectrogram) {
+        float[] valuesMinMax = LibrosaUtils.getMinMaxValues(spectrogram);
+        float min_value = valuesMinMax[0];
+        float max_value = valuesMinMax[1];
+
+        float[][] newSpectrogram = new float[spectrogram.length][spectrogram[0].length];
+
+        for (int i = 0; i < spectrogram.length; i++) {
+            for (int j = 0; j < spectrogram[i].length; j++) {
+                newSpectrogram[i][j] = (spectrogram[i][j] - min_value) / (max_value - min_value);
+            }
+        }
+        return newSpectrogram;
+    }
+
+    /***
+     * Normalize spectrogram by global mean and std values
+     * @param spectrogram Two dimensions array with spectrogram values
+     * @return Normalized spectrogram
+     */
+    public static float[][] normalizeSpectrogramMeanStd(float[][] spectrogram) {
+        float mean_value = SPECTROGRAM_MEAN;
+        float std_value = SPECTROGRAM_STD;
+
+        float[][] newSpectrogram = new float[spectrogram.length][spectrogram[0].length];
+
+        for (int i = 0; i < spectrogram.length; i++) {
+            for (int j = 0; j < spectrogram[i].length; j++) {
+                newSpectrogram[i][j] = (spectrogram[i][j] - mean_value) / std_value;
+            }
+        }
+
+        return newSpectrogram;
+    }
+
+    /***
+     * Convert spectrogram values to the Decibels in calculation stable way
+     * @param spectrogram Two dimensions array with spectrogram values
+     */
+    public static void powerToDb(float[][] spectrogram) {
+        float[] valuesMinMax = LibrosaUtils.getMinMaxValues(spectrogram);
+        float max_value = valuesMinMax[1];
+        float top_db = TOP_DB;
+        double amin = AMIN;
+
+        for (int i = 0; i < spectrogram.length; i++) {
+            for (int j = 0; j < spectrogram[i].length; j++) {
+                float value = spectrogram[i][j];
+                spectrogram[i][j]  = (float) (10 * log10(max(value, amin)) - 10 * log10(max(max_value, amin)));
+            }
+        }
+
+        valuesMinMax = LibrosaUtils.getMinMaxValues(spectrogram);
+        max_value = valuesMinMax[1];
+
+        for (int i = 0; i < spectrogram.length; i++) {
+            for (int j = 0; j < spectrogram[i].length; j++) {
+                spectrogram[i][j] = max(spectrogram[i][j], max_value - top_db);
+            }
+        }
+    }
+
+    /***
+     * Flatten a spectrogram row by row
+     * @param spectrogram Two dimensions array with spectrogram values
+     * @return One dimension array with flattened spectrogram
+     */
+    public static float[] flattenSpectrogram(float[][] spectrogram) {
+        int width = spectrogram[0].length;
+        float[] flattenedSpectrogam = new float[spectrogram.length * width];
+        for (int i = 0; i < spectrogram.length; ++i) {
+            System.arraycopy(spectrogram[i], 0, flattenedSpectrogam, i * width, width);
+        }
+        return flattenedSpectrogam;
+    }
+
+    /***
+     * Fused version of powerToDb, normalizeSpectrogramMeanStd and flattenSpectrogram.
+     * Makes one pass to find the reference power and one pass to write normalized decibels,
+     * doesn't modify the spectrogram and doesn't allocate memory.
+     * @param spectrogram Two dimensions array with power spectrogram values
+     * @param destination Array for the flattened result, row by row
+     */
+    public static void powerToNormalizedDb(float[][] spectrogram, float[] destination) {
+        int width = spectrogram[0].length;
+        if (destination.length != spectrogram.length * width) {
+            throw new IllegalArgumentException("Incorrect destination size");
+        }
+
+        double ref_db = referenceDb(spectrogram);
+        for (int i = 0; i < spectrogram.length; i++) {
+            float[] row = spectrogram[i];
+            int offset = i * width;
+            for (int j = 0; j < width; j++) {
+                destination[offset + j] = normalizedDb(row[j], ref_db);
+            }
+        }
+    }
+
+    /***
+     * Fused version of powerToDb, normalizeSpectrogramMeanStd and flattenSpectrogram,
+     * which writes directly to a model input buffer.
+     * @param spectrogram Two dimensions array with power spectrogram values
+     * @param destination Buffer for the flattened result, row by row, starting from index 0
+     */
+    public static void powerToNormalizedDb(float[][] spectrogram, FloatBuffer destination) {
+        int width = spectrogram[0].length;
+        if (destination.capacity() != spectrogram.length * width) {
+            throw new IllegalArgumentException("Incorrect destination size");
+        }
+
+        double ref_db = referenceDb(spectrogram);
+        for (int i = 0; i < spectrogram.length; i++) {
+            float[] row = spectrogram[i];
+            int offset = i * width;
+            for (int j = 0; j < width; j++) {
+                destination.put(offset + j, normalizedDb(row[j], ref_db));
+            }
+        }
+    }
+
+    /***
+     * Decibels of the maximum value, the reference for powerToDb
+     */
+    private static double referenceDb(float[][] spectrogram) {
+        float max_value = Float.MIN_VALUE;
+        for (float[] row : spectrogram) {
+            for (float value : row) {
+                if (value > max_value) max_value = value;
+            }
+        }
+        return 10 * log10(max(max_value, AMIN));
+    }
+
+    /***
+     * Same arithmetic as powerToDb and normalizeSpectrogramMeanStd for a single value.
+     * Maximum of the decibels is always zero, so they are clamped at -top_db
+     */
+    private static float normalizedDb(float value, double ref_db) {
+        float db = (float) (10 * log10(max(value, AMIN)) - ref_db);
+        db = max(db, -TOP_DB);
+        return (db - SPECTROGRAM_MEAN) / SPECTROGRAM_STD;
+    }
+}
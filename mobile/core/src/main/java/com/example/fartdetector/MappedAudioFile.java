@@ -0,0 +1,192 @@
+package com.example.fartdetector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/***
+ * Mono 16-bit PCM audio file mapped to memory, for recordings of any length.
+ * Samples are not loaded into the heap, windows are returned as views of the mapping
+ * and pages are loaded by the OS when they are read.
+ * A single mapping is limited to 2 GB, so the file is mapped by overlapping regions,
+ * every window up to MAX_WINDOW_LENGTH samples lies completely inside one region.
+ * Views may be taken from several threads.
+ */
+public class MappedAudioFile implements Closeable {
+
+    // Longest window, 65 seconds of 16 kHz audio
+    public static final int MAX_WINDOW_LENGTH = 1 << 20;
+    // Samples between region starts, 512 MB
+    private static final long REGION_STRIDE = 1L << 28;
+
+    private static final int BYTES_PER_SAMPLE = 2;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int sampleRate;
+    private final long dataOffset;
+    private final long sampleCount;
+    private final long regionStride;
+    private final ShortBuffer[] regions;
+
+    MappedAudioFile(File path, int sampleRate, long dataOffset, long dataSize, long regionStride) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        this.sampleRate = sampleRate;
+        this.dataOffset = dataOffset;
+        // Size in the header may be wrong for files written by streaming recorders
+        sampleCount = Math.min(dataSize, channel.size() - dataOffset) / BYTES_PER_SAMPLE;
+        this.regionStride = regionStride;
+        regions = new ShortBuffer[(int) ((sampleCount + regionStride - 1) / regionStride)];
+    }
+
+    /***
+     * Map WAV file, format is read from its header
+     * @param path Mono 16-bit PCM WAV file
+     */
+    public static MappedAudioFile openWav(File path) throws IOException {
+        return openWav(path, REGION_STRIDE);
+    }
+
+    static MappedAudioFile openWav(File path, long regionStride) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(path, "r")) {
+            FileChannel channel = input.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0, 12);
+            if (header.getInt(0) != tag("RIFF")) {
+                throw new IOException("Not a RIFF file");
+            }
+            if (header.getInt(8) != tag("WAVE")) {
+                throw new IOException("Not a WAVE file");
+            }
+
+            int sampleRate = 0;
+            boolean hasFormat = false;
+            long position = 12;
+            while (position + 8 <= channel.size()) {
+                readFully(channel, header, position, 8);
+                int chunkTag = header.getInt(0);
+                long chunkSize = header.getInt(4) & 0xFFFFFFFFL;
+                position += 8;
+
+                if (chunkTag == tag("fmt ")) {
+                    readFully(channel, header, position, 16);
+                    WavFile.checkFormat(header.getShort(0) & 0xFFFF, header.getShort(2) & 0xFFFF,
+                            header.getShort(14) & 0xFFFF);
+                    sampleRate = header.getInt(4);
+                    hasFormat = true;
+                } else if (chunkTag == tag("data")) {
+                    if (!hasFormat) {
+                        throw new IOException("Data chunk before format chunk");
+                    }
+                    return new MappedAudioFile(path, sampleRate, position, chunkSize, regionStride);
+                }
+                // Chunks are padded to an even size
+                position += chunkSize + (chunkSize & 1);
+            }
+            throw new IOException("No data chunk");
+        }
+    }
+
+    /***
+     * Map headerless little-endian 16-bit mono PCM file
+     * @param path Raw PCM file
+     * @param sampleRate Sample rate of the recording
+     */
+    public static MappedAudioFile openRaw(File path, int sampleRate) throws IOException {
+        return new MappedAudioFile(path, sampleRate, 0, Long.MAX_VALUE, REGION_STRIDE);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /***
+     * Samples of the file without copying
+     * @param start Index of the first sample
+     * @param length Number of samples, not more than MAX_WINDOW_LENGTH
+     * @return Read only view with samples between position and limit, independent for every call
+     */
+    public ShortBuffer getSamples(long start, int length) throws IOException {
+        if (start < 0 || length < 0 || start + length > sampleCount) {
+            throw new IndexOutOfBoundsException(
+                    "Samples [" + start + ", " + (start + length) + ") out of [0, " + sampleCount + ")");
+        }
+        if (length > MAX_WINDOW_LENGTH) {
+            throw new IllegalArgumentException("Window longer than " + MAX_WINDOW_LENGTH + " samples");
+        }
+        if (length == 0) {
+            return ShortBuffer.allocate(0);
+        }
+
+        int index = (int) (start / regionStride);
+        ShortBuffer view = getRegion(index).duplicate();
+        int offset = (int) (start - index * regionStride);
+        view.limit(offset + length);
+        view.position(offset);
+        return view;
+    }
+
+    /***
+     * @return Number of full windows in the file
+     */
+    public long getWindowCount(int windowLength, int hopLength) {
+        if (sampleCount < windowLength) {
+            return 0;
+        }
+        return 1 + (sampleCount - windowLength) / hopLength;
+    }
+
+    /***
+     * Window of a sliding window sequence
+     * @param index Number of the window, starts at index * hopLength
+     * @return View of windowLength samples
+     */
+    public ShortBuffer getWindow(long index, int windowLength, int hopLength) throws IOException {
+        return getSamples(index * hopLength, windowLength);
+    }
+
+    private synchronized ShortBuffer getRegion(int index) throws IOException {
+        if (regions[index] == null) {
+            long start = index * regionStride;
+            long length = Math.min(regionStride + MAX_WINDOW_LENGTH, sampleCount - start);
+            MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY,
+                    dataOffset + start * BYTES_PER_SAMPLE, length * BYTES_PER_SAMPLE);
+            regions[index] = mapping.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+        }
+        return regions[index];
+    }
+
+    /***
+     * Close the file, mappings stay valid until views are garbage collected
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static int tag(String name) {
+        return (name.charAt(0)) | (name.charAt(1) << 8) | (name.charAt(2) << 16) | (name.charAt(3) << 24);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length)
+            throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
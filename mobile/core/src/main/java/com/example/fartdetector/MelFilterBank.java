@@ -0,0 +1,129 @@
+package com.example.fartdetector;
+
+import java.util.Arrays;
+
+/***
+ * Mel filter bank with Slaney mel scale and area normalization, same as librosa.filters.mel defaults.
+ * Each filter is a triangle covering a few FFT bins, so only its non-zero weights are stored.
+ */
+public class MelFilterBank {
+
+    // Non-zero weights of each band, starting from the bin firstBins[band]
+    private final float[][] weights;
+    private final int[] firstBins;
+
+    /***
+     * Build filters covering frequencies from 0 to Nyquist
+     * @param sampleRate Sample rate of the signal
+     * @param nFft Length of the FFT window
+     * @param nMels Number of mel bands
+     */
+    public MelFilterBank(int sampleRate, int nFft, int nMels) {
+        int nBins = 1 + nFft / 2;
+        double[] fftFreqs = new double[nBins];
+        for (int i = 0; i < nBins; i++) {
+            fftFreqs[i] = (double) i * sampleRate / nFft;
+        }
+
+        double maxMel = hzToMel(sampleRate / 2.0);
+        double[] melFreqs = new double[nMels + 2];
+        for (int i = 0; i < melFreqs.length; i++) {
+            melFreqs[i] = melToHz(maxMel * i / (melFreqs.length - 1));
+        }
+
+        weights = new float[nMels][];
+        firstBins = new int[nMels];
+        float[] bandWeights = new float[nBins];
+        for (int band = 0; band < nMels; band++) {
+            double lowerWidth = melFreqs[band + 1] - melFreqs[band];
+            double upperWidth = melFreqs[band + 2] - melFreqs[band + 1];
+            double enorm = 2.0 / (melFreqs[band + 2] - melFreqs[band]);
+            int first = nBins;
+            int last = -1;
+            for (int bin = 0; bin < nBins; bin++) {
+                double lower = (fftFreqs[bin] - melFreqs[band]) / lowerWidth;
+                double upper = (melFreqs[band + 2] - fftFreqs[bin]) / upperWidth;
+                bandWeights[bin] = (float) (Math.max(0, Math.min(lower, upper)) * enorm);
+                if (bandWeights[bin] != 0) {
+                    first = Math.min(first, bin);
+                    last = bin;
+                }
+            }
+            if (last < 0) {
+                first = 0;
+            }
+            firstBins[band] = first;
+            weights[band] = Arrays.copyOfRange(bandWeights, first, last + 1);
+        }
+    }
+
+    /***
+     * @return Number of mel bands
+     */
+    public int getMelCount() {
+        return weights.length;
+    }
+
+    /***
+     * @param band Mel band index
+     * @param bin FFT bin index
+     * @return Weight of the FFT bin in the mel band
+     */
+    public float getWeight(int band, int bin) {
+        int index = bin - firstBins[band];
+        if (index < 0 || index >= weights[band].length) {
+            return 0;
+        }
+        return weights[band][index];
+    }
+
+    /***
+     * @return First FFT bin with a non-zero weight in the mel band
+     */
+    int getFirstBin(int band) {
+        return firstBins[band];
+    }
+
+    /***
+     * @return Non-zero weights of the mel band starting from getFirstBin, the array isn't copied
+     */
+    float[] getBandWeights(int band) {
+        return weights[band];
+    }
+
+    /***
+     * Project power spectrum of one frame on mel bands
+     * @param power Power spectrum, 1 + nFft / 2 values
+     * @param mel Output array for nMels values
+     */
+    public void apply(double[] power, float[] mel) {
+        for (int band = 0; band < weights.length; band++) {
+            float[] bandWeights = weights[band];
+            int first = firstBins[band];
+            double sum = 0;
+            for (int i = 0; i < bandWeights.length; i++) {
+                sum += bandWeights[i] * power[first + i];
+            }
+            mel[band] = (float) sum;
+        }
+    }
+
+    private static final double F_SP = 200.0 / 3;
+    private static final double MIN_LOG_HZ = 1000.0;
+    private static final double MIN_LOG_MEL = MIN_LOG_HZ / F_SP;
+    private static final double LOG_STEP = Math.log(6.4) / 27.0;
+
+    private static double hzToMel(double hz) {
+        if (hz >= MIN_LOG_HZ) {
+            return MIN_LOG_MEL + Math.log(hz / MIN_LOG_HZ) / LOG_STEP;
+        }
+        return hz / F_SP;
+    }
+
+    private static double melToHz(double mel) {
+        if (mel >= MIN_LOG_MEL) {
+            return MIN_LOG_HZ * Math.exp(LOG_STEP * (mel - MIN_LOG_MEL));
+        }
+        return F_SP * mel;
+    }
+}
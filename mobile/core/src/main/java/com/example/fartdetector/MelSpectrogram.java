@@ -0,0 +1,245 @@
+package com.example.fartdetector;
+
+import java.util.concurrent.ForkJoinPool;
+
+/***
+ * Mel spectrogram of power STFT, the same as JLibrosa.generateMelSpectroGram and librosa.feature.melspectrogram:
+ * centered frames with reflect padding, periodic Hann window and Slaney mel filters.
+ * Window, filters and work buffers are created once, computation doesn't allocate memory,
+ * so an instance is not thread safe.
+ * Frames are transformed by NativeDsp kernels when the native library is loaded, by Java code otherwise.
+ * With setParallel, long signals are split into frame ranges computed on a ForkJoinPool with bit-identical results.
+ */
+public class MelSpectrogram {
+
+    // Minimal number of frames computed by one parallel worker, shorter signals are computed on one thread
+    public static final int PARALLEL_MIN_FRAMES = 32;
+
+    private final int sampleRate;
+    private final int nFft;
+    private final int nMels;
+    private final int hopLength;
+
+    private final FFT fft;
+    private final double[] hannWindow;
+    private final MelFilterBank filterBank;
+    // Null if frames are transformed in Java
+    private final NativeDsp.MelKernel nativeKernel;
+
+    // Null if frames are computed on the calling thread
+    private ParallelFrames parallelFrames = null;
+    private float[] jobSignal;
+    private float[][] jobDestination;
+    private final ParallelFrames.Job computeJob = new ParallelFrames.Job() {
+        @Override
+        public void computeFrames(MelSpectrogram worker, long from, long to) {
+            worker.computeFrames(jobSignal, jobDestination, (int) from, (int) to);
+        }
+    };
+
+    // Work buffers
+    private final double[] frame;
+    private final double[] spectrumRe;
+    private final double[] spectrumIm;
+    private final double[] power;
+    private final float[] melFrame;
+
+    /***
+     * @param sampleRate Sample rate of the signal
+     * @param nFft Length of the FFT window, must be a power of two
+     * @param nMels Number of mel bands
+     * @param hopLength Number of samples between frames
+     */
+    public MelSpectrogram(int sampleRate, int nFft, int nMels, int hopLength) {
+        this(sampleRate, nFft, nMels, hopLength, NativeDsp.isAvailable());
+    }
+
+    /***
+     * @param sampleRate Sample rate of the signal
+     * @param nFft Length of the FFT window, must be a power of two
+     * @param nMels Number of mel bands
+     * @param hopLength Number of samples between frames
+     * @param nativeDsp Transform frames with NativeDsp kernels, the native library must be loaded
+     */
+    public MelSpectrogram(int sampleRate, int nFft, int nMels, int hopLength, boolean nativeDsp) {
+        this.sampleRate = sampleRate;
+        this.nFft = nFft;
+        this.nMels = nMels;
+        this.hopLength = hopLength;
+
+        fft = new FFT(nFft);
+        filterBank = new MelFilterBank(sampleRate, nFft, nMels);
+        hannWindow = new double[nFft];
+        for (int i = 0; i < nFft; i++) {
+            hannWindow[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / nFft);
+        }
+
+        frame = new double[nFft];
+        spectrumRe = new double[1 + nFft / 2];
+        spectrumIm = new double[1 + nFft / 2];
+        power = new double[1 + nFft / 2];
+        melFrame = new float[nMels];
+        nativeKernel = nativeDsp ? new NativeDsp.MelKernel(hannWindow, filterBank) : null;
+    }
+
+    /***
+     * @return Instance with the same settings and its own work buffers
+     */
+    MelSpectrogram newWorker() {
+        return new MelSpectrogram(sampleRate, nFft, nMels, hopLength, isNative());
+    }
+
+    /***
+     * Compute long signals on several threads. Every thread of the pool gets its own work buffers,
+     * which are allocated here, so the pool should be shared and set once
+     * @param pool Pool, for example ForkJoinPool.commonPool(), or null to compute on the calling thread
+     */
+    public void setParallel(ForkJoinPool pool) {
+        parallelFrames = pool != null ? new ParallelFrames(pool, this, PARALLEL_MIN_FRAMES) : null;
+    }
+
+    /***
+     * @return True if frames are transformed by the native library
+     */
+    public boolean isNative() {
+        return nativeKernel != null;
+    }
+
+    /***
+     * @param signalLength Number of samples in the signal
+     * @return Number of frames in the spectrogram of the signal
+     */
+    public int getFrameCount(int signalLength) {
+        return 1 + signalLength / hopLength;
+    }
+
+    /***
+     * Compute mel spectrogram
+     * @param signal Audio signal
+     * @return Two dimensions array [nMels][frames] with spectrogram values
+     */
+    public float[][] compute(float[] signal) {
+        float[][] spectrogram = new float[filterBank.getMelCount()][getFrameCount(signal.length)];
+        compute(signal, spectrogram);
+        return spectrogram;
+    }
+
+    /***
+     * Compute mel spectrogram into preallocated array
+     * @param signal Audio signal, longer than half of FFT window
+     * @param destination Two dimensions array [nMels][frames] for spectrogram values
+     */
+    public void compute(float[] signal, float[][] destination) {
+        int frames = getFrameCount(signal.length);
+        if (signal.length <= nFft / 2) {
+            throw new IllegalArgumentException("Signal is too short for reflect padding");
+        }
+        if (destination.length != filterBank.getMelCount() || destination[0].length != frames) {
+            throw new IllegalArgumentException("Incorrect spectrogram size");
+        }
+
+        if (parallelFrames == null) {
+            computeFrames(signal, destination, 0, frames);
+            return;
+        }
+        jobSignal = signal;
+        jobDestination = destination;
+        try {
+            parallelFrames.run(computeJob, 0, frames);
+        } finally {
+            jobSignal = null;
+            jobDestination = null;
+        }
+    }
+
+    /***
+     * Compute frames from - to with the work buffers of this instance
+     */
+    private void computeFrames(float[] signal, float[][] destination, int from, int to) {
+        int last = signal.length - 1;
+        for (int t = from; t < to; t++) {
+            int start = t * hopLength - nFft / 2;
+            if (start >= 0 && start + nFft <= signal.length) {
+                for (int i = 0; i < nFft; i++) {
+                    frame[i] = signal[start + i];
+                }
+            } else {
+                for (int i = 0; i < nFft; i++) {
+                    // Reflect padding around the signal bounds
+                    int position = start + i;
+                    if (position < 0) {
+                        position = -position;
+                    } else if (position > last) {
+                        position = 2 * last - position;
+                    }
+                    frame[i] = signal[position];
+                }
+            }
+
+            transformFrameToMel(melFrame, null, null);
+            for (int band = 0; band < melFrame.length; band++) {
+                destination[band][t] = melFrame[band];
+            }
+        }
+    }
+
+    /***
+     * @return Buffer to put raw samples of a frame before transformFrame
+     */
+    double[] getFrame() {
+        return frame;
+    }
+
+    /***
+     * Apply window and FFT to the frame buffer, fill spectrum and power buffers
+     */
+    void transformFrame() {
+        for (int i = 0; i < nFft; i++) {
+            frame[i] *= hannWindow[i];
+        }
+        fft.realTransform(frame, spectrumRe, spectrumIm);
+        for (int bin = 0; bin < power.length; bin++) {
+            power[bin] = spectrumRe[bin] * spectrumRe[bin] + spectrumIm[bin] * spectrumIm[bin];
+        }
+    }
+
+    /***
+     * Window, FFT, power spectrum and mel projection of the frame buffer.
+     * The frame buffer may be changed, spectrum and power buffers are only filled by the Java implementation
+     * @param mel Output array for nMels values
+     * @param excludedBins FFT bins whose power is left out of mel values, or null
+     * @param excludedSpectrum Output array for re, im pairs of the excluded bins
+     */
+    void transformFrameToMel(float[] mel, int[] excludedBins, double[] excludedSpectrum) {
+        if (nativeKernel != null) {
+            nativeKernel.melFrame(frame, mel, excludedBins, excludedSpectrum);
+            return;
+        }
+        transformFrame();
+        if (excludedBins != null) {
+            for (int i = 0; i < excludedBins.length; i++) {
+                int bin = excludedBins[i];
+                excludedSpectrum[2 * i] = spectrumRe[bin];
+                excludedSpectrum[2 * i + 1] = spectrumIm[bin];
+                power[bin] = 0;
+            }
+        }
+        filterBank.apply(power, mel);
+    }
+
+    double[] getSpectrumRe() {
+        return spectrumRe;
+    }
+
+    double[] getSpectrumIm() {
+        return spectrumIm;
+    }
+
+    double[] getPower() {
+        return power;
+    }
+
+    MelFilterBank getFilterBank() {
+        return filterBank;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.fartdetector;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+/***
+ * Minimal HTTP endpoint on the loopback interface, answers every request with the current metrics.
+ * Serves one connection at a time, for adb port forwarding or a scraper in CI.
+ */
+public class MetricsHttpServer implements Closeable {
+
+    // A client which doesn't send its request must not block the others
+    static final int READ_TIMEOUT_MS = 2000;
+
+    private final PipelineMetrics metrics;
+    private final int readTimeoutMs;
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+    // Connection being served, closed by close so it doesn't wait for the read timeout
+    private volatile Socket client = null;
+
+    /***
+     * Start serving
+     * @param metrics Metrics to serve
+     * @param port Port on 127.0.0.1, 0 to choose a free one
+     */
+    public MetricsHttpServer(PipelineMetrics metrics, int port) throws IOException {
+        this(metrics, port, READ_TIMEOUT_MS);
+    }
+
+    /***
+     * Start serving
+     * @param metrics Metrics to serve
+     * @param port Port on 127.0.0.1, 0 to choose a free one
+     * @param readTimeoutMs Time to wait for the request of a connected client
+     */
+    MetricsHttpServer(PipelineMetrics metrics, int port, int readTimeoutMs) throws IOException {
+        this.metrics = metrics;
+        this.readTimeoutMs = readTimeoutMs;
+        serverSocket = new ServerSocket(port, 4, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "Metrics HTTP server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                client = socket;
+                if (serverSocket.isClosed()) {
+                    // Closed before the connection was published
+                    break;
+                }
+                socket.setSoTimeout(readTimeoutMs);
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                // Skip request line and headers
+                String line = reader.readLine();
+                while (line != null && !line.isEmpty()) {
+                    line = reader.readLine();
+                }
+
+                byte[] body = metrics.dump().getBytes(StandardCharsets.UTF_8);
+                OutputStream output = socket.getOutputStream();
+                output.write(("HTTP/1.0 200 OK\r\n"
+                        + "Content-Type: text/plain; version=0.0.4\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                output.write(body);
+                output.flush();
+            } catch (SocketException e) {
+                // Server socket is closed
+            } catch (IOException e) {
+                // Broken or silent connection, wait for the next one
+            }
+        }
+    }
+
+    /***
+     * Stop serving, a connected client is disconnected, so it doesn't block the caller
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        Socket current = client;
+        if (current != null) {
+            current.close();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
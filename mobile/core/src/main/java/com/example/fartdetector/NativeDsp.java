@@ -0,0 +1,159 @@
+package com.example.fartdetector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/***
+ * Feature extraction kernels of the native library: windowed real FFT, power spectrum, mel projection,
+ * decibels and normalization. The library is built from app/src/main/cpp for Android and for a desktop host.
+ * When it loads, it picks SSE2 or NEON kernels if the CPU supports them and plain C++ otherwise.
+ * If the library can't be loaded, isAvailable returns false and callers keep using the Java implementation.
+ * The system property fartdetector.dsp overrides the choice: "java" doesn't load the library,
+ * "scalar" loads it without vector kernels.
+ */
+public final class NativeDsp {
+
+    public static final String LIBRARY_NAME = "fartdetector";
+    public static final String PROPERTY = "fartdetector.dsp";
+
+    // Kernels chosen by the library, null if it isn't loaded
+    private static final String implementation = load();
+
+    private NativeDsp() {
+    }
+
+    private static String load() {
+        String mode = System.getProperty(PROPERTY, "");
+        if (mode.equals("java")) {
+            return null;
+        }
+        try {
+            System.loadLibrary(LIBRARY_NAME);
+            return nativeSelect(!mode.equals("scalar"));
+        } catch (UnsatisfiedLinkError | SecurityException e) {
+            return null;
+        }
+    }
+
+    /***
+     * @return True if the native library is loaded
+     */
+    public static boolean isAvailable() {
+        return implementation != null;
+    }
+
+    /***
+     * @return Kernels in use: "sse2", "neon", "scalar" for native ones or "java"
+     */
+    public static String getImplementation() {
+        return implementation != null ? implementation : "java";
+    }
+
+    /***
+     * Native version of LibrosaUtils.powerToNormalizedDb, results differ by float rounding
+     * @param spectrogram Two dimensions array with power spectrogram values
+     * @param destination Direct buffer in native byte order for the flattened result, row by row
+     */
+    public static void powerToNormalizedDb(float[][] spectrogram, FloatBuffer destination) {
+        checkAvailable();
+        if (!destination.isDirect() || destination.order() != ByteOrder.nativeOrder()) {
+            throw new IllegalArgumentException("Destination must be a direct buffer in native order");
+        }
+        int width = spectrogram[0].length;
+        if (destination.capacity() != spectrogram.length * width) {
+            throw new IllegalArgumentException("Incorrect destination size");
+        }
+        for (float[] row : spectrogram) {
+            if (row.length != width) {
+                throw new IllegalArgumentException("Spectrogram rows have different lengths");
+            }
+        }
+        nativePowerToNormalizedDb(spectrogram, destination, (float) LibrosaUtils.AMIN, LibrosaUtils.TOP_DB,
+                LibrosaUtils.SPECTROGRAM_MEAN, LibrosaUtils.SPECTROGRAM_STD);
+    }
+
+    private static void checkAvailable() {
+        if (implementation == null) {
+            throw new IllegalStateException("Native library " + LIBRARY_NAME + " isn't loaded");
+        }
+    }
+
+    /***
+     * Window, FFT, power spectrum and mel filters of one frame size. Tables and work buffers live in
+     * a direct buffer, so they are freed with the kernel. Not thread safe, like MelSpectrogram
+     */
+    static final class MelKernel {
+
+        private static final int[] NO_BINS = new int[0];
+
+        private final int nFft;
+        private final int nMels;
+        private final ByteBuffer state;
+
+        /***
+         * @param window Window function, nFft values
+         * @param filterBank Mel filters for 1 + nFft / 2 bins
+         */
+        MelKernel(double[] window, MelFilterBank filterBank) {
+            checkAvailable();
+            nFft = window.length;
+            nMels = filterBank.getMelCount();
+
+            int[] firstBins = new int[nMels];
+            int[] bandLengths = new int[nMels];
+            int weightCount = 0;
+            for (int band = 0; band < nMels; band++) {
+                firstBins[band] = filterBank.getFirstBin(band);
+                bandLengths[band] = filterBank.getBandWeights(band).length;
+                weightCount += bandLengths[band];
+            }
+            float[] weights = new float[weightCount];
+            int offset = 0;
+            for (int band = 0; band < nMels; band++) {
+                float[] bandWeights = filterBank.getBandWeights(band);
+                System.arraycopy(bandWeights, 0, weights, offset, bandWeights.length);
+                offset += bandWeights.length;
+            }
+            float[] floatWindow = new float[nFft];
+            for (int i = 0; i < nFft; i++) {
+                floatWindow[i] = (float) window[i];
+            }
+
+            state = ByteBuffer.allocateDirect(nativeStateSize(nFft, nMels, weightCount));
+            nativeInit(state, nFft, floatWindow, weights, firstBins, bandLengths);
+        }
+
+        /***
+         * Same as MelSpectrogram.transformFrameToMel, the frame isn't changed
+         * @param frame nFft raw samples
+         * @param mel Output array for nMels values
+         * @param excludedBins Bins left out of mel values, may be null
+         * @param excludedSpectrum Output array for re, im pairs of excluded bins
+         */
+        void melFrame(double[] frame, float[] mel, int[] excludedBins, double[] excludedSpectrum) {
+            if (frame.length != nFft || mel.length != nMels) {
+                throw new IllegalArgumentException("Incorrect frame or mel size");
+            }
+            if (excludedBins == null) {
+                excludedBins = NO_BINS;
+            } else if (excludedSpectrum == null || excludedSpectrum.length < 2 * excludedBins.length) {
+                throw new IllegalArgumentException("Incorrect excluded spectrum size");
+            }
+            nativeMelFrame(state, frame, mel, excludedBins, excludedSpectrum);
+        }
+    }
+
+    private static native String nativeSelect(boolean allowSimd);
+
+    private static native int nativeStateSize(int nFft, int nMels, int weightCount);
+
+    private static native void nativeInit(ByteBuffer state, int nFft, float[] window, float[] weights,
+                                          int[] firstBins, int[] bandLengths);
+
+    private static native void nativeMelFrame(ByteBuffer state, double[] frame, float[] mel,
+                                              int[] excludedBins, double[] excludedSpectrum);
+
+    private static native void nativePowerToNormalizedDb(float[][] spectrogram, FloatBuffer destination,
+                                                         float amin, float topDb, float mean, float std);
+}
@@ -0,0 +1,102 @@
+package com.example.fartdetector;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/***
+ * Splits a range of STFT frames into contiguous parts computed on a ForkJoinPool.
+ * Every part has its own MelSpectrogram worker, so parts don't share frame, FFT or native buffers,
+ * and every frame is computed by the same code as on a single thread, so results are bit-identical.
+ * Ranges shorter than twice minFrames are computed on the calling thread.
+ * Tasks are created once and reinitialized, so a run doesn't allocate memory. Not thread safe.
+ */
+final class ParallelFrames {
+
+    /***
+     * Computation of frames from - to with buffers of the worker
+     */
+    interface Job {
+        void computeFrames(MelSpectrogram worker, long from, long to);
+    }
+
+    private final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final MelSpectrogram worker;
+        Job job;
+        long from;
+        long to;
+
+        RangeTask(MelSpectrogram worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        protected void compute() {
+            job.computeFrames(worker, from, to);
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int minFrames;
+    private final RangeTask[] tasks;
+    private int parts = 0;
+    private final RecursiveAction root = new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < parts; i++) {
+                tasks[i].fork();
+            }
+            tasks[0].invoke();
+            for (int i = 1; i < parts; i++) {
+                tasks[i].join();
+            }
+        }
+    };
+
+    /***
+     * @param pool Pool to run parts on
+     * @param owner Worker of the first part, the others are copies of it
+     * @param minFrames Minimal number of frames in a part
+     */
+    ParallelFrames(ForkJoinPool pool, MelSpectrogram owner, int minFrames) {
+        this.pool = pool;
+        this.minFrames = minFrames;
+        tasks = new RangeTask[Math.max(1, pool.getParallelism())];
+        tasks[0] = new RangeTask(owner);
+        for (int i = 1; i < tasks.length; i++) {
+            tasks[i] = new RangeTask(owner.newWorker());
+        }
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /***
+     * Compute frames from - to, returns when all of them are computed
+     */
+    void run(Job job, long from, long to) {
+        long frames = to - from;
+        int count = (int) Math.min(tasks.length, frames / minFrames);
+        if (count <= 1) {
+            job.computeFrames(tasks[0].worker, from, to);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            RangeTask task = tasks[i];
+            task.reinitialize();
+            task.job = job;
+            task.from = from + frames * i / count;
+            task.to = from + frames * (i + 1) / count;
+        }
+        parts = count;
+        root.reinitialize();
+        pool.invoke(root);
+        for (int i = 0; i < count; i++) {
+            tasks[i].job = null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.fartdetector;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/***
+ * Latency of every detection stage and event counters.
+ * Recording is lock-free and doesn't allocate memory, so it is done on the audio and detection threads
+ * all the time. Metrics are dumped as text in Prometheus exposition format on demand.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        // Audio thread
+        AUDIO_READ,
+        PUSH,
+        GATE,
+        // Detection thread
+        MEL,
+        FEATURES,
+        INFERENCE,
+        TICK,
+        // Pipelined detection: from the end of features to the start of their inference on the inference thread
+        HANDOFF,
+        // From the end of a tick to the start of its publication on the UI thread
+        UI_POST,
+        // From queuing a spray command to the end of its write
+        SPRAY_SEND,
+        // From the arrival of the newest audio of a window to the end of the spray command
+        SOUND_TO_SPRAY
+    }
+
+    public enum Counter {
+        TICKS,
+        // Ticks which took longer than the scheduler interval
+        OVERRUN_TICKS,
+        SKIPPED_PUBLICATIONS,
+        GATE_SKIPPED_TICKS,
+        // Windows processed after more new samples than the buffer holds, some audio was never analyzed
+        BUFFER_OVERRUNS,
+        AUDIO_READ_ERRORS,
+        // Windows whose features and score were reused because no new hop of audio arrived, and computed windows
+        FEATURE_CACHE_HITS,
+        FEATURE_CACHE_MISSES,
+        // Pipelined windows replaced by newer ones before the inference thread took them
+        DROPPED_WINDOWS,
+        // Spray commands written, failed connection or write attempts, reconnection attempts
+        SPRAY_SENT,
+        SPRAY_FAILURES,
+        SPRAY_RECONNECTS,
+        // Spray commands merged with the previous equal one, and dropped because the queue was full or they expired
+        SPRAY_COALESCED,
+        SPRAY_DROPPED
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 1.0};
+
+    private final LatencyHistogram[] histograms;
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    public PipelineMetrics() {
+        histograms = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /***
+     * Record duration of a stage which ends now
+     * @param stage Stage
+     * @param startNanos System.nanoTime at the start of the stage
+     * @return Current System.nanoTime, the start of the next stage
+     */
+    public long record(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        histograms[stage.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /***
+     * Write metrics in Prometheus text format
+     */
+    public void dump(Appendable output) throws IOException {
+        output.append("# TYPE fartdetector_stage_latency_microseconds summary\n");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            String name = stage.name().toLowerCase(Locale.ROOT);
+            for (double quantile : QUANTILES) {
+                output.append(String.format(Locale.ROOT,
+                        "fartdetector_stage_latency_microseconds{stage=\"%s\",quantile=\"%s\"} %d\n",
+                        name, quantile, histogram.getPercentileMicros(quantile)));
+            }
+            output.append(String.format(Locale.ROOT,
+                    "fartdetector_stage_latency_microseconds_count{stage=\"%s\"} %d\n", name, histogram.getCount()));
+            output.append(String.format(Locale.ROOT,
+                    "fartdetector_stage_latency_microseconds_mean{stage=\"%s\"} %.1f\n", name, histogram.getMeanMicros()));
+        }
+        output.append("# TYPE fartdetector_events_total counter\n");
+        for (Counter counter : Counter.values()) {
+            output.append(String.format(Locale.ROOT, "fartdetector_events_total{event=\"%s\"} %d\n",
+                    counter.name().toLowerCase(Locale.ROOT), getCount(counter)));
+        }
+    }
+
+    /***
+     * @return Metrics in Prometheus text format
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        try {
+            dump(builder);
+        } catch (IOException e) {
+            // StringBuilder doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return builder.toString();
+    }
+
+    /***
+     * Write metrics to a file, replacing its content
+     */
+    public void dump(File file) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            dump(writer);
+        }
+    }
+}
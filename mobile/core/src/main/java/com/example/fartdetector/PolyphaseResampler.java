@@ -0,0 +1,192 @@
+package com.example.fartdetector;
+
+import java.nio.ShortBuffer;
+
+/***
+ * Streaming rational downsampler for 16-bit audio, for example 48 or 44.1 kHz capture to 16 kHz.
+ * Input is upsampled by L and decimated by M = inputRate / outputRate * L with one Kaiser-windowed sinc
+ * low-pass filter, which is split into L phases so only the taps which meet input samples are computed:
+ * every output sample costs tapsPerPhase multiply-adds.
+ * Filter history is kept between calls, so audio may be passed in chunks of any size.
+ * Doesn't allocate memory after construction and must be used from one thread at a time.
+ */
+public class PolyphaseResampler {
+
+    // Frequencies relative to the output Nyquist frequency: everything above it would alias
+    public static final double PASSBAND = 0.9;
+    public static final double STOPBAND = 1.0;
+    public static final double ATTENUATION_DB = 80;
+
+    // Input samples converted in one batch
+    private static final int BATCH_LENGTH = 1024;
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int upFactor;
+    private final int downFactor;
+    private final int tapsPerPhase;
+    // Phase p holds taps p, p + L, p + 2L... of the prototype filter, in reverse order
+    private final float[][] phases;
+
+    // tapsPerPhase - 1 samples of history followed by a batch of new samples
+    private final float[] samples;
+    // Index in samples of the newest input sample of the next output, and phase of the next output
+    private int inputIndex;
+    private int phase;
+
+    /***
+     * @param inputRate Sample rate of the input
+     * @param outputRate Sample rate of the output, not higher than the input one
+     */
+    public PolyphaseResampler(int inputRate, int outputRate) {
+        if (outputRate <= 0 || outputRate > inputRate) {
+            throw new IllegalArgumentException("Only downsampling is supported: " + inputRate + " -> " + outputRate);
+        }
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        int divisor = gcd(inputRate, outputRate);
+        upFactor = outputRate / divisor;
+        downFactor = inputRate / divisor;
+
+        // Kaiser estimate of the filter length for the transition band at the input rate
+        double nyquist = outputRate / 2.0;
+        double transition = 2 * Math.PI * (STOPBAND - PASSBAND) * nyquist / inputRate;
+        tapsPerPhase = Math.max(1, (int) Math.ceil((ATTENUATION_DB - 8) / (2.285 * transition)));
+        double[] prototype = prototype(upFactor, tapsPerPhase,
+                (PASSBAND + STOPBAND) / 2 * nyquist / ((double) inputRate * upFactor));
+
+        phases = new float[upFactor][tapsPerPhase];
+        for (int p = 0; p < upFactor; p++) {
+            for (int k = 0; k < tapsPerPhase; k++) {
+                phases[p][tapsPerPhase - 1 - k] = (float) prototype[p + k * upFactor];
+            }
+        }
+        samples = new float[tapsPerPhase - 1 + BATCH_LENGTH];
+        reset();
+    }
+
+    /***
+     * Low-pass filter at the upsampled rate, with gain upFactor
+     * @param cutoff Cutoff frequency relative to the upsampled rate
+     */
+    static double[] prototype(int upFactor, int tapsPerPhase, double cutoff) {
+        int length = upFactor * tapsPerPhase;
+        double beta = 0.1102 * (ATTENUATION_DB - 8.7);
+        double center = (length - 1) / 2.0;
+        double[] taps = new double[length];
+        double sum = 0;
+        for (int n = 0; n < length; n++) {
+            double x = n - center;
+            double sinc = x == 0 ? 1 : Math.sin(2 * Math.PI * cutoff * x) / (2 * Math.PI * cutoff * x);
+            double ratio = center > 0 ? x / center : 0;
+            double window = besselI0(beta * Math.sqrt(Math.max(0, 1 - ratio * ratio))) / besselI0(beta);
+            taps[n] = sinc * window;
+            sum += taps[n];
+        }
+        // Unit gain at DC after zero stuffing
+        for (int n = 0; n < length; n++) {
+            taps[n] *= upFactor / sum;
+        }
+        return taps;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-17) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    public int getTapsPerPhase() {
+        return tapsPerPhase;
+    }
+
+    /***
+     * @return Delay of the filter in output samples
+     */
+    public double getDelay() {
+        return (upFactor * tapsPerPhase - 1) / 2.0 / downFactor;
+    }
+
+    /***
+     * Forget the history, the next input starts a new stream
+     */
+    public void reset() {
+        for (int i = 0; i < tapsPerPhase - 1; i++) {
+            samples[i] = 0;
+        }
+        inputIndex = tapsPerPhase - 1;
+        phase = 0;
+    }
+
+    /***
+     * Resample samples from position to limit of the input into the output from its position.
+     * Input is consumed while there is room in the output; a downsampler produces at most one output sample
+     * per input sample, so an output with input.remaining() free samples takes the whole input
+     * @param input Input samples, position is moved past the consumed ones
+     * @param output Destination, position is moved past the written samples
+     * @return Number of written samples
+     */
+    public int process(ShortBuffer input, ShortBuffer output) {
+        int history = tapsPerPhase - 1;
+        int written = 0;
+        while (input.hasRemaining() && output.hasRemaining()) {
+            int count = Math.min(Math.min(input.remaining(), output.remaining()), BATCH_LENGTH);
+            int start = input.position();
+            for (int i = 0; i < count; i++) {
+                samples[history + i] = input.get(start + i);
+            }
+            input.position(start + count);
+
+            int available = history + count;
+            int outputPosition = output.position();
+            while (inputIndex < available) {
+                float[] taps = phases[phase];
+                int first = inputIndex - history;
+                float sum = 0;
+                for (int k = 0; k < tapsPerPhase; k++) {
+                    sum += samples[first + k] * taps[k];
+                }
+                output.put(outputPosition++, clamp(sum));
+                phase += downFactor;
+                inputIndex += phase / upFactor;
+                phase %= upFactor;
+            }
+            written += outputPosition - output.position();
+            output.position(outputPosition);
+
+            // Keep the history for the next batch
+            System.arraycopy(samples, count, samples, 0, history);
+            inputIndex -= count;
+        }
+        return written;
+    }
+
+    private static short clamp(float value) {
+        int rounded = Math.round(value);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rounded));
+    }
+}
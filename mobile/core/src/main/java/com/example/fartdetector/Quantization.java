@@ -0,0 +1,78 @@
+package com.example.fartdetector;
+
+/***
+ * Affine quantization of a model tensor, as stored in TFLite model metadata:
+ * real = scale * (quantized - zeroPoint). Values are signed int8 or unsigned uint8 bytes.
+ */
+public final class Quantization {
+
+    private final float scale;
+    private final int zeroPoint;
+    private final boolean signed;
+
+    /***
+     * @param scale Real value of one quantization step
+     * @param zeroPoint Quantized value of real zero
+     * @param signed True for int8 values, false for uint8
+     */
+    public Quantization(float scale, int zeroPoint, boolean signed) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Scale must be positive");
+        }
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+        this.signed = signed;
+        if (zeroPoint < getMin() || zeroPoint > getMax()) {
+            throw new IllegalArgumentException("Zero point is out of range");
+        }
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public int getZeroPoint() {
+        return zeroPoint;
+    }
+
+    public boolean isSigned() {
+        return signed;
+    }
+
+    /***
+     * @return Smallest quantized value
+     */
+    public int getMin() {
+        return signed ? Byte.MIN_VALUE : 0;
+    }
+
+    /***
+     * @return Largest quantized value
+     */
+    public int getMax() {
+        return signed ? Byte.MAX_VALUE : 255;
+    }
+
+    /***
+     * @param value Real value
+     * @return Byte with the nearest quantized value, clamped to the range of the type
+     */
+    public byte quantize(float value) {
+        long quantized = Math.round(value / scale) + zeroPoint;
+        return (byte) Math.max(getMin(), Math.min(getMax(), quantized));
+    }
+
+    /***
+     * @param value Byte of a quantized value
+     * @return Real value
+     */
+    public float dequantize(byte value) {
+        int quantized = signed ? value : value & 0xff;
+        return scale * (quantized - zeroPoint);
+    }
+
+    @Override
+    public String toString() {
+        return (signed ? "int8" : "uint8") + " scale=" + scale + " zeroPoint=" + zeroPoint;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.fartdetector;
+
+import java.nio.ByteBuffer;
+
+/***
+ * Detector of a model with an 8-bit quantized input, for example an int8 model exported by resave_to_tflite.ipynb.
+ * DetectionPipeline writes quantized features to getQuantizedInput with a fixed-point FeatureQuantizer
+ * and fills the float getInput buffer with dequantized features only when they are requested.
+ */
+public interface QuantizedDetector extends Detector {
+
+    /***
+     * @return Buffer for model input, N_MELS x FRAMES bytes row by row
+     */
+    ByteBuffer getQuantizedInput();
+
+    /***
+     * @return Quantization of the model input from the model metadata
+     */
+    Quantization getInputQuantization();
+}
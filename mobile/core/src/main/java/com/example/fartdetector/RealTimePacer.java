@@ -0,0 +1,31 @@
+package com.example.fartdetector;
+
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Delays generated or file audio to the rate a microphone would deliver it
+ */
+class RealTimePacer {
+
+    private final int sampleRate;
+    private long startTime = 0;
+
+    RealTimePacer(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    void start() {
+        startTime = System.nanoTime();
+    }
+
+    /***
+     * Sleep until the given number of samples since start would be recorded
+     */
+    void await(long samples) throws InterruptedException {
+        long due = startTime + TimeUnit.SECONDS.toNanos(samples) / sampleRate;
+        long delay = due - System.nanoTime();
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.fartdetector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/***
+ * Audio source which captures at the native rate of another source, for example a microphone at 48 kHz,
+ * and downsamples it with a PolyphaseResampler. Chunks are written to one preallocated direct buffer,
+ * so reading doesn't allocate memory. A long source chunk is returned in several parts.
+ */
+public class ResamplingAudioSource implements AudioSource {
+
+    public static final int DEFAULT_CHUNK_LENGTH = 4096;
+
+    private final AudioSource source;
+    private final PolyphaseResampler resampler;
+    private final ShortBuffer chunk;
+    // Rest of the last source chunk which didn't fit into the output
+    private ShortBuffer pending = null;
+
+    /***
+     * @param source Source at its native rate
+     * @param sampleRate Output sample rate, not higher than the rate of the source
+     * @param chunkLength Maximum number of samples in every chunk
+     */
+    public ResamplingAudioSource(AudioSource source, int sampleRate, int chunkLength) {
+        this.source = source;
+        this.resampler = new PolyphaseResampler(source.getSampleRate(), sampleRate);
+        this.chunk = ByteBuffer.allocateDirect(2 * chunkLength)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+    }
+
+    public ResamplingAudioSource(AudioSource source, int sampleRate) {
+        this(source, sampleRate, DEFAULT_CHUNK_LENGTH);
+    }
+
+    @Override
+    public int getSampleRate() {
+        return resampler.getOutputRate();
+    }
+
+    /***
+     * @return Sample rate of the wrapped source
+     */
+    public int getSourceSampleRate() {
+        return resampler.getInputRate();
+    }
+
+    @Override
+    public void start() throws IOException {
+        resampler.reset();
+        pending = null;
+        source.start();
+    }
+
+    @Override
+    public ShortBuffer read() throws IOException {
+        ShortBuffer input = pending;
+        if (input == null || !input.hasRemaining()) {
+            input = source.read();
+            if (input == null) {
+                return null;
+            }
+        }
+        chunk.clear();
+        resampler.process(input, chunk);
+        pending = input.hasRemaining() ? input : null;
+        chunk.flip();
+        return chunk;
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+}
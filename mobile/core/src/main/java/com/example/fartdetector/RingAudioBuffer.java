@@ -0,0 +1,306 @@
+package com.example.fartdetector;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.locks.StampedLock;
+
+/***
+ * Threadsafe implementation of the ring buffer to store audio signal.
+ * Raw 16-bit samples are written to a circular array with a moving write index, so pushing a chunk
+ * costs O(chunk) instead of shifting the whole buffer and the audio thread doesn't convert samples.
+ * Readers scale or normalize the samples while copying them.
+ * Readers take optimistic (seqlock-like) snapshots and retry if a push happened meanwhile,
+ * so the audio thread never waits for a reader.
+ * Sum and sum of squares of the buffer are updated on every push with integer arithmetic, so they are exact
+ * and mean and variance are available in O(1) without copying the buffer.
+ */
+public class RingAudioBuffer {
+
+    private final short[] shortArray;
+    // Position of the oldest sample, the next pushed sample is written here
+    private int writeIndex = 0;
+    // Number of samples pushed since creation
+    private long pushedSamples = 0;
+    // Exact sum and sum of squares of the raw buffer values
+    private long sum = 0;
+    private long sqSum = 0;
+    // Maximum possible value of the signal of the latest push, readers scale samples by it
+    private short maxValue = Short.MAX_VALUE;
+    private final StampedLock lock = new StampedLock();
+
+    /***
+     * Create buffer array of 16-bit samples with fixed size
+     * @param bufferSize size of buffer
+     */
+    public RingAudioBuffer(int bufferSize) {
+        shortArray = new short[bufferSize];
+    }
+
+    /***
+     * @return Number of samples stored in the buffer
+     */
+    public int size() {
+        return shortArray.length;
+    }
+
+    /***
+     * Push new values to ring buffer. Values are pushed from the end of the buffer.
+     * Oldest values are erased from the buffer.
+     * @param newValues Array of new values to push into buffer
+     * @param max_value Maximum possible value of the signal, readers normalize signal by it
+     */
+    public void push(short[] newValues, short max_value) {
+        push(newValues, newValues.length, max_value);
+    }
+
+    /***
+     * Push first length values of the array to ring buffer.
+     * Should be called from a single producer thread; it never waits for readers.
+     * @param newValues Array of new values to push into buffer
+     * @param length Number of values to take from the beginning of the array
+     * @param max_value Maximum possible value of the signal, readers normalize signal by it
+     */
+    public void push(short[] newValues, int length, short max_value) {
+        // Process cases when length of new array is bigger then buffer size
+        int offset = Math.max(0, length - shortArray.length);
+
+        long stamp = lock.writeLock();
+        try {
+            int index = writeIndex;
+            for (int i = offset; i < length; i++) {
+                index = put(index, newValues[i]);
+            }
+            finishPush(index, length, max_value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /***
+     * Push samples from position to limit of the buffer, for example a direct buffer filled by an AudioSource.
+     * Position of the buffer isn't changed.
+     * Should be called from a single producer thread; it never waits for readers.
+     * @param newValues Buffer with new values
+     * @param max_value Maximum possible value of the signal, readers normalize signal by it
+     */
+    public void push(ShortBuffer newValues, short max_value) {
+        int length = newValues.remaining();
+        int start = newValues.position();
+        int offset = Math.max(0, length - shortArray.length);
+
+        long stamp = lock.writeLock();
+        try {
+            int index = writeIndex;
+            for (int i = offset; i < length; i++) {
+                index = put(index, newValues.get(start + i));
+            }
+            finishPush(index, length, max_value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /***
+     * Write one sample and update sums, called under write lock
+     * @return Index of the next sample
+     */
+    private int put(int index, short value) {
+        int evicted = shortArray[index];
+        shortArray[index] = value;
+        sum += value - evicted;
+        sqSum += value * value - evicted * evicted;
+        return index + 1 == shortArray.length ? 0 : index + 1;
+    }
+
+    private void finishPush(int index, int length, short max_value) {
+        writeIndex = index;
+        pushedSamples += length;
+        maxValue = max_value;
+    }
+
+    /***
+     * Write sequence of the buffer: number of samples pushed since creation. It only grows,
+     * so a reader can tell that nothing was pushed since its previous snapshot without copying the buffer
+     * @return Number of samples pushed to the buffer, the same value getData returns
+     */
+    public long getWriteSequence() {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long pushed = pushedSamples;
+            if (stamp != 0 && lock.validate(stamp)) {
+                return pushed;
+            }
+            Thread.yield();
+        }
+    }
+
+    /***
+     * Copy current state of the buffer into the given array, oldest sample first.
+     * Samples are divided by the maximum value of the signal.
+     * Retries the copy if a push happened while copying, so the result is never torn.
+     * @param destination Array with the same size as the buffer
+     * @return Number of samples pushed to the buffer up to the last copied sample
+     */
+    public long getData(float[] destination) {
+        if (destination.length != shortArray.length) {
+            throw new IllegalArgumentException("Destination size doesn't match buffer size");
+        }
+
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                int index = writeIndex;
+                long pushed = pushedSamples;
+                short max_value = maxValue;
+                int tailLength = shortArray.length - index;
+                for (int i = 0; i < tailLength; i++) {
+                    destination[i] = (float) shortArray[index + i] / max_value;
+                }
+                for (int i = 0; i < index; i++) {
+                    destination[tailLength + i] = (float) shortArray[i] / max_value;
+                }
+                if (lock.validate(stamp)) {
+                    return pushed;
+                }
+            }
+            // Producer is in the middle of a push, let it finish
+            Thread.yield();
+        }
+    }
+
+    /***
+     * Copy raw samples of the buffer into the given array, oldest sample first.
+     * Retries the copy if a push happened while copying, so the result is never torn.
+     * @param destination Array with the same size as the buffer
+     * @return Number of samples pushed to the buffer up to the last copied sample
+     */
+    public long getData(short[] destination) {
+        if (destination.length != shortArray.length) {
+            throw new IllegalArgumentException("Destination size doesn't match buffer size");
+        }
+
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                int index = writeIndex;
+                long pushed = pushedSamples;
+                int tailLength = shortArray.length - index;
+                System.arraycopy(shortArray, index, destination, 0, tailLength);
+                System.arraycopy(shortArray, 0, destination, tailLength, index);
+                if (lock.validate(stamp)) {
+                    return pushed;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /***
+     * Return current state of the buffer
+     * @return Array with current buffer values
+     */
+    public float[] getData() {
+        float[] buffer_state = new float[shortArray.length];
+        getData(buffer_state);
+        return buffer_state;
+    }
+
+    /***
+     * Copy current state of the buffer into the given array. Normalize data to have mean=0 and std=1.
+     * Uses running statistics, so scaling and normalization are a single pass over raw samples.
+     * Constant signal is normalized to zeros
+     * @param destination Array with the same size as the buffer
+     * @return Number of samples pushed to the buffer up to the last copied sample
+     */
+    public long getDataNormalized(float[] destination) {
+        if (destination.length != shortArray.length) {
+            throw new IllegalArgumentException("Destination size doesn't match buffer size");
+        }
+
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                int index = writeIndex;
+                long pushed = pushedSamples;
+                double n = shortArray.length;
+                float mean_value = (float) (sum / n);
+                double variance = rawM2(sum, sqSum) / n;
+                float scale = variance > 0 ? (float) (1 / Math.sqrt(variance)) : 0;
+
+                int tailLength = shortArray.length - index;
+                for (int i = 0; i < tailLength; i++) {
+                    destination[i] = (shortArray[index + i] - mean_value) * scale;
+                }
+                for (int i = 0; i < index; i++) {
+                    destination[tailLength + i] = (shortArray[i] - mean_value) * scale;
+                }
+                if (lock.validate(stamp)) {
+                    return pushed;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /***
+     * Return current state of the buffer. Normalize data to have mean=0 and std=1
+     * @return Array with current buffer values
+     */
+    public float[] getDataNormalized() {
+        float[] buffer_state = new float[shortArray.length];
+        getDataNormalized(buffer_state);
+        return buffer_state;
+    }
+
+    /***
+     * @return Mean value of the buffer, O(1)
+     */
+    public double getMean() {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long sum_value = sum;
+            short max_value = maxValue;
+            if (stamp != 0 && lock.validate(stamp)) {
+                return (double) sum_value / shortArray.length / max_value;
+            }
+            Thread.yield();
+        }
+    }
+
+    /***
+     * @return Variance of the buffer values, O(1)
+     */
+    public double getVariance() {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long sum_value = sum;
+            long sq_sum = sqSum;
+            short max_value = maxValue;
+            if (stamp != 0 && lock.validate(stamp)) {
+                return rawM2(sum_value, sq_sum) / shortArray.length / ((double) max_value * max_value);
+            }
+            Thread.yield();
+        }
+    }
+
+    /***
+     * @return Root mean square of the buffer values, O(1)
+     */
+    public double getRms() {
+        while (true) {
+            long stamp = lock.tryOptimisticRead();
+            long sq_sum = sqSum;
+            short max_value = maxValue;
+            if (stamp != 0 && lock.validate(stamp)) {
+                return Math.sqrt((double) sq_sum / shortArray.length) / max_value;
+            }
+            Thread.yield();
+        }
+    }
+
+    /***
+     * Sum of squared deviations from the mean of raw values
+     */
+    private double rawM2(long sum_value, long sq_sum) {
+        return Math.max(0, sq_sum - (double) sum_value * sum_value / shortArray.length);
+    }
+}
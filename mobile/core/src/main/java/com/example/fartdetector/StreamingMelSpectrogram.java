@@ -0,0 +1,341 @@
+package com.example.fartdetector;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/***
+ * Mel spectrogram of a sliding audio window, updated incrementally.
+ * STFT frames that lie completely inside the window don't depend on the window position,
+ * so they are computed once when their samples arrive and kept in a rolling cache.
+ * Only frames at the window edges, which use reflect padding, are recomputed on every update.
+ * The result matches JLibrosa.generateMelSpectroGram of the window normalized to mean=0 and std=1:
+ * the mean only affects FFT bins where the window spectrum is non-zero, and those bins are corrected
+ * on output, while the std is applied as a common scale factor.
+ * With setParallel, a long run of new interior frames, as after a reset or a gap, is computed on a ForkJoinPool.
+ */
+public class StreamingMelSpectrogram {
+
+    private final int nFft;
+    private final int hopLength;
+    private final int windowLength;
+    private final int framesPerWindow;
+    private final int edgeFrames;
+
+    private final MelSpectrogram engine;
+    // Null if frames are computed on the calling thread
+    private ParallelFrames parallelFrames = null;
+    private final ParallelFrames.Job interiorJob = new ParallelFrames.Job() {
+        @Override
+        public void computeFrames(MelSpectrogram worker, long from, long to) {
+            for (long frame = from; frame < to; frame++) {
+                int slot = (int) (frame % framesPerWindow);
+                loadInteriorFrame(worker, frame);
+                worker.transformFrameToMel(cachedMel[slot], meanBins, cachedMeanBins[slot]);
+            }
+        }
+    };
+    private final MelFilterBank filterBank;
+
+    // FFT bins affected by the signal mean, with spectrum of the window in these bins
+    private final int[] meanBins;
+    private final double[] meanBinsRe;
+    private final double[] meanBinsIm;
+
+    // Raw signal history, indexed by stream position modulo its length
+    private final float[] history;
+    // Absolute index of the sample at stream position 0
+    private long streamOrigin = 0;
+    // Stream position of the next sample
+    private long streamEnd = 0;
+    private boolean started = false;
+
+    // Mel values without mean bins and spectrum in mean bins of frames inside the window,
+    // indexed by frame number modulo frames count
+    private final float[][] cachedMel;
+    private final double[][] cachedMeanBins;
+    private long cachedFrom = 0;
+    private long cachedTo = 0;
+
+    private long windowStart = 0;
+    private long computedFrames = 0;
+
+    private final float[][] melSpectrogram;
+
+    // Work buffers
+    private final float[] edgeMel;
+    private final double[] edgeMeanBins;
+
+    /***
+     * @param sampleRate Sample rate of the signal
+     * @param nFft Length of the FFT window
+     * @param nMels Number of mel bands
+     * @param hopLength Number of samples between frames
+     * @param windowLength Number of samples in the analyzed window, must be a multiple of hopLength
+     */
+    public StreamingMelSpectrogram(int sampleRate, int nFft, int nMels, int hopLength, int windowLength) {
+        this(sampleRate, nFft, nMels, hopLength, windowLength, NativeDsp.isAvailable());
+    }
+
+    /***
+     * @param sampleRate Sample rate of the signal
+     * @param nFft Length of the FFT window
+     * @param nMels Number of mel bands
+     * @param hopLength Number of samples between frames
+     * @param windowLength Number of samples in the analyzed window, must be a multiple of hopLength
+     * @param nativeDsp Transform frames with NativeDsp kernels, the native library must be loaded
+     */
+    public StreamingMelSpectrogram(int sampleRate, int nFft, int nMels, int hopLength, int windowLength,
+                                   boolean nativeDsp) {
+        if (windowLength % hopLength != 0) {
+            throw new IllegalArgumentException("Window length must be a multiple of hop length");
+        }
+        if (windowLength < nFft) {
+            throw new IllegalArgumentException("Window length must not be less than FFT size");
+        }
+
+        this.nFft = nFft;
+        this.hopLength = hopLength;
+        this.windowLength = windowLength;
+        framesPerWindow = 1 + windowLength / hopLength;
+        edgeFrames = (nFft / 2 + hopLength - 1) / hopLength;
+
+        engine = new MelSpectrogram(sampleRate, nFft, nMels, hopLength, nativeDsp);
+        filterBank = engine.getFilterBank();
+
+        // Find bins where spectrum of a constant signal is not zero, with the Java transform
+        Arrays.fill(engine.getFrame(), 1.0);
+        engine.transformFrame();
+        double[] re = engine.getSpectrumRe();
+        double[] im = engine.getSpectrumIm();
+        int count = 0;
+        for (int bin = 0; bin < re.length; bin++) {
+            if (Math.hypot(re[bin], im[bin]) > 1e-9 * nFft) {
+                count++;
+            }
+        }
+        meanBins = new int[count];
+        meanBinsRe = new double[count];
+        meanBinsIm = new double[count];
+        count = 0;
+        for (int bin = 0; bin < re.length; bin++) {
+            if (Math.hypot(re[bin], im[bin]) > 1e-9 * nFft) {
+                meanBins[count] = bin;
+                meanBinsRe[count] = re[bin];
+                meanBinsIm[count] = im[bin];
+                count++;
+            }
+        }
+
+        history = new float[windowLength + hopLength];
+        cachedMel = new float[framesPerWindow][nMels];
+        cachedMeanBins = new double[framesPerWindow][2 * meanBins.length];
+        melSpectrogram = new float[nMels][framesPerWindow];
+        edgeMel = new float[nMels];
+        edgeMeanBins = new double[2 * meanBins.length];
+    }
+
+    /***
+     * Update spectrogram with the latest audio. The analyzed window ends on the last full hop,
+     * so up to hopLength - 1 newest samples wait for the next update.
+     * @param samples Latest windowLength samples, oldest first, as returned by RingAudioBuffer.getData
+     * @param totalSamples Number of samples pushed to the stream up to the last one in samples
+     * @return Mel spectrogram [nMels][frames] of the window, array is reused by next updates
+     */
+    public float[][] update(float[] samples, long totalSamples) {
+        if (samples.length != windowLength) {
+            throw new IllegalArgumentException("Samples size doesn't match window length");
+        }
+
+        int newSamples = startUpdate(totalSamples);
+        for (int i = windowLength - newSamples; i < windowLength; i++) {
+            history[(int) (streamEnd % history.length)] = samples[i];
+            streamEnd++;
+        }
+        return computeWindow();
+    }
+
+    /***
+     * Update spectrogram with the latest 16-bit audio, only new samples are read from the buffer.
+     * Samples are scaled by Short.MAX_VALUE like RingAudioBuffer does.
+     * @param samples Latest windowLength samples from position of the buffer, oldest first.
+     *                Position of the buffer isn't changed
+     * @param totalSamples Number of samples in the stream up to the last one in samples
+     * @return Mel spectrogram [nMels][frames] of the window, array is reused by next updates
+     */
+    public float[][] update(ShortBuffer samples, long totalSamples) {
+        if (samples.remaining() != windowLength) {
+            throw new IllegalArgumentException("Samples size doesn't match window length");
+        }
+
+        int newSamples = startUpdate(totalSamples);
+        int offset = samples.position();
+        for (int i = windowLength - newSamples; i < windowLength; i++) {
+            history[(int) (streamEnd % history.length)] = (float) samples.get(offset + i) / Short.MAX_VALUE;
+            streamEnd++;
+        }
+        return computeWindow();
+    }
+
+    /***
+     * Restart the stream if needed
+     * @return Number of samples at the end of the window which are not in history yet
+     */
+    private int startUpdate(long totalSamples) {
+        long newSamples = totalSamples - (streamOrigin + streamEnd);
+        if (!started || newSamples < 0 || newSamples > windowLength) {
+            // First update or a gap in the stream, start from the whole window
+            started = true;
+            streamOrigin = totalSamples - windowLength;
+            streamEnd = 0;
+            cachedFrom = 0;
+            cachedTo = 0;
+            newSamples = windowLength;
+        }
+        return (int) newSamples;
+    }
+
+    private float[][] computeWindow() {
+        long windowEnd = streamEnd / hopLength * hopLength;
+        windowStart = windowEnd - windowLength;
+        long firstFrame = windowStart / hopLength;
+        long interiorFrom = firstFrame + edgeFrames;
+        long interiorTo = firstFrame + framesPerWindow - edgeFrames;
+
+        if (cachedTo < interiorFrom) {
+            cachedTo = interiorFrom;
+        }
+        if (cachedTo < interiorTo) {
+            if (parallelFrames != null) {
+                parallelFrames.run(interiorJob, cachedTo, interiorTo);
+            } else {
+                interiorJob.computeFrames(engine, cachedTo, interiorTo);
+            }
+            computedFrames += interiorTo - cachedTo;
+        }
+        cachedFrom = interiorFrom;
+        cachedTo = interiorTo;
+
+        // Statistics of the window to reproduce its normalization
+        double sum = 0;
+        double sqSum = 0;
+        for (long position = windowStart; position < windowEnd; position++) {
+            double value = history[(int) (position % history.length)];
+            sum += value;
+            sqSum += value * value;
+        }
+        double mean = sum / windowLength;
+        double variance = sqSum / windowLength - mean * mean;
+        double scale = variance > 0 ? 1.0 / variance : 1.0;
+
+        for (int t = 0; t < framesPerWindow; t++) {
+            long frame = firstFrame + t;
+            float[] mel;
+            double[] bins;
+            if (frame >= cachedFrom && frame < cachedTo) {
+                int slot = (int) (frame % framesPerWindow);
+                mel = cachedMel[slot];
+                bins = cachedMeanBins[slot];
+            } else {
+                loadEdgeFrame(frame);
+                transformFrame(edgeMel, edgeMeanBins);
+                mel = edgeMel;
+                bins = edgeMeanBins;
+            }
+            writeColumn(t, mel, bins, mean, scale);
+        }
+
+        return melSpectrogram;
+    }
+
+    /***
+     * Compute runs of new interior frames longer than 2 * MelSpectrogram.PARALLEL_MIN_FRAMES on several threads.
+     * Every thread of the pool gets its own work buffers, which are allocated here
+     * @param pool Pool, for example ForkJoinPool.commonPool(), or null to compute on the calling thread
+     */
+    public void setParallel(ForkJoinPool pool) {
+        parallelFrames = pool != null ? new ParallelFrames(pool, engine, MelSpectrogram.PARALLEL_MIN_FRAMES) : null;
+    }
+
+    /***
+     * Check whether an update would analyze the same window as the last one,
+     * because less than a hop of new samples arrived since then
+     * @param totalSamples Number of samples in the stream up to the latest one
+     * @return True if the last returned spectrogram is still the spectrogram of the latest audio
+     */
+    public boolean isCurrent(long totalSamples) {
+        long newSamples = totalSamples - (streamOrigin + streamEnd);
+        return started && newSamples >= 0
+                && (streamEnd + newSamples) / hopLength == streamEnd / hopLength;
+    }
+
+    /***
+     * Forget cached frames, next update computes the whole window as if it was the first one
+     */
+    public void reset() {
+        started = false;
+        cachedFrom = 0;
+        cachedTo = 0;
+    }
+
+    /***
+     * @return Absolute index of the first sample of the last analyzed window
+     */
+    public long getWindowStart() {
+        return streamOrigin + windowStart;
+    }
+
+    /***
+     * @return Number of STFT frames computed since creation, to measure reuse of cached frames
+     */
+    public long getComputedFrames() {
+        return computedFrames;
+    }
+
+    private void loadInteriorFrame(MelSpectrogram worker, long frame) {
+        double[] samples = worker.getFrame();
+        long position = frame * hopLength - nFft / 2;
+        for (int i = 0; i < nFft; i++) {
+            samples[i] = history[(int) ((position + i) % history.length)];
+        }
+    }
+
+    private void loadEdgeFrame(long frame) {
+        double[] samples = engine.getFrame();
+        long windowEnd = windowStart + windowLength;
+        long position = frame * hopLength - nFft / 2;
+        for (int i = 0; i < nFft; i++) {
+            // Reflect padding around the window bounds
+            long samplePosition = position + i;
+            if (samplePosition < windowStart) {
+                samplePosition = 2 * windowStart - samplePosition;
+            } else if (samplePosition >= windowEnd) {
+                samplePosition = 2 * (windowEnd - 1) - samplePosition;
+            }
+            samples[i] = history[(int) (samplePosition % history.length)];
+        }
+    }
+
+    /***
+     * FFT of the loaded frame. Mean bins are stored as complex values and excluded from mel values
+     */
+    private void transformFrame(float[] mel, double[] bins) {
+        engine.transformFrameToMel(mel, meanBins, bins);
+        computedFrames++;
+    }
+
+    private void writeColumn(int t, float[] mel, double[] bins, double mean, double scale) {
+        for (int band = 0; band < mel.length; band++) {
+            double value = mel[band];
+            for (int i = 0; i < meanBins.length; i++) {
+                float weight = filterBank.getWeight(band, meanBins[i]);
+                if (weight != 0) {
+                    double re = bins[2 * i] - mean * meanBinsRe[i];
+                    double im = bins[2 * i + 1] - mean * meanBinsIm[i];
+                    value += weight * (re * re + im * im);
+                }
+            }
+            melSpectrogram[band][t] = (float) (value * scale);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.fartdetector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/***
+ * Detector without a model, to run and measure the pipeline on a plain JVM.
+ * Returns a fixed score after an optional delay that imitates inference time.
+ */
+public class StubDetector implements Detector {
+
+    private final FloatBuffer input;
+    private final float score;
+    private final long latencyMs;
+    private volatile long detections = 0;
+
+    public StubDetector() {
+        this(0, 0);
+    }
+
+    /***
+     * @param score Score returned by every detection
+     * @param latencyMs Time every detection takes
+     */
+    public StubDetector(float score, long latencyMs) {
+        // Direct buffer in native order, like the input of a TFLite model
+        input = ByteBuffer.allocateDirect(4 * DetectionPipeline.N_MELS * DetectionPipeline.FRAMES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        this.score = score;
+        this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public FloatBuffer getInput() {
+        return input;
+    }
+
+    @Override
+    public float detect() {
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        detections++;
+        return score;
+    }
+
+    /***
+     * @return Number of detect calls
+     */
+    public long getDetections() {
+        return detections;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.fartdetector;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+/***
+ * Audio source which generates a sine tone with Gaussian noise, to run the pipeline without a microphone.
+ * The signal is deterministic for a given seed. Chunks are written to one preallocated direct buffer.
+ */
+public class SyntheticAudioSource implements AudioSource {
+
+    private final int sampleRate;
+    private final ShortBuffer chunk;
+    private final double frequency;
+    private final double amplitude;
+    private final double noiseAmplitude;
+    private final long seed;
+    private final RealTimePacer pacer;
+
+    private Random random;
+    private long position = 0;
+    private long length = -1;
+    private boolean realTime = false;
+
+    /***
+     * @param sampleRate Sample rate
+     * @param chunkLength Number of samples in every chunk
+     * @param frequency Frequency of the tone in Hz
+     * @param amplitude Amplitude of the tone, 1 is full scale
+     * @param noiseAmplitude Standard deviation of the noise, 1 is full scale
+     * @param seed Seed of the noise
+     */
+    public SyntheticAudioSource(int sampleRate, int chunkLength, double frequency, double amplitude,
+                                double noiseAmplitude, long seed) {
+        this.sampleRate = sampleRate;
+        this.chunk = ByteBuffer.allocateDirect(2 * chunkLength)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        this.frequency = frequency;
+        this.amplitude = amplitude;
+        this.noiseAmplitude = noiseAmplitude;
+        this.seed = seed;
+        this.pacer = new RealTimePacer(sampleRate);
+        this.random = new Random(seed);
+    }
+
+    /***
+     * @param samples Number of samples before the end of the stream, negative for an endless stream
+     */
+    public void setLength(long samples) {
+        length = samples;
+    }
+
+    /***
+     * @param realTime True to wait for the duration of every chunk, like a microphone does
+     */
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @Override
+    public void start() {
+        position = 0;
+        random = new Random(seed);
+        pacer.start();
+    }
+
+    @Override
+    public ShortBuffer read() throws InterruptedIOException {
+        int count = chunk.capacity();
+        if (length >= 0) {
+            if (position >= length) {
+                return null;
+            }
+            count = (int) Math.min(count, length - position);
+        }
+
+        chunk.clear();
+        double phaseStep = 2 * Math.PI * frequency / sampleRate;
+        for (int i = 0; i < count; i++) {
+            double value = amplitude * Math.sin(phaseStep * (position + i)) + noiseAmplitude * random.nextGaussian();
+            value = Math.max(-1, Math.min(1, value));
+            chunk.put(i, (short) Math.round(value * Short.MAX_VALUE));
+        }
+        position += count;
+        chunk.limit(count);
+        chunk.position(0);
+
+        if (realTime) {
+            try {
+                pacer.await(position);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for audio");
+            }
+        }
+        return chunk;
+    }
+
+    @Override
+    public void close() {
+    }
+}
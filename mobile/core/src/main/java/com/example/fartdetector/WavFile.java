@@ -0,0 +1,164 @@
+package com.example.fartdetector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/***
+ * Reader and writer of mono 16-bit PCM WAV files.
+ * Samples are scaled the same way RingAudioBuffer scales microphone data, by Short.MAX_VALUE.
+ */
+public class WavFile {
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final int sampleRate;
+    private final float[] samples;
+
+    private WavFile(int sampleRate, float[] samples) {
+        this.sampleRate = sampleRate;
+        this.samples = samples;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /***
+     * @return Samples in range [-1, 1]
+     */
+    public float[] getSamples() {
+        return samples;
+    }
+
+    public static WavFile read(File file) throws IOException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            return read(stream);
+        }
+    }
+
+    public static WavFile read(InputStream stream) throws IOException {
+        DataInputStream input = new DataInputStream(stream);
+        if (!"RIFF".equals(readTag(input))) {
+            throw new IOException("Not a RIFF file");
+        }
+        readInt(input);
+        if (!"WAVE".equals(readTag(input))) {
+            throw new IOException("Not a WAVE file");
+        }
+
+        int sampleRate = 0;
+        boolean hasFormat = false;
+        while (true) {
+            String tag;
+            try {
+                tag = readTag(input);
+            } catch (EOFException e) {
+                throw new IOException("No data chunk");
+            }
+            long chunkSize = readInt(input) & 0xFFFFFFFFL;
+
+            if ("fmt ".equals(tag)) {
+                int format = readShort(input);
+                int channels = readShort(input);
+                sampleRate = readInt(input);
+                readInt(input);
+                readShort(input);
+                int bitsPerSample = readShort(input);
+                checkFormat(format, channels, bitsPerSample);
+                skip(input, chunkSize - 16 + (chunkSize & 1));
+                hasFormat = true;
+            } else if ("data".equals(tag)) {
+                if (!hasFormat) {
+                    throw new IOException("Data chunk before format chunk");
+                }
+                float[] samples = new float[(int) (chunkSize / 2)];
+                byte[] bytes = new byte[2 * samples.length];
+                input.readFully(bytes);
+                for (int i = 0; i < samples.length; i++) {
+                    short value = (short) ((bytes[2 * i] & 0xFF) | (bytes[2 * i + 1] << 8));
+                    samples[i] = (float) value / Short.MAX_VALUE;
+                }
+                return new WavFile(sampleRate, samples);
+            } else {
+                // Chunks are padded to an even size
+                skip(input, chunkSize + (chunkSize & 1));
+            }
+        }
+    }
+
+    /***
+     * Write mono 16-bit PCM WAV file
+     * @param file Destination file
+     * @param sampleRate Sample rate of the signal
+     * @param samples Signal
+     */
+    public static void write(File file, int sampleRate, short[] samples) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            int dataSize = 2 * samples.length;
+            output.writeBytes("RIFF");
+            output.writeInt(Integer.reverseBytes(36 + dataSize));
+            output.writeBytes("WAVE");
+            output.writeBytes("fmt ");
+            output.writeInt(Integer.reverseBytes(16));
+            output.writeShort(Short.reverseBytes((short) FORMAT_PCM));
+            output.writeShort(Short.reverseBytes((short) 1));
+            output.writeInt(Integer.reverseBytes(sampleRate));
+            output.writeInt(Integer.reverseBytes(2 * sampleRate));
+            output.writeShort(Short.reverseBytes((short) 2));
+            output.writeShort(Short.reverseBytes((short) 16));
+            output.writeBytes("data");
+            output.writeInt(Integer.reverseBytes(dataSize));
+            for (short sample : samples) {
+                output.writeShort(Short.reverseBytes(sample));
+            }
+        }
+    }
+
+    /***
+     * Check that format chunk describes mono 16-bit PCM
+     */
+    static void checkFormat(int format, int channels, int bitsPerSample) throws IOException {
+        if (format != FORMAT_PCM && format != FORMAT_EXTENSIBLE) {
+            throw new IOException("Unsupported format " + format + ", only PCM is supported");
+        }
+        if (channels != 1 || bitsPerSample != 16) {
+            throw new IOException("Unsupported " + channels + " channels " + bitsPerSample
+                    + " bits audio, only mono 16-bit is supported");
+        }
+    }
+
+    private static String readTag(DataInputStream input) throws IOException {
+        byte[] tag = new byte[4];
+        input.readFully(tag);
+        return new String(tag, "US-ASCII");
+    }
+
+    private static int readInt(DataInputStream input) throws IOException {
+        return Integer.reverseBytes(input.readInt());
+    }
+
+    private static int readShort(DataInputStream input) throws IOException {
+        return Short.reverseBytes(input.readShort()) & 0xFFFF;
+    }
+
+    private static void skip(DataInputStream input, long count) throws IOException {
+        while (count > 0) {
+            long skipped = input.skip(count);
+            if (skipped <= 0) {
+                input.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
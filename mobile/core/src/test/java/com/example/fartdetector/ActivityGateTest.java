@@ -0,0 +1,80 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class ActivityGateTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int CHUNK = 640;
+
+    private final Random random = new Random(5);
+
+    private short[] noise(double levelDb) {
+        double rms = Short.MAX_VALUE * Math.pow(10, levelDb / 20);
+        short[] chunk = new short[CHUNK];
+        for (int i = 0; i < CHUNK; i++) {
+            chunk[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, rms * random.nextGaussian()));
+        }
+        return chunk;
+    }
+
+    private boolean feed(ActivityGate gate, double levelDb, int chunks) {
+        boolean open = false;
+        for (int i = 0; i < chunks; i++) {
+            open = gate.onAudio(noise(levelDb), CHUNK, Short.MAX_VALUE);
+        }
+        return open;
+    }
+
+    public void testClosedOnSilence() {
+        ActivityGate gate = new ActivityGate(SAMPLE_RATE);
+        assertFalse(gate.isOpen());
+        assertFalse(feed(gate, -75, 100));
+        assertEquals(-75, gate.getLastRmsDb(), 1.5);
+    }
+
+    public void testStationaryNoiseBelowThresholdStaysClosed() {
+        // Fan noise below the level threshold has small flux
+        ActivityGate gate = new ActivityGate(SAMPLE_RATE);
+        feed(gate, -53, 1);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(gate.onAudio(noise(-53), CHUNK, Short.MAX_VALUE));
+            assertTrue(gate.getLastFlux() < ActivityGate.DEFAULT_FLUX_THRESHOLD);
+        }
+    }
+
+    public void testOpensOnLoudSound() {
+        ActivityGate gate = new ActivityGate(SAMPLE_RATE);
+        feed(gate, -75, 10);
+        assertTrue(feed(gate, -30, 1));
+    }
+
+    public void testOpensOnQuietOnsetByFlux() {
+        ActivityGate gate = new ActivityGate(SAMPLE_RATE);
+        feed(gate, -75, 10);
+        // Below the level threshold, but much louder than the room
+        assertTrue(feed(gate, -56, 1));
+        assertTrue(gate.getLastRmsDb() < ActivityGate.DEFAULT_RMS_THRESHOLD_DB);
+        assertTrue(gate.getLastFlux() >= ActivityGate.DEFAULT_FLUX_THRESHOLD);
+    }
+
+    public void testHangover() {
+        ActivityGate gate = new ActivityGate(SAMPLE_RATE, -50, 1, 500);
+        feed(gate, -75, 5);
+        feed(gate, -30, 1);
+
+        // 500 ms is 12.5 chunks
+        assertTrue(feed(gate, -75, 12));
+        assertFalse(feed(gate, -75, 1));
+    }
+
+    public void testReset() {
+        ActivityGate gate = new ActivityGate(SAMPLE_RATE);
+        feed(gate, -30, 1);
+        assertTrue(gate.isOpen());
+        gate.reset();
+        assertFalse(gate.isOpen());
+    }
+}
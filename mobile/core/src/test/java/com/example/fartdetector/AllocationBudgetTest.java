@@ -0,0 +1,330 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+/***
+ * Bytes allocated by every stage of a steady-state detection tick, measured with the allocation counter
+ * of the current thread. A stage which allocates more than its budget fails the build, so garbage-free
+ * hot paths stay garbage-free. Android classes (SpectrogramView, MainActivity) are not covered.
+ * Tests return early without checks on JVMs without thread allocation counters
+ */
+public class AllocationBudgetTest extends TestCase {
+
+    private static final int SAMPLE_RATE = DetectionPipeline.SAMPLE_RATE;
+    private static final int WINDOW_LENGTH = DetectionPipeline.WINDOW_LENGTH;
+    // 200 ms tick of 20 ms chunks, like MainActivity
+    private static final int CHUNK_LENGTH = 320;
+    private static final int CHUNKS_PER_TICK = 10;
+    // Warm-up ticks cover lazy initialization and the first full window, measured ticks are steady state.
+    // Deoptimization and recompilation by the JIT sometimes allocate on the measured thread,
+    // so the best of several rounds is taken: a stage which allocates every tick allocates in all of them
+    private static final int WARM_UP_TICKS = 30;
+    private static final int ROUNDS = 5;
+    private static final int TICKS_PER_ROUND = 20;
+    // Bytes per tick: hot paths are garbage-free
+    private static final double NO_ALLOCATION = 0;
+
+    private static final com.sun.management.ThreadMXBean threadBean = allocationCounters();
+
+    /***
+     * One tick of a stage
+     */
+    private interface Tick {
+        void run();
+    }
+
+    /***
+     * @return Thread bean with enabled allocation counters, or null if the JVM doesn't have them
+     */
+    private static com.sun.management.ThreadMXBean allocationCounters() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()) {
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+                return sunBean;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /***
+     * @return Average bytes allocated by a tick after the warm-up in the best round,
+     * without the cost of the measurement itself
+     */
+    private static double bytesPerTick(Tick tick) {
+        for (int i = 0; i < WARM_UP_TICKS; i++) {
+            tick.run();
+        }
+        long calibrationStart = allocatedBytes();
+        long calibration = allocatedBytes() - calibrationStart;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = allocatedBytes();
+            for (int i = 0; i < TICKS_PER_ROUND; i++) {
+                tick.run();
+            }
+            best = Math.min(best, allocatedBytes() - start - calibration);
+        }
+        return Math.max(0, best) / (double) TICKS_PER_ROUND;
+    }
+
+    private static void assertBudget(String stage, double budget, Tick tick) {
+        if (threadBean == null) {
+            // Thread allocation counters are not supported
+            return;
+        }
+        double bytes = bytesPerTick(tick);
+        assertTrue(stage + " allocates " + bytes + " bytes per tick, budget " + budget, bytes <= budget);
+    }
+
+    /***
+     * Endless audio in 20 ms chunks: a tone with noise and loud bursts, so the activity gate stays open
+     */
+    private static class ChunkSource {
+        private final short[] audio;
+        private final ShortBuffer view;
+        private final int chunkLength;
+        private int offset = 0;
+        long totalSamples = 0;
+
+        ChunkSource(int sampleRate, int chunkLength) {
+            audio = TestAudio.toPcm(TestAudio.addBursts(
+                    TestAudio.tone(10 * sampleRate / chunkLength * chunkLength, 300, 0.09, 0.015, 3),
+                    sampleRate / 4, 0.18, 3));
+            view = ShortBuffer.wrap(audio);
+            this.chunkLength = chunkLength;
+        }
+
+        ShortBuffer next() {
+            if (offset + chunkLength > audio.length) {
+                offset = 0;
+            }
+            view.limit(offset + chunkLength);
+            view.position(offset);
+            offset += chunkLength;
+            totalSamples += chunkLength;
+            return view;
+        }
+    }
+
+    private static FloatBuffer directBuffer(int size) {
+        return ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static void pushTick(ChunkSource source, RingAudioBuffer buffer) {
+        for (int i = 0; i < CHUNKS_PER_TICK; i++) {
+            buffer.push(source.next(), Short.MAX_VALUE);
+        }
+    }
+
+    public void testAudioPushAndGate() {
+        final ChunkSource source = new ChunkSource(SAMPLE_RATE, CHUNK_LENGTH);
+        final RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        final ActivityGate gate = new ActivityGate(SAMPLE_RATE);
+        assertBudget("Audio push and gate", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CHUNKS_PER_TICK; i++) {
+                    ShortBuffer chunk = source.next();
+                    buffer.push(chunk, Short.MAX_VALUE);
+                    gate.onAudio(chunk, Short.MAX_VALUE);
+                }
+            }
+        });
+    }
+
+    public void testResampler() {
+        final ChunkSource source = new ChunkSource(48000, 3 * CHUNK_LENGTH);
+        final PolyphaseResampler resampler = new PolyphaseResampler(48000, SAMPLE_RATE);
+        final ShortBuffer output = ShortBuffer.allocate(CHUNK_LENGTH + 1);
+        assertBudget("Resampler", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                for (int i = 0; i < CHUNKS_PER_TICK; i++) {
+                    output.clear();
+                    resampler.process(source.next(), output);
+                }
+            }
+        });
+    }
+
+    public void testSnapshotAndMelSpectrogram() {
+        final ChunkSource source = new ChunkSource(SAMPLE_RATE, CHUNK_LENGTH);
+        final RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        final StreamingMelSpectrogram melSpectrogram = new StreamingMelSpectrogram(SAMPLE_RATE,
+                DetectionPipeline.N_FFT, DetectionPipeline.N_MELS, DetectionPipeline.HOP_LENGTH, WINDOW_LENGTH);
+        final float[] window = new float[WINDOW_LENGTH];
+        assertBudget("Snapshot and mel spectrogram", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                pushTick(source, buffer);
+                long totalSamples = buffer.getData(window);
+                melSpectrogram.update(window, totalSamples);
+            }
+        });
+    }
+
+    public void testFeatures() {
+        final float[][] spectrogram = new float[DetectionPipeline.N_MELS][DetectionPipeline.FRAMES];
+        Random random = new Random(5);
+        for (float[] row : spectrogram) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = (float) Math.exp(10 * random.nextGaussian());
+            }
+        }
+        final FloatBuffer input = directBuffer(DetectionPipeline.N_MELS * DetectionPipeline.FRAMES);
+        final ByteBuffer quantizedInput = ByteBuffer.allocateDirect(input.capacity());
+        final FeatureQuantizer quantizer = new FeatureQuantizer(new Quantization(
+                (LibrosaUtils.NORMALIZED_DB_MAX - LibrosaUtils.NORMALIZED_DB_MIN) / 255, -128, true));
+        assertBudget("Features", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                LibrosaUtils.powerToNormalizedDb(spectrogram, input);
+            }
+        });
+        assertBudget("Quantized features", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                quantizer.quantize(spectrogram, quantizedInput);
+            }
+        });
+    }
+
+    public void testCounterSeesUnfusedFeatures() {
+        if (threadBean == null) {
+            // Thread allocation counters are not supported
+            return;
+        }
+        final float[][] spectrogram = new float[DetectionPipeline.N_MELS][DetectionPipeline.FRAMES];
+        final float[][] result = new float[1][];
+        // Normalized copy and flattened copy of the spectrogram, the allocations the fused path avoids
+        double bytes = bytesPerTick(new Tick() {
+            @Override
+            public void run() {
+                result[0] = LibrosaUtils.flattenSpectrogram(LibrosaUtils.normalizeSpectrogramMeanStd(spectrogram));
+            }
+        });
+        assertTrue("Unfused features allocate " + bytes + " bytes per tick",
+                bytes >= 2 * 4 * DetectionPipeline.N_MELS * DetectionPipeline.FRAMES);
+    }
+
+    public void testDetectionTick() {
+        final ChunkSource source = new ChunkSource(SAMPLE_RATE, CHUNK_LENGTH);
+        final RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        final DetectionPipeline pipeline = new DetectionPipeline(new StubDetector(0.5f, 0));
+        pipeline.setMetrics(new PipelineMetrics());
+        assertBudget("Detection tick", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                pushTick(source, buffer);
+                pipeline.process(buffer);
+            }
+        });
+    }
+
+    public void testPipelinedDetectionTick() {
+        final ChunkSource source = new ChunkSource(SAMPLE_RATE, CHUNK_LENGTH);
+        final RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        StubDetector detector = new StubDetector(0.5f, 0);
+        final float[] lastScore = new float[1];
+        final InferenceStage stage = new InferenceStage(detector, new InferenceStage.Listener() {
+            @Override
+            public void onScore(long totalSamples, float score) {
+                lastScore[0] = score;
+            }
+        });
+        PipelineMetrics metrics = new PipelineMetrics();
+        stage.setMetrics(metrics);
+        final DetectionPipeline pipeline = new DetectionPipeline(detector);
+        pipeline.setMetrics(metrics);
+        pipeline.setInferenceStage(stage);
+        // Both stages on this thread, one after the other
+        assertBudget("Pipelined detection tick", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                pushTick(source, buffer);
+                pipeline.process(buffer);
+                stage.runPending();
+            }
+        });
+    }
+
+    public void testSchedulerTick() {
+        final long[] now = {0};
+        final PipelineMetrics metrics = new PipelineMetrics();
+        final DetectionScheduler scheduler = new DetectionScheduler(new DetectionScheduler.Detection() {
+            @Override
+            public float compute() {
+                return 0.5f;
+            }
+
+            @Override
+            public void publish(float score) {
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, 200, new DetectionScheduler.Clock() {
+            @Override
+            public long uptimeMillis() {
+                return now[0];
+            }
+        });
+        scheduler.setMetrics(metrics);
+        assertBudget("Scheduler tick and publication", NO_ALLOCATION, new Tick() {
+            @Override
+            public void run() {
+                now[0] += 200;
+                scheduler.onAudioAvailable();
+                scheduler.runPending();
+                long time = System.nanoTime();
+                time = metrics.record(PipelineMetrics.Stage.PUSH, time);
+                metrics.record(PipelineMetrics.Stage.GATE, time);
+            }
+        });
+    }
+
+    public void testFlightRecorder() throws IOException {
+        File directory = File.createTempFile("allocation", "");
+        directory.delete();
+        final FlightRecorder recorder = new FlightRecorder(directory, SAMPLE_RATE);
+        try {
+            final ChunkSource source = new ChunkSource(SAMPLE_RATE, CHUNK_LENGTH);
+            assertBudget("Flight recorder", NO_ALLOCATION, new Tick() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < CHUNKS_PER_TICK; i++) {
+                        recorder.recordAudio(source.next(), source.totalSamples);
+                    }
+                    recorder.recordScore(source.totalSamples, 0.5f);
+                }
+            });
+        } finally {
+            recorder.close();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}
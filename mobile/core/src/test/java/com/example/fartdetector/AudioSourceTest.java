@@ -0,0 +1,116 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+
+public class AudioSourceTest extends TestCase {
+
+    private static final int SAMPLE_RATE = DetectionPipeline.SAMPLE_RATE;
+
+    public void testSyntheticSourceIsDeterministic() throws IOException {
+        SyntheticAudioSource first = new SyntheticAudioSource(SAMPLE_RATE, 640, 440, 0.5, 0.01, 3);
+        SyntheticAudioSource second = new SyntheticAudioSource(SAMPLE_RATE, 640, 440, 0.5, 0.01, 3);
+        first.start();
+        second.start();
+        for (int chunk = 0; chunk < 5; chunk++) {
+            ShortBuffer a = first.read();
+            ShortBuffer b = second.read();
+            assertTrue(a.isDirect());
+            assertEquals(640, a.remaining());
+            assertEquals(a, b);
+        }
+
+        // Restart replays the same signal
+        short[] later = new short[640];
+        first.read().get(later);
+        first.start();
+        second.start();
+        assertEquals(first.read(), second.read());
+        assertFalse(ShortBuffer.wrap(later).equals(second.read()));
+    }
+
+    public void testSyntheticSourceEnds() throws IOException {
+        SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, 640, 440, 0.5, 0, 3);
+        source.setLength(1000);
+        source.start();
+        assertEquals(640, source.read().remaining());
+        ShortBuffer last = source.read();
+        assertEquals(360, last.remaining());
+        // Tone without noise starts at zero phase
+        assertEquals(Math.round(0.5 * Math.sin(2 * Math.PI * 440 * 640 / SAMPLE_RATE) * Short.MAX_VALUE),
+                last.get(0));
+        assertNull(source.read());
+    }
+
+    public void testSyntheticSourceRunsInRealTime() throws IOException {
+        SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, 1600, 440, 0.5, 0, 3);
+        source.setRealTime(true);
+        source.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            source.read();
+        }
+        // Three chunks of 100 ms
+        assertTrue(System.nanoTime() - start >= 290_000_000L);
+    }
+
+    public void testFileSourceReturnsFileSamples() throws IOException {
+        short[] samples = new short[2500];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 13 - 16000);
+        }
+        File file = File.createTempFile("source", ".wav");
+        try {
+            WavFile.write(file, SAMPLE_RATE, samples);
+            FileAudioSource source = new FileAudioSource(file, 1024, false);
+            try {
+                source.start();
+                assertEquals(SAMPLE_RATE, source.getSampleRate());
+                int position = 0;
+                ShortBuffer chunk;
+                while ((chunk = source.read()) != null) {
+                    assertEquals(Math.min(1024, samples.length - position), chunk.remaining());
+                    for (int i = chunk.position(); i < chunk.limit(); i++) {
+                        assertEquals(samples[position++], chunk.get(i));
+                    }
+                }
+                assertEquals(samples.length, position);
+            } finally {
+                source.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /***
+     * Capture path without AudioRecord: source -> ring buffer -> pipeline
+     */
+    public void testPipelineFromSource() throws IOException {
+        SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, 640, 300, 0.12, 0.025, 7);
+        source.setLength(DetectionPipeline.WINDOW_LENGTH + 6400);
+        RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+        StubDetector detector = new StubDetector(0.5f, 0);
+        DetectionPipeline pipeline = new DetectionPipeline(detector);
+
+        source.start();
+        ShortBuffer chunk;
+        while ((chunk = source.read()) != null) {
+            buffer.push(chunk, Short.MAX_VALUE);
+            assertEquals(0.5f, pipeline.process(buffer));
+        }
+        assertEquals(DetectionPipeline.WINDOW_LENGTH / 640 + 10, detector.getDetections());
+
+        // Streaming features of the last window match a full computation
+        MelSpectrogram melSpectrogram = new MelSpectrogram(DetectionPipeline.SAMPLE_RATE, DetectionPipeline.N_FFT,
+                DetectionPipeline.N_MELS, DetectionPipeline.HOP_LENGTH);
+        float[] expected = new float[DetectionPipeline.N_MELS * DetectionPipeline.FRAMES];
+        LibrosaUtils.powerToNormalizedDb(melSpectrogram.compute(buffer.getDataNormalized()), expected);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], pipeline.getFeatures().get(i), 1e-3f);
+        }
+    }
+}
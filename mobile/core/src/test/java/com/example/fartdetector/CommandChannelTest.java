@@ -0,0 +1,337 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class CommandChannelTest extends TestCase {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /***
+     * In-memory link which fails the configured number of connections and writes
+     */
+    private static class FakeTransport implements CommandTransport {
+        final List<String> written = new ArrayList<>();
+        volatile int connectFailures = 0;
+        // Connections failing with an unchecked exception, like a missing Bluetooth permission
+        volatile int connectCrashes = 0;
+        volatile int writeFailures = 0;
+        volatile int connects = 0;
+        // Blocks writes until released, like a stalled link
+        volatile CountDownLatch writeGate = null;
+        // Blocks connections until released, ignoring interrupts like a Bluetooth connection attempt
+        volatile CountDownLatch connectGate = null;
+
+        @Override
+        public void connect() throws IOException {
+            connects++;
+            CountDownLatch gate = connectGate;
+            while (gate != null && gate.getCount() > 0) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    // Not abortable
+                }
+            }
+            if (connectCrashes > 0) {
+                connectCrashes--;
+                throw new SecurityException("Need BLUETOOTH_CONNECT permission");
+            }
+            if (connectFailures > 0) {
+                connectFailures--;
+                throw new IOException("Device is not found");
+            }
+        }
+
+        @Override
+        public void write(byte[] data) throws IOException {
+            CountDownLatch gate = writeGate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (writeFailures > 0) {
+                writeFailures--;
+                throw new IOException("Broken pipe");
+            }
+            synchronized (written) {
+                written.add(new String(data, StandardCharsets.US_ASCII));
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        int writtenCount() {
+            synchronized (written) {
+                return written.size();
+            }
+        }
+    }
+
+    /***
+     * Link to a TCP socket on the loopback interface
+     */
+    private static class SocketTransport implements CommandTransport {
+        private final int port;
+        private volatile Socket socket;
+
+        SocketTransport(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        }
+
+        @Override
+        public void write(byte[] data) throws IOException {
+            OutputStream output = socket.getOutputStream();
+            output.write(data);
+            output.flush();
+        }
+
+        @Override
+        public void close() {
+            Socket current = socket;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+    }
+
+    private static void waitFor(FakeTransport transport, int count) throws InterruptedException {
+        for (int i = 0; i < 500 && transport.writtenCount() < count; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void testCoalescesRepeatedCommands() throws InterruptedException {
+        FakeTransport transport = new FakeTransport();
+        CommandChannel channel = new CommandChannel(transport, 4, 200, 5000, 10, 100);
+        channel.start();
+        try {
+            assertTrue(channel.send("1"));
+            assertFalse(channel.send("1"));
+            assertFalse(channel.send("1"));
+            // Other commands aren't coalesced with it
+            assertTrue(channel.send("0"));
+            Thread.sleep(250);
+            assertTrue(channel.send("1"));
+
+            waitFor(transport, 3);
+            assertEquals(3, transport.writtenCount());
+            assertEquals("1", transport.written.get(0));
+            assertEquals("0", transport.written.get(1));
+            PipelineMetrics metrics = channel.getMetrics();
+            assertEquals(2, metrics.getCount(PipelineMetrics.Counter.SPRAY_COALESCED));
+            assertEquals(3, metrics.getCount(PipelineMetrics.Counter.SPRAY_SENT));
+            assertEquals(3, metrics.getHistogram(PipelineMetrics.Stage.SPRAY_SEND).getCount());
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testStalledLinkDoesNotBlockSender() throws InterruptedException {
+        FakeTransport transport = new FakeTransport();
+        transport.writeGate = new CountDownLatch(1);
+        CommandChannel channel = new CommandChannel(transport, 2, 0, 5000, 10, 100);
+        channel.start();
+        try {
+            long start = System.nanoTime();
+            int accepted = 0;
+            for (int i = 0; i < 10; i++) {
+                if (channel.send(Integer.toString(i))) {
+                    accepted++;
+                }
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+            // One command is being written, the queue holds two more
+            assertTrue(accepted <= 3);
+            assertEquals(10 - accepted, channel.getMetrics().getCount(PipelineMetrics.Counter.SPRAY_DROPPED));
+
+            transport.writeGate.countDown();
+            waitFor(transport, accepted);
+            assertEquals(accepted, transport.writtenCount());
+            assertTrue(channel.getMetrics().getHistogram(PipelineMetrics.Stage.SPRAY_SEND).getMaxMicros() > 0);
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testCloseDoesNotWaitForConnection() throws InterruptedException {
+        FakeTransport transport = new FakeTransport();
+        transport.connectGate = new CountDownLatch(1);
+        CommandChannel channel = new CommandChannel(transport);
+        channel.start();
+        for (int i = 0; i < 100 && transport.connects == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, transport.connects);
+
+        long start = System.nanoTime();
+        channel.close();
+        long closeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("Close took " + closeMs + " ms", closeMs < CommandChannel.CLOSE_TIMEOUT_MS + 500);
+        assertFalse(channel.isConnected());
+
+        // Writer exits when the attempt returns, without writing or reconnecting
+        transport.connectGate.countDown();
+        Thread.sleep(50);
+        assertEquals(1, transport.connects);
+        assertEquals(0, transport.writtenCount());
+        assertFalse(channel.isConnected());
+    }
+
+    public void testUncheckedConnectFailureIsRetried() throws InterruptedException {
+        final List<IOException> errors = new ArrayList<>();
+        FakeTransport transport = new FakeTransport();
+        transport.connectCrashes = 2;
+        CommandChannel channel = new CommandChannel(transport, 4, 0, 5000, 10, 20);
+        channel.setListener(new CommandChannel.Listener() {
+            @Override
+            public void onConnected() {
+            }
+
+            @Override
+            public void onDisconnected(IOException error) {
+                synchronized (errors) {
+                    errors.add(error);
+                }
+            }
+        }, DIRECT_EXECUTOR);
+        channel.start();
+        try {
+            channel.send("1");
+            waitFor(transport, 1);
+            assertEquals(1, transport.writtenCount());
+            assertEquals(3, transport.connects);
+            synchronized (errors) {
+                assertEquals(1, errors.size());
+                assertTrue(errors.get(0).getCause() instanceof SecurityException);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testReconnectsWithBackoff() throws InterruptedException {
+        final List<String> events = new ArrayList<>();
+        FakeTransport transport = new FakeTransport();
+        transport.connectFailures = 3;
+        CommandChannel channel = new CommandChannel(transport, 4, 0, 5000, 20, 40);
+        channel.setListener(new CommandChannel.Listener() {
+            @Override
+            public void onConnected() {
+                synchronized (events) {
+                    events.add("connected");
+                }
+            }
+
+            @Override
+            public void onDisconnected(IOException error) {
+                synchronized (events) {
+                    events.add(error.getMessage());
+                }
+            }
+        }, DIRECT_EXECUTOR);
+
+        long start = System.nanoTime();
+        channel.start();
+        try {
+            channel.send("1");
+            waitFor(transport, 1);
+            // Delays of 20, 40 and 40 ms before the successful attempt
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+            assertEquals(4, transport.connects);
+            assertTrue(channel.isConnected());
+
+            // Broken link, the command is written again after reconnection
+            transport.writeFailures = 1;
+            channel.send("2");
+            waitFor(transport, 2);
+            assertEquals("2", transport.written.get(1));
+            assertEquals(5, transport.connects);
+
+            PipelineMetrics metrics = channel.getMetrics();
+            assertEquals(4, metrics.getCount(PipelineMetrics.Counter.SPRAY_FAILURES));
+            assertEquals(3, metrics.getCount(PipelineMetrics.Counter.SPRAY_RECONNECTS));
+            assertEquals(2, metrics.getCount(PipelineMetrics.Counter.SPRAY_SENT));
+            synchronized (events) {
+                // Failed attempts are reported once
+                assertEquals("Device is not found", events.get(0));
+                assertEquals("connected", events.get(1));
+                assertEquals("Broken pipe", events.get(2));
+                assertEquals("connected", events.get(3));
+                assertEquals(4, events.size());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testDropsExpiredCommands() throws InterruptedException {
+        FakeTransport transport = new FakeTransport();
+        transport.connectFailures = 1;
+        CommandChannel channel = new CommandChannel(transport, 4, 0, 50, 200, 200);
+        channel.start();
+        try {
+            // Queued while the link is down for longer than the maximum age
+            channel.send("1");
+            Thread.sleep(300);
+            channel.send("2");
+            waitFor(transport, 1);
+            Thread.sleep(50);
+            assertEquals(1, transport.writtenCount());
+            assertEquals("2", transport.written.get(0));
+            assertEquals(1, channel.getMetrics().getCount(PipelineMetrics.Counter.SPRAY_DROPPED));
+        } finally {
+            channel.close();
+        }
+    }
+
+    public void testWritesToLocalSocket() throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            CommandChannel channel = new CommandChannel(new SocketTransport(server.getLocalPort()));
+            channel.start();
+            try (Socket client = server.accept()) {
+                client.setSoTimeout(5000);
+                InputStream input = client.getInputStream();
+                long origin = System.nanoTime();
+                assertTrue(channel.send("1", origin));
+                assertEquals('1', input.read());
+                assertFalse(channel.send("1"));
+            } finally {
+                channel.close();
+            }
+            assertFalse(channel.isConnected());
+            assertEquals(1, channel.getMetrics().getHistogram(PipelineMetrics.Stage.SOUND_TO_SPRAY).getCount());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.nio.FloatBuffer;
+
+public class DetectionPipelineTest extends TestCase {
+
+    private static final int WINDOW_LENGTH = DetectionPipeline.WINDOW_LENGTH;
+
+    private static short[] generateSignal(int length) {
+        return TestAudio.toPcm(TestAudio.tone(length, 300, 0.12, 0.025, 7));
+    }
+
+    public void testFeaturesMatchFullComputation() {
+        RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        buffer.push(generateSignal(WINDOW_LENGTH + 1280), Short.MAX_VALUE);
+        MeanDetector detector = new MeanDetector();
+        DetectionPipeline pipeline = new DetectionPipeline(detector);
+
+        float score = pipeline.process(buffer);
+
+        MelSpectrogram melSpectrogram = new MelSpectrogram(DetectionPipeline.SAMPLE_RATE,
+                DetectionPipeline.N_FFT, DetectionPipeline.N_MELS, DetectionPipeline.HOP_LENGTH);
+        float[] expected = new float[DetectionPipeline.N_MELS * DetectionPipeline.FRAMES];
+        LibrosaUtils.powerToNormalizedDb(melSpectrogram.compute(buffer.getDataNormalized()), expected);
+
+        FloatBuffer features = pipeline.getFeatures();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Mismatch at " + i, expected[i], features.get(i), 1e-3f);
+        }
+        assertEquals(1, detector.getCalls());
+        assertEquals(detector.detect(), score);
+    }
+
+    public void testResetStartsNewStream() {
+        short[] signal = generateSignal(2 * WINDOW_LENGTH);
+        float[] samples = new float[signal.length];
+        for (int i = 0; i < signal.length; i++) {
+            samples[i] = (float) signal[i] / Short.MAX_VALUE;
+        }
+        float[] window = new float[WINDOW_LENGTH];
+
+        DetectionPipeline pipeline = new DetectionPipeline(new MeanDetector());
+        System.arraycopy(samples, 0, window, 0, WINDOW_LENGTH);
+        pipeline.processWindow(window, WINDOW_LENGTH);
+
+        // Window of another stream which looks like a continuation of the previous one
+        System.arraycopy(samples, 3200, window, 0, WINDOW_LENGTH);
+        pipeline.reset();
+        float score = pipeline.processWindow(window, WINDOW_LENGTH + 3200);
+
+        DetectionPipeline fresh = new DetectionPipeline(new MeanDetector());
+        float expected = fresh.processWindow(window, WINDOW_LENGTH + 3200);
+        assertEquals(expected, score);
+        for (int i = 0; i < DetectionPipeline.N_MELS * DetectionPipeline.FRAMES; i++) {
+            assertEquals(fresh.getFeatures().get(i), pipeline.getFeatures().get(i));
+        }
+        assertEquals(3200, pipeline.getWindowStart());
+    }
+
+    public void testReusesScoreWhileWindowIsUnchanged() {
+        short[] signal = generateSignal(WINDOW_LENGTH + 1000);
+        RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        buffer.push(signal, WINDOW_LENGTH, Short.MAX_VALUE);
+        MeanDetector detector = new MeanDetector();
+        PipelineMetrics metrics = new PipelineMetrics();
+        DetectionPipeline pipeline = new DetectionPipeline(detector);
+        pipeline.setMetrics(metrics);
+
+        float score = pipeline.process(buffer);
+        assertFalse(pipeline.isCacheHit());
+        // Nothing was pushed
+        assertEquals(score, pipeline.process(buffer));
+        assertTrue(pipeline.isCacheHit());
+        // Less than a hop doesn't change the analyzed window
+        buffer.push(new short[DetectionPipeline.HOP_LENGTH - 1], Short.MAX_VALUE);
+        assertEquals(score, pipeline.process(buffer));
+        assertTrue(pipeline.isCacheHit());
+        assertEquals(1, detector.getCalls());
+
+        // The next hop is computed, together with the samples skipped by cached calls
+        short[] next = new short[DetectionPipeline.HOP_LENGTH + 1];
+        System.arraycopy(signal, WINDOW_LENGTH, next, 0, next.length);
+        buffer.push(next, Short.MAX_VALUE);
+        float nextScore = pipeline.process(buffer);
+        assertFalse(pipeline.isCacheHit());
+        assertEquals(2, detector.getCalls());
+        assertEquals(2, pipeline.getCacheHits());
+        assertEquals(2, pipeline.getCacheMisses());
+        assertEquals(2, metrics.getCount(PipelineMetrics.Counter.FEATURE_CACHE_HITS));
+        assertEquals(2, metrics.getCount(PipelineMetrics.Counter.FEATURE_CACHE_MISSES));
+
+        DetectionPipeline fresh = new DetectionPipeline(new MeanDetector());
+        assertEquals(fresh.process(buffer), nextScore, 1e-6f);
+
+        // Reset drops the cached result
+        pipeline.reset();
+        pipeline.process(buffer);
+        assertFalse(pipeline.isCacheHit());
+        assertEquals(3, detector.getCalls());
+    }
+
+    public void testReferencePowerIsWindowMaximum() {
+        DetectionPipeline pipeline = new DetectionPipeline(new MeanDetector());
+        assertTrue(Float.isNaN(pipeline.getReferencePower()));
+
+        float[] window = TestAudio.tone(WINDOW_LENGTH, 300, 0.12, 0.025, 7);
+        pipeline.processWindow(window, WINDOW_LENGTH);
+        StreamingMelSpectrogram melSpectrogram = new StreamingMelSpectrogram(DetectionPipeline.SAMPLE_RATE,
+                DetectionPipeline.N_FFT, DetectionPipeline.N_MELS, DetectionPipeline.HOP_LENGTH, WINDOW_LENGTH);
+        float expected = LibrosaUtils.getMinMaxValues(melSpectrogram.update(window, WINDOW_LENGTH))[1];
+        assertEquals(expected, pipeline.getReferencePower());
+
+        // Another sound changes the reference, so features of the new window aren't comparable with the previous ones
+        float[] next = TestAudio.addTone(TestAudio.tone(WINDOW_LENGTH, 0, 0, 0.025, 8), 3100, 0.5);
+        pipeline.processWindow(next, 2 * WINDOW_LENGTH);
+        assertFalse(expected == pipeline.getReferencePower());
+        assertEquals(LibrosaUtils.getMinMaxValues(melSpectrogram.update(next, 2 * WINDOW_LENGTH))[1],
+                pipeline.getReferencePower());
+    }
+
+    public void testRejectsWrongInputSize() {
+        try {
+            new DetectionPipeline(new MeanDetector(100));
+            fail("Detector with wrong input size accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class DetectionSchedulerTest extends TestCase {
+
+    private static class FakeClock implements DetectionScheduler.Clock {
+        long now = 1000;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+    }
+
+    /***
+     * Detection returning increasing scores, optionally taking fake time to compute
+     */
+    private static class CountingDetection implements DetectionScheduler.Detection {
+        final FakeClock clock;
+        long computeDurationMs = 0;
+        int computed = 0;
+        final List<Float> published = new ArrayList<>();
+
+        CountingDetection(FakeClock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public float compute() {
+            computed++;
+            if (clock != null) {
+                clock.now += computeDurationMs;
+            }
+            return computed;
+        }
+
+        @Override
+        public void publish(float score) {
+            published.add(score);
+        }
+    }
+
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> tasks = new ArrayList<>(queue);
+            queue.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    public void testIdleWithoutAudio() {
+        FakeClock clock = new FakeClock();
+        CountingDetection detection = new CountingDetection(clock);
+        DetectionScheduler scheduler = new DetectionScheduler(detection, DIRECT, 200, clock);
+
+        assertEquals(-1, scheduler.runPending());
+        assertEquals(0, detection.computed);
+    }
+
+    public void testTickOnAudio() {
+        FakeClock clock = new FakeClock();
+        CountingDetection detection = new CountingDetection(clock);
+        DetectionScheduler scheduler = new DetectionScheduler(detection, DIRECT, 200, clock);
+
+        scheduler.onAudioAvailable();
+        assertEquals(0, scheduler.runPending());
+        assertEquals(1, detection.computed);
+        assertEquals(1, detection.published.size());
+        assertEquals(-1, scheduler.runPending());
+    }
+
+    public void testCoalescesNotificationsWithinInterval() {
+        FakeClock clock = new FakeClock();
+        CountingDetection detection = new CountingDetection(clock);
+        DetectionScheduler scheduler = new DetectionScheduler(detection, DIRECT, 200, clock);
+
+        scheduler.onAudioAvailable();
+        scheduler.runPending();
+
+        // Audio chunks arrive every 40 ms, only one tick per 200 ms
+        for (int i = 0; i < 4; i++) {
+            clock.now += 40;
+            scheduler.onAudioAvailable();
+            assertEquals(200 - 40 * (i + 1), scheduler.runPending());
+        }
+        clock.now += 40;
+        scheduler.onAudioAvailable();
+        assertEquals(0, scheduler.runPending());
+
+        assertEquals(2, detection.computed);
+        assertEquals(6, scheduler.getNotifications());
+        assertEquals(2, scheduler.getTicks());
+    }
+
+    public void testNoCatchUpAfterSlowTick() {
+        FakeClock clock = new FakeClock();
+        CountingDetection detection = new CountingDetection(clock);
+        DetectionScheduler scheduler = new DetectionScheduler(detection, DIRECT, 200, clock);
+
+        // Tick takes 1 second while audio keeps arriving
+        detection.computeDurationMs = 1000;
+        scheduler.onAudioAvailable();
+        scheduler.runPending();
+        for (int i = 0; i < 25; i++) {
+            scheduler.onAudioAvailable();
+        }
+
+        detection.computeDurationMs = 10;
+        assertEquals(0, scheduler.runPending());
+        // Only one tick for all audio that arrived meanwhile
+        assertEquals(-1, scheduler.runPending());
+        assertEquals(2, detection.computed);
+    }
+
+    public void testPublishesOnlyLatestScore() {
+        FakeClock clock = new FakeClock();
+        CountingDetection detection = new CountingDetection(clock);
+        QueueExecutor ui = new QueueExecutor();
+        DetectionScheduler scheduler = new DetectionScheduler(detection, ui, 200, clock);
+
+        for (int i = 0; i < 3; i++) {
+            scheduler.onAudioAvailable();
+            scheduler.runPending();
+            clock.now += 200;
+        }
+        // UI thread was busy, only one publication is pending
+        assertEquals(1, ui.queue.size());
+        assertEquals(2, scheduler.getSkippedPublications());
+
+        ui.runAll();
+        assertEquals(1, detection.published.size());
+        assertEquals(3.0f, detection.published.get(0), 0);
+
+        scheduler.onAudioAvailable();
+        scheduler.runPending();
+        assertEquals(1, ui.queue.size());
+    }
+
+    public void testPipelinedScoresArePublishedLater() {
+        FakeClock clock = new FakeClock();
+        final List<Float> published = new ArrayList<>();
+        QueueExecutor ui = new QueueExecutor();
+        DetectionScheduler scheduler = new DetectionScheduler(new DetectionScheduler.Detection() {
+            @Override
+            public float compute() {
+                return Float.NaN;
+            }
+
+            @Override
+            public void publish(float score) {
+                published.add(score);
+            }
+        }, ui, 200, clock);
+        FakeGate gate = new FakeGate();
+        gate.open = true;
+        scheduler.setGate(gate);
+
+        // Tick only hands the window to the inference stage
+        scheduler.onAudioAvailable();
+        assertEquals(0, scheduler.runPending());
+        assertEquals(1, scheduler.getTicks());
+        assertTrue(ui.queue.isEmpty());
+
+        scheduler.publish(0.5f);
+        scheduler.publish(0.7f);
+        assertEquals(1, ui.queue.size());
+        assertEquals(1, scheduler.getSkippedPublications());
+        ui.runAll();
+        assertEquals(1, published.size());
+        assertEquals(0.7f, published.get(0));
+
+        // Late score of a window before the gate closed doesn't replace zero
+        gate.open = false;
+        clock.now += 200;
+        scheduler.onAudioAvailable();
+        scheduler.runPending();
+        scheduler.publish(0.9f);
+        ui.runAll();
+        assertEquals(2, published.size());
+        assertEquals(0f, published.get(1));
+    }
+
+    private static class FakeGate implements DetectionScheduler.Gate {
+        boolean open = false;
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+    }
+
+    public void testSkipsTicksWhileGateIsClosed() {
+        FakeClock clock = new FakeClock();
+        CountingDetection detection = new CountingDetection(clock);
+        DetectionScheduler scheduler = new DetectionScheduler(detection, DIRECT, 200, clock);
+        FakeGate gate = new FakeGate();
+        scheduler.setGate(gate);
+
+        // Closed gate publishes zero once and skips computation
+        for (int i = 0; i < 3; i++) {
+            scheduler.onAudioAvailable();
+            assertEquals(0, scheduler.runPending());
+            clock.now += 200;
+        }
+        assertEquals(0, detection.computed);
+        assertEquals(3, scheduler.getSkippedTicks());
+        assertEquals(1, detection.published.size());
+        assertEquals(0f, detection.published.get(0));
+
+        gate.open = true;
+        scheduler.onAudioAvailable();
+        scheduler.runPending();
+        assertEquals(1, detection.computed);
+        assertEquals(1f, detection.published.get(1));
+
+        // Zero is published again when the event is over
+        gate.open = false;
+        clock.now += 200;
+        scheduler.onAudioAvailable();
+        scheduler.runPending();
+        assertEquals(3, detection.published.size());
+        assertEquals(0f, detection.published.get(2));
+        assertEquals(1, scheduler.getTicks());
+    }
+
+    public void testThreadRunsOnAudioAndStops() throws InterruptedException {
+        final CountDownLatch computed = new CountDownLatch(2);
+        DetectionScheduler scheduler = new DetectionScheduler(new DetectionScheduler.Detection() {
+            @Override
+            public float compute() {
+                computed.countDown();
+                return 0;
+            }
+
+            @Override
+            public void publish(float score) {
+            }
+        }, DIRECT, 10);
+
+        scheduler.start();
+        assertTrue(scheduler.isRunning());
+        scheduler.onAudioAvailable();
+        Thread.sleep(50);
+        scheduler.onAudioAvailable();
+        assertTrue("Ticks were not run", computed.await(5, TimeUnit.SECONDS));
+
+        scheduler.stop();
+        assertFalse(scheduler.isRunning());
+        long ticks = scheduler.getTicks();
+        scheduler.onAudioAvailable();
+        Thread.sleep(50);
+        assertEquals(ticks, scheduler.getTicks());
+    }
+}
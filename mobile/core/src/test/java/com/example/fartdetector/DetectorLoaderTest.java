@@ -0,0 +1,133 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.Executor;
+
+public class DetectorLoaderTest extends TestCase {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class RecordingListener implements DetectorLoader.Listener {
+        volatile Detector detector = null;
+        volatile Exception error = null;
+        volatile Thread thread = null;
+
+        @Override
+        public void onReady(Detector detector) {
+            this.detector = detector;
+            thread = Thread.currentThread();
+        }
+
+        @Override
+        public void onFailed(Exception error) {
+            this.error = error;
+            thread = Thread.currentThread();
+        }
+    }
+
+    public void testLoadsAndWarmsUpInBackground() throws InterruptedException {
+        final StubDetector stub = new StubDetector(0.25f, 0);
+        stub.getInput().put(0, 42);
+        RecordingListener listener = new RecordingListener();
+        DetectorLoader loader = new DetectorLoader(new Detector.Factory() {
+            @Override
+            public Detector create() throws Exception {
+                // Slow model loading
+                Thread.sleep(100);
+                return stub;
+            }
+        }, listener, DIRECT_EXECUTOR);
+
+        loader.start();
+        assertFalse(loader.isReady());
+        assertNull(loader.getDetector());
+
+        assertSame(stub, loader.await(5000));
+        assertTrue(loader.isReady());
+        assertTrue(loader.getLoadMillis() >= 100);
+        // One warm-up inference on zeros
+        assertEquals(1, stub.getDetections());
+        assertEquals(0f, stub.getInput().get(0));
+
+        // Listener is called after the detector is published
+        for (int i = 0; i < 100 && listener.thread == null; i++) {
+            Thread.sleep(10);
+        }
+        assertSame(stub, listener.detector);
+        assertNotSame(Thread.currentThread(), listener.thread);
+    }
+
+    public void testReportsFailure() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        DetectorLoader loader = new DetectorLoader(new Detector.Factory() {
+            @Override
+            public Detector create() throws Exception {
+                throw new IOException("No model");
+            }
+        }, listener, DIRECT_EXECUTOR);
+
+        loader.start();
+        assertNull(loader.await(5000));
+        assertFalse(loader.isReady());
+        assertEquals("No model", loader.getError().getMessage());
+        for (int i = 0; i < 100 && listener.thread == null; i++) {
+            Thread.sleep(10);
+        }
+        assertSame(loader.getError(), listener.error);
+        assertNull(listener.detector);
+    }
+
+    public void testPipelineRunsOnStubDetector() throws InterruptedException {
+        DetectorLoader loader = new DetectorLoader(new Detector.Factory() {
+            @Override
+            public Detector create() {
+                return new StubDetector(0.75f, 0);
+            }
+        }, null, DIRECT_EXECUTOR);
+        loader.start();
+        DetectionPipeline pipeline = new DetectionPipeline(loader.await(5000));
+
+        RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+        short[] chunk = new short[DetectionPipeline.WINDOW_LENGTH];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (short) (5000 * Math.sin(i / 10.0));
+        }
+        buffer.push(chunk, Short.MAX_VALUE);
+
+        assertEquals(0.75f, pipeline.process(buffer));
+        FloatBuffer features = pipeline.getFeatures();
+        for (int i = 0; i < features.capacity(); i++) {
+            assertTrue(features.get(i) >= LibrosaUtils.NORMALIZED_DB_MIN - 1e-5f);
+            assertTrue(features.get(i) <= LibrosaUtils.NORMALIZED_DB_MAX + 1e-5f);
+        }
+    }
+
+    public void testReflectionFactoryCreatesDetectorByName() throws Exception {
+        Detector.Factory factory = DetectorLoader.reflectionFactory(StubDetector.class.getName(), null);
+        Detector first = factory.create();
+        assertTrue(first instanceof StubDetector);
+        assertNotSame(first, factory.create());
+
+        try {
+            // StubDetector has no constructor with a model path
+            DetectorLoader.reflectionFactory(StubDetector.class.getName(), "model.tflite");
+            fail();
+        } catch (NoSuchMethodException e) {
+            // Expected
+        }
+        try {
+            DetectorLoader.reflectionFactory(String.class.getName(), null);
+            fail();
+        } catch (ClassCastException e) {
+            // Expected
+        }
+    }
+}
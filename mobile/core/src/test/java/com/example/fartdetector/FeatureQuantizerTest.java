@@ -0,0 +1,184 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+public class FeatureQuantizerTest extends TestCase {
+
+    private static final int SIZE = DetectionPipeline.N_MELS * DetectionPipeline.FRAMES;
+
+    /***
+     * Quantization of the whole feature range, the way the converter calibrates it on real spectrograms
+     */
+    private static Quantization featureRange(boolean signed) {
+        float min = LibrosaUtils.NORMALIZED_DB_MIN;
+        float max = LibrosaUtils.NORMALIZED_DB_MAX;
+        float scale = (max - min) / 255;
+        int zeroPoint = Math.round(-min / scale) + (signed ? Byte.MIN_VALUE : 0);
+        return new Quantization(scale, zeroPoint, signed);
+    }
+
+    /***
+     * Stand-in for a model: logistic regression on the features with fixed random weights
+     */
+    private static class LinearDetector implements Detector {
+        final float[] weights = new float[SIZE];
+        private final FloatBuffer input = FloatBuffer.allocate(SIZE);
+
+        LinearDetector() {
+            Random random = new Random(11);
+            for (int i = 0; i < SIZE; i++) {
+                weights[i] = (float) (random.nextGaussian() * 0.02);
+            }
+        }
+
+        @Override
+        public FloatBuffer getInput() {
+            return input;
+        }
+
+        @Override
+        public float detect() {
+            double sum = 0;
+            for (int i = 0; i < SIZE; i++) {
+                sum += weights[i] * input.get(i);
+            }
+            return (float) (1 / (1 + Math.exp(-sum)));
+        }
+    }
+
+    /***
+     * Same model with an 8-bit input, like an int8 TFLite model which dequantizes its input
+     */
+    private static class QuantizedLinearDetector extends LinearDetector implements QuantizedDetector {
+        private final ByteBuffer quantizedInput = ByteBuffer.allocateDirect(SIZE);
+        private final Quantization quantization;
+
+        QuantizedLinearDetector(Quantization quantization) {
+            this.quantization = quantization;
+        }
+
+        @Override
+        public ByteBuffer getQuantizedInput() {
+            return quantizedInput;
+        }
+
+        @Override
+        public Quantization getInputQuantization() {
+            return quantization;
+        }
+
+        @Override
+        public float detect() {
+            double sum = 0;
+            for (int i = 0; i < SIZE; i++) {
+                sum += weights[i] * quantization.dequantize(quantizedInput.get(i));
+            }
+            return (float) (1 / (1 + Math.exp(-sum)));
+        }
+    }
+
+    /***
+     * Reference audio: background noise with short loud noise bursts and a tone
+     */
+    private static short[] generateAudio(int length) {
+        return TestAudio.toPcm(TestAudio.addBursts(TestAudio.tone(length, 180, 0.046, 0.006, 5), 8000, 0.18, 5));
+    }
+
+    public void testLog2MatchesMath() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            float value = (float) Math.pow(10, -10 + 14 * random.nextDouble());
+            double expected = Math.log(value) / Math.log(2);
+            assertEquals("log2 of " + value, expected, FeatureQuantizer.log2Fixed(value) / 65536.0, 3e-5);
+        }
+        assertEquals(0, FeatureQuantizer.log2Fixed(1));
+        assertEquals(-65536, FeatureQuantizer.log2Fixed(0.5f));
+    }
+
+    public void testQuantizedFeaturesMatchFloatFeatures() {
+        for (boolean signed : new boolean[]{true, false}) {
+            Quantization quantization = featureRange(signed);
+            RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+            buffer.push(generateAudio(DetectionPipeline.WINDOW_LENGTH), Short.MAX_VALUE);
+            float[][] spectrogram = new MelSpectrogram(DetectionPipeline.SAMPLE_RATE, DetectionPipeline.N_FFT,
+                    DetectionPipeline.N_MELS, DetectionPipeline.HOP_LENGTH).compute(buffer.getDataNormalized());
+
+            float[] expected = new float[SIZE];
+            LibrosaUtils.powerToNormalizedDb(spectrogram, expected);
+            ByteBuffer quantized = ByteBuffer.allocate(SIZE);
+            new FeatureQuantizer(quantization).quantize(spectrogram, quantized);
+
+            int exact = 0;
+            for (int i = 0; i < SIZE; i++) {
+                int expectedValue = signed ? quantization.quantize(expected[i])
+                        : quantization.quantize(expected[i]) & 0xff;
+                int actualValue = signed ? quantized.get(i) : quantized.get(i) & 0xff;
+                // Values exactly between two steps may round either way
+                assertTrue("Mismatch at " + i, Math.abs(expectedValue - actualValue) <= 1);
+                if (expectedValue == actualValue) {
+                    exact++;
+                }
+            }
+            assertTrue("Only " + exact + " values match exactly", exact > 0.99 * SIZE);
+        }
+    }
+
+    public void testQuantizationClampsToTypeRange() {
+        Quantization quantization = new Quantization(0.01f, 0, true);
+        float[][] spectrogram = {{1e-12f, 1, 1e-3f}};
+        ByteBuffer quantized = ByteBuffer.allocate(3);
+        new FeatureQuantizer(quantization).quantize(spectrogram, quantized);
+        // -80 dB and 0 dB normalize to about -3.4 and 3.2, far outside of +-1.28
+        assertEquals(Byte.MIN_VALUE, quantized.get(0));
+        assertEquals(Byte.MAX_VALUE, quantized.get(1));
+        assertEquals(quantization.quantize((-30 - LibrosaUtils.SPECTROGRAM_MEAN) / LibrosaUtils.SPECTROGRAM_STD),
+                quantized.get(2));
+    }
+
+    public void testScoresAgreeWithFloatPipeline() {
+        short[] audio = generateAudio(6 * DetectionPipeline.SAMPLE_RATE);
+        for (boolean signed : new boolean[]{true, false}) {
+            DetectionPipeline floatPipeline = new DetectionPipeline(new LinearDetector());
+            DetectionPipeline quantizedPipeline = new DetectionPipeline(new QuantizedLinearDetector(featureRange(signed)));
+            assertTrue(quantizedPipeline.isQuantized());
+            assertFalse(floatPipeline.isQuantized());
+
+            double maxDifference = 0;
+            int windows = 0;
+            ShortBuffer window = ShortBuffer.wrap(audio);
+            for (int end = DetectionPipeline.WINDOW_LENGTH; end <= audio.length; end += 1600) {
+                window.limit(end).position(end - DetectionPipeline.WINDOW_LENGTH);
+                float expected = floatPipeline.processWindow(window, end);
+                float actual = quantizedPipeline.processWindow(window, end);
+                maxDifference = Math.max(maxDifference, Math.abs(expected - actual));
+                windows++;
+            }
+            assertTrue(windows > 20);
+            // Rounding errors of 32k inputs add up in a single linear layer, a CNN averages them more
+            assertTrue("Scores differ by " + maxDifference, maxDifference < 0.02);
+        }
+    }
+
+    public void testFeaturesAreDequantizedOnRequest() {
+        Quantization quantization = featureRange(true);
+        DetectionPipeline pipeline = new DetectionPipeline(new QuantizedLinearDetector(quantization));
+        short[] audio = generateAudio(DetectionPipeline.WINDOW_LENGTH);
+        pipeline.processWindow(ShortBuffer.wrap(audio), audio.length);
+
+        RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+        buffer.push(audio, Short.MAX_VALUE);
+        float[] expected = new float[SIZE];
+        LibrosaUtils.powerToNormalizedDb(new MelSpectrogram(DetectionPipeline.SAMPLE_RATE, DetectionPipeline.N_FFT,
+                DetectionPipeline.N_MELS, DetectionPipeline.HOP_LENGTH).compute(buffer.getDataNormalized()), expected);
+
+        FloatBuffer features = pipeline.getFeatures();
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals("Mismatch at " + i, expected[i], features.get(i), 1.01f * quantization.getScale());
+        }
+    }
+}
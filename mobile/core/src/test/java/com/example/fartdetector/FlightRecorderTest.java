@@ -0,0 +1,257 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FlightRecorderTest extends TestCase {
+
+    private static final int CHUNK = 1600;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("flight").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static short[] generateSignal(int length) {
+        // Noise bursts every quarter of a second
+        return TestAudio.toPcm(TestAudio.addBursts(TestAudio.tone(length, 250, 0.09, 0, 3), 4000, 0.03, 3));
+    }
+
+    /***
+     * Records audio and scores the way MainActivity does: audio thread pushes chunks,
+     * detection ticks score the ring buffer every few chunks, sometimes with no new audio
+     * @return Number of recorded scores
+     */
+    private static int recordSession(FlightRecorder recorder, short[] signal) {
+        RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+        DetectionPipeline pipeline = new DetectionPipeline(new MeanDetector());
+        int scores = 0;
+        for (int offset = 0; offset + CHUNK <= signal.length; offset += CHUNK) {
+            ShortBuffer chunk = ShortBuffer.wrap(signal, offset, CHUNK).slice();
+            recorder.recordAudio(chunk, buffer.getWriteSequence());
+            buffer.push(chunk, Short.MAX_VALUE);
+            int tick = offset / CHUNK;
+            for (int i = 0; i < (tick % 7 == 0 ? 2 : tick % 3 == 0 ? 1 : 0); i++) {
+                float score = pipeline.process(buffer);
+                recorder.recordScore(pipeline.getLastTotalSamples(), score);
+                scores++;
+                if (tick % 5 == 0) {
+                    recorder.recordTrigger(pipeline.getLastTotalSamples(), score);
+                }
+            }
+        }
+        return scores;
+    }
+
+    public void testRecordsAreReadBack() throws IOException {
+        short[] signal = generateSignal(5000);
+        try (FlightRecorder recorder = new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE)) {
+            recorder.recordAudio(ShortBuffer.wrap(signal), 100);
+            recorder.recordScore(5100, 0.25f);
+            recorder.recordTrigger(5100, 0.9f);
+            // Session, 5 audio records and 2 events
+            assertEquals(8, recorder.getRecords());
+            assertEquals(0, recorder.getDroppedRecords());
+        }
+
+        final short[] audio = new short[signal.length];
+        final List<String> events = new ArrayList<>();
+        FlightRecording.read(directory, new FlightRecording.Visitor() {
+            @Override
+            public void onSession(long time, int sampleRate) {
+                events.add("session " + sampleRate);
+            }
+
+            @Override
+            public void onAudio(long time, long position, ShortBuffer samples) {
+                assertTrue(samples.remaining() <= FlightRecorder.MAX_SAMPLES_PER_RECORD);
+                samples.get(audio, (int) position - 100, samples.remaining());
+            }
+
+            @Override
+            public void onScore(long time, long totalSamples, float score) {
+                events.add("score " + totalSamples + " " + score);
+            }
+
+            @Override
+            public void onTrigger(long time, long totalSamples, float score) {
+                events.add("trigger " + totalSamples + " " + score);
+            }
+        });
+        assertEquals("[session 16000, score 5100 0.25, trigger 5100 0.9]", events.toString());
+        for (int i = 0; i < signal.length; i++) {
+            assertEquals("Mismatch at " + i, signal[i], audio[i]);
+        }
+    }
+
+    public void testOldSegmentsAreDeleted() throws IOException, InterruptedException {
+        int maxSegments = 3;
+        int writes = 200;
+        try (FlightRecorder recorder = new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE,
+                8 * FlightRecorder.RECORD_SIZE, maxSegments)) {
+            for (int i = 0; i < writes; i++) {
+                recorder.recordScore(i, i);
+                Thread.sleep(1);
+                // Next segment is prepared before old ones are deleted
+                assertTrue(FlightRecording.listSegments(directory).length <= maxSegments + 2);
+            }
+            assertEquals(writes + 1, recorder.getRecords() + recorder.getDroppedRecords());
+            assertNull(recorder.getRollError());
+        }
+        long[] segments = FlightRecording.listSegments(directory);
+        assertTrue(segments.length <= maxSegments);
+        assertEquals(segments.length - 1, segments[segments.length - 1] - segments[0]);
+
+        // Only the latest scores are kept, in order
+        final List<Long> positions = new ArrayList<>();
+        FlightRecording.read(directory, new FlightRecording.Visitor() {
+            @Override
+            public void onScore(long time, long totalSamples, float score) {
+                assertEquals((float) totalSamples, score);
+                positions.add(totalSamples);
+            }
+        });
+        assertTrue(positions.size() <= maxSegments * 8);
+        assertTrue(positions.size() > 8);
+        for (int i = 1; i < positions.size(); i++) {
+            assertTrue(positions.get(i) > positions.get(i - 1));
+        }
+    }
+
+    public void testConcurrentWritersKeepRecordsIntact() throws Exception {
+        final int writers = 4;
+        final int writes = 300;
+        final int samples = 10;
+        // Two records per segment, so writers switch segments all the time
+        final FlightRecorder recorder = new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE,
+                2 * FlightRecorder.RECORD_SIZE, writers * writes);
+        Thread[] threads = new Thread[writers];
+        try {
+            for (int t = 0; t < writers; t++) {
+                final int writer = t;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        short[] chunk = new short[samples];
+                        for (int i = 0; i < writes; i++) {
+                            int id = writer * writes + i;
+                            if (i % 2 == 0) {
+                                recorder.recordScore(id, id);
+                            } else {
+                                java.util.Arrays.fill(chunk, (short) id);
+                                recorder.recordAudio(ShortBuffer.wrap(chunk), id);
+                            }
+                            Thread.yield();
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            recorder.close();
+        }
+        assertEquals(writers * writes + 1, recorder.getRecords() + recorder.getDroppedRecords());
+        assertTrue(recorder.getRecords() > writes);
+
+        // Every record is read back whole: score equals position, audio samples equal position
+        final int[] records = {0};
+        final boolean[] seen = new boolean[writers * writes];
+        FlightRecording.read(directory, new FlightRecording.Visitor() {
+            @Override
+            public void onSession(long time, int sampleRate) {
+                records[0]++;
+            }
+
+            @Override
+            public void onAudio(long time, long position, ShortBuffer audio) {
+                records[0]++;
+                assertEquals(samples, audio.remaining());
+                while (audio.hasRemaining()) {
+                    assertEquals((short) position, audio.get());
+                }
+                assertFalse("Duplicate " + position, seen[(int) position]);
+                seen[(int) position] = true;
+            }
+
+            @Override
+            public void onScore(long time, long totalSamples, float score) {
+                records[0]++;
+                assertEquals((float) totalSamples, score);
+                assertFalse("Duplicate " + totalSamples, seen[(int) totalSamples]);
+                seen[(int) totalSamples] = true;
+            }
+        });
+        assertEquals(recorder.getRecords(), records[0]);
+    }
+
+    public void testNewSessionContinuesNumbering() throws IOException {
+        new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE).close();
+        long[] first = FlightRecording.listSegments(directory);
+        new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE).close();
+        long[] second = FlightRecording.listSegments(directory);
+        assertEquals(1, first.length);
+        assertEquals(2, second.length);
+        assertEquals(first[0] + 1, second[1]);
+    }
+
+    public void testReplayReproducesScores() throws IOException {
+        short[] signal = generateSignal(8 * DetectionPipeline.SAMPLE_RATE);
+        int scores;
+        try (FlightRecorder recorder = new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE)) {
+            scores = recordSession(recorder, signal);
+        }
+        try (FlightRecorder recorder = new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE)) {
+            scores += recordSession(recorder, generateSignal(4 * DetectionPipeline.SAMPLE_RATE));
+        }
+
+        FlightRecording.ReplayResult result = FlightRecording.replay(directory,
+                new DetectionPipeline(new MeanDetector()));
+        assertEquals(result.toString(), 2, result.getSessions());
+        assertEquals(result.toString(), scores, result.getScores());
+        assertEquals(result.toString(), 0, result.getMismatches());
+        assertEquals(result.toString(), 0, result.getSkippedScores());
+        assertEquals(result.toString(), 0, result.getGaps());
+        assertTrue(result.getTriggers() > 0);
+    }
+
+    public void testReplayStartsAfterDeletedSegments() throws IOException, InterruptedException {
+        short[] signal = generateSignal(10 * DetectionPipeline.SAMPLE_RATE);
+        int scores;
+        // 64 records hold about 4 seconds of audio, so the session start is deleted
+        try (FlightRecorder recorder = new FlightRecorder(directory, DetectionPipeline.SAMPLE_RATE,
+                64 * FlightRecorder.RECORD_SIZE, 2)) {
+            // Give the recorder time to map the next segment
+            Thread.sleep(50);
+            scores = recordSession(recorder, signal);
+        }
+
+        FlightRecording.ReplayResult result = FlightRecording.replay(directory,
+                new DetectionPipeline(new MeanDetector()));
+        assertEquals(result.toString(), 0, result.getSessions());
+        assertTrue(result.toString(), result.getScores() > 0);
+        assertTrue(result.toString(), result.getScores() + result.getSkippedScores() < scores);
+        assertEquals(result.toString(), 0, result.getMismatches());
+    }
+}
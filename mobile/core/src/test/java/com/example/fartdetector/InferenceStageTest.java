@@ -0,0 +1,201 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InferenceStageTest extends TestCase {
+
+    private static final int WINDOW_LENGTH = DetectionPipeline.WINDOW_LENGTH;
+    private static final int HOP = 3200;
+
+    /***
+     * Mean detector with a direct input like a TFLite model, optionally waiting for a latch in every detection
+     */
+    private static class BlockingDetector extends MeanDetector {
+        volatile CountDownLatch started = null;
+        volatile CountDownLatch release = null;
+
+        BlockingDetector() {
+            super(ByteBuffer.allocateDirect(4 * DetectionPipeline.N_MELS * DetectionPipeline.FRAMES)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer());
+        }
+
+        @Override
+        public float detect() {
+            if (started != null) {
+                started.countDown();
+            }
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.detect();
+        }
+    }
+
+    private static class Scores implements InferenceStage.Listener {
+        final List<Long> totalSamples = new ArrayList<>();
+        final List<Float> scores = new ArrayList<>();
+
+        @Override
+        public synchronized void onScore(long windowTotalSamples, float score) {
+            totalSamples.add(windowTotalSamples);
+            scores.add(score);
+            notifyAll();
+        }
+
+        synchronized void awaitCount(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (scores.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue("Scores: " + scores.size(), scores.size() >= count);
+        }
+    }
+
+    private static float[] generateSignal(int length) {
+        return TestAudio.tone(length, 500, 0.1, 0.02, 11);
+    }
+
+    private static float[] window(float[] signal, int end) {
+        float[] samples = new float[WINDOW_LENGTH];
+        System.arraycopy(signal, end - WINDOW_LENGTH, samples, 0, WINDOW_LENGTH);
+        return samples;
+    }
+
+    public void testPipelinedScoresMatchInPlaceScores() {
+        float[] signal = generateSignal(WINDOW_LENGTH + 6 * HOP);
+        DetectionPipeline reference = new DetectionPipeline(new BlockingDetector());
+        BlockingDetector detector = new BlockingDetector();
+        Scores scores = new Scores();
+        InferenceStage stage = new InferenceStage(detector, scores);
+        DetectionPipeline pipeline = new DetectionPipeline(detector);
+        pipeline.setInferenceStage(stage);
+
+        for (int end = WINDOW_LENGTH; end <= signal.length; end += HOP) {
+            float[] samples = window(signal, end);
+            float expected = reference.processWindow(samples, end);
+            assertTrue(Float.isNaN(pipeline.processWindow(samples, end)));
+            // Features of the window are readable until the next one
+            FloatBuffer features = pipeline.getFeatures();
+            FloatBuffer expectedFeatures = reference.getFeatures();
+            for (int i = 0; i < features.capacity(); i += 97) {
+                assertEquals(expectedFeatures.get(i), features.get(i));
+            }
+            assertTrue(stage.runPending());
+            assertFalse(stage.runPending());
+            assertEquals((long) end, (long) scores.totalSamples.get(scores.totalSamples.size() - 1));
+            assertEquals(expected, scores.scores.get(scores.scores.size() - 1));
+        }
+        assertEquals(0, stage.getDropped());
+        assertEquals(stage.getSubmitted(), stage.getInferences());
+    }
+
+    public void testLatestWindowWins() {
+        float[] signal = generateSignal(WINDOW_LENGTH + 2 * HOP);
+        BlockingDetector detector = new BlockingDetector();
+        Scores scores = new Scores();
+        InferenceStage stage = new InferenceStage(detector, scores);
+        PipelineMetrics metrics = new PipelineMetrics();
+        stage.setMetrics(metrics);
+        DetectionPipeline pipeline = new DetectionPipeline(detector);
+        pipeline.setInferenceStage(stage);
+
+        DetectionPipeline reference = new DetectionPipeline(new BlockingDetector());
+        float expected = reference.processWindow(window(signal, signal.length), signal.length);
+
+        // Inference thread doesn't take any of them before the last one is submitted
+        pipeline.processWindow(window(signal, WINDOW_LENGTH), WINDOW_LENGTH);
+        pipeline.processWindow(window(signal, WINDOW_LENGTH + HOP), WINDOW_LENGTH + HOP);
+        pipeline.processWindow(window(signal, signal.length), signal.length);
+        assertTrue(stage.runPending());
+        assertFalse(stage.runPending());
+
+        assertEquals(1, scores.scores.size());
+        assertEquals((long) signal.length, (long) scores.totalSamples.get(0));
+        assertEquals(expected, scores.scores.get(0));
+        assertEquals(2, stage.getDropped());
+        assertEquals(2, metrics.getCount(PipelineMetrics.Counter.DROPPED_WINDOWS));
+        assertEquals(1, metrics.getHistogram(PipelineMetrics.Stage.INFERENCE).getCount());
+    }
+
+    public void testProducerDoesNotWriteSlotInInference() throws InterruptedException {
+        BlockingDetector detector = new BlockingDetector();
+        detector.started = new CountDownLatch(1);
+        detector.release = new CountDownLatch(1);
+        Scores scores = new Scores();
+        InferenceStage stage = new InferenceStage(detector, scores);
+        stage.start();
+        try {
+            int first = stage.acquire();
+            stage.getInput(first).put(0, 1);
+            stage.submit(1);
+            assertTrue(detector.started.await(5, TimeUnit.SECONDS));
+
+            // Producer keeps going while the first window is scored, never blocks and never gets its slot
+            for (int i = 2; i <= 5; i++) {
+                int slot = stage.acquire();
+                assertTrue(slot != first);
+                stage.getInput(slot).put(0, 1000 * i);
+                stage.submit(i);
+            }
+            assertEquals(3, stage.getDropped());
+
+            detector.started = null;
+            detector.release.countDown();
+            scores.awaitCount(2);
+        } finally {
+            stage.stop();
+        }
+        assertFalse(stage.isRunning());
+        assertEquals(2, scores.scores.size());
+        assertEquals(1L, (long) scores.totalSamples.get(0));
+        assertEquals(5L, (long) scores.totalSamples.get(1));
+        int size = detector.getInput().capacity();
+        assertEquals(1f / size, scores.scores.get(0), 1e-9);
+        assertEquals(5000f / size, scores.scores.get(1), 1e-6);
+    }
+
+    public void testThreadScoresEveryWindowWhenFastEnough() throws InterruptedException {
+        float[] signal = generateSignal(WINDOW_LENGTH + 4 * HOP);
+        BlockingDetector detector = new BlockingDetector();
+        Scores scores = new Scores();
+        InferenceStage stage = new InferenceStage(detector, scores);
+        DetectionPipeline pipeline = new DetectionPipeline(detector);
+        pipeline.setInferenceStage(stage);
+        stage.start();
+        try {
+            int windows = 0;
+            for (int end = WINDOW_LENGTH; end <= signal.length; end += HOP) {
+                pipeline.processWindow(window(signal, end), end);
+                windows++;
+                scores.awaitCount(windows);
+            }
+            assertEquals(windows, stage.getInferences());
+            assertEquals(0, stage.getDropped());
+        } finally {
+            stage.stop();
+        }
+    }
+
+    public void testRejectsStageOfAnotherDetector() {
+        DetectionPipeline pipeline = new DetectionPipeline(new BlockingDetector());
+        try {
+            pipeline.setInferenceStage(new InferenceStage(new BlockingDetector(), new Scores()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
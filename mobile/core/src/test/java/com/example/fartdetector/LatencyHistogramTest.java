@@ -0,0 +1,66 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBucketsCoverValuesWithBoundedError() {
+        for (long micros = 0; micros < 1_000_000; micros = micros * 9 / 8 + 1) {
+            int bucket = LatencyHistogram.bucket(micros);
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(upper >= micros);
+            assertTrue("Bucket of " + micros + " is too wide", upper - micros <= micros / 8);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.upperBound(bucket - 1) < micros);
+            }
+        }
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(500.5, histogram.getMeanMicros(), 1e-9);
+
+        long median = histogram.getPercentileMicros(0.5);
+        assertTrue(median >= 500 && median <= 500 * 9 / 8);
+        long p99 = histogram.getPercentileMicros(0.99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        assertEquals(1000, histogram.getPercentileMicros(1.0));
+    }
+
+    public void testEmptyAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMicros(0.5));
+        histogram.record(-5);
+        histogram.record(5_000_000);
+        assertEquals(0, histogram.getPercentileMicros(0.5));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+    }
+
+    public void testConcurrentRecording() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i % 1000 * 1000L);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getCount());
+        assertEquals(999, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+public class LibrosaUtilsTest extends TestCase {
+
+    private static final int HEIGHT = 128;
+    private static final int WIDTH = 251;
+
+    private static float[][] generatePowerSpectrogram(long seed) {
+        Random random = new Random(seed);
+        float[][] spectrogram = new float[HEIGHT][WIDTH];
+        for (int i = 0; i < HEIGHT; i++) {
+            for (int j = 0; j < WIDTH; j++) {
+                // Power values spread over many orders of magnitude, some below top_db
+                spectrogram[i][j] = (float) Math.pow(10, 4 - 12 * random.nextDouble());
+            }
+        }
+        spectrogram[3][5] = 0;
+        return spectrogram;
+    }
+
+    private static float[] referenceFeatures(float[][] spectrogram) {
+        float[][] copy = new float[spectrogram.length][];
+        for (int i = 0; i < spectrogram.length; i++) {
+            copy[i] = spectrogram[i].clone();
+        }
+        LibrosaUtils.powerToDb(copy);
+        return LibrosaUtils.flattenSpectrogram(LibrosaUtils.normalizeSpectrogramMeanStd(copy));
+    }
+
+    private static void assertFeaturesEqual(float[] expected, float[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Mismatch at " + i, expected[i], actual[i], 0f);
+        }
+    }
+
+    public void testFusedFeaturesMatchReference() {
+        for (long seed = 0; seed < 3; seed++) {
+            float[][] spectrogram = generatePowerSpectrogram(seed);
+            float[] expected = referenceFeatures(spectrogram);
+
+            float[] actual = new float[HEIGHT * WIDTH];
+            LibrosaUtils.powerToNormalizedDb(spectrogram, actual);
+            assertFeaturesEqual(expected, actual);
+        }
+    }
+
+    public void testFusedFeaturesToDirectBuffer() {
+        float[][] spectrogram = generatePowerSpectrogram(42);
+        float[] expected = referenceFeatures(spectrogram);
+
+        FloatBuffer buffer = ByteBuffer.allocateDirect(4 * HEIGHT * WIDTH)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        LibrosaUtils.powerToNormalizedDb(spectrogram, buffer);
+        float[] actual = new float[HEIGHT * WIDTH];
+        buffer.get(actual);
+        assertFeaturesEqual(expected, actual);
+    }
+
+    public void testFusedFeaturesOfSilence() {
+        float[][] spectrogram = new float[HEIGHT][WIDTH];
+        float[] expected = referenceFeatures(spectrogram);
+        float[] actual = new float[HEIGHT * WIDTH];
+        LibrosaUtils.powerToNormalizedDb(spectrogram, actual);
+        assertFeaturesEqual(expected, actual);
+    }
+
+    public void testFusedFeaturesWrongSize() {
+        try {
+            LibrosaUtils.powerToNormalizedDb(new float[HEIGHT][WIDTH], new float[HEIGHT * WIDTH - 1]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /***
+     * Compare features with spectrogram_utils.generate_spectrogram used to train the network
+     */
+    public void testFeaturesMatchLibrosaGolden() throws IOException {
+        InputStream stream = getClass().getResourceAsStream("/spectrogram_golden.txt");
+        assertNotNull("Golden file is missing, generate it with export_spectrogram_golden.py", stream);
+
+        String[] lines = new String[3];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"))) {
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = reader.readLine();
+            }
+        }
+        String[] signalTokens = lines[0].trim().split("\\s+");
+        float[] signal = new float[signalTokens.length];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = Float.parseFloat(signalTokens[i]);
+        }
+        String[] featureTokens = lines[2].trim().split("\\s+");
+
+        MelSpectrogram melSpectrogram = new MelSpectrogram(16000, 1024, HEIGHT, 128);
+        float[] actual = new float[featureTokens.length];
+        LibrosaUtils.powerToNormalizedDb(melSpectrogram.compute(signal), actual);
+
+        // Frames touched by padding are skipped, default padding mode of librosa depends on its version
+        int edgeFrames = 4;
+        for (int i = 0; i < HEIGHT; i++) {
+            for (int j = edgeFrames; j < WIDTH - edgeFrames; j++) {
+                assertEquals("Mismatch at " + i + ", " + j,
+                        Float.parseFloat(featureTokens[i * WIDTH + j]), actual[i * WIDTH + j], 1e-3f);
+            }
+        }
+    }
+}
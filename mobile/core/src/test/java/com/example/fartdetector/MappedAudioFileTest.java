@@ -0,0 +1,110 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ShortBuffer;
+
+public class MappedAudioFileTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("mapped", ".wav");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static short[] generateSignal(int length) {
+        // Loud noise, so clipped samples cover the full range
+        return TestAudio.toPcm(TestAudio.tone(length, 0, 0, 0.5, 11));
+    }
+
+    public void testReadsWavSamples() throws IOException {
+        short[] signal = generateSignal(5000);
+        WavFile.write(file, 16000, signal);
+
+        try (MappedAudioFile audio = MappedAudioFile.openWav(file)) {
+            assertEquals(16000, audio.getSampleRate());
+            assertEquals(signal.length, audio.getSampleCount());
+            ShortBuffer samples = audio.getSamples(1234, 100);
+            assertEquals(100, samples.remaining());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(signal[1234 + i], samples.get(samples.position() + i));
+            }
+        }
+    }
+
+    public void testWindowsCrossRegions() throws IOException {
+        short[] signal = generateSignal(10000);
+        WavFile.write(file, 16000, signal);
+
+        // Small regions, so windows start in different mappings
+        try (MappedAudioFile audio = MappedAudioFile.openWav(file, 1000)) {
+            assertEquals(1 + (10000 - 3000) / 700, audio.getWindowCount(3000, 700));
+            for (int index = 0; index < audio.getWindowCount(3000, 700); index++) {
+                ShortBuffer window = audio.getWindow(index, 3000, 700);
+                assertEquals(3000, window.remaining());
+                for (int i = 0; i < 3000; i++) {
+                    assertEquals(signal[index * 700 + i], window.get(window.position() + i));
+                }
+            }
+        }
+    }
+
+    public void testReadsRawPcm() throws IOException {
+        // Little-endian 1, -2 and a trailing odd byte
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(new byte[]{1, 0, (byte) 0xFE, (byte) 0xFF, 7});
+        }
+        try (MappedAudioFile audio = MappedAudioFile.openRaw(file, 8000)) {
+            assertEquals(8000, audio.getSampleRate());
+            assertEquals(2, audio.getSampleCount());
+            ShortBuffer samples = audio.getSamples(0, 2);
+            assertEquals(1, samples.get(0));
+            assertEquals(-2, samples.get(1));
+        }
+    }
+
+    public void testTruncatedDataChunk() throws IOException {
+        WavFile.write(file, 16000, generateSignal(100));
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(output.length() - 20);
+        }
+        try (MappedAudioFile audio = MappedAudioFile.openWav(file)) {
+            assertEquals(90, audio.getSampleCount());
+        }
+    }
+
+    public void testRejectsOutOfRange() throws IOException {
+        WavFile.write(file, 16000, generateSignal(100));
+        try (MappedAudioFile audio = MappedAudioFile.openWav(file)) {
+            audio.getSamples(50, 51);
+            fail("Samples after the end of file returned");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testRejectsStereo() throws IOException {
+        WavFile.write(file, 16000, generateSignal(100));
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            // Channels field of the format chunk
+            output.seek(22);
+            output.write(2);
+        }
+        try {
+            MappedAudioFile.openWav(file).close();
+            fail("Stereo file accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("mono"));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.fartdetector;
+
+import com.jlibrosa.audio.JLibrosa;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.concurrent.ForkJoinPool;
+
+public class MelSpectrogramTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int N_FFT = 1024;
+    private static final int N_MELS = 128;
+    private static final int HOP_LENGTH = 128;
+
+    // Generated by "neural network/export_spectrogram_golden.py"
+    private static final String GOLDEN_RESOURCE = "/spectrogram_golden.txt";
+
+    private static float[] generateSignal(int length, long seed) {
+        return TestAudio.addTone(TestAudio.tone(length, 440, 0.3, 0.05, seed), 5100, 0.1);
+    }
+
+    private static void assertSpectrogramEquals(float[][] expected, float[][] actual,
+                                                int firstFrame, int lastFrame, float relativeTolerance) {
+        assertEquals(expected.length, actual.length);
+        assertEquals(expected[0].length, actual[0].length);
+        float max = 0;
+        for (float[] row : expected) {
+            for (float value : row) {
+                max = Math.max(max, value);
+            }
+        }
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = firstFrame; j <= lastFrame; j++) {
+                float tolerance = relativeTolerance * Math.abs(expected[i][j]) + 1e-7f * max;
+                assertEquals("Mismatch at " + i + ", " + j, expected[i][j], actual[i][j], tolerance);
+            }
+        }
+    }
+
+    private static float[] readFloats(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        float[] values = new float[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Float.parseFloat(tokens[i]);
+        }
+        return values;
+    }
+
+    public void testFftOfRealSignalMatchesComplexFFT() {
+        FFT fft = new FFT(64);
+        float[] signal = generateSignal(64, 1);
+        double[] re = new double[64];
+        double[] im = new double[64];
+        double[] realInput = new double[64];
+        for (int i = 0; i < 64; i++) {
+            re[i] = signal[i];
+            realInput[i] = signal[i];
+        }
+        fft.transform(re, im);
+
+        double[] realRe = new double[33];
+        double[] realIm = new double[33];
+        fft.realTransform(realInput, realRe, realIm);
+        for (int k = 0; k <= 32; k++) {
+            assertEquals(re[k], realRe[k], 1e-9);
+            assertEquals(im[k], realIm[k], 1e-9);
+        }
+    }
+
+    public void testMatchesJLibrosa() {
+        MelSpectrogram melSpectrogram = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH);
+        JLibrosa librosa = new JLibrosa();
+        for (int length : new int[]{32000, 5000, 1000}) {
+            float[] signal = generateSignal(length, length);
+            float[][] expected = librosa.generateMelSpectroGram(signal, SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH);
+            float[][] actual = melSpectrogram.compute(signal);
+            assertSpectrogramEquals(expected, actual, 0, expected[0].length - 1, 1e-4f);
+        }
+    }
+
+    public void testReusesDestination() {
+        MelSpectrogram melSpectrogram = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH);
+        float[] signal = generateSignal(32000, 7);
+        float[][] expected = melSpectrogram.compute(signal);
+        float[][] destination = new float[N_MELS][251];
+        melSpectrogram.compute(generateSignal(32000, 8), destination);
+        melSpectrogram.compute(signal, destination);
+        assertSpectrogramEquals(expected, destination, 0, 250, 0);
+    }
+
+    public void testParallelMatchesSequentialBitForBit() {
+        // Own pool, so the signal is split even on a single core machine
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            MelSpectrogram sequential = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH);
+            MelSpectrogram parallel = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH);
+            parallel.setParallel(pool);
+            // Whole window, a window split into parts of different lengths, and one too short to split
+            for (int length : new int[]{2 * SAMPLE_RATE, 2 * SAMPLE_RATE + 777, 3000}) {
+                float[] signal = generateSignal(length, length);
+                float[][] expected = sequential.compute(signal);
+                float[][] actual = parallel.compute(signal);
+                for (int i = 0; i < N_MELS; i++) {
+                    for (int j = 0; j < expected[i].length; j++) {
+                        assertEquals("Mismatch at " + i + ", " + j + " of " + length,
+                                Float.floatToIntBits(expected[i][j]), Float.floatToIntBits(actual[i][j]));
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /***
+     * Compare with librosa output of the training pipeline. Frames touched by padding are skipped,
+     * because default padding mode of librosa depends on its version.
+     */
+    public void testMatchesLibrosaGolden() throws IOException {
+        InputStream stream = getClass().getResourceAsStream(GOLDEN_RESOURCE);
+        assertNotNull("Golden file is missing, generate it with export_spectrogram_golden.py", stream);
+
+        float[] signal;
+        float[] expectedFlat;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"))) {
+            signal = readFloats(reader.readLine());
+            expectedFlat = readFloats(reader.readLine());
+        }
+
+        MelSpectrogram melSpectrogram = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH);
+        float[][] actual = melSpectrogram.compute(signal);
+        int frames = actual[0].length;
+        float[][] expected = new float[N_MELS][frames];
+        for (int i = 0; i < N_MELS; i++) {
+            System.arraycopy(expectedFlat, i * frames, expected[i], 0, frames);
+        }
+
+        int edgeFrames = N_FFT / 2 / HOP_LENGTH;
+        assertSpectrogramEquals(expected, actual, edgeFrames, frames - 1 - edgeFrames, 1e-3f);
+    }
+}
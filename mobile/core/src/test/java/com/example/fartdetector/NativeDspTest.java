@@ -0,0 +1,182 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/***
+ * Parity of the native kernels with the Java implementation. Skipped unless the library is built for the host:
+ * ./gradlew :core:test -PnativeDsp, which sets fartdetector.dsp.required, so the tests fail if it doesn't load
+ */
+public class NativeDspTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int N_FFT = 1024;
+    private static final int N_MELS = 128;
+    private static final int HOP_LENGTH = 128;
+    private static final int WINDOW_LENGTH = 2 * SAMPLE_RATE;
+    // "native" or "scalar" when the build requires the library, see core/build.gradle
+    private static final String REQUIRED_PROPERTY = "fartdetector.dsp.required";
+
+    private static float[] generateSignal(int length, long seed) {
+        return TestAudio.addTone(TestAudio.tone(length, 440, 0.3, 0.05, seed), 5100, 0.1);
+    }
+
+    /***
+     * @return True if the library is loaded; fails if it isn't loaded but the build requires it
+     */
+    private static boolean nativeLoaded() {
+        if (System.getProperty(REQUIRED_PROPERTY) != null) {
+            assertTrue("Native library isn't loaded from " + System.getProperty("java.library.path"),
+                    NativeDsp.isAvailable());
+        }
+        return NativeDsp.isAvailable();
+    }
+
+    private static FloatBuffer directBuffer(int size) {
+        return ByteBuffer.allocateDirect(4 * size).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /***
+     * Float kernels against double Java code: values are compared relative to themselves
+     * and to the maximum, like decibels clamped at -80 dB below the maximum would be
+     */
+    private static void assertSpectrogramEquals(float[][] expected, float[][] actual) {
+        float max = 0;
+        for (float[] row : expected) {
+            for (float value : row) {
+                max = Math.max(max, value);
+            }
+        }
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < expected[i].length; j++) {
+                float tolerance = 1e-4f * Math.abs(expected[i][j]) + 1e-6f * max;
+                assertEquals("Mismatch at " + i + ", " + j, expected[i][j], actual[i][j], tolerance);
+            }
+        }
+    }
+
+    public void testRequiredImplementationIsLoaded() {
+        String required = System.getProperty(REQUIRED_PROPERTY);
+        if (required == null) {
+            return;
+        }
+        assertTrue(nativeLoaded());
+        if (required.equals("scalar")) {
+            assertEquals("scalar", NativeDsp.getImplementation());
+        } else {
+            assertFalse("java".equals(NativeDsp.getImplementation()));
+        }
+    }
+
+    public void testJavaImplementationWithoutLibrary() {
+        if (NativeDsp.isAvailable()) {
+            // Native library is loaded
+            return;
+        }
+        assertEquals("java", NativeDsp.getImplementation());
+        assertFalse(new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH).isNative());
+    }
+
+    public void testMelSpectrogramMatchesJava() {
+        if (!nativeLoaded()) {
+            // Native library isn't built for the host
+            return;
+        }
+        float[] signal = generateSignal(WINDOW_LENGTH, 1);
+        MelSpectrogram java = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, false);
+        MelSpectrogram nativeDsp = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, true);
+        assertSpectrogramEquals(java.compute(signal), nativeDsp.compute(signal));
+    }
+
+    public void testSmallFftMatchesJava() {
+        if (!nativeLoaded()) {
+            // Native library isn't built for the host
+            return;
+        }
+        // Sizes where vector loops have no full iterations
+        for (int nFft = 8; nFft <= 32; nFft *= 2) {
+            float[] signal = generateSignal(4 * nFft, nFft);
+            MelSpectrogram java = new MelSpectrogram(SAMPLE_RATE, nFft, 5, nFft / 4, false);
+            MelSpectrogram nativeDsp = new MelSpectrogram(SAMPLE_RATE, nFft, 5, nFft / 4, true);
+            assertSpectrogramEquals(java.compute(signal), nativeDsp.compute(signal));
+        }
+    }
+
+    public void testStreamingSpectrogramMatchesJava() {
+        if (!nativeLoaded()) {
+            // Native library isn't built for the host
+            return;
+        }
+        float[] signal = generateSignal(WINDOW_LENGTH + 10 * 3200, 2);
+        StreamingMelSpectrogram java = new StreamingMelSpectrogram(
+                SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH, false);
+        StreamingMelSpectrogram nativeDsp = new StreamingMelSpectrogram(
+                SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH, true);
+        float[] window = new float[WINDOW_LENGTH];
+        for (int end = WINDOW_LENGTH; end <= signal.length; end += 3200) {
+            System.arraycopy(signal, end - WINDOW_LENGTH, window, 0, WINDOW_LENGTH);
+            float[][] expected = java.update(window, end);
+            assertSpectrogramEquals(expected, nativeDsp.update(window, end));
+        }
+    }
+
+    public void testPowerToNormalizedDbMatchesJava() {
+        if (!nativeLoaded()) {
+            // Native library isn't built for the host
+            return;
+        }
+        Random random = new Random(3);
+        // Width isn't a multiple of the vector size, values cover the clamped range and amin
+        float[][] spectrogram = new float[7][13];
+        for (float[] row : spectrogram) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = (float) Math.pow(10, -12 + 14 * random.nextDouble());
+            }
+        }
+        spectrogram[2][5] = 0;
+
+        FloatBuffer expected = directBuffer(7 * 13);
+        FloatBuffer actual = directBuffer(7 * 13);
+        LibrosaUtils.powerToNormalizedDb(spectrogram, expected);
+        NativeDsp.powerToNormalizedDb(spectrogram, actual);
+        for (int i = 0; i < expected.capacity(); i++) {
+            assertEquals("Mismatch at " + i, expected.get(i), actual.get(i), 1e-4f);
+        }
+    }
+
+    public void testFeaturesOfWindowMatchJava() {
+        if (!nativeLoaded()) {
+            // Native library isn't built for the host
+            return;
+        }
+        float[] signal = generateSignal(WINDOW_LENGTH, 4);
+        float[][] spectrogram = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, false).compute(signal);
+        float[][] nativeSpectrogram = new MelSpectrogram(SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, true).compute(signal);
+
+        int size = N_MELS * spectrogram[0].length;
+        FloatBuffer expected = directBuffer(size);
+        FloatBuffer actual = directBuffer(size);
+        LibrosaUtils.powerToNormalizedDb(spectrogram, expected);
+        NativeDsp.powerToNormalizedDb(nativeSpectrogram, actual);
+        for (int i = 0; i < size; i++) {
+            assertEquals("Mismatch at " + i, expected.get(i), actual.get(i), 1e-3f);
+        }
+    }
+
+    public void testHeapDestinationIsRejected() {
+        if (!nativeLoaded()) {
+            // Native library isn't built for the host
+            return;
+        }
+        try {
+            NativeDsp.powerToNormalizedDb(new float[2][3], FloatBuffer.allocate(6));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
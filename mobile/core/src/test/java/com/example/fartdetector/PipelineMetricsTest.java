@@ -0,0 +1,107 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class PipelineMetricsTest extends TestCase {
+
+    public void testDumpFormat() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.record(PipelineMetrics.Stage.MEL, System.nanoTime() - 3_000_000);
+        metrics.increment(PipelineMetrics.Counter.OVERRUN_TICKS);
+
+        String dump = metrics.dump();
+        assertTrue(dump.contains("fartdetector_stage_latency_microseconds_count{stage=\"mel\"} 1\n"));
+        assertTrue(dump.contains("fartdetector_stage_latency_microseconds_count{stage=\"inference\"} 0\n"));
+        assertTrue(dump.contains("fartdetector_events_total{event=\"overrun_ticks\"} 1\n"));
+        assertTrue(dump.contains("fartdetector_stage_latency_microseconds{stage=\"mel\",quantile=\"0.99\"} "));
+        long p50 = metrics.getHistogram(PipelineMetrics.Stage.MEL).getPercentileMicros(0.5);
+        assertTrue(p50 >= 3000);
+    }
+
+    public void testPipelineRecordsStages() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        DetectionPipeline pipeline = new DetectionPipeline(new StubDetector(0.5f, 2));
+        pipeline.setMetrics(metrics);
+
+        RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+        short[] chunk = new short[DetectionPipeline.WINDOW_LENGTH];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (short) (1000 * Math.sin(i / 7.0));
+        }
+        buffer.push(chunk, Short.MAX_VALUE);
+        pipeline.process(buffer);
+        buffer.push(new short[640], Short.MAX_VALUE);
+        pipeline.process(buffer);
+        assertEquals(0, metrics.getCount(PipelineMetrics.Counter.BUFFER_OVERRUNS));
+
+        // More audio than the buffer holds arrived between two windows
+        buffer.push(chunk, Short.MAX_VALUE);
+        buffer.push(new short[640], Short.MAX_VALUE);
+        pipeline.process(buffer);
+        assertEquals(1, metrics.getCount(PipelineMetrics.Counter.BUFFER_OVERRUNS));
+
+        assertEquals(3, metrics.getHistogram(PipelineMetrics.Stage.MEL).getCount());
+        assertEquals(3, metrics.getHistogram(PipelineMetrics.Stage.FEATURES).getCount());
+        assertEquals(3, metrics.getHistogram(PipelineMetrics.Stage.INFERENCE).getCount());
+        assertTrue(metrics.getHistogram(PipelineMetrics.Stage.INFERENCE).getMaxMicros() >= 2000);
+    }
+
+    private static String request(MetricsHttpServer server) throws Exception {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream output = socket.getOutputStream();
+            output.write("GET /metrics HTTP/1.0\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            output.flush();
+
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream input = socket.getInputStream();
+            byte[] chunk = new byte[4096];
+            int count;
+            while ((count = input.read(chunk)) > 0) {
+                response.write(chunk, 0, count);
+            }
+            return new String(response.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public void testHttpEndpoint() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.increment(PipelineMetrics.Counter.TICKS);
+        try (MetricsHttpServer server = new MetricsHttpServer(metrics, 0)) {
+            for (int request = 0; request < 2; request++) {
+                String text = request(server);
+                assertTrue(text.startsWith("HTTP/1.0 200 OK\r\n"));
+                assertTrue(text.endsWith(metrics.dump()));
+            }
+        }
+    }
+
+    public void testSilentClientTimesOut() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        try (MetricsHttpServer server = new MetricsHttpServer(metrics, 0, 100);
+             Socket silent = new Socket("127.0.0.1", server.getPort())) {
+            // Connection without a request doesn't keep the next client waiting
+            assertTrue(request(server).startsWith("HTTP/1.0 200 OK\r\n"));
+            assertEquals(-1, silent.getInputStream().read());
+        }
+    }
+
+    public void testCloseDisconnectsClient() throws Exception {
+        MetricsHttpServer server = new MetricsHttpServer(new PipelineMetrics(), 0, 10000);
+        try (Socket silent = new Socket("127.0.0.1", server.getPort())) {
+            // Give the server time to accept the connection and wait for its request
+            Thread.sleep(100);
+            long start = System.nanoTime();
+            server.close();
+            long closeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("Close took " + closeMs + " ms", closeMs < 1000);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+public class PolyphaseResamplerTest extends TestCase {
+
+    private static final int OUTPUT_RATE = DetectionPipeline.SAMPLE_RATE;
+    private static final int[] INPUT_RATES = {48000, 44100, 32000};
+
+    private static short[] tone(int sampleRate, int length, double frequency, double amplitude) {
+        short[] signal = new short[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = (short) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        }
+        return signal;
+    }
+
+    /***
+     * Resample in chunks of random length
+     */
+    private static short[] resample(PolyphaseResampler resampler, short[] input, long seed) {
+        Random random = new Random(seed);
+        ShortBuffer output = ShortBuffer.allocate(input.length);
+        int offset = 0;
+        while (offset < input.length) {
+            int length = Math.min(input.length - offset, 1 + random.nextInt(3000));
+            ShortBuffer chunk = ShortBuffer.wrap(input, offset, length);
+            resampler.process(chunk, output);
+            assertFalse(chunk.hasRemaining());
+            offset += length;
+        }
+        short[] result = new short[output.position()];
+        output.flip();
+        output.get(result);
+        return result;
+    }
+
+    /***
+     * Zero stuffing, full convolution with the prototype filter and decimation, in double precision
+     */
+    private static double[] referenceResample(int inputRate, short[] input, PolyphaseResampler resampler) {
+        int gcd = BigInteger.valueOf(inputRate).gcd(BigInteger.valueOf(OUTPUT_RATE)).intValue();
+        int up = OUTPUT_RATE / gcd;
+        int down = inputRate / gcd;
+        double nyquist = OUTPUT_RATE / 2.0;
+        double[] filter = PolyphaseResampler.prototype(up, resampler.getTapsPerPhase(),
+                (PolyphaseResampler.PASSBAND + PolyphaseResampler.STOPBAND) / 2 * nyquist / ((double) inputRate * up));
+        int outputs = (int) ((long) (input.length - 1) * up / down) + 1;
+        double[] output = new double[outputs];
+        for (int n = 0; n < outputs; n++) {
+            long upsampled = (long) n * down;
+            double sum = 0;
+            for (int t = 0; t < filter.length; t++) {
+                long index = upsampled - t;
+                if (index >= 0 && index % up == 0 && index / up < input.length) {
+                    sum += filter[t] * input[(int) (index / up)];
+                }
+            }
+            output[n] = sum;
+        }
+        return output;
+    }
+
+    public void testMatchesDirectConvolution() {
+        Random random = new Random(4);
+        for (int inputRate : INPUT_RATES) {
+            short[] input = new short[inputRate / 4];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (short) (6000 * random.nextGaussian());
+            }
+            PolyphaseResampler resampler = new PolyphaseResampler(inputRate, OUTPUT_RATE);
+            short[] actual = resample(resampler, input, inputRate);
+            double[] expected = referenceResample(inputRate, input, resampler);
+
+            assertEquals("Output length of " + inputRate, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                // Float accumulation and rounding to 16 bits
+                assertEquals("Mismatch at " + i + " of " + inputRate, expected[i], actual[i], 1.01);
+            }
+        }
+    }
+
+    public void testChunkingDoesNotChangeOutput() {
+        short[] input = tone(44100, 44100, 440, 8000);
+        short[] whole = resample(new PolyphaseResampler(44100, OUTPUT_RATE), input, 1);
+        PolyphaseResampler resampler = new PolyphaseResampler(44100, OUTPUT_RATE);
+        ShortBuffer output = ShortBuffer.allocate(whole.length);
+        for (int i = 0; i < input.length; i++) {
+            resampler.process(ShortBuffer.wrap(input, i, 1), output);
+        }
+        assertEquals(whole.length, output.position());
+        for (int i = 0; i < whole.length; i++) {
+            assertEquals("Mismatch at " + i, whole[i], output.get(i));
+        }
+
+        // Reset starts a new stream with an empty history
+        resampler.reset();
+        short[] again = resample(resampler, input, 2);
+        assertEquals(whole.length, again.length);
+        assertEquals(whole[whole.length - 1], again[again.length - 1]);
+    }
+
+    public void testPassbandTonesArePreserved() {
+        for (int inputRate : INPUT_RATES) {
+            for (double frequency : new double[]{100, 1000, 5000, 7000}) {
+                double amplitude = 10000;
+                PolyphaseResampler resampler = new PolyphaseResampler(inputRate, OUTPUT_RATE);
+                short[] output = resample(resampler, tone(inputRate, inputRate, frequency, amplitude), 3);
+
+                double errorEnergy = 0;
+                double signalEnergy = 0;
+                for (int i = 2 * resampler.getTapsPerPhase(); i < output.length - 1; i++) {
+                    double expected = amplitude
+                            * Math.sin(2 * Math.PI * frequency * (i - resampler.getDelay()) / OUTPUT_RATE);
+                    errorEnergy += (output[i] - expected) * (output[i] - expected);
+                    signalEnergy += expected * expected;
+                }
+                double snrDb = 10 * Math.log10(signalEnergy / errorEnergy);
+                assertTrue(frequency + " Hz from " + inputRate + " Hz: SNR " + snrDb, snrDb > 60);
+            }
+        }
+    }
+
+    public void testAliasesAreRejected() {
+        for (int inputRate : INPUT_RATES) {
+            for (double frequency = 8500; frequency < inputRate / 2.0; frequency += 1700) {
+                double amplitude = 20000;
+                PolyphaseResampler resampler = new PolyphaseResampler(inputRate, OUTPUT_RATE);
+                short[] output = resample(resampler, tone(inputRate, inputRate, frequency, amplitude), 5);
+
+                double energy = 0;
+                int count = 0;
+                for (int i = 2 * resampler.getTapsPerPhase(); i < output.length; i++) {
+                    energy += (double) output[i] * output[i];
+                    count++;
+                }
+                double attenuationDb = 20 * Math.log10(amplitude / Math.sqrt(2) / Math.sqrt(energy / count));
+                assertTrue(frequency + " Hz from " + inputRate + " Hz: attenuation " + attenuationDb,
+                        attenuationDb > 70);
+            }
+        }
+    }
+
+    public void testRejectsUpsampling() {
+        try {
+            new PolyphaseResampler(8000, OUTPUT_RATE);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    public void testSourceSplitsLongChunks() throws IOException {
+        int inputRate = 48000;
+        SyntheticAudioSource native48k = new SyntheticAudioSource(inputRate, 4800, 1000, 0.3, 0.05, 8);
+        native48k.setLength(inputRate);
+        ResamplingAudioSource source = new ResamplingAudioSource(native48k, OUTPUT_RATE, 1000);
+        assertEquals(OUTPUT_RATE, source.getSampleRate());
+        assertEquals(inputRate, source.getSourceSampleRate());
+
+        SyntheticAudioSource reference = new SyntheticAudioSource(inputRate, inputRate, 1000, 0.3, 0.05, 8);
+        reference.setLength(inputRate);
+        reference.start();
+        ShortBuffer whole = reference.read();
+        short[] input = new short[whole.remaining()];
+        whole.get(input);
+        short[] expected = resample(new PolyphaseResampler(inputRate, OUTPUT_RATE), input, 6);
+
+        source.start();
+        int total = 0;
+        ShortBuffer chunk;
+        while ((chunk = source.read()) != null) {
+            assertTrue(chunk.remaining() <= 1000);
+            for (int i = chunk.position(); i < chunk.limit(); i++) {
+                assertEquals("Mismatch at " + total, expected[total], chunk.get(i));
+                total++;
+            }
+        }
+        assertEquals(OUTPUT_RATE, total);
+        source.close();
+    }
+}
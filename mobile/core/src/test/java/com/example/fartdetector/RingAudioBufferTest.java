@@ -0,0 +1,253 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RingAudioBufferTest extends TestCase {
+
+    public void testCreation() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        assertArrayEquals("Arrays are not equal", new float[]{0, 0, 0, 0}, buffer.getData(), (float) 0.01);
+    }
+
+    public void testPushingSingleElement() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        buffer.push(new short[]{9}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{0, 0, 0, 9}, buffer.getData(), (float) 0.01);
+    }
+
+    public void testManyPushingSingleElement() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        buffer.push(new short[]{9}, (short) 1);
+        buffer.push(new short[]{8}, (short) 1);
+        buffer.push(new short[]{7}, (short) 1);
+        buffer.push(new short[]{6}, (short) 1);
+        buffer.push(new short[]{5}, (short) 1);
+        buffer.push(new short[]{4}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{7, 6, 5, 4}, buffer.getData(), (float) 0.01);
+    }
+
+    public void testPushingArray() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        buffer.push(new short[]{9, 8}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{0, 0, 9, 8}, buffer.getData(), (float) 0.01);
+        buffer.push(new short[]{9, 8, 7, 6}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{9, 8, 7, 6}, buffer.getData(), (float) 0.01);
+        buffer.push(new short[]{9, 8, 7, 6, 5, 4}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{7, 6, 5, 4}, buffer.getData(), (float) 0.01);
+    }
+
+    public void testManyPushingArray() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        buffer.push(new short[]{9, 8}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{0, 0, 9, 8}, buffer.getData(), (float) 0.01);
+        buffer.push(new short[]{7, 6}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{9, 8, 7, 6}, buffer.getData(), (float) 0.01);
+        buffer.push(new short[]{5, 4, 3}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{6, 5, 4, 3}, buffer.getData(), (float) 0.01);
+    }
+
+    public void testPushingPartOfArray() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        buffer.push(new short[]{9, 8, 7}, 2, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{0, 0, 9, 8}, buffer.getData(), (float) 0.01);
+    }
+
+    public void testSnapshotIntoArray() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        float[] snapshot = new float[4];
+        buffer.push(new short[]{9, 8, 7}, (short) 1);
+        buffer.push(new short[]{6, 5}, (short) 1);
+        buffer.getData(snapshot);
+        assertArrayEquals("Arrays are not equal", new float[]{8, 7, 6, 5}, snapshot, (float) 0.01);
+    }
+
+    public void testPushingDirectBuffer() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        ShortBuffer chunk = ByteBuffer.allocateDirect(12).order(ByteOrder.nativeOrder()).asShortBuffer();
+        chunk.put(new short[]{1, 9, 8, 7, 6, 2});
+        chunk.position(1).limit(5);
+        buffer.push(chunk, (short) 2);
+        assertEquals(1, chunk.position());
+        assertArrayEquals("Arrays are not equal", new float[]{4.5f, 4, 3.5f, 3}, buffer.getData(), 0);
+
+        chunk.position(0).limit(6);
+        buffer.push(chunk, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{8, 7, 6, 2}, buffer.getData(), 0);
+        assertEquals(5.75, buffer.getMean(), 1e-12);
+    }
+
+    public void testRawSnapshot() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        short[] snapshot = new short[4];
+        buffer.push(new short[]{-32768, 32767, 5}, Short.MAX_VALUE);
+        assertEquals(3, buffer.getData(snapshot));
+        assertArrayEquals(new short[]{0, -32768, 32767, 5}, snapshot);
+    }
+
+    public void testWriteSequence() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        assertEquals(0, buffer.getWriteSequence());
+        buffer.push(new short[]{1, 2, 3}, (short) 1);
+        buffer.push(new short[]{4, 5, 6, 7, 8, 9}, (short) 1);
+        assertEquals(9, buffer.getWriteSequence());
+        assertEquals(buffer.getWriteSequence(), buffer.getData(new float[4]));
+    }
+
+    public void testSnapshotSizeMismatch() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        try {
+            buffer.getData(new float[3]);
+            fail("Snapshot into array of wrong size should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testNormalizedSnapshot() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        buffer.push(new short[]{1, 2, 3, 4, 5, 6}, (short) 1);
+        float std = (float) Math.sqrt(1.25);
+        assertArrayEquals("Arrays are not equal",
+                new float[]{-1.5f / std, -0.5f / std, 0.5f / std, 1.5f / std},
+                buffer.getDataNormalized(), (float) 0.0001);
+    }
+
+    public void testNormalizedSnapshotOfConstantSignal() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        buffer.push(new short[]{3, 3, 3, 3}, (short) 1);
+        assertArrayEquals("Arrays are not equal", new float[]{0, 0, 0, 0}, buffer.getDataNormalized(), 0);
+    }
+
+    public void testRunningStatistics() {
+        RingAudioBuffer buffer = new RingAudioBuffer(4);
+        assertEquals(0, buffer.getMean(), 1e-12);
+        assertEquals(0, buffer.getRms(), 1e-12);
+
+        buffer.push(new short[]{1, 2}, (short) 1);
+        assertEquals(0.75, buffer.getMean(), 1e-12);
+        assertEquals(Math.sqrt(5.0 / 4), buffer.getRms(), 1e-12);
+
+        buffer.push(new short[]{3, 4, 5}, (short) 1);
+        assertEquals(3.5, buffer.getMean(), 1e-12);
+        assertEquals(1.25, buffer.getVariance(), 1e-12);
+        assertEquals(Math.sqrt(54.0 / 4), buffer.getRms(), 1e-12);
+    }
+
+    /***
+     * Running statistics of a long signal with a large offset have to match direct computation
+     */
+    public void testRunningStatisticsStayAccurate() {
+        int bufferSize = 32000;
+        RingAudioBuffer buffer = new RingAudioBuffer(bufferSize);
+        Random random = new Random(1);
+        short[] chunk = new short[777];
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            for (int i = 0; i < chunk.length; i++) {
+                chunk[i] = (short) (20000 + 3000 * random.nextGaussian());
+            }
+            buffer.push(chunk, Short.MAX_VALUE);
+        }
+
+        // Reference from raw samples in double precision, float snapshot is rounded
+        short[] raw = new short[bufferSize];
+        buffer.getData(raw);
+        double[] data = new double[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            data[i] = (double) raw[i] / Short.MAX_VALUE;
+        }
+        double sum = 0;
+        for (double value : data) {
+            sum += value;
+        }
+        double mean = sum / bufferSize;
+        double sqSum = 0;
+        for (double value : data) {
+            sqSum += (value - mean) * (value - mean);
+        }
+        double variance = sqSum / bufferSize;
+
+        assertEquals(mean, buffer.getMean(), 1e-9);
+        assertEquals(variance, buffer.getVariance(), 1e-9 * variance);
+
+        float[] normalized = buffer.getDataNormalized();
+        for (int i = 0; i < bufferSize; i++) {
+            assertEquals((data[i] - mean) / Math.sqrt(variance), normalized[i], 1e-4);
+        }
+    }
+
+    /***
+     * Producer pushes a ramp signal in chunks of different sizes while consumers take snapshots.
+     * Every snapshot has to be a continuous part of the ramp, otherwise it was torn by a push.
+     */
+    public void testConcurrentProducerConsumer() throws InterruptedException {
+        final int bufferSize = 32000;
+        final int rampPeriod = 30000;
+        final RingAudioBuffer buffer = new RingAudioBuffer(bufferSize);
+
+        short[] initial = new short[bufferSize];
+        for (int i = 0; i < bufferSize; i++) {
+            initial[i] = (short) (i % rampPeriod);
+        }
+        buffer.push(initial, (short) 1);
+
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        final AtomicReference<String> error = new AtomicReference<>();
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                short[] chunk = new short[640];
+                int value = bufferSize % rampPeriod;
+                for (int iteration = 0; iteration < 20000; iteration++) {
+                    int length = 1 + iteration % chunk.length;
+                    for (int i = 0; i < length; i++) {
+                        chunk[i] = (short) value;
+                        value = (value + 1) % rampPeriod;
+                    }
+                    buffer.push(chunk, length, (short) 1);
+                }
+                producing.set(false);
+            }
+        });
+
+        Thread[] consumers = new Thread[3];
+        for (int c = 0; c < consumers.length; c++) {
+            consumers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    float[] snapshot = new float[bufferSize];
+                    while (producing.get()) {
+                        buffer.getData(snapshot);
+                        for (int i = 1; i < bufferSize; i++) {
+                            float expected = (snapshot[i - 1] + 1) % rampPeriod;
+                            if (snapshot[i] != expected) {
+                                error.compareAndSet(null, "Torn snapshot at " + i + ": "
+                                        + snapshot[i - 1] + " followed by " + snapshot[i]);
+                                return;
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        for (Thread consumer : consumers) {
+            consumer.start();
+        }
+        producer.start();
+        producer.join(30000);
+        assertFalse("Producer is blocked", producer.isAlive());
+        for (Thread consumer : consumers) {
+            consumer.join(30000);
+        }
+        assertNull(error.get(), error.get());
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.fartdetector;
+
+import com.jlibrosa.audio.JLibrosa;
+
+import junit.framework.TestCase;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+public class StreamingMelSpectrogramTest extends TestCase {
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int N_FFT = 1024;
+    private static final int N_MELS = 128;
+    private static final int HOP_LENGTH = 128;
+    private static final int WINDOW_LENGTH = 2 * SAMPLE_RATE;
+
+    private static short[] generateSignal(int length) {
+        return TestAudio.toPcm(TestAudio.addTone(TestAudio.tone(length, 440, 0.09, 0.015, 42), 3100, 0.045));
+    }
+
+    /***
+     * Spectrogram computed the same way as MainActivity did it for the whole window
+     */
+    private static float[][] referenceSpectrogram(short[] signal, long windowStart) {
+        RingAudioBuffer window = new RingAudioBuffer(WINDOW_LENGTH);
+        short[] samples = new short[WINDOW_LENGTH];
+        System.arraycopy(signal, (int) windowStart, samples, 0, WINDOW_LENGTH);
+        window.push(samples, Short.MAX_VALUE);
+        return new JLibrosa().generateMelSpectroGram(
+                window.getDataNormalized(), SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH);
+    }
+
+    private static void assertSpectrogramEquals(float[][] expected, float[][] actual) {
+        assertEquals(expected.length, actual.length);
+        assertEquals(expected[0].length, actual[0].length);
+        float max = 0;
+        for (float[] row : expected) {
+            for (float value : row) {
+                max = Math.max(max, value);
+            }
+        }
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < expected[i].length; j++) {
+                float tolerance = 1e-4f * Math.abs(expected[i][j]) + 1e-7f * max;
+                assertEquals("Mismatch at " + i + ", " + j, expected[i][j], actual[i][j], tolerance);
+            }
+        }
+    }
+
+    private void checkStreaming(int chunkSize) {
+        short[] signal = generateSignal(WINDOW_LENGTH * 2);
+        RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        StreamingMelSpectrogram melSpectrogram = new StreamingMelSpectrogram(
+                SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+        float[] snapshot = new float[WINDOW_LENGTH];
+        short[] chunk = new short[chunkSize];
+
+        int position = 0;
+        int updates = 0;
+        while (position + chunkSize <= signal.length) {
+            System.arraycopy(signal, position, chunk, 0, chunkSize);
+            buffer.push(chunk, Short.MAX_VALUE);
+            position += chunkSize;
+
+            long total = buffer.getData(snapshot);
+            float[][] spectrogram = melSpectrogram.update(snapshot, total);
+
+            // Compare with reference only from time to time, it is slow
+            long windowStart = melSpectrogram.getWindowStart();
+            if (windowStart >= 0 && updates++ % 10 == 0) {
+                assertTrue(position - windowStart - WINDOW_LENGTH < HOP_LENGTH);
+                assertSpectrogramEquals(referenceSpectrogram(signal, windowStart), spectrogram);
+            }
+        }
+    }
+
+    public void testMatchesFullComputationAlignedChunks() {
+        checkStreaming(640);
+    }
+
+    public void testMatchesFullComputationUnalignedChunks() {
+        checkStreaming(1000);
+    }
+
+    public void testComputesOnlyNewFrames() {
+        short[] signal = generateSignal(WINDOW_LENGTH + 640);
+        RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        StreamingMelSpectrogram melSpectrogram = new StreamingMelSpectrogram(
+                SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+        float[] snapshot = new float[WINDOW_LENGTH];
+
+        short[] first = new short[WINDOW_LENGTH];
+        System.arraycopy(signal, 0, first, 0, WINDOW_LENGTH);
+        buffer.push(first, Short.MAX_VALUE);
+        melSpectrogram.update(snapshot, buffer.getData(snapshot));
+        assertEquals(251, melSpectrogram.getComputedFrames());
+
+        short[] next = new short[640];
+        System.arraycopy(signal, WINDOW_LENGTH, next, 0, 640);
+        buffer.push(next, Short.MAX_VALUE);
+        float[][] spectrogram = melSpectrogram.update(snapshot, buffer.getData(snapshot));
+        // 5 new hops and 4 edge frames on both sides
+        assertEquals(251 + 5 + 8, melSpectrogram.getComputedFrames());
+        assertSpectrogramEquals(referenceSpectrogram(signal, 640), spectrogram);
+    }
+
+    public void testRestartsAfterGap() {
+        short[] signal = generateSignal(WINDOW_LENGTH * 3);
+        RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        StreamingMelSpectrogram melSpectrogram = new StreamingMelSpectrogram(
+                SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+        float[] snapshot = new float[WINDOW_LENGTH];
+
+        short[] first = new short[1000];
+        System.arraycopy(signal, 0, first, 0, first.length);
+        buffer.push(first, Short.MAX_VALUE);
+        melSpectrogram.update(snapshot, buffer.getData(snapshot));
+
+        short[] gap = new short[WINDOW_LENGTH + 1000];
+        System.arraycopy(signal, first.length, gap, 0, gap.length);
+        buffer.push(gap, Short.MAX_VALUE);
+        float[][] spectrogram = melSpectrogram.update(snapshot, buffer.getData(snapshot));
+        assertEquals(2000, melSpectrogram.getWindowStart());
+        assertSpectrogramEquals(referenceSpectrogram(signal, 2000), spectrogram);
+    }
+
+    public void testParallelMatchesSequential() {
+        short[] signal = generateSignal(WINDOW_LENGTH * 4);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            StreamingMelSpectrogram sequential = new StreamingMelSpectrogram(
+                    SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+            StreamingMelSpectrogram parallel = new StreamingMelSpectrogram(
+                    SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+            parallel.setParallel(pool);
+
+            // Start, small steps, a long step below the window and a gap
+            int[] ends = {WINDOW_LENGTH, WINDOW_LENGTH + 640, WINDOW_LENGTH + 1280, WINDOW_LENGTH + 20000,
+                    3 * WINDOW_LENGTH + 333, 3 * WINDOW_LENGTH + 3533};
+            for (int end : ends) {
+                ShortBuffer window = ShortBuffer.wrap(signal, end - WINDOW_LENGTH, WINDOW_LENGTH);
+                float[][] expected = sequential.update(window, end);
+                float[][] actual = parallel.update(window, end);
+                for (int i = 0; i < N_MELS; i++) {
+                    for (int j = 0; j < expected[i].length; j++) {
+                        assertEquals("Mismatch at " + i + ", " + j + " of window ending at " + end,
+                                Float.floatToIntBits(expected[i][j]), Float.floatToIntBits(actual[i][j]));
+                    }
+                }
+            }
+            assertEquals(sequential.getComputedFrames(), parallel.getComputedFrames());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testShortBufferMatchesFloatSamples() {
+        short[] signal = generateSignal(WINDOW_LENGTH + 5 * 640);
+        StreamingMelSpectrogram fromFloats = new StreamingMelSpectrogram(
+                SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+        StreamingMelSpectrogram fromShorts = new StreamingMelSpectrogram(
+                SAMPLE_RATE, N_FFT, N_MELS, HOP_LENGTH, WINDOW_LENGTH);
+        RingAudioBuffer buffer = new RingAudioBuffer(WINDOW_LENGTH);
+        float[] snapshot = new float[WINDOW_LENGTH];
+
+        short[] first = new short[WINDOW_LENGTH];
+        System.arraycopy(signal, 0, first, 0, WINDOW_LENGTH);
+        buffer.push(first, Short.MAX_VALUE);
+        for (int start = 0; start + WINDOW_LENGTH <= signal.length; start += 640) {
+            if (start > 0) {
+                short[] chunk = new short[640];
+                System.arraycopy(signal, start + WINDOW_LENGTH - 640, chunk, 0, chunk.length);
+                buffer.push(chunk, Short.MAX_VALUE);
+            }
+            float[][] expected = fromFloats.update(snapshot, buffer.getData(snapshot));
+            // View with a non-zero position, like a window of a mapped file
+            ShortBuffer window = ShortBuffer.wrap(signal, start, WINDOW_LENGTH);
+            float[][] actual = fromShorts.update(window, start + WINDOW_LENGTH);
+            assertEquals(start, window.position());
+            for (int i = 0; i < N_MELS; i++) {
+                for (int j = 0; j < expected[i].length; j++) {
+                    assertEquals(expected[i][j], actual[i][j]);
+                }
+            }
+        }
+        assertEquals(fromFloats.getComputedFrames(), fromShorts.getComputedFrames());
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.fartdetector;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class WavFileTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("wavfile", ".wav");
+    }
+
+    @Override
+    protected void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] chunk = new byte[4096];
+            int count;
+            while ((count = input.read(chunk)) > 0) {
+                output.write(chunk, 0, count);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    public void testRoundTrip() throws IOException {
+        short[] samples = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE, 12345};
+        WavFile.write(file, 16000, samples);
+
+        WavFile wav = WavFile.read(file);
+        assertEquals(16000, wav.getSampleRate());
+        assertEquals(samples.length, wav.getSamples().length);
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals((float) samples[i] / Short.MAX_VALUE, wav.getSamples()[i]);
+        }
+    }
+
+    public void testSkipsUnknownChunks() throws IOException {
+        WavFile.write(file, 16000, new short[]{100, -100});
+        byte[] original = readBytes(file);
+
+        // Odd sized LIST chunk with a pad byte between format and data chunks
+        byte[] list = {'L', 'I', 'S', 'T', 3, 0, 0, 0, 'a', 'b', 'c', 0};
+        ByteArrayOutputStream patched = new ByteArrayOutputStream();
+        patched.write(original, 0, 36);
+        patched.write(list, 0, list.length);
+        patched.write(original, 36, original.length - 36);
+
+        WavFile wav = WavFile.read(new ByteArrayInputStream(patched.toByteArray()));
+        assertEquals(2, wav.getSamples().length);
+        assertEquals(100f / Short.MAX_VALUE, wav.getSamples()[0]);
+    }
+
+    public void testRejectsStereo() throws IOException {
+        WavFile.write(file, 16000, new short[]{1, 2, 3, 4});
+        byte[] bytes = readBytes(file);
+        // Channels field of the format chunk
+        bytes[22] = 2;
+        try {
+            WavFile.read(new ByteArrayInputStream(bytes));
+            fail("Stereo file accepted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("mono"));
+        }
+    }
+
+    public void testRejectsNotWav() {
+        try {
+            WavFile.read(new ByteArrayInputStream("not a wav file".getBytes()));
+            fail("Text file accepted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
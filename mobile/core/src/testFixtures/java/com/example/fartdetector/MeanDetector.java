@@ -0,0 +1,53 @@
+package com.example.fartdetector;
+
+import java.nio.FloatBuffer;
+
+/***
+ * Detector which returns the mean of its input features, so scores follow the features exactly.
+ * Public with a no-argument constructor, so tools can load it by class name
+ */
+public class MeanDetector implements Detector {
+
+    private final FloatBuffer input;
+    private volatile int calls = 0;
+
+    public MeanDetector() {
+        this(DetectionPipeline.N_MELS * DetectionPipeline.FRAMES);
+    }
+
+    /***
+     * @param size Number of input features
+     */
+    public MeanDetector(int size) {
+        this(FloatBuffer.allocate(size));
+    }
+
+    /***
+     * @param input Input features, e.g. a direct buffer like the input of a TFLite model
+     */
+    public MeanDetector(FloatBuffer input) {
+        this.input = input;
+    }
+
+    @Override
+    public FloatBuffer getInput() {
+        return input;
+    }
+
+    @Override
+    public float detect() {
+        calls++;
+        double sum = 0;
+        for (int i = 0; i < input.capacity(); i++) {
+            sum += input.get(i);
+        }
+        return (float) (sum / input.capacity());
+    }
+
+    /***
+     * @return Number of detect calls
+     */
+    public int getCalls() {
+        return calls;
+    }
+}
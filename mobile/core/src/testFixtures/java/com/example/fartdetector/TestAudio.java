@@ -0,0 +1,77 @@
+package com.example.fartdetector;
+
+import java.util.Random;
+
+/***
+ * Synthetic audio for tests: tones, noise and noise bursts, reproducible by seed.
+ * Signals are in [-1, 1] like WavFile samples and are converted to 16 bit PCM with toPcm
+ */
+public final class TestAudio {
+
+    private TestAudio() {
+    }
+
+    /***
+     * Tone with gaussian noise at the detector sample rate
+     * @param length Number of samples
+     * @param frequency Tone frequency in Hz, 0 for noise only
+     * @param amplitude Tone amplitude
+     * @param noise Standard deviation of the noise
+     * @param seed Noise seed
+     * @return Signal
+     */
+    public static float[] tone(int length, double frequency, double amplitude, double noise, long seed) {
+        Random random = new Random(seed);
+        float[] signal = new float[length];
+        for (int i = 0; i < length; i++) {
+            signal[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / DetectionPipeline.SAMPLE_RATE)
+                    + noise * random.nextGaussian());
+        }
+        return signal;
+    }
+
+    /***
+     * Add a tone to a signal
+     * @param signal Signal, changed in place
+     * @param frequency Tone frequency in Hz
+     * @param amplitude Tone amplitude
+     * @return The same signal
+     */
+    public static float[] addTone(float[] signal, double frequency, double amplitude) {
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] += (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / DetectionPipeline.SAMPLE_RATE));
+        }
+        return signal;
+    }
+
+    /***
+     * Add gaussian noise to every second block of a signal, starting with the second one,
+     * so the signal alternates between quiet and loud parts
+     * @param signal Signal, changed in place
+     * @param blockLength Length of quiet and loud blocks in samples
+     * @param noise Standard deviation of the noise in loud blocks
+     * @param seed Noise seed
+     * @return The same signal
+     */
+    public static float[] addBursts(float[] signal, int blockLength, double noise, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < signal.length; i++) {
+            if ((i / blockLength) % 2 == 1) {
+                signal[i] += (float) (noise * random.nextGaussian());
+            }
+        }
+        return signal;
+    }
+
+    /***
+     * @param signal Signal, clipped to [-1, 1]
+     * @return Signal in 16 bit PCM, scaled by Short.MAX_VALUE like the ring buffer input
+     */
+    public static short[] toPcm(float[] signal) {
+        short[] pcm = new short[signal.length];
+        for (int i = 0; i < signal.length; i++) {
+            pcm[i] = (short) Math.round(Math.max(-1f, Math.min(1f, signal[i])) * Short.MAX_VALUE);
+        }
+        return pcm;
+    }
+}
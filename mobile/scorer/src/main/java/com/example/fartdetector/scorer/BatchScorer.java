@@ -0,0 +1,336 @@
+package com.example.fartdetector.scorer;
+
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.Detector;
+import com.example.fartdetector.DetectorLoader;
+import com.example.fartdetector.MappedAudioFile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/***
+ * Offline scoring of WAV recordings with the same pipeline the application runs on microphone audio.
+ * Every file is scored with a sliding window, files are split into segments of consecutive windows
+ * which are processed in parallel. Files are memory mapped and windows are read directly from the mapping,
+ * so heap usage doesn't depend on the length of recordings. Each worker thread keeps its own pipeline and detector,
+ * and a segment starts from a reset pipeline, so scores don't depend on the number of threads.
+ */
+public class BatchScorer {
+
+    // Windows scored by one task, consecutive windows of a segment reuse spectrogram frames
+    static final int WINDOWS_PER_SEGMENT = 64;
+
+    private static final int DEFAULT_HOP_MS = 200;
+
+    /***
+     * Scores of one file, window i covers samples [i * hopLength, i * hopLength + WINDOW_LENGTH)
+     */
+    public static class FileScores {
+        private final File file;
+        private final float[] scores;
+        private final String error;
+
+        FileScores(File file, float[] scores, String error) {
+            this.file = file;
+            this.scores = scores;
+            this.error = error;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /***
+         * @return Scores of the windows, null if the file couldn't be read
+         */
+        public float[] getScores() {
+            return scores;
+        }
+
+        /***
+         * @return Reason why the file wasn't scored, null if it was
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final int threads;
+    private final int hopLength;
+    private final ThreadLocal<DetectionPipeline> pipelines;
+
+    /***
+     * @param factory Detector factory, called once per worker thread
+     * @param threads Number of worker threads
+     * @param hopLength Number of samples between windows, must be a multiple of DetectionPipeline.HOP_LENGTH
+     */
+    public BatchScorer(final Detector.Factory factory, int threads, int hopLength) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        if (hopLength <= 0 || hopLength % DetectionPipeline.HOP_LENGTH != 0) {
+            throw new IllegalArgumentException(
+                    "Hop length must be a positive multiple of " + DetectionPipeline.HOP_LENGTH);
+        }
+        this.threads = threads;
+        this.hopLength = hopLength;
+        pipelines = new ThreadLocal<DetectionPipeline>() {
+            @Override
+            protected DetectionPipeline initialValue() {
+                try {
+                    return new DetectionPipeline(factory.create());
+                } catch (Exception e) {
+                    throw new IllegalStateException("Can't create detector", e);
+                }
+            }
+        };
+    }
+
+    public int getHopLength() {
+        return hopLength;
+    }
+
+    /***
+     * Number of windows in a file, a file shorter than a window is scored as one window padded with silence
+     * @param samples Number of samples in the file
+     */
+    public int getWindowCount(long samples) {
+        if (samples <= DetectionPipeline.WINDOW_LENGTH) {
+            return 1;
+        }
+        return (int) (1 + (samples - DetectionPipeline.WINDOW_LENGTH) / hopLength);
+    }
+
+    /***
+     * Score files in parallel
+     * @param files WAV files, 16 kHz mono 16-bit PCM
+     * @return Scores in the order of files
+     */
+    public List<FileScores> score(List<File> files) {
+        final FileScores[] results = new FileScores[files.size()];
+        final List<RecursiveAction> tasks = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            final int index = i;
+            final File file = files.get(i);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    results[index] = scoreFile(file);
+                }
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        return Arrays.asList(results);
+    }
+
+    /***
+     * Read a file and score its segments, has to run inside the fork/join pool
+     */
+    private FileScores scoreFile(File file) {
+        try (MappedAudioFile audio = MappedAudioFile.openWav(file)) {
+            if (audio.getSampleRate() != DetectionPipeline.SAMPLE_RATE) {
+                return new FileScores(file, null, "Unsupported sample rate " + audio.getSampleRate()
+                        + ", expected " + DetectionPipeline.SAMPLE_RATE);
+            }
+
+            final float[] scores = new float[getWindowCount(audio.getSampleCount())];
+            List<RecursiveAction> segments = new ArrayList<>();
+            for (int first = 0; first < scores.length; first += WINDOWS_PER_SEGMENT) {
+                final int from = first;
+                final int to = Math.min(first + WINDOWS_PER_SEGMENT, scores.length);
+                segments.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        try {
+                            scoreSegment(audio, scores, from, to);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            }
+            RecursiveAction.invokeAll(segments);
+            return new FileScores(file, scores, null);
+        } catch (IOException e) {
+            return new FileScores(file, null, e.getMessage());
+        } catch (UncheckedIOException e) {
+            return new FileScores(file, null, e.getCause().getMessage());
+        }
+    }
+
+    private void scoreSegment(MappedAudioFile audio, float[] scores, int from, int to) throws IOException {
+        DetectionPipeline pipeline = pipelines.get();
+        pipeline.reset();
+        if (audio.getSampleCount() < DetectionPipeline.WINDOW_LENGTH) {
+            // Short recording padded with silence
+            ShortBuffer window = ShortBuffer.allocate(DetectionPipeline.WINDOW_LENGTH);
+            window.put(audio.getSamples(0, (int) audio.getSampleCount()));
+            window.clear();
+            scores[0] = pipeline.processWindow(window, DetectionPipeline.WINDOW_LENGTH);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            long start = (long) i * hopLength;
+            ShortBuffer window = audio.getWindow(i, DetectionPipeline.WINDOW_LENGTH, hopLength);
+            scores[i] = pipeline.processWindow(window, start + DetectionPipeline.WINDOW_LENGTH);
+        }
+    }
+
+    /***
+     * Write scores as CSV with columns file,start_sec,end_sec,score.
+     * Files which couldn't be read are skipped.
+     */
+    public void writeCsv(List<FileScores> results, Writer writer) {
+        PrintWriter output = new PrintWriter(writer);
+        output.println("file,start_sec,end_sec,score");
+        for (FileScores result : results) {
+            if (result.getScores() == null) {
+                continue;
+            }
+            String name = escapeCsv(result.getFile().getPath());
+            float[] scores = result.getScores();
+            for (int i = 0; i < scores.length; i++) {
+                double start = (double) i * hopLength / DetectionPipeline.SAMPLE_RATE;
+                double end = start + (double) DetectionPipeline.WINDOW_LENGTH / DetectionPipeline.SAMPLE_RATE;
+                output.println(String.format(Locale.ROOT, "%s,%.3f,%.3f,%.6f", name, start, end, scores[i]));
+            }
+        }
+        output.flush();
+    }
+
+    /***
+     * Expand directories to the WAV files inside them, in a stable order
+     */
+    public static List<File> collectFiles(List<File> paths) {
+        List<File> files = new ArrayList<>();
+        for (File path : paths) {
+            if (path.isDirectory()) {
+                File[] children = path.listFiles();
+                if (children == null) {
+                    continue;
+                }
+                Arrays.sort(children);
+                List<File> nested = new ArrayList<>();
+                for (File child : children) {
+                    if (child.isDirectory() || child.getName().toLowerCase(Locale.ROOT).endsWith(".wav")) {
+                        nested.add(child);
+                    }
+                }
+                files.addAll(collectFiles(nested));
+            } else {
+                files.add(path);
+            }
+        }
+        return files;
+    }
+
+    private static String escapeCsv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: BatchScorer --detector <class> [--model <path>] [--threads <n>]"
+                + " [--hop-ms <ms>] [--output <scores.csv>] <wav file or directory>...");
+        System.err.println("  --detector  Detector implementation on the classpath");
+        System.err.println("  --model     Model file passed to the detector constructor");
+        System.err.println("  --threads   Worker threads, all cores by default");
+        System.err.println("  --hop-ms    Step between windows, " + DEFAULT_HOP_MS + " ms by default,"
+                + " rounded to " + DetectionPipeline.HOP_LENGTH + " samples");
+        System.err.println("  --output    CSV file, standard output by default");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String detectorClass = null;
+        String modelPath = null;
+        String outputPath = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hopMs = DEFAULT_HOP_MS;
+        List<File> paths = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--detector":
+                        detectorClass = args[++i];
+                        break;
+                    case "--model":
+                        modelPath = args[++i];
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "--hop-ms":
+                        hopMs = Integer.parseInt(args[++i]);
+                        break;
+                    case "--output":
+                        outputPath = args[++i];
+                        break;
+                    default:
+                        paths.add(new File(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            System.exit(2);
+        }
+        if (detectorClass == null || paths.isEmpty()) {
+            printUsage();
+            System.exit(2);
+        }
+
+        int hopLength = Math.max(1, Math.round((float) hopMs * DetectionPipeline.SAMPLE_RATE / 1000
+                / DetectionPipeline.HOP_LENGTH)) * DetectionPipeline.HOP_LENGTH;
+        BatchScorer scorer = new BatchScorer(DetectorLoader.reflectionFactory(detectorClass, modelPath), threads, hopLength);
+
+        List<File> files = collectFiles(paths);
+        long startTime = System.nanoTime();
+        List<FileScores> results = scorer.score(files);
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        long windows = 0;
+        for (FileScores result : results) {
+            if (result.getError() != null) {
+                System.err.println("Skipped " + result.getFile() + ": " + result.getError());
+            } else {
+                windows += result.getScores().length;
+            }
+        }
+
+        if (outputPath != null) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(outputPath), StandardCharsets.UTF_8)) {
+                scorer.writeCsv(results, writer);
+            }
+        } else {
+            scorer.writeCsv(results, new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        }
+        System.err.println(String.format(Locale.ROOT, "Scored %d windows of %d files in %.1f s",
+                windows, files.size(), elapsed));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.fartdetector.scorer;
+
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.DetectorLoader;
+import com.example.fartdetector.MeanDetector;
+import com.example.fartdetector.TestAudio;
+import com.example.fartdetector.WavFile;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BatchScorerTest extends TestCase {
+
+    private static final int SAMPLE_RATE = DetectionPipeline.SAMPLE_RATE;
+    private static final int HOP = 3200;
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("scorer", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private File writeWav(String name, int length, long seed) throws IOException {
+        // Noise bursts every second
+        short[] samples = TestAudio.toPcm(TestAudio.addBursts(TestAudio.tone(length, 0, 0, 0.01, seed),
+                SAMPLE_RATE, 0.09, seed));
+        File file = new File(directory, name);
+        WavFile.write(file, SAMPLE_RATE, samples);
+        return file;
+    }
+
+    private static BatchScorer newScorer(int threads) throws ReflectiveOperationException {
+        return new BatchScorer(DetectorLoader.reflectionFactory(MeanDetector.class.getName(), null), threads, HOP);
+    }
+
+    public void testScoresDontDependOnThreads() throws Exception {
+        // More windows than one segment, so a file is split between threads
+        int windows = BatchScorer.WINDOWS_PER_SEGMENT + 20;
+        File first = writeWav("first.wav", DetectionPipeline.WINDOW_LENGTH + (windows - 1) * HOP + 100, 1);
+        File second = writeWav("second.wav", DetectionPipeline.WINDOW_LENGTH + 5 * HOP, 2);
+        List<File> files = Arrays.asList(first, second);
+
+        List<BatchScorer.FileScores> single = newScorer(1).score(files);
+        List<BatchScorer.FileScores> parallel = newScorer(4).score(files);
+
+        assertEquals(windows, single.get(0).getScores().length);
+        assertEquals(6, single.get(1).getScores().length);
+        for (int i = 0; i < files.size(); i++) {
+            assertEquals(files.get(i), parallel.get(i).getFile());
+            assertTrue(Arrays.equals(single.get(i).getScores(), parallel.get(i).getScores()));
+        }
+    }
+
+    public void testSegmentMatchesSingleWindow() throws Exception {
+        File file = writeWav("file.wav", DetectionPipeline.WINDOW_LENGTH + 10 * HOP, 3);
+        float[] scores = newScorer(2).score(Collections.singletonList(file)).get(0).getScores();
+
+        // Window in the middle of a segment reuses frames, but scores the same as a separate one
+        float[] samples = WavFile.read(file).getSamples();
+        float[] window = Arrays.copyOfRange(samples, 7 * HOP, 7 * HOP + DetectionPipeline.WINDOW_LENGTH);
+        float expected = new DetectionPipeline(new MeanDetector()).processWindow(window, window.length);
+        assertEquals(expected, scores[7], 1e-4f);
+    }
+
+    public void testShortFileIsOneWindow() throws Exception {
+        File file = writeWav("short.wav", SAMPLE_RATE / 2, 4);
+        BatchScorer.FileScores result = newScorer(1).score(Collections.singletonList(file)).get(0);
+        assertNull(result.getError());
+        assertEquals(1, result.getScores().length);
+    }
+
+    public void testReportsUnreadableFiles() throws Exception {
+        File file = new File(directory, "missing.wav");
+        BatchScorer.FileScores result = newScorer(1).score(Collections.singletonList(file)).get(0);
+        assertNull(result.getScores());
+        assertNotNull(result.getError());
+    }
+
+    public void testCollectsWavFilesFromDirectories() throws Exception {
+        File b = writeWav("b.WAV", 10, 5);
+        File a = writeWav("a.wav", 10, 6);
+        assertTrue(new File(directory, "notes.txt").createNewFile());
+
+        List<File> files = BatchScorer.collectFiles(Collections.singletonList(directory));
+        assertEquals(Arrays.asList(a, b), files);
+    }
+
+    public void testWritesCsv() throws Exception {
+        File file = writeWav("file.wav", DetectionPipeline.WINDOW_LENGTH + HOP, 7);
+        BatchScorer scorer = newScorer(1);
+        List<BatchScorer.FileScores> results = scorer.score(Collections.singletonList(file));
+        StringWriter writer = new StringWriter();
+        scorer.writeCsv(results, writer);
+
+        String[] lines = writer.toString().split("\\r?\\n");
+        assertEquals(3, lines.length);
+        assertEquals("file,start_sec,end_sec,score", lines[0]);
+        assertTrue(lines[1].startsWith(file.getPath() + ",0.000,2.000,"));
+        assertTrue(lines[2].startsWith(file.getPath() + ",0.200,2.200,"));
+    }
+
+    public void testRejectsUnalignedHop() {
+        try {
+            new BatchScorer(null, 1, 1000);
+            fail("Hop which isn't a multiple of spectrogram hop accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.fartdetector.server;
+
+import java.nio.FloatBuffer;
+
+/***
+ * Detector which scores several feature windows with one inference call
+ */
+public interface BatchDetector {
+
+    interface Factory {
+        BatchDetector create() throws Exception;
+    }
+
+    /***
+     * @return Maximum number of windows in one call
+     */
+    int getBatchSize();
+
+    /***
+     * @param index Slot of the batch
+     * @return Input of the slot, N_MELS x FRAMES values
+     */
+    FloatBuffer getInput(int index);
+
+    /***
+     * Score the first count slots
+     * @param count Number of filled slots
+     * @param scores Destination of the scores
+     */
+    void detect(int count, float[] scores);
+}
@@ -0,0 +1,477 @@
+package com.example.fartdetector.server;
+
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.DetectorLoader;
+import com.example.fartdetector.LatencyHistogram;
+import com.example.fartdetector.LibrosaUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Detection server for many microphones.
+ * Every TCP connection is one sensor which sends mono 16 kHz 16-bit little-endian PCM, the server answers with
+ * a line "<samples> <score>" for every scored window, where samples is the number of stream samples up to
+ * the end of the window.
+ * One IO thread reads all connections without blocking and pushes audio to the ring buffer of the stream.
+ * When a hop of new audio arrives, the stream is put to a FIFO ready queue, at most once, so streams are scored
+ * round-robin and a fast sender can't take the slots of others. A fixed pool of workers takes up to a batch of ready
+ * streams, computes their features with the spectrogram state of every stream and scores the batch with one
+ * inference call. A stream which falls behind is scored on its latest window only, skipped windows are counted,
+ * so an overloaded server degrades by scoring less often instead of queuing stale audio.
+ * Memory is bounded by the stream limit: connections above it are refused.
+ */
+public class DetectionServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 7070;
+    // 200 ms, like detection ticks of the application
+    public static final int DEFAULT_HOP_LENGTH = 3200;
+    public static final int DEFAULT_MAX_STREAMS = 256;
+    public static final int DEFAULT_BATCH_SIZE = 8;
+
+    private final BatchDetector.Factory factory;
+    private final int workerCount;
+    private final int hopLength;
+    private final int maxStreams;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+
+    private final BlockingQueue<StreamSession> readyStreams = new LinkedBlockingQueue<>();
+    // Sessions with new responses, registered for writing by the IO thread
+    private final Queue<StreamSession> writableStreams = new ConcurrentLinkedQueue<>();
+    private final Set<StreamSession> sessions =
+            Collections.newSetFromMap(new ConcurrentHashMap<StreamSession, Boolean>());
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = false;
+    private int nextId = 0;
+
+    // From the moment a stream has a hop of new audio to the moment its score is queued for sending
+    private final LatencyHistogram detectionLatency = new LatencyHistogram();
+    private final LatencyHistogram inferenceLatency = new LatencyHistogram();
+    private final AtomicLong windowsScored = new AtomicLong();
+    private final AtomicLong windowsSkipped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong streamsAccepted = new AtomicLong();
+    private final AtomicLong streamsRejected = new AtomicLong();
+    private final AtomicLong responsesDropped = new AtomicLong();
+
+    /***
+     * Bind the server socket, connections are accepted after start
+     * @param factory Detector factory, called once per worker
+     * @param address Address to listen on, port 0 to choose a free one
+     * @param workers Number of worker threads, usually the number of cores
+     * @param hopLength Number of samples between scored windows of a stream
+     * @param maxStreams Maximum number of connected streams
+     */
+    public DetectionServer(BatchDetector.Factory factory, InetSocketAddress address, int workers, int hopLength,
+                           int maxStreams) throws IOException {
+        if (workers < 1 || hopLength < 1 || maxStreams < 1) {
+            throw new IllegalArgumentException("Workers, hop length and stream limit must be positive");
+        }
+        this.factory = factory;
+        this.workerCount = workers;
+        this.hopLength = hopLength;
+        this.maxStreams = maxStreams;
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /***
+     * Create detectors and start IO and worker threads
+     * @throws Exception If a detector can't be created
+     */
+    public synchronized void start() throws Exception {
+        if (running) {
+            return;
+        }
+        // Detectors are created here, so errors reach the caller
+        List<BatchDetector> detectors = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            BatchDetector detector = factory.create();
+            if (detector.getInput(0).capacity() != DetectionPipeline.N_MELS * DetectionPipeline.FRAMES) {
+                throw new IllegalArgumentException("Detector input size doesn't match spectrogram size");
+            }
+            detectors.add(detector);
+        }
+
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            final BatchDetector detector = detectors.get(i);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workLoop(detector);
+                }
+            }, "Detection worker " + i));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ioLoop();
+            }
+        }, "Detection server IO"));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    private void ioLoop() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            }
+
+            StreamSession writable;
+            while ((writable = writableStreams.poll()) != null) {
+                if (writable.key.isValid()) {
+                    writable.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                StreamSession session = (StreamSession) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        if (session.read() < 0) {
+                            closeSession(session);
+                            continue;
+                        }
+                        schedule(session);
+                    }
+                    if (key.isValid() && key.isWritable() && session.writeResponses()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } catch (IOException e) {
+                    closeSession(session);
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+
+        try {
+            if (sessions.size() >= maxStreams) {
+                streamsRejected.incrementAndGet();
+                channel.configureBlocking(false);
+                channel.write(ByteBuffer.wrap("ERROR too many streams\n".getBytes(StandardCharsets.US_ASCII)));
+                channel.close();
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            StreamSession session = new StreamSession(nextId++, channel, key, hopLength);
+            key.attach(session);
+            sessions.add(session);
+            streamsAccepted.incrementAndGet();
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Nothing to release
+            }
+        }
+    }
+
+    private void closeSession(StreamSession session) {
+        session.close();
+        sessions.remove(session);
+    }
+
+    /***
+     * Put the session to the ready queue if it has a hop of new audio and isn't queued yet
+     */
+    private void schedule(StreamSession session) {
+        if (!session.closed && session.isDue() && session.queued.compareAndSet(false, true)) {
+            session.readyTime = System.nanoTime();
+            readyStreams.add(session);
+        }
+    }
+
+    private void workLoop(BatchDetector detector) {
+        int batchSize = detector.getBatchSize();
+        StreamSession[] batch = new StreamSession[batchSize];
+        long[] windowEnds = new long[batchSize];
+        float[] scores = new float[batchSize];
+        // Snapshot of a ring buffer, only new samples are read by the spectrogram
+        short[] window = new short[DetectionPipeline.WINDOW_LENGTH];
+        ShortBuffer windowBuffer = ShortBuffer.wrap(window);
+
+        while (running) {
+            StreamSession first;
+            try {
+                first = readyStreams.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            // Features of every stream of the batch
+            int count = 0;
+            StreamSession next = first;
+            while (next != null) {
+                if (!next.closed) {
+                    long pushed = next.buffer.getData(window);
+                    long due = pushed / hopLength - next.scoredSamples / hopLength;
+                    if (due > 1) {
+                        windowsSkipped.addAndGet(due - 1);
+                    }
+                    float[][] spectrogram = next.melSpectrogram.update(windowBuffer, pushed);
+                    LibrosaUtils.powerToNormalizedDb(spectrogram, detector.getInput(count));
+                    next.scoredSamples = pushed;
+                    windowEnds[count] = pushed;
+                    batch[count++] = next;
+                }
+                next = count < batchSize ? readyStreams.poll() : null;
+            }
+            if (count == 0) {
+                continue;
+            }
+
+            long startTime = System.nanoTime();
+            detector.detect(count, scores);
+            long now = System.nanoTime();
+            inferenceLatency.record(now - startTime);
+            batches.incrementAndGet();
+
+            boolean wakeUp = false;
+            for (int i = 0; i < count; i++) {
+                StreamSession session = batch[i];
+                detectionLatency.record(now - session.readyTime);
+                windowsScored.incrementAndGet();
+                if (session.respond(windowEnds[i], scores[i])) {
+                    writableStreams.add(session);
+                    wakeUp = true;
+                } else {
+                    responsesDropped.incrementAndGet();
+                }
+                // Audio which arrived while the session was being scored
+                session.queued.set(false);
+                schedule(session);
+            }
+            Arrays.fill(batch, null);
+            if (wakeUp) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    /***
+     * @return Number of connected streams
+     */
+    public int getStreamCount() {
+        return sessions.size();
+    }
+
+    public long getStreamsAccepted() {
+        return streamsAccepted.get();
+    }
+
+    /***
+     * @return Connections refused because of the stream limit
+     */
+    public long getStreamsRejected() {
+        return streamsRejected.get();
+    }
+
+    public long getWindowsScored() {
+        return windowsScored.get();
+    }
+
+    /***
+     * @return Windows which weren't scored because their stream was behind
+     */
+    public long getWindowsSkipped() {
+        return windowsSkipped.get();
+    }
+
+    /***
+     * @return Scores which weren't sent because the client didn't read them
+     */
+    public long getResponsesDropped() {
+        return responsesDropped.get();
+    }
+
+    /***
+     * @return Mean number of windows per inference call
+     */
+    public double getMeanBatchSize() {
+        long n = batches.get();
+        return n > 0 ? (double) windowsScored.get() / n : 0;
+    }
+
+    /***
+     * @return Time from a hop of new audio to the score of the stream
+     */
+    public LatencyHistogram getDetectionLatency() {
+        return detectionLatency;
+    }
+
+    /***
+     * @return Time of one batch inference call
+     */
+    public LatencyHistogram getInferenceLatency() {
+        return inferenceLatency;
+    }
+
+    /***
+     * @return One line summary of the counters
+     */
+    public String getSummary() {
+        return String.format(Locale.ROOT,
+                "streams %d, scored %d, skipped %d, dropped %d, rejected %d, batch %.2f,"
+                        + " latency p50 %d us p99 %d us, inference p50 %d us",
+                getStreamCount(), getWindowsScored(), getWindowsSkipped(), getResponsesDropped(),
+                getStreamsRejected(), getMeanBatchSize(), detectionLatency.getPercentileMicros(0.5),
+                detectionLatency.getPercentileMicros(0.99), inferenceLatency.getPercentileMicros(0.5));
+    }
+
+    /***
+     * Stop threads and close all connections
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            running = false;
+        }
+        selector.wakeup();
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (StreamSession session : sessions) {
+            session.close();
+        }
+        sessions.clear();
+        serverChannel.close();
+        selector.close();
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: DetectionServer --detector <class> [--model <path>] [--port <port>]"
+                + " [--workers <n>] [--batch <n>] [--hop-ms <ms>] [--max-streams <n>]");
+        System.err.println("  --detector     Detector implementation on the classpath");
+        System.err.println("  --model        Model file passed to the detector constructor");
+        System.err.println("  --port         TCP port, " + DEFAULT_PORT + " by default");
+        System.err.println("  --workers      Worker threads, all cores by default");
+        System.err.println("  --batch        Windows per inference call, " + DEFAULT_BATCH_SIZE + " by default");
+        System.err.println("  --hop-ms       Step between scored windows of a stream, "
+                + DEFAULT_HOP_LENGTH * 1000 / DetectionPipeline.SAMPLE_RATE + " ms by default");
+        System.err.println("  --max-streams  Maximum number of connected sensors, " + DEFAULT_MAX_STREAMS
+                + " by default");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String detectorClass = null;
+        String modelPath = null;
+        int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int batchSize = DEFAULT_BATCH_SIZE;
+        int hopMs = DEFAULT_HOP_LENGTH * 1000 / DetectionPipeline.SAMPLE_RATE;
+        int maxStreams = DEFAULT_MAX_STREAMS;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--detector":
+                        detectorClass = args[++i];
+                        break;
+                    case "--model":
+                        modelPath = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--workers":
+                        workers = Integer.parseInt(args[++i]);
+                        break;
+                    case "--batch":
+                        batchSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--hop-ms":
+                        hopMs = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-streams":
+                        maxStreams = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        printUsage();
+                        System.exit(2);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            System.exit(2);
+        }
+        if (detectorClass == null) {
+            printUsage();
+            System.exit(2);
+        }
+
+        BatchDetector.Factory factory = SequentialBatchDetector.factory(
+                DetectorLoader.reflectionFactory(detectorClass, modelPath), batchSize);
+        DetectionServer server = new DetectionServer(factory, new InetSocketAddress(port), workers,
+                hopMs * DetectionPipeline.SAMPLE_RATE / 1000, maxStreams);
+        server.start();
+        System.err.println("Listening on port " + server.getPort());
+        while (true) {
+            Thread.sleep(10000);
+            System.err.println(server.getSummary());
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.fartdetector.server;
+
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.DetectorLoader;
+import com.example.fartdetector.LatencyHistogram;
+import com.example.fartdetector.SyntheticAudioSource;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Simulates many real-time sensors against a detection server, to find how many streams one machine sustains.
+ * Every stream sends a chunk of audio every CHUNK_MS from one sender thread, one reader thread receives scores
+ * of all streams. The latency of a score is the time from sending the last sample of its window to receiving it.
+ * A run is sustained if almost every expected window is scored and the latency stays below the limit.
+ */
+public class LoadGenerator {
+
+    public static final int CHUNK_MS = 20;
+    public static final long DEFAULT_MAX_LATENCY_MS = 1000;
+    // Share of expected windows which may be missing in a sustained run, windows in flight at the end are missing
+    public static final double MAX_MISSING_SHARE = 0.02;
+
+    private static final int CHUNK_LENGTH = DetectionPipeline.SAMPLE_RATE * CHUNK_MS / 1000;
+    // Audio sent by all streams from different offsets
+    private static final int AUDIO_SECONDS = 10;
+
+    /***
+     * Result of one run
+     */
+    public static class Result {
+        public final int streams;
+        public final long expectedWindows;
+        public final long scoredWindows;
+        public final long rejectedStreams;
+        public final long sendStalls;
+        public final long p50Micros;
+        public final long p99Micros;
+        public final boolean sustained;
+
+        Result(int streams, long expectedWindows, long scoredWindows, long rejectedStreams, long sendStalls,
+               long p50Micros, long p99Micros, boolean sustained) {
+            this.streams = streams;
+            this.expectedWindows = expectedWindows;
+            this.scoredWindows = scoredWindows;
+            this.rejectedStreams = rejectedStreams;
+            this.sendStalls = sendStalls;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.sustained = sustained;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%5d streams: scored %d of %d windows, latency p50 %.1f ms p99 %.1f ms,"
+                            + " rejected %d, send stalls %d - %s",
+                    streams, scoredWindows, expectedWindows, p50Micros / 1000.0, p99Micros / 1000.0,
+                    rejectedStreams, sendStalls, sustained ? "sustained" : "NOT sustained");
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final int hopLength;
+    private final long maxLatencyMs;
+    private final ByteBuffer audio;
+
+    /***
+     * @param address Server address
+     * @param hopLength Hop length of the server, to count expected windows
+     * @param maxLatencyMs Maximum 99th percentile of the latency in a sustained run
+     */
+    public LoadGenerator(InetSocketAddress address, int hopLength, long maxLatencyMs) {
+        this.address = address;
+        this.hopLength = hopLength;
+        this.maxLatencyMs = maxLatencyMs;
+
+        // Quiet tone with noise, converted to little-endian PCM once
+        int length = AUDIO_SECONDS * DetectionPipeline.SAMPLE_RATE;
+        SyntheticAudioSource source = new SyntheticAudioSource(DetectionPipeline.SAMPLE_RATE, length,
+                300, 0.1, 0.02, 1);
+        source.setLength(length);
+        source.start();
+        ShortBuffer samples;
+        try {
+            samples = source.read();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        audio = ByteBuffer.allocateDirect(2 * length).order(ByteOrder.LITTLE_ENDIAN);
+        audio.asShortBuffer().put(samples);
+    }
+
+    /***
+     * Stream real-time audio from the given number of sensors
+     * @param streams Number of sensors
+     * @param seconds Duration of the run
+     * @return Result of the run
+     */
+    public Result run(int streams, double seconds) throws IOException, InterruptedException {
+        final Selector selector = Selector.open();
+        final List<SocketChannel> channels = new ArrayList<>();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong scored = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        long sendStalls = 0;
+
+        try {
+            for (int i = 0; i < streams; i++) {
+                SocketChannel channel = SocketChannel.open(address);
+                channel.socket().setTcpNoDelay(true);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, new StringBuilder());
+                channels.add(channel);
+            }
+
+            final long startTime = System.nanoTime();
+            final long chunkNanos = TimeUnit.MILLISECONDS.toNanos(CHUNK_MS);
+            final AtomicBoolean receiving = new AtomicBoolean(true);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    receive(selector, startTime, chunkNanos, latency, scored, rejected, receiving);
+                }
+            }, "Load generator reader");
+            reader.start();
+
+            // Pending part of the last chunk of every stream
+            ByteBuffer[] pending = new ByteBuffer[streams];
+            long chunks = (long) (seconds * 1000 / CHUNK_MS);
+            int audioChunks = audio.capacity() / 2 / CHUNK_LENGTH;
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                long delay = startTime + chunk * chunkNanos - System.nanoTime();
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+                for (int i = 0; i < streams; i++) {
+                    SocketChannel channel = channels.get(i);
+                    if (!channel.isOpen()) {
+                        continue;
+                    }
+                    if (pending[i] != null && pending[i].hasRemaining()) {
+                        channel.write(pending[i]);
+                        if (pending[i].hasRemaining()) {
+                            // Server doesn't read fast enough, this chunk is late
+                            sendStalls++;
+                            continue;
+                        }
+                    }
+                    int offset = (int) ((chunk + (long) i * audioChunks / Math.max(1, streams)) % audioChunks)
+                            * CHUNK_LENGTH * 2;
+                    ByteBuffer data = audio.duplicate();
+                    data.limit(offset + CHUNK_LENGTH * 2).position(offset);
+                    channel.write(data);
+                    pending[i] = data;
+                }
+            }
+
+            // Wait for windows in flight
+            Thread.sleep(Math.min(maxLatencyMs, 2000));
+            receiving.set(false);
+            selector.wakeup();
+            reader.join();
+
+            long sentSamples = chunks * CHUNK_LENGTH;
+            long expected = (streams - rejected.get()) * (sentSamples / hopLength);
+            long p99 = latency.getPercentileMicros(0.99);
+            boolean sustained = rejected.get() == 0 && scored.get() >= expected * (1 - MAX_MISSING_SHARE)
+                    && p99 <= TimeUnit.MILLISECONDS.toMicros(maxLatencyMs);
+            return new Result(streams, expected, scored.get(), rejected.get(), sendStalls,
+                    latency.getPercentileMicros(0.5), p99, sustained);
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+        }
+    }
+
+    private void receive(Selector selector, long startTime, long chunkNanos, LatencyHistogram latency,
+                         AtomicLong scored, AtomicLong rejected, AtomicBoolean receiving) {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (receiving.get()) {
+            try {
+                selector.select(100);
+            } catch (IOException e) {
+                return;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                SocketChannel channel = (SocketChannel) key.channel();
+                StringBuilder line = (StringBuilder) key.attachment();
+                buffer.clear();
+                int count;
+                try {
+                    count = channel.read(buffer);
+                } catch (IOException e) {
+                    count = -1;
+                }
+                if (count < 0) {
+                    key.cancel();
+                    continue;
+                }
+                long now = System.nanoTime();
+                for (int i = 0; i < count; i++) {
+                    char c = (char) buffer.get(i);
+                    if (c != '\n') {
+                        line.append(c);
+                        continue;
+                    }
+                    if (line.toString().startsWith("ERROR")) {
+                        rejected.incrementAndGet();
+                    } else {
+                        long samples = Long.parseLong(line.substring(0, line.indexOf(" ")));
+                        // Time the chunk with the last sample of the window was due to be sent
+                        long sentTime = startTime + (samples - 1) / CHUNK_LENGTH * chunkNanos;
+                        latency.record(now - sentTime);
+                        scored.incrementAndGet();
+                    }
+                    line.setLength(0);
+                }
+            }
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: LoadGenerator [--host <host> --port <port> | --detector <class> [--model <path>]"
+                + " [--workers <n>] [--batch <n>]] [--streams <n> | --max-streams <n>] [--seconds <s>]"
+                + " [--max-latency-ms <ms>]");
+        System.err.println("  --host, --port     Running DetectionServer, by default one is started in process");
+        System.err.println("  --detector         Detector of the server started in process");
+        System.err.println("  --streams          Run once with this number of streams");
+        System.err.println("  --max-streams      Double streams from 1 up to this number while the server keeps up");
+        System.err.println("  --seconds          Duration of every run, 10 by default");
+        System.err.println("  --max-latency-ms   Latency limit of a sustained run, " + DEFAULT_MAX_LATENCY_MS
+                + " by default");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = null;
+        int port = DetectionServer.DEFAULT_PORT;
+        String detectorClass = null;
+        String modelPath = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        int batchSize = DetectionServer.DEFAULT_BATCH_SIZE;
+        int streams = 0;
+        int maxStreams = 1024;
+        double seconds = 10;
+        long maxLatencyMs = DEFAULT_MAX_LATENCY_MS;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[++i];
+                        break;
+                    case "--port":
+                        port = Integer.parseInt(args[++i]);
+                        break;
+                    case "--detector":
+                        detectorClass = args[++i];
+                        break;
+                    case "--model":
+                        modelPath = args[++i];
+                        break;
+                    case "--workers":
+                        workers = Integer.parseInt(args[++i]);
+                        break;
+                    case "--batch":
+                        batchSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "--streams":
+                        streams = Integer.parseInt(args[++i]);
+                        break;
+                    case "--max-streams":
+                        maxStreams = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seconds":
+                        seconds = Double.parseDouble(args[++i]);
+                        break;
+                    case "--max-latency-ms":
+                        maxLatencyMs = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        printUsage();
+                        System.exit(2);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            System.exit(2);
+        }
+        if (host == null && detectorClass == null) {
+            printUsage();
+            System.exit(2);
+        }
+
+        DetectionServer server = null;
+        InetSocketAddress address;
+        if (host == null) {
+            server = new DetectionServer(SequentialBatchDetector.factory(
+                    DetectorLoader.reflectionFactory(detectorClass, modelPath), batchSize),
+                    new InetSocketAddress("127.0.0.1", 0), workers, DetectionServer.DEFAULT_HOP_LENGTH,
+                    Math.max(streams, maxStreams));
+            server.start();
+            address = new InetSocketAddress("127.0.0.1", server.getPort());
+        } else {
+            address = new InetSocketAddress(host, port);
+        }
+
+        try {
+            LoadGenerator generator = new LoadGenerator(address, DetectionServer.DEFAULT_HOP_LENGTH, maxLatencyMs);
+            if (streams > 0) {
+                System.out.println(generator.run(streams, seconds));
+            } else {
+                int sustained = 0;
+                for (int n = 1; n <= maxStreams; n *= 2) {
+                    Result result = generator.run(n, seconds);
+                    System.out.println(result);
+                    if (server != null) {
+                        System.out.println("       server: " + server.getSummary());
+                    }
+                    if (!result.sustained) {
+                        break;
+                    }
+                    sustained = n;
+                }
+                System.out.println("Sustained real-time streams: " + sustained);
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+}
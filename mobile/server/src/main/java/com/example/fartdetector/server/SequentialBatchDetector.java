@@ -0,0 +1,71 @@
+package com.example.fartdetector.server;
+
+import com.example.fartdetector.Detector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/***
+ * Batch adapter of a single window detector, slots are scored one after another.
+ * The first slot is the input of the detector itself, so a batch of one doesn't copy features.
+ */
+public class SequentialBatchDetector implements BatchDetector {
+
+    private final Detector detector;
+    private final FloatBuffer[] inputs;
+
+    /***
+     * @param detector Detector
+     * @param batchSize Number of slots
+     */
+    public SequentialBatchDetector(Detector detector, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.detector = detector;
+        inputs = new FloatBuffer[batchSize];
+        inputs[0] = detector.getInput();
+        for (int i = 1; i < batchSize; i++) {
+            inputs[i] = ByteBuffer.allocateDirect(4 * inputs[0].capacity())
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+        }
+    }
+
+    /***
+     * Factory of adapters, every adapter creates its own detector
+     */
+    public static BatchDetector.Factory factory(final Detector.Factory factory, final int batchSize) {
+        return new BatchDetector.Factory() {
+            @Override
+            public BatchDetector create() throws Exception {
+                return new SequentialBatchDetector(factory.create(), batchSize);
+            }
+        };
+    }
+
+    @Override
+    public int getBatchSize() {
+        return inputs.length;
+    }
+
+    @Override
+    public FloatBuffer getInput(int index) {
+        return inputs[index];
+    }
+
+    @Override
+    public void detect(int count, float[] scores) {
+        scores[0] = detector.detect();
+        FloatBuffer input = detector.getInput();
+        for (int i = 1; i < count; i++) {
+            input.clear();
+            FloatBuffer slot = inputs[i].duplicate();
+            slot.clear();
+            input.put(slot);
+            input.clear();
+            scores[i] = detector.detect();
+        }
+    }
+}
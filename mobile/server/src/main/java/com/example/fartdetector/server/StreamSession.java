@@ -0,0 +1,142 @@
+package com.example.fartdetector.server;
+
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.RingAudioBuffer;
+import com.example.fartdetector.StreamingMelSpectrogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * State of one sensor connection: audio ring buffer, spectrogram frames of the stream and unsent scores.
+ * Audio is pushed by the IO thread. Features are computed by one worker at a time,
+ * the worker which took the session from the ready queue.
+ */
+class StreamSession {
+
+    private static final int INPUT_BUFFER_SIZE = 8192;
+    // Scores waiting for a slow client, newer ones are dropped
+    static final int MAX_PENDING_RESPONSES = 32;
+
+    final int id;
+    final SocketChannel channel;
+    final SelectionKey key;
+    final RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+    final StreamingMelSpectrogram melSpectrogram = new StreamingMelSpectrogram(DetectionPipeline.SAMPLE_RATE,
+            DetectionPipeline.N_FFT, DetectionPipeline.N_MELS, DetectionPipeline.HOP_LENGTH,
+            DetectionPipeline.WINDOW_LENGTH);
+
+    // Little-endian PCM from the socket and its view as samples
+    private final ByteBuffer input;
+    private final ShortBuffer samples;
+    private final int hopLength;
+    private volatile long pushedSamples = 0;
+
+    // True while the session is in the ready queue or being scored
+    final AtomicBoolean queued = new AtomicBoolean(false);
+    // System.nanoTime when the session was queued
+    volatile long readyTime = 0;
+    // Samples up to the last scored window, written by the worker
+    volatile long scoredSamples = 0;
+    volatile boolean closed = false;
+
+    private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingResponses = new AtomicInteger();
+
+    StreamSession(int id, SocketChannel channel, SelectionKey key, int hopLength) {
+        this.id = id;
+        this.channel = channel;
+        this.key = key;
+        this.hopLength = hopLength;
+        input = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        samples = input.asShortBuffer();
+    }
+
+    /***
+     * Read available audio into the ring buffer, called on the IO thread
+     * @return Number of bytes read, -1 at the end of the stream
+     */
+    int read() throws IOException {
+        int count = channel.read(input);
+        if (count <= 0) {
+            return count;
+        }
+        int length = input.position() / 2;
+        if (length > 0) {
+            samples.limit(length);
+            samples.position(0);
+            buffer.push(samples, Short.MAX_VALUE);
+            pushedSamples += length;
+            // Keep the first byte of a sample split between reads
+            if (input.position() % 2 != 0) {
+                input.put(0, input.get(2 * length));
+                input.position(1);
+            } else {
+                input.clear();
+            }
+        }
+        return count;
+    }
+
+    /***
+     * Windows are due on a grid of hops of the stream, whatever the size of received chunks
+     * @return True if the stream crossed a hop boundary since the last scored window
+     */
+    boolean isDue() {
+        return pushedSamples / hopLength > scoredSamples / hopLength;
+    }
+
+    /***
+     * Queue a score for the client, called by a worker
+     * @param windowEnd Number of samples of the stream up to the end of the scored window
+     * @param score Score
+     * @return False if the client doesn't read scores and the response was dropped
+     */
+    boolean respond(long windowEnd, float score) {
+        if (pendingResponses.incrementAndGet() > MAX_PENDING_RESPONSES) {
+            pendingResponses.decrementAndGet();
+            return false;
+        }
+        byte[] line = String.format(Locale.ROOT, "%d %.6f\n", windowEnd, score).getBytes(StandardCharsets.US_ASCII);
+        responses.add(ByteBuffer.wrap(line));
+        return true;
+    }
+
+    /***
+     * Write queued scores without blocking, called on the IO thread
+     * @return True if everything was written
+     */
+    boolean writeResponses() throws IOException {
+        ByteBuffer head;
+        while ((head = responses.peek()) != null) {
+            channel.write(head);
+            if (head.hasRemaining()) {
+                // Socket buffer is full
+                return false;
+            }
+            responses.poll();
+            pendingResponses.decrementAndGet();
+        }
+        return true;
+    }
+
+    void close() {
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Connection is already broken
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.fartdetector.server;
+
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.Detector;
+import com.example.fartdetector.MeanDetector;
+import com.example.fartdetector.RingAudioBuffer;
+import com.example.fartdetector.StubDetector;
+import com.example.fartdetector.TestAudio;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DetectionServerTest extends TestCase {
+
+    private static final int HOP = DetectionServer.DEFAULT_HOP_LENGTH;
+
+    private DetectionServer server;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private DetectionServer startServer(Detector.Factory factory, int workers, int batchSize, int maxStreams)
+            throws Exception {
+        server = new DetectionServer(SequentialBatchDetector.factory(factory, batchSize),
+                new InetSocketAddress("127.0.0.1", 0), workers, HOP, maxStreams);
+        server.start();
+        return server;
+    }
+
+    private static short[] generateSignal(int length, long seed) {
+        return TestAudio.toPcm(TestAudio.tone(length, 300, 0.09, 0.02, seed));
+    }
+
+    private static byte[] toPcm(short[] samples, int from, int to) {
+        ByteBuffer bytes = ByteBuffer.allocate(2 * (to - from)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = from; i < to; i++) {
+            bytes.putShort(samples[i]);
+        }
+        return bytes.array();
+    }
+
+    /***
+     * Features of the server match the pipeline of the application at the same stream position
+     */
+    public void testScoresMatchPipeline() throws Exception {
+        startServer(new Detector.Factory() {
+            @Override
+            public Detector create() {
+                return new MeanDetector();
+            }
+        }, 2, 4, 8);
+        short[] signal = generateSignal(DetectionPipeline.WINDOW_LENGTH + 5 * HOP, 3);
+
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(10000);
+            OutputStream output = socket.getOutputStream();
+            BufferedReader input = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            // One hop at a time, an odd split checks samples divided between reads
+            for (int position = 0; position < signal.length; position += HOP) {
+                byte[] chunk = toPcm(signal, position, position + HOP);
+                output.write(chunk, 0, 1001);
+                output.flush();
+                output.write(chunk, 1001, chunk.length - 1001);
+                output.flush();
+                String[] response = input.readLine().split(" ");
+                assertEquals(position + HOP, Long.parseLong(response[0]));
+
+                if (position + HOP == signal.length) {
+                    MeanDetector detector = new MeanDetector();
+                    DetectionPipeline pipeline = new DetectionPipeline(detector);
+                    RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+                    buffer.push(signal, Short.MAX_VALUE);
+                    assertEquals(pipeline.process(buffer), Float.parseFloat(response[1]), 1e-5f);
+                }
+            }
+        }
+        assertEquals(signal.length / HOP, server.getWindowsScored());
+        assertEquals(0, server.getWindowsSkipped());
+    }
+
+    /***
+     * Audio which arrives faster than the detector is scored on its latest window only
+     */
+    public void testSkipsWindowsOfLaggingStream() throws Exception {
+        startServer(new Detector.Factory() {
+            @Override
+            public Detector create() {
+                return new StubDetector(0.5f, 100);
+            }
+        }, 1, 1, 8);
+        short[] signal = generateSignal(20 * HOP, 4);
+
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write(toPcm(signal, 0, signal.length));
+            BufferedReader input = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            String line;
+            long lastEnd = 0;
+            while (lastEnd < signal.length) {
+                line = input.readLine();
+                String[] response = line.split(" ");
+                lastEnd = Long.parseLong(response[0]);
+                assertEquals(0.5f, Float.parseFloat(response[1]));
+            }
+        }
+        assertTrue(server.getWindowsScored() < 20);
+        assertEquals(20, server.getWindowsScored() + server.getWindowsSkipped());
+    }
+
+    /***
+     * With one worker every stream gets its turn, whatever the others send
+     */
+    public void testStreamsAreScoredRoundRobin() throws Exception {
+        startServer(new Detector.Factory() {
+            @Override
+            public Detector create() {
+                return new StubDetector(0.25f, 20);
+            }
+        }, 1, 2, 8);
+        short[] signal = generateSignal(10 * HOP, 5);
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                Socket socket = new Socket("127.0.0.1", server.getPort());
+                socket.setSoTimeout(10000);
+                sockets.add(socket);
+            }
+            // First stream floods the server, others send one hop
+            sockets.get(0).getOutputStream().write(toPcm(signal, 0, signal.length));
+            for (int i = 1; i < sockets.size(); i++) {
+                sockets.get(i).getOutputStream().write(toPcm(signal, 0, HOP));
+            }
+            for (int i = 1; i < sockets.size(); i++) {
+                BufferedReader input = new BufferedReader(
+                        new InputStreamReader(sockets.get(i).getInputStream(), StandardCharsets.US_ASCII));
+                assertEquals(HOP + " 0.250000", input.readLine());
+            }
+            // Flooding stream took at most a few turns meanwhile
+            assertTrue(server.getWindowsScored() <= 3 + 3 * 2);
+            assertTrue(server.getMeanBatchSize() >= 1);
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    public void testRejectsStreamsAboveLimit() throws Exception {
+        startServer(new Detector.Factory() {
+            @Override
+            public Detector create() {
+                return new StubDetector();
+            }
+        }, 1, 1, 2);
+        Socket first = new Socket("127.0.0.1", server.getPort());
+        Socket second = new Socket("127.0.0.1", server.getPort());
+        try {
+            for (int i = 0; i < 100 && server.getStreamCount() < 2; i++) {
+                Thread.sleep(10);
+            }
+            try (Socket third = new Socket("127.0.0.1", server.getPort())) {
+                third.setSoTimeout(10000);
+                BufferedReader input = new BufferedReader(
+                        new InputStreamReader(third.getInputStream(), StandardCharsets.US_ASCII));
+                assertEquals("ERROR too many streams", input.readLine());
+                assertNull(input.readLine());
+            }
+            assertEquals(1, server.getStreamsRejected());
+        } finally {
+            first.close();
+            second.close();
+        }
+
+        // Closed streams free their slots
+        for (int i = 0; i < 100 && server.getStreamCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getStreamCount());
+    }
+
+    public void testLoadGeneratorSustainsFewStreams() throws Exception {
+        startServer(new Detector.Factory() {
+            @Override
+            public Detector create() {
+                return new StubDetector(0.5f, 1);
+            }
+        }, 2, 4, 16);
+        LoadGenerator generator = new LoadGenerator(new InetSocketAddress("127.0.0.1", server.getPort()),
+                HOP, LoadGenerator.DEFAULT_MAX_LATENCY_MS);
+        LoadGenerator.Result result = generator.run(4, 1.2);
+        assertEquals(4 * 6, result.expectedWindows);
+        assertTrue(result.toString(), result.sustained);
+        assertTrue(result.p99Micros > 0);
+    }
+}
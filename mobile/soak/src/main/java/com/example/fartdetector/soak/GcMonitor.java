@@ -0,0 +1,81 @@
+package com.example.fartdetector.soak;
+
+import com.example.fartdetector.LatencyHistogram;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/***
+ * Records stop-the-world collections of the JVM from garbage collector notifications.
+ * Concurrent cycles don't stop application threads and collections requested with System.gc,
+ * which the soak runner uses to measure the live heap, aren't counted.
+ */
+class GcMonitor implements AutoCloseable {
+
+    private final LatencyHistogram pauses = new LatencyHistogram();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener listener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            if (info.getGcName().contains("Concurrent") || info.getGcName().contains("Cycles")
+                    || "System.gc()".equals(info.getGcCause())) {
+                return;
+            }
+            pauses.record(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+        }
+    };
+
+    GcMonitor() {
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                NotificationEmitter emitter = (NotificationEmitter) collector;
+                emitter.addNotificationListener(listener, null, null);
+                emitters.add(emitter);
+            }
+        }
+    }
+
+    /***
+     * @return Durations of collection pauses, with millisecond resolution
+     */
+    LatencyHistogram getPauses() {
+        return pauses;
+    }
+
+    /***
+     * Used heap after a full collection
+     * @return Bytes of live objects
+     */
+    static long measureLiveHeap() {
+        // Second collection frees objects kept by finalizers of the first one
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Override
+    public void close() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(listener);
+            } catch (ListenerNotFoundException e) {
+                // Already removed
+            }
+        }
+    }
+}
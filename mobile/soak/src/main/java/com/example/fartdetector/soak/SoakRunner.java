@@ -0,0 +1,419 @@
+package com.example.fartdetector.soak;
+
+import com.example.fartdetector.ActivityGate;
+import com.example.fartdetector.AudioSource;
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.DetectionScheduler;
+import com.example.fartdetector.Detector;
+import com.example.fartdetector.DetectorLoader;
+import com.example.fartdetector.FileAudioSource;
+import com.example.fartdetector.LatencyHistogram;
+import com.example.fartdetector.PipelineMetrics;
+import com.example.fartdetector.RingAudioBuffer;
+import com.example.fartdetector.StubDetector;
+import com.example.fartdetector.SyntheticAudioSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ShortBuffer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Headless end-to-end run of the detection loop of MainActivity: audio source -> RingAudioBuffer -> ActivityGate ->
+ * DetectionScheduler -> DetectionPipeline -> detector -> trigger, for hours if needed, to catch throughput
+ * regressions and slow leaks before a release.
+ * In real-time mode audio arrives at the rate of a microphone and ticks run on the scheduler thread like in the app.
+ * In fast mode audio is read as fast as possible and a tick runs inline after every interval of audio.
+ * Real-time factor is the time spent on the audio and detection threads per second of audio,
+ * heap growth is the difference of the live heap after the warm-up and at the end of the run.
+ */
+public class SoakRunner {
+
+    public static final long DEFAULT_INTERVAL_MS = 200;
+    // About the minimal AudioRecord buffer of 16 kHz mono audio
+    public static final int DEFAULT_CHUNK_LENGTH = 640;
+    public static final float DETECTION_THRESHOLD = 0.8f;
+    public static final double DEFAULT_MAX_REAL_TIME_FACTOR = 0.5;
+    public static final long DEFAULT_MAX_HEAP_GROWTH_MB = 16;
+    // Share of expected ticks which may be missed in a passed run
+    public static final double MAX_MISSED_SHARE = 0.01;
+    // Warm-up isn't measured, at most a tenth of the run
+    public static final double WARMUP_SECONDS = 10;
+
+    private static final short MAX_VALUE = Short.MAX_VALUE;
+
+    /***
+     * Measurements of a run since the warm-up
+     */
+    public static class Result {
+        public final double audioSeconds;
+        public final double wallSeconds;
+        public final double realTimeFactor;
+        public final long ticks;
+        public final long gateSkippedTicks;
+        public final long missedTicks;
+        public final long overrunTicks;
+        public final long bufferOverruns;
+        public final long triggers;
+        public final LatencyHistogram tickLatency;
+        public final long gcPauses;
+        public final double gcPauseMillis;
+        public final long maxGcPauseMillis;
+        // Used heap for progress reports, live heap growth at the end
+        public final long heapBytes;
+        public final boolean finished;
+        public final boolean passed;
+
+        Result(double audioSeconds, double wallSeconds, double realTimeFactor, long ticks, long gateSkippedTicks,
+               long missedTicks, long overrunTicks, long bufferOverruns, long triggers, LatencyHistogram tickLatency,
+               LatencyHistogram gcPauses, long heapBytes, boolean finished, boolean passed) {
+            this.audioSeconds = audioSeconds;
+            this.wallSeconds = wallSeconds;
+            this.realTimeFactor = realTimeFactor;
+            this.ticks = ticks;
+            this.gateSkippedTicks = gateSkippedTicks;
+            this.missedTicks = missedTicks;
+            this.overrunTicks = overrunTicks;
+            this.bufferOverruns = bufferOverruns;
+            this.triggers = triggers;
+            this.tickLatency = tickLatency;
+            this.gcPauses = gcPauses.getCount();
+            this.gcPauseMillis = gcPauses.getMeanMicros() * gcPauses.getCount() / 1000;
+            this.maxGcPauseMillis = gcPauses.getMaxMicros() / 1000;
+            this.heapBytes = heapBytes;
+            this.finished = finished;
+            this.passed = passed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%8.0f s audio in %.0f s: RTF %.4f, ticks %d (gate skipped %d, missed %d, overrun %d),"
+                            + " tick p50 %.1f ms p99 %.1f ms max %.1f ms, buffer overruns %d, triggers %d,"
+                            + " GC %d pauses %.0f ms max %d ms, %s %.1f MB%s",
+                    audioSeconds, wallSeconds, realTimeFactor, ticks, gateSkippedTicks, missedTicks, overrunTicks,
+                    tickLatency.getPercentileMicros(0.5) / 1000.0, tickLatency.getPercentileMicros(0.99) / 1000.0,
+                    tickLatency.getMaxMicros() / 1000.0, bufferOverruns, triggers, gcPauses, gcPauseMillis,
+                    maxGcPauseMillis, finished ? "heap growth" : "heap", heapBytes / (1024.0 * 1024.0),
+                    finished ? (passed ? " - passed" : " - FAILED") : "");
+        }
+    }
+
+    private final Detector detector;
+    private final long intervalMs;
+    private final double maxRealTimeFactor;
+    private final long maxHeapGrowthBytes;
+    private PrintStream progress = null;
+    private double reportSeconds = 60;
+
+    /***
+     * @param detector Detector, StubDetector when the model runtime isn't available
+     * @param intervalMs Minimal time between detection ticks
+     * @param maxRealTimeFactor Maximum real-time factor of a passed run
+     * @param maxHeapGrowthBytes Maximum live heap growth of a passed run
+     */
+    public SoakRunner(Detector detector, long intervalMs, double maxRealTimeFactor, long maxHeapGrowthBytes) {
+        this.detector = detector;
+        this.intervalMs = intervalMs;
+        this.maxRealTimeFactor = maxRealTimeFactor;
+        this.maxHeapGrowthBytes = maxHeapGrowthBytes;
+    }
+
+    /***
+     * Print measurements periodically during a run
+     * @param progress Stream for reports, or null to disable them
+     * @param reportSeconds Seconds of audio between reports
+     */
+    public void setProgress(PrintStream progress, double reportSeconds) {
+        this.progress = progress;
+        this.reportSeconds = reportSeconds;
+    }
+
+    /***
+     * Run the detection loop on the calling thread, which plays the audio thread. The source is restarted
+     * when it ends before the given duration, so a short recording may drive a long run
+     * @param source Audio source at DetectionPipeline.SAMPLE_RATE, pacing itself in real-time mode
+     * @param realTime True to run ticks on a scheduler thread while audio arrives in real time
+     * @param seconds Duration of audio to process
+     * @return Measurements since the warm-up
+     */
+    public Result run(AudioSource source, boolean realTime, double seconds) throws IOException, InterruptedException {
+        if (source.getSampleRate() != DetectionPipeline.SAMPLE_RATE) {
+            throw new IllegalArgumentException("Audio must be sampled at " + DetectionPipeline.SAMPLE_RATE + " Hz");
+        }
+        final RingAudioBuffer buffer = new RingAudioBuffer(DetectionPipeline.WINDOW_LENGTH);
+        final PipelineMetrics metrics = new PipelineMetrics();
+        final DetectionPipeline pipeline = new DetectionPipeline(detector);
+        pipeline.setMetrics(metrics);
+        final ActivityGate gate = new ActivityGate(DetectionPipeline.SAMPLE_RATE);
+        final AtomicLong triggers = new AtomicLong();
+
+        DetectionScheduler.Detection detection = new DetectionScheduler.Detection() {
+            private boolean triggered = false;
+
+            @Override
+            public float compute() {
+                return pipeline.process(buffer);
+            }
+
+            @Override
+            public void publish(float score) {
+                // One spray per event, like the alarm hold of MainActivity
+                if (score > DETECTION_THRESHOLD && !triggered) {
+                    triggers.incrementAndGet();
+                }
+                triggered = score > DETECTION_THRESHOLD;
+            }
+        };
+
+        // Stand-in for the UI thread
+        ExecutorService publishExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Publish Thread");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        DetectionScheduler scheduler = null;
+        if (realTime) {
+            scheduler = new DetectionScheduler(detection, publishExecutor, intervalMs);
+            scheduler.setGate(gate);
+            scheduler.setMetrics(metrics);
+        }
+
+        int sampleRate = DetectionPipeline.SAMPLE_RATE;
+        long totalSamples = (long) (seconds * sampleRate);
+        long warmupSamples = (long) Math.min(WARMUP_SECONDS * sampleRate, totalSamples / 10.0);
+        long reportSamples = Math.max(1, (long) (reportSeconds * sampleRate));
+        long intervalSamples = intervalMs * sampleRate / 1000;
+
+        GcMonitor gcMonitor = new GcMonitor();
+        try {
+            source.start();
+            if (scheduler != null) {
+                scheduler.start();
+            }
+            long pushed = 0;
+            long lastTick = 0;
+            boolean restarted = false;
+            long startSamples = -1;
+            long startTime = 0;
+            long baselineHeap = 0;
+            long nextReport = Long.MAX_VALUE;
+            while (pushed < totalSamples) {
+                ShortBuffer chunk = source.read();
+                if (chunk == null) {
+                    if (restarted) {
+                        // Empty source
+                        break;
+                    }
+                    source.start();
+                    restarted = true;
+                    continue;
+                }
+                if (!chunk.hasRemaining()) {
+                    continue;
+                }
+                restarted = false;
+                if (chunk.remaining() > totalSamples - pushed) {
+                    chunk.limit(chunk.position() + (int) (totalSamples - pushed));
+                }
+
+                long time = System.nanoTime();
+                buffer.push(chunk, MAX_VALUE);
+                time = metrics.record(PipelineMetrics.Stage.PUSH, time);
+                gate.onAudio(chunk, MAX_VALUE);
+                metrics.record(PipelineMetrics.Stage.GATE, time);
+                pushed += chunk.remaining();
+
+                if (scheduler != null) {
+                    scheduler.onAudioAvailable();
+                } else if (pushed - lastTick >= intervalSamples) {
+                    lastTick = pushed;
+                    runTick(detection, gate, metrics);
+                }
+
+                if (startSamples < 0 && pushed >= warmupSamples) {
+                    baselineHeap = GcMonitor.measureLiveHeap();
+                    metrics.reset();
+                    gcMonitor.getPauses().reset();
+                    triggers.set(0);
+                    startSamples = pushed;
+                    startTime = System.nanoTime();
+                    nextReport = pushed + reportSamples;
+                }
+                if (progress != null && pushed >= nextReport) {
+                    nextReport += reportSamples;
+                    progress.println(result(metrics, gcMonitor, triggers.get(), pushed - startSamples,
+                            System.nanoTime() - startTime,
+                            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), false));
+                }
+            }
+            if (scheduler != null) {
+                scheduler.stop();
+            }
+            publishExecutor.shutdown();
+            publishExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            long wallNanos = System.nanoTime() - startTime;
+            // Collections to measure the heap don't count as pauses
+            gcMonitor.close();
+            long heapGrowth = GcMonitor.measureLiveHeap() - baselineHeap;
+            return result(metrics, gcMonitor, triggers.get(), Math.max(0, pushed - startSamples), wallNanos,
+                    heapGrowth, true);
+        } finally {
+            if (scheduler != null) {
+                scheduler.stop();
+            }
+            publishExecutor.shutdownNow();
+            gcMonitor.close();
+            source.close();
+        }
+    }
+
+    /***
+     * Tick of fast mode, what DetectionScheduler does on its thread
+     */
+    private void runTick(DetectionScheduler.Detection detection, ActivityGate gate, PipelineMetrics metrics) {
+        if (!gate.isOpen()) {
+            metrics.increment(PipelineMetrics.Counter.GATE_SKIPPED_TICKS);
+            return;
+        }
+        long startTime = System.nanoTime();
+        float score = detection.compute();
+        long duration = metrics.record(PipelineMetrics.Stage.TICK, startTime) - startTime;
+        metrics.increment(PipelineMetrics.Counter.TICKS);
+        if (duration > TimeUnit.MILLISECONDS.toNanos(intervalMs)) {
+            metrics.increment(PipelineMetrics.Counter.OVERRUN_TICKS);
+        }
+        detection.publish(score);
+    }
+
+    private Result result(PipelineMetrics metrics, GcMonitor gcMonitor, long triggers, long samples, long wallNanos,
+                          long heapBytes, boolean finished) {
+        double audioSeconds = (double) samples / DetectionPipeline.SAMPLE_RATE;
+        double busyMicros = 0;
+        for (PipelineMetrics.Stage stage : new PipelineMetrics.Stage[]{
+                PipelineMetrics.Stage.PUSH, PipelineMetrics.Stage.GATE, PipelineMetrics.Stage.TICK}) {
+            LatencyHistogram histogram = metrics.getHistogram(stage);
+            busyMicros += histogram.getMeanMicros() * histogram.getCount();
+        }
+        double realTimeFactor = audioSeconds > 0 ? busyMicros / 1e6 / audioSeconds : 0;
+
+        long ticks = metrics.getCount(PipelineMetrics.Counter.TICKS);
+        long gateSkipped = metrics.getCount(PipelineMetrics.Counter.GATE_SKIPPED_TICKS);
+        long expectedTicks = (long) (audioSeconds * 1000 / intervalMs);
+        long missed = Math.max(0, expectedTicks - ticks - gateSkipped);
+        boolean passed = realTimeFactor <= maxRealTimeFactor && heapBytes <= maxHeapGrowthBytes
+                && missed <= MAX_MISSED_SHARE * expectedTicks;
+        return new Result(audioSeconds, wallNanos / 1e9, realTimeFactor, ticks, gateSkipped, missed,
+                metrics.getCount(PipelineMetrics.Counter.OVERRUN_TICKS),
+                metrics.getCount(PipelineMetrics.Counter.BUFFER_OVERRUNS), triggers,
+                metrics.getHistogram(PipelineMetrics.Stage.TICK), gcMonitor.getPauses(), heapBytes, finished,
+                finished && passed);
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: SoakRunner [--detector <class> [--model <path>] | --stub-latency-ms <ms>]"
+                + " [--wav <file>] [--seconds <s>] [--real-time] [--interval-ms <ms>] [--chunk <samples>]"
+                + " [--report-seconds <s>] [--max-rtf <factor>] [--max-heap-growth-mb <mb>]");
+        System.err.println("  --detector            Detector on the classpath, StubDetector by default");
+        System.err.println("  --stub-latency-ms     Inference time of the StubDetector, 0 by default");
+        System.err.println("  --wav                 Mono 16 kHz 16-bit recording played in a loop,"
+                + " synthetic tone with noise by default");
+        System.err.println("  --seconds             Seconds of audio, 600 by default");
+        System.err.println("  --real-time           Deliver audio at the rate of a microphone,"
+                + " by default as fast as possible");
+        System.err.println("  --interval-ms         Minimal time between ticks, " + DEFAULT_INTERVAL_MS + " by default");
+        System.err.println("  --max-rtf             Real-time factor limit, " + DEFAULT_MAX_REAL_TIME_FACTOR
+                + " by default");
+        System.err.println("  --max-heap-growth-mb  Live heap growth limit, " + DEFAULT_MAX_HEAP_GROWTH_MB
+                + " by default");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String detectorClass = null;
+        String modelPath = null;
+        long stubLatencyMs = 0;
+        File wav = null;
+        double seconds = 600;
+        boolean realTime = false;
+        long intervalMs = DEFAULT_INTERVAL_MS;
+        int chunkLength = DEFAULT_CHUNK_LENGTH;
+        double reportSeconds = 60;
+        double maxRealTimeFactor = DEFAULT_MAX_REAL_TIME_FACTOR;
+        long maxHeapGrowthMb = DEFAULT_MAX_HEAP_GROWTH_MB;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--detector":
+                        detectorClass = args[++i];
+                        break;
+                    case "--model":
+                        modelPath = args[++i];
+                        break;
+                    case "--stub-latency-ms":
+                        stubLatencyMs = Long.parseLong(args[++i]);
+                        break;
+                    case "--wav":
+                        wav = new File(args[++i]);
+                        break;
+                    case "--seconds":
+                        seconds = Double.parseDouble(args[++i]);
+                        break;
+                    case "--real-time":
+                        realTime = true;
+                        break;
+                    case "--interval-ms":
+                        intervalMs = Long.parseLong(args[++i]);
+                        break;
+                    case "--chunk":
+                        chunkLength = Integer.parseInt(args[++i]);
+                        break;
+                    case "--report-seconds":
+                        reportSeconds = Double.parseDouble(args[++i]);
+                        break;
+                    case "--max-rtf":
+                        maxRealTimeFactor = Double.parseDouble(args[++i]);
+                        break;
+                    case "--max-heap-growth-mb":
+                        maxHeapGrowthMb = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        printUsage();
+                        System.exit(2);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            System.exit(2);
+        }
+
+        Detector detector = detectorClass != null
+                ? DetectorLoader.reflectionFactory(detectorClass, modelPath).create()
+                : new StubDetector(0, stubLatencyMs);
+        AudioSource source;
+        if (wav != null) {
+            source = new FileAudioSource(wav, chunkLength, realTime);
+        } else {
+            SyntheticAudioSource synthetic = new SyntheticAudioSource(DetectionPipeline.SAMPLE_RATE, chunkLength,
+                    300, 0.1, 0.02, 1);
+            synthetic.setRealTime(realTime);
+            source = synthetic;
+        }
+
+        SoakRunner runner = new SoakRunner(detector, intervalMs, maxRealTimeFactor, maxHeapGrowthMb * 1024 * 1024);
+        runner.setProgress(System.out, reportSeconds);
+        Result result = runner.run(source, realTime, seconds);
+        System.out.println(result);
+        System.exit(result.passed ? 0 : 1);
+    }
+}
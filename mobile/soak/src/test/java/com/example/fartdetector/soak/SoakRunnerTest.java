@@ -0,0 +1,87 @@
+package com.example.fartdetector.soak;
+
+import com.example.fartdetector.DetectionPipeline;
+import com.example.fartdetector.FileAudioSource;
+import com.example.fartdetector.StubDetector;
+import com.example.fartdetector.SyntheticAudioSource;
+import com.example.fartdetector.WavFile;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Random;
+
+public class SoakRunnerTest extends TestCase {
+
+    private static final int SAMPLE_RATE = DetectionPipeline.SAMPLE_RATE;
+
+    private static SyntheticAudioSource synthetic(boolean realTime) {
+        SyntheticAudioSource source = new SyntheticAudioSource(SAMPLE_RATE, SoakRunner.DEFAULT_CHUNK_LENGTH,
+                300, 0.1, 0.02, 1);
+        source.setRealTime(realTime);
+        return source;
+    }
+
+    public void testFastRunScoresEveryInterval() throws Exception {
+        StubDetector detector = new StubDetector(0.9f, 0);
+        SoakRunner runner = new SoakRunner(detector, SoakRunner.DEFAULT_INTERVAL_MS, 1, 64L * 1024 * 1024);
+        SoakRunner.Result result = runner.run(synthetic(false), false, 60);
+
+        assertEquals(result.toString(), 54, result.audioSeconds, 0.1);
+        // Tone is loud enough to keep the gate open
+        assertEquals(result.toString(), 0, result.gateSkippedTicks);
+        assertEquals(result.toString(), 0, result.missedTicks);
+        assertEquals(result.toString(), 54 * 1000 / SoakRunner.DEFAULT_INTERVAL_MS, result.ticks, 1);
+        assertEquals(result.ticks, result.tickLatency.getCount());
+        // Score stays above the threshold, the only event starts during the warm-up
+        assertEquals(0, result.triggers);
+        assertTrue(result.toString(), result.realTimeFactor > 0 && result.realTimeFactor < 1);
+        assertTrue(result.toString(), result.finished);
+        assertTrue(result.toString(), result.passed);
+    }
+
+    public void testRealTimeRunKeepsUp() throws Exception {
+        SoakRunner runner = new SoakRunner(new StubDetector(0, 20), SoakRunner.DEFAULT_INTERVAL_MS, 1,
+                64L * 1024 * 1024);
+        SoakRunner.Result result = runner.run(synthetic(true), true, 4);
+
+        assertEquals(result.toString(), 3.6, result.audioSeconds, 0.1);
+        assertEquals(result.toString(), 3.6, result.wallSeconds, 0.5);
+        assertTrue(result.toString(), result.ticks >= 15);
+        assertTrue(result.toString(), result.missedTicks <= 1);
+        assertEquals(result.toString(), 0, result.triggers);
+        // Stub inference takes 20 ms of every 200
+        assertTrue(result.toString(), result.realTimeFactor > 0.05);
+    }
+
+    public void testSlowDetectorMissesTicksAndFails() throws Exception {
+        SoakRunner runner = new SoakRunner(new StubDetector(0, 300), SoakRunner.DEFAULT_INTERVAL_MS, 0.5,
+                64L * 1024 * 1024);
+        SoakRunner.Result result = runner.run(synthetic(true), true, 4);
+
+        assertTrue(result.toString(), result.missedTicks > 3);
+        assertTrue(result.toString(), result.overrunTicks > 3);
+        assertTrue(result.toString(), result.realTimeFactor > 0.8);
+        assertFalse(result.toString(), result.passed);
+    }
+
+    public void testShortRecordingIsLooped() throws Exception {
+        short[] audio = new short[SAMPLE_RATE];
+        Random random = new Random(2);
+        for (int i = 0; i < audio.length; i++) {
+            audio[i] = (short) (3000 * random.nextGaussian());
+        }
+        File file = File.createTempFile("soak", ".wav");
+        try {
+            WavFile.write(file, SAMPLE_RATE, audio);
+            SoakRunner runner = new SoakRunner(new StubDetector(), SoakRunner.DEFAULT_INTERVAL_MS, 1,
+                    64L * 1024 * 1024);
+            SoakRunner.Result result = runner.run(new FileAudioSource(file, SoakRunner.DEFAULT_CHUNK_LENGTH, false),
+                    false, 10);
+            assertEquals(result.toString(), 9, result.audioSeconds, 0.1);
+            assertEquals(result.toString(), 0, result.missedTicks);
+        } finally {
+            file.delete();
+        }
+    }
+}
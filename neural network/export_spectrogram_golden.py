@@ -0,0 +1,70 @@
+import os
+
+import librosa
+import numpy as np
+
+from spectrogram_utils import generate_spectrogram
+
+GOLDEN_PATH = os.path.join(
+    os.path.dirname(os.path.abspath(__file__)),
+    "..", "mobile", "core", "src", "test", "resources", "spectrogram_golden.txt",
+)
+
+
+def generate_test_signal(
+        length_sec: int = 2,
+        sample_rate: int = 16000,
+        seed: int = 0,
+) -> np.ndarray:
+    """
+    Generates a deterministic test signal: two tones with white noise.
+
+    Parameters
+    ----------
+    length_sec : int
+        Signal length in seconds
+
+    sample_rate : int
+        Sample rate
+
+    seed : int
+        Seed of the noise generator
+
+    Returns
+    -------
+    np.ndarray
+        Test signal in float32
+
+    """
+    t = np.arange(length_sec * sample_rate) / sample_rate
+    rng = np.random.default_rng(seed)
+    signal = 0.3 * np.sin(2 * np.pi * 440 * t) + 0.1 * np.sin(2 * np.pi * 5100 * t) \
+        + 0.05 * rng.standard_normal(len(t))
+    return signal.astype(np.float32)
+
+
+def export_golden(path: str = GOLDEN_PATH) -> None:
+    """
+    Saves a test signal with its mel spectrogram and normalized spectrogram used by the network,
+    so the mobile application can check its features against librosa.
+    File has three lines of space separated values: signal, mel power [n_mels x frames] and
+    normalized spectrogram [n_mels x frames], both flattened row by row.
+
+    Parameters
+    ----------
+    path : str
+        Output file path
+
+    """
+    signal = generate_test_signal()
+    mel_spect = librosa.feature.melspectrogram(y=signal, sr=16000, n_fft=1024, hop_length=128)
+    normalized_mel_spec = generate_spectrogram(signal)
+
+    os.makedirs(os.path.dirname(path), exist_ok=True)
+    with open(path, "w") as golden_file:
+        for values in (signal, mel_spect, normalized_mel_spec):
+            golden_file.write(" ".join("%.9g" % value for value in np.ravel(values)) + "\n")
+
+
+if __name__ == "__main__":
+    export_golden()
@@ -0,0 +1,161 @@
+"""
+Dependency-free port of export_spectrogram_golden.py for machines without numpy and librosa.
+
+Follows librosa 0.10 defaults used by spectrogram_utils.generate_spectrogram: periodic Hann window,
+centered frames with zero padding, power spectrum, Slaney mel scale with Slaney normalization,
+power_to_db with ref=np.max, amin=1e-10, top_db=80. Computed in float64, the noise comes from
+the Python random module, so the signal differs from export_spectrogram_golden.py, but the file format
+is the same and the signal is stored in it. Prefer export_spectrogram_golden.py when librosa is available.
+"""
+import cmath
+import math
+import os
+import random
+import struct
+
+# Same file as export_spectrogram_golden.GOLDEN_PATH, that module needs librosa to be imported
+GOLDEN_PATH = os.path.join(
+    os.path.dirname(os.path.abspath(__file__)),
+    "..", "mobile", "core", "src", "test", "resources", "spectrogram_golden.txt",
+)
+
+SAMPLE_RATE = 16000
+N_FFT = 1024
+HOP_LENGTH = 128
+N_MELS = 128
+MEAN = -38.598
+STD = 12.22
+
+
+def to_float32(value: float) -> float:
+    return struct.unpack("f", struct.pack("f", value))[0]
+
+
+def generate_test_signal(length_sec: int = 2, sample_rate: int = SAMPLE_RATE, seed: int = 0) -> list:
+    """
+    Two tones with white noise, like export_spectrogram_golden.generate_test_signal, in float32
+    """
+    rng = random.Random(seed)
+    signal = []
+    for i in range(length_sec * sample_rate):
+        t = i / sample_rate
+        value = 0.3 * math.sin(2 * math.pi * 440 * t) + 0.1 * math.sin(2 * math.pi * 5100 * t) \
+            + 0.05 * rng.gauss(0, 1)
+        signal.append(to_float32(value))
+    return signal
+
+
+def fft(values: list) -> list:
+    """
+    Recursive radix-2 FFT of a complex sequence
+    """
+    n = len(values)
+    if n == 1:
+        return list(values)
+    even = fft(values[0::2])
+    odd = fft(values[1::2])
+    result = [0j] * n
+    for k in range(n // 2):
+        twiddle = cmath.exp(-2j * math.pi * k / n) * odd[k]
+        result[k] = even[k] + twiddle
+        result[k + n // 2] = even[k] - twiddle
+    return result
+
+
+def hz_to_mel(frequency: float) -> float:
+    f_sp = 200.0 / 3
+    min_log_hz = 1000.0
+    min_log_mel = min_log_hz / f_sp
+    logstep = math.log(6.4) / 27.0
+    if frequency >= min_log_hz:
+        return min_log_mel + math.log(frequency / min_log_hz) / logstep
+    return frequency / f_sp
+
+
+def mel_to_hz(mel: float) -> float:
+    f_sp = 200.0 / 3
+    min_log_hz = 1000.0
+    min_log_mel = min_log_hz / f_sp
+    logstep = math.log(6.4) / 27.0
+    if mel >= min_log_mel:
+        return min_log_hz * math.exp(logstep * (mel - min_log_mel))
+    return f_sp * mel
+
+
+def mel_filters() -> list:
+    """
+    librosa.filters.mel(sr, n_fft, n_mels) with fmin=0, fmax=sr/2, htk=False, norm="slaney"
+    """
+    fft_freqs = [k * SAMPLE_RATE / N_FFT for k in range(N_FFT // 2 + 1)]
+    min_mel = hz_to_mel(0.0)
+    max_mel = hz_to_mel(SAMPLE_RATE / 2)
+    mel_f = [mel_to_hz(min_mel + (max_mel - min_mel) * i / (N_MELS + 1)) for i in range(N_MELS + 2)]
+    weights = []
+    for i in range(N_MELS):
+        lower_width = mel_f[i + 1] - mel_f[i]
+        upper_width = mel_f[i + 2] - mel_f[i + 1]
+        enorm = 2.0 / (mel_f[i + 2] - mel_f[i])
+        row = []
+        for frequency in fft_freqs:
+            lower = (frequency - mel_f[i]) / lower_width
+            upper = (mel_f[i + 2] - frequency) / upper_width
+            row.append(max(0.0, min(lower, upper)) * enorm)
+        weights.append(row)
+    return weights
+
+
+def mel_spectrogram(signal: list) -> list:
+    """
+    librosa.feature.melspectrogram(y=signal, sr=16000, n_fft=1024, hop_length=128), [n_mels][frames]
+    """
+    window = [0.5 - 0.5 * math.cos(2 * math.pi * n / N_FFT) for n in range(N_FFT)]
+    padded = [0.0] * (N_FFT // 2) + signal + [0.0] * (N_FFT // 2)
+    frames = 1 + (len(padded) - N_FFT) // HOP_LENGTH
+    weights = mel_filters()
+    # Only the non-zero range of every filter is summed
+    ranges = []
+    for row in weights:
+        nonzero = [k for k, weight in enumerate(row) if weight > 0]
+        ranges.append((nonzero[0], nonzero[-1] + 1) if nonzero else (0, 0))
+    result = [[0.0] * frames for _ in range(N_MELS)]
+    for frame in range(frames):
+        start = frame * HOP_LENGTH
+        spectrum = fft([padded[start + n] * window[n] for n in range(N_FFT)])
+        power = [abs(spectrum[k]) ** 2 for k in range(N_FFT // 2 + 1)]
+        for i in range(N_MELS):
+            row = weights[i]
+            first, last = ranges[i]
+            result[i][frame] = sum(row[k] * power[k] for k in range(first, last))
+    return result
+
+
+def normalized_spectrogram(mel: list) -> list:
+    """
+    spectrogram_utils.generate_spectrogram from the mel power: power_to_db(ref=np.max), then (x - mean) / std
+    """
+    amin = 1e-10
+    top_db = 80.0
+    reference = max(max(row) for row in mel)
+    ref_db = 10 * math.log10(max(amin, reference))
+    db = [[10 * math.log10(max(amin, value)) - ref_db for value in row] for row in mel]
+    floor = max(max(row) for row in db) - top_db
+    return [[(max(value, floor) - MEAN) / STD for value in row] for row in db]
+
+
+def export_golden(path: str = GOLDEN_PATH) -> None:
+    """
+    Writes the golden file in the format of export_spectrogram_golden.export_golden
+    """
+    signal = generate_test_signal()
+    mel = mel_spectrogram(signal)
+    normalized = normalized_spectrogram(mel)
+
+    os.makedirs(os.path.dirname(path), exist_ok=True)
+    with open(path, "w") as golden_file:
+        golden_file.write(" ".join("%.9g" % value for value in signal) + "\n")
+        for values in (mel, normalized):
+            golden_file.write(" ".join("%.9g" % value for row in values for value in row) + "\n")
+
+
+if __name__ == "__main__":
+    export_golden()